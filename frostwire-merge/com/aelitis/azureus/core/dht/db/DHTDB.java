@@ -22,6 +22,7 @@
 
 package com.aelitis.azureus.core.dht.db;
 
+import java.io.File;
 import java.util.Iterator;
 import java.util.List;
 
@@ -45,6 +46,16 @@ DHTDB
 	setControl(
 		DHTControl		control );
 	
+		/**
+		 * Keep values received from other contacts in the given file rather than on the heap,
+		 * reloading any that are still live from a previous run. Call after setControl
+		 * @param file
+		 */
+	
+	public void
+	setValueStore(
+		File			file );
+	
 		/**
 		 * Local store
 		 * @param key
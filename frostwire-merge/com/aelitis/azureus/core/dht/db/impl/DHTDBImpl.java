@@ -23,6 +23,7 @@
 package com.aelitis.azureus.core.dht.db.impl;
 
 import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 
@@ -112,6 +113,12 @@ DHTDBImpl
 	
 	private static final long	MAX_TOTAL_SIZE	= 4*1024*1024;
 	
+		// with a value store MAX_TOTAL_SIZE applies to the values still on the heap and this to all of them
+	
+	private static final long	MAX_STORE_TOTAL_SIZE	= 32*1024*1024;
+	
+	private DHTDBValueStore	value_store;
+	
 	private int		total_size;
 	private int		total_values;
 	private int		total_keys;
@@ -334,6 +341,119 @@ DHTDBImpl
 		}
 	}
 	
+	public void
+	setValueStore(
+		File		file )
+	{
+		try{
+			this_mon.enter();
+			
+			if ( value_store != null ){
+				
+				Debug.out( "Value store already set" );
+				
+				return;
+			}
+			
+			long	start = SystemTime.getMonotonousTime();
+			
+			DHTDBValueStore	store = new DHTDBValueStore( file );
+			
+			List<Object[]>	loaded = store.load( control.getTransport());
+			
+			value_store = store;
+			
+			long	now = SystemTime.getCurrentTime();
+			
+			int	restored = 0;
+			
+			for ( Object[] entry: loaded ){
+				
+				HashWrapper		key		= (HashWrapper)entry[0];
+				DHTDBValueImpl	value	= (DHTDBValueImpl)entry[1];
+				
+				if ( hasExpired( value, now )){
+					
+					continue;
+				}
+				
+				DHTDBMapping	mapping = stored_values.get( key );
+				
+				if ( mapping == null ){
+					
+					mapping = new DHTDBMapping( this, key, false );
+					
+					stored_values.put( key, mapping );
+					
+					addToPrefixMap( mapping );
+				}
+				
+				mapping.add( value );
+				
+				restored++;
+			}
+			
+				// drop the expired and removed records now rather than carrying them
+			
+			compactValueStore();
+			
+			logger.log( 
+				"Value store " + file + ": restored " + restored + " of " + loaded.size() + " values in " + 
+				( SystemTime.getMonotonousTime() - start ) + "ms, " + store.getFileSize() + " bytes" );
+			
+		}catch( Throwable e ){
+			
+			Debug.out( "Failed to open DHT value store " + file, e );
+			
+		}finally{
+			
+			this_mon.exit();
+		}
+	}
+	
+	protected void
+	valueStored(
+		HashWrapper			key,
+		DHTDBValueImpl		value )
+	{
+		if ( value_store != null && !value.isLocal()){
+			
+			value_store.add( key, value );
+		}
+	}
+	
+	protected void
+	valueRemoved(
+		DHTDBValueImpl		value )
+	{
+		if ( value_store != null ){
+			
+			value_store.remove( value );
+		}
+	}
+	
+	protected void
+	compactValueStore()
+	{
+		List<HashWrapper>		keys 	= new ArrayList<HashWrapper>( total_values );
+		List<DHTDBValueImpl>	values	= new ArrayList<DHTDBValueImpl>( total_values );
+		
+		for ( DHTDBMapping mapping: stored_values.values()){
+			
+			HashWrapper	key = mapping.getKey();
+			
+			Iterator<DHTDBValueImpl>	it = mapping.getValues();
+			
+			while( it.hasNext()){
+				
+				keys.add( key );
+				values.add( it.next());
+			}
+		}
+		
+		value_store.compact( keys, values );
+	}
+	
 	public DHTDBValue
 	store(
 		HashWrapper		key,
@@ -440,7 +560,12 @@ DHTDBImpl
 			// allow 4 bytes per value entry to deal with overhead (prolly should be more but we're really
 			// trying to deal with 0-length value stores)
 		
-		if ( total_size + ( total_values*4 ) > MAX_TOTAL_SIZE ){
+		DHTDBValueStore	store = value_store;
+		
+		long	heap_size = store==null?total_size:( total_size - store.getSpilledSize());
+		
+		if ( 	heap_size + ( total_values*4 ) > MAX_TOTAL_SIZE ||
+				( store != null && total_size > MAX_STORE_TOTAL_SIZE )){
 			
 			DHTLog.log( "Not storing " + DHTLog.getString2(key.getHash()) + " as maximum storage limit exceeded" );
 
@@ -1450,42 +1575,7 @@ DHTDBImpl
 						
 						if ( !value.isLocal()){
 							
-								// distance 1 = initial store location. We use the initial creation date
-								// when deciding whether or not to remove this, plus a bit, as the 
-								// original publisher is supposed to republish these
-							
-							int life_hours = value.getLifeTimeHours();
-							
-							int	max_age;
-							
-							if ( life_hours < 1 ){
-								
-								max_age = original_republish_interval;
-								
-							}else{
-								
-								max_age = life_hours * 60*60*1000;
-								
-								if ( max_age > MAX_VALUE_LIFETIME ){
-									
-									max_age = MAX_VALUE_LIFETIME;
-								}
-							}
-							
-							int	grace;
-							
-							if (( value.getFlags() & DHT.FLAG_PUT_AND_FORGET ) != 0 ){
-								
-								grace = 0;
-								
-							}else{
-								
-									// scale the grace period for short lifetimes
-								
-								grace = Math.min( ORIGINAL_REPUBLISH_INTERVAL_GRACE, max_age/4 );
-							}
-							
-							if ( now > value.getCreationTime() + max_age + grace ){
+							if ( hasExpired( value, now )){
 								
 								DHTLog.log( "removing cache entry (" + value.getString() + ")" );
 								
@@ -1495,12 +1585,60 @@ DHTDBImpl
 					}
 				}
 			}
+			
+			if ( value_store != null && value_store.needsCompaction()){
+				
+				compactValueStore();
+			}
 		}finally{
 			
 			this_mon.exit();
 		}
 	}
 	
+	protected boolean
+	hasExpired(
+		DHTDBValueImpl		value,
+		long				now )
+	{
+			// distance 1 = initial store location. We use the initial creation date
+			// when deciding whether or not to remove this, plus a bit, as the 
+			// original publisher is supposed to republish these
+		
+		int life_hours = value.getLifeTimeHours();
+		
+		int	max_age;
+		
+		if ( life_hours < 1 ){
+			
+			max_age = original_republish_interval;
+			
+		}else{
+			
+			max_age = life_hours * 60*60*1000;
+			
+			if ( max_age > MAX_VALUE_LIFETIME ){
+				
+				max_age = MAX_VALUE_LIFETIME;
+			}
+		}
+		
+		int	grace;
+		
+		if (( value.getFlags() & DHT.FLAG_PUT_AND_FORGET ) != 0 ){
+			
+			grace = 0;
+			
+		}else{
+			
+				// scale the grace period for short lifetimes
+			
+			grace = Math.min( ORIGINAL_REPUBLISH_INTERVAL_GRACE, max_age/4 );
+		}
+		
+		return( now > value.getCreationTime() + max_age + grace );
+	}
+	
 	protected void
 	addToPrefixMap(
 		DHTDBMapping		mapping )
@@ -3682,7 +3820,7 @@ DHTDBImpl
 			DHTTransportValue	value )
 		{
 			total_values++;
-			total_size += value.getValue().length;
+			total_size += ((DHTDBValueImpl)value).getValueLength();
 			
 			reportSizes( "valueAdded");
 			
@@ -3707,7 +3845,7 @@ DHTDBImpl
 			DHTTransportValue	old_value,
 			DHTTransportValue	new_value )
 		{
-			total_size += (new_value.getValue().length - old_value.getValue().length );
+			total_size += (((DHTDBValueImpl)new_value).getValueLength() - ((DHTDBValueImpl)old_value).getValueLength());
 			
 			reportSizes("valueUpdated");
 			
@@ -3720,7 +3858,7 @@ DHTDBImpl
 			DHTTransportValue	value )
 		{
 			total_values--;
-			total_size -= value.getValue().length;
+			total_size -= ((DHTDBValueImpl)value).getValueLength();
 		
 			reportSizes("valueDeleted");
 			
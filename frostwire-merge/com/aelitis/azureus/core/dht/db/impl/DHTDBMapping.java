@@ -143,9 +143,9 @@ DHTDBMapping
 				
 				changed.add( value );
 				
-				direct_data_size -= value.getValue().length;
+				direct_data_size -= value.getValueLength();
 
-				local_size	-= value.getValue().length;
+				local_size	-= value.getValueLength();
 				
 				it.remove();
 				
@@ -424,7 +424,7 @@ DHTDBMapping
 								
 					// zero length values imply deleted values so don't return them
 				
-				if ( entry_value.getValue().length > 0 ){
+				if ( entry_value.getValueLength() > 0 ){
 					
 					res.add( entry_value );
 				
@@ -614,11 +614,11 @@ DHTDBMapping
 				System.out.println( "addDirect:" + old.getString() + "/" + value.getString());
 			}
 			
-			direct_data_size -= old.getValue().length;
+			direct_data_size -= old.getValueLength();
 			
 			if ( old.isLocal()){
 				
-				local_size -= old.getValue().length;
+				local_size -= old.getValueLength();
 			}
 		}else{
 			
@@ -627,11 +627,11 @@ DHTDBMapping
 			}
 		}
 		
-		direct_data_size += value.getValue().length;
+		direct_data_size += value.getValueLength();
 		
 		if ( value.isLocal()){
 			
-			local_size += value.getValue().length;
+			local_size += value.getValueLength();
 		}
 		
 		if ( old == null ){
@@ -657,11 +657,11 @@ DHTDBMapping
 		
 		if ( old != null ){
 			
-			direct_data_size -= old.getValue().length;
+			direct_data_size -= old.getValueLength();
 			
 			if ( old.isLocal()){
 				
-				local_size -= old.getValue().length;
+				local_size -= old.getValueLength();
 			}
 			
 			informDeleted( old );
@@ -733,11 +733,11 @@ DHTDBMapping
 				System.out.println( "addIndirect:" + old.getString() + "/" + value.getString());
 			}
 		
-			indirect_data_size -= old.getValue().length;
+			indirect_data_size -= old.getValueLength();
 			
 			if ( old.isLocal()){
 				
-				local_size -= old.getValue().length;
+				local_size -= old.getValueLength();
 			}
 		}else{	
 			if ( TRACE_ADDS ){
@@ -745,11 +745,11 @@ DHTDBMapping
 			}
 		}		
 		
-		indirect_data_size += value.getValue().length;
+		indirect_data_size += value.getValueLength();
 		
 		if ( value.isLocal()){
 			
-			local_size += value.getValue().length;
+			local_size += value.getValueLength();
 		}
 		
 		if ( old == null ){
@@ -770,11 +770,11 @@ DHTDBMapping
 		
 		if ( old != null ){
 			
-			indirect_data_size -= old.getValue().length;
+			indirect_data_size -= old.getValueLength();
 			
 			if ( old.isLocal()){
 				
-				local_size -= old.getValue().length;
+				local_size -= old.getValueLength();
 			}
 			
 			informDeleted( old );
@@ -799,6 +799,17 @@ DHTDBMapping
 				}
 				
 				db.getAdapter().keyDeleted( adapter_key );
+				
+			}else{
+				
+					// values aren't individually removed here, make sure the value store drops them
+				
+				Iterator<DHTDBValueImpl>	it = getValues();
+				
+				while( it.hasNext()){
+					
+					db.valueRemoved( it.next());
+				}
 			}
 			
 		}catch( Throwable e ){
@@ -820,6 +831,8 @@ DHTDBMapping
 			removeFromBloom( value );
 		}
 		
+		db.valueRemoved( value );
+		
 		try{
 			if ( adapter_key != null ){
 				
@@ -846,6 +859,8 @@ DHTDBMapping
 			addToBloom( value );
 		}
 
+		db.valueStored( key, value );
+		
 		try{
 			if ( adapter_key != null ){
 				
@@ -877,6 +892,13 @@ DHTDBMapping
 			addToBloom( new_value );
 		}
 		
+		if ( old_value != new_value ){
+			
+			db.valueRemoved( old_value );
+		
+			db.valueStored( key, new_value );
+		}
+		
 		try{
 			if ( adapter_key != null ){
 				
@@ -1171,16 +1193,16 @@ DHTDBMapping
 				
 				if( value.isLocal()){
 					
-					local_size -= value.getValue().length;
+					local_size -= value.getValueLength();
 				}
 				
 				if (  map == indirect_originator_value_map ){
 				
-					indirect_data_size -= value.getValue().length;
+					indirect_data_size -= value.getValueLength();
 					
 				}else{
 					
-					direct_data_size -= value.getValue().length;
+					direct_data_size -= value.getValueLength();
 				}
 				
 					// remove before informing
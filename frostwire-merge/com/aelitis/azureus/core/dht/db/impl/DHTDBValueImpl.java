@@ -42,7 +42,8 @@ DHTDBValueImpl
 	private static final byte[] ZERO_LENGTH_BYTE_ARRAY = {};
 	
 	private long				creation_time;
-	private byte[]				value;
+	private volatile byte[]		value;			// null when only held in the value store
+	private int					value_length;
 	private DHTTransportContact	originator;
 	private DHTTransportContact	sender;
 	private boolean				local;
@@ -53,6 +54,12 @@ DHTDBValueImpl
 	
 	private long				store_time;
 	
+		// volatile as getValue reads these outside the store's monitor. The store always sets
+		// value_store before nulling value and sets value before nulling value_store
+	
+	private volatile DHTDBValueStore	value_store;
+	private volatile long				value_store_offset;
+	
 		/**
 		 * constructor for the originator of values only
 		 * @param _creation_time
@@ -92,6 +99,8 @@ DHTDBValueImpl
 			value = ZERO_LENGTH_BYTE_ARRAY;
 		}
 		
+		value_length = value==null?0:value.length;
+		
 		reset();
 	}
 
@@ -166,10 +175,77 @@ DHTDBValueImpl
 		
 	public byte[]
 	getValue()
+	{
+		byte[]	v = value;
+		
+		if ( v == null ){
+			
+			DHTDBValueStore	store = value_store;
+			
+			if ( store != null ){
+			
+				v = store.read( this );
+			}
+			
+			if ( v == null ){
+				
+					// removed from the store or compacted back onto the heap since value was read
+				
+				v = value;
+			}
+		}
+		
+		return( v );
+	}
+	
+	protected int
+	getValueLength()
+	{
+		return( value_length );
+	}
+	
+		// value store support, these are only called by the store under its monitor
+	
+	protected byte[]
+	getInlineValue()
 	{
 		return( value );
 	}
 	
+	protected DHTDBValueStore
+	getValueStore()
+	{
+		return( value_store );
+	}
+	
+	protected long
+	getValueStoreOffset()
+	{
+		return( value_store_offset );
+	}
+	
+	protected void
+	setValueStoreLocation(
+		DHTDBValueStore		_store,
+		long				_offset,
+		int					_length,
+		byte[]				_inline_value )
+	{
+		value_store			= _store;
+		value_store_offset	= _offset;
+		value_length		= _length;
+		value				= _inline_value;
+	}
+	
+	protected void
+	clearValueStoreLocation(
+		byte[]		_value )
+	{
+		value				= _value;
+		value_store			= null;
+		value_store_offset	= 0;
+	}
+	
 	public int
 	getVersion()
 	{
@@ -246,7 +322,8 @@ DHTDBValueImpl
 	{
 		DHTDBValueImpl	res = new DHTDBValueImpl( originator, this, local );
 		
-		res.value = ZERO_LENGTH_BYTE_ARRAY;	// delete -> 0 length value
+		res.value 			= ZERO_LENGTH_BYTE_ARRAY;	// delete -> 0 length value
+		res.value_length	= 0;
 		
 		res.setCreationTime();
 		
@@ -260,6 +337,8 @@ DHTDBValueImpl
 	{
 		long	now = SystemTime.getCurrentTime();
 		
+		byte[]	value = getValue();
+		
 		return( DHTLog.getString( value ) + " - " + new String(value) + "{v=" + version + ",f=" + 
 				Integer.toHexString(flags) + ",l=" + life_hours + ",r=" + Integer.toHexString( rep_control ) + ",ca=" + (now - creation_time ) + ",sa=" + (now-store_time)+
 				",se=" + sender.getString() + ",or=" + originator.getString() +"}" );
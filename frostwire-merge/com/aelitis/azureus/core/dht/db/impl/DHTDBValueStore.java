@@ -0,0 +1,750 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package com.aelitis.azureus.core.dht.db.impl;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import org.gudy.azureus2.core3.util.AEMonitor;
+import org.gudy.azureus2.core3.util.Debug;
+import org.gudy.azureus2.core3.util.HashWrapper;
+
+import com.aelitis.azureus.core.dht.transport.DHTTransport;
+import com.aelitis.azureus.core.dht.transport.DHTTransportContact;
+
+/**
+ * Append only log holding the non-local values of a DHTDB. Each value is written once when
+ * stored and a tombstone when removed, the value objects keep their file offset and, unless
+ * they are tiny, drop their bytes so the heap only holds the mapping structures. Reads go
+ * through the file (and hence the OS page cache).
+ * <p>
+ * Record: [int body length][int crc32 of body][body], where the body is a type byte followed
+ * by either the value (key, creation time, version, flags, lifetime, replication control,
+ * originator, sender, value bytes) or the offset of a removed value's bytes.
+ * <p>
+ * The log is rewritten from the live values when dead records outnumber live ones, and on
+ * startup the live records are handed back so the database can reload those not expired.
+ */
+
+public class
+DHTDBValueStore
+{
+	private static final byte	RT_VALUE	= 1;
+	private static final byte	RT_DELETE	= 2;
+
+	private static final int	HEADER_SIZE			= 8;
+	private static final int	MAX_RECORD_SIZE		= 64*1024;
+
+		// values this short cost about the same held inline as the store reference does
+
+	private static final int	INLINE_MAX			= 24;
+
+	private static final long	MIN_COMPACT_SIZE	= 256*1024;
+
+	private File				file;
+	private RandomAccessFile	raf;
+	private FileChannel			channel;
+
+	private long	file_size;
+	private int		live_records;
+	private int		dead_records;
+	private long	spilled_size;
+
+	private AEMonitor	this_mon	= new AEMonitor( "DHTDBValueStore" );
+
+	protected
+	DHTDBValueStore(
+		File		_file )
+
+		throws IOException
+	{
+		file	= _file;
+
+		File	temp = getCompactFile();
+
+		if ( !file.exists() && temp.exists()){
+
+				// crashed between removing the old log and renaming the compacted one
+
+			temp.renameTo( file );
+		}
+
+		raf 	= new RandomAccessFile( file, "rw" );
+		channel	= raf.getChannel();
+
+		file_size = channel.size();
+	}
+
+	protected File
+	getFile()
+	{
+		return( file );
+	}
+
+	protected long
+	getFileSize()
+	{
+		return( file_size );
+	}
+
+		/**
+		 * bytes of value data currently held only in the file
+		 */
+
+	protected long
+	getSpilledSize()
+	{
+		return( spilled_size );
+	}
+
+		/**
+		 * Reads the log, truncating any torn or corrupt tail, and returns the values that
+		 * haven't been removed as [HashWrapper key, DHTDBValueImpl value] pairs, each already
+		 * located in this store
+		 */
+
+	protected List<Object[]>
+	load(
+		DHTTransport		transport )
+
+		throws IOException
+	{
+		try{
+			this_mon.enter();
+
+			Map<Long,Object[]>	records = new LinkedHashMap<Long,Object[]>();
+
+			long	pos 		= 0;
+			int		num_records	= 0;
+
+			DataInputStream	dis = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 64*1024 ));
+
+			try{
+				CRC32	crc = new CRC32();
+
+				while( pos + HEADER_SIZE <= file_size ){
+
+					int	len 		= dis.readInt();
+					int	checksum	= dis.readInt();
+
+					if ( len <= 0 || len > MAX_RECORD_SIZE || pos + HEADER_SIZE + len > file_size ){
+
+						break;
+					}
+
+					byte[]	body = new byte[len];
+
+					dis.readFully( body );
+
+					crc.reset();
+
+					crc.update( body );
+
+					if ((int)crc.getValue() != checksum ){
+
+						break;
+					}
+
+					DataInputStream	bis = new DataInputStream( new ByteArrayInputStream( body ));
+
+					byte	type = bis.readByte();
+
+					if ( type == RT_VALUE ){
+
+						byte[]	key = new byte[bis.readByte()&0xff];
+
+						bis.readFully( key );
+
+						long	creation_time	= bis.readLong();
+						int		version			= bis.readInt();
+						byte	flags			= bis.readByte();
+						byte	life_hours		= bis.readByte();
+						byte	rep_control		= bis.readByte();
+
+						byte[]	originator	= new byte[bis.readShort()&0xffff];
+
+						bis.readFully( originator );
+
+						byte[]	sender		= new byte[bis.readShort()&0xffff];
+
+						bis.readFully( sender );
+
+						int		value_length	= bis.readInt();
+
+						byte[]	value = null;
+
+						if ( value_length <= INLINE_MAX ){
+
+							value = new byte[value_length];
+
+							bis.readFully( value );
+						}
+
+						long	value_offset = pos + HEADER_SIZE + len - value_length;
+
+						records.put(
+							new Long( value_offset ),
+							new Object[]{
+								key, new Long( creation_time ), new Integer( version ), new Byte( flags ), new Byte( life_hours ),
+								new Byte( rep_control ), originator, sender, new Integer( value_length ), value });
+
+					}else if ( type == RT_DELETE ){
+
+						records.remove( new Long( bis.readLong()));
+
+					}else{
+
+						break;
+					}
+
+					pos += HEADER_SIZE + len;
+
+					num_records++;
+				}
+			}finally{
+
+				dis.close();
+			}
+
+			if ( pos < file_size ){
+
+				Debug.out( "DHT value store " + file + " truncated from " + file_size + " to " + pos );
+
+				raf.setLength( pos );
+
+				file_size = pos;
+			}
+
+				// originators and senders repeat a lot, only import each once
+
+			Map<HashWrapper,DHTTransportContact>	contacts = new HashMap<HashWrapper,DHTTransportContact>();
+
+			List<Object[]>	result = new ArrayList<Object[]>( records.size());
+
+			for ( Map.Entry<Long,Object[]> entry: records.entrySet()){
+
+				long		value_offset	= entry.getKey().longValue();
+				Object[]	record			= entry.getValue();
+
+				DHTTransportContact	originator 	= importContact( transport, contacts, (byte[])record[6] );
+				DHTTransportContact	sender 		= importContact( transport, contacts, (byte[])record[7] );
+
+				if ( originator == null || sender == null ){
+
+					continue;
+				}
+
+				int		value_length	= ((Integer)record[8]).intValue();
+				byte[]	inline_value	= (byte[])record[9];
+
+				DHTDBValueImpl	value =
+					new DHTDBValueImpl(
+						((Long)record[1]).longValue(),
+						inline_value,
+						((Integer)record[2]).intValue(),
+						originator,
+						sender,
+						false,
+						((Byte)record[3]).byteValue(),
+						((Byte)record[4]).byteValue(),
+						((Byte)record[5]).byteValue());
+
+				value.setValueStoreLocation( this, value_offset, value_length, inline_value );
+
+				if ( inline_value == null ){
+
+					spilled_size += value_length;
+				}
+
+				result.add( new Object[]{ new HashWrapper((byte[])record[0]), value });
+			}
+
+			live_records = result.size();
+
+				// removed values and their tombstones, plus anything that couldn't be reloaded
+
+			dead_records = num_records - live_records;
+
+			return( result );
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+	private DHTTransportContact
+	importContact(
+		DHTTransport							transport,
+		Map<HashWrapper,DHTTransportContact>	contacts,
+		byte[]									bytes )
+	{
+		HashWrapper	hw = new HashWrapper( bytes );
+
+		DHTTransportContact	contact = contacts.get( hw );
+
+		if ( contact == null && !contacts.containsKey( hw )){
+
+			try{
+				contact = transport.importContact( new DataInputStream( new ByteArrayInputStream( bytes )), false );
+
+			}catch( Throwable e ){
+			}
+
+			contacts.put( hw, contact );
+		}
+
+		return( contact );
+	}
+
+	protected void
+	add(
+		HashWrapper			key,
+		DHTDBValueImpl		value )
+	{
+		if ( value.getValueStore() == this ){
+
+			return;
+		}
+
+		try{
+			this_mon.enter();
+
+			byte[]	bytes = value.getValue();
+
+			byte[]	record;
+
+			try{
+				record = encodeValue( key, value, bytes );
+
+			}catch( Throwable e ){
+
+					// contact can't be exported, just keep it on the heap
+
+				return;
+			}
+
+			long	record_offset = file_size;
+
+			write( channel, record_offset, record );
+
+			file_size += record.length;
+
+			live_records++;
+
+			boolean	spill = bytes.length > INLINE_MAX;
+
+			if ( spill ){
+
+				spilled_size += bytes.length;
+			}
+
+			value.setValueStoreLocation( this, record_offset + record.length - bytes.length, bytes.length, spill?null:bytes );
+
+		}catch( Throwable e ){
+
+			Debug.out( "DHT value store write failed", e );
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+		/**
+		 * Value is leaving the database. It gets its bytes back as the object can live on for
+		 * a while after (replies being sent, relays) and its offset will mean nothing after the
+		 * next compaction
+		 */
+
+	protected void
+	remove(
+		DHTDBValueImpl		value )
+	{
+		if ( value.getValueStore() != this ){
+
+			return;
+		}
+
+		try{
+			this_mon.enter();
+
+			if ( value.getValueStore() != this ){
+
+				return;
+			}
+
+			long	value_offset = value.getValueStoreOffset();
+
+			byte[]	bytes = value.getInlineValue();
+
+			if ( bytes == null ){
+
+				bytes = read( value_offset, value.getValueLength());
+
+				spilled_size -= value.getValueLength();
+			}
+
+			value.clearValueStoreLocation( bytes );
+
+			ByteArrayOutputStream	baos = new ByteArrayOutputStream( 16 );
+
+			DataOutputStream	dos = new DataOutputStream( baos );
+
+			dos.writeByte( RT_DELETE );
+			dos.writeLong( value_offset );
+
+			dos.close();
+
+			byte[]	record = frame( baos.toByteArray());
+
+			write( channel, file_size, record );
+
+			file_size += record.length;
+
+			live_records--;
+
+				// the value's record and the tombstone
+
+			dead_records += 2;
+
+		}catch( Throwable e ){
+
+			Debug.out( "DHT value store update failed", e );
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+	protected byte[]
+	read(
+		DHTDBValueImpl		value )
+	{
+		try{
+			this_mon.enter();
+
+			byte[]	bytes = value.getInlineValue();
+
+			if ( bytes != null ){
+
+				return( bytes );
+			}
+
+			if ( value.getValueStore() != this ){
+
+					// the caller's view is stale, the value has left this store
+
+				return( null );
+			}
+
+			return( read( value.getValueStoreOffset(), value.getValueLength()));
+
+		}catch( Throwable e ){
+
+			Debug.out( "DHT value store read failed", e );
+
+			return( new byte[0] );
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+	private byte[]
+	read(
+		long		offset,
+		int			length )
+
+		throws IOException
+	{
+		ByteBuffer	buffer = ByteBuffer.allocate( length );
+
+		while( buffer.hasRemaining()){
+
+			if ( channel.read( buffer, offset + buffer.position()) < 0 ){
+
+				throw( new EOFException( "value at " + offset + " truncated" ));
+			}
+		}
+
+		return( buffer.array());
+	}
+
+	protected boolean
+	needsCompaction()
+	{
+		return( file_size > MIN_COMPACT_SIZE && dead_records > live_records );
+	}
+
+		/**
+		 * Rewrites the log from the given values, which must be every value still located in
+		 * this store (anything not passed is dropped), and relocates them into the new file
+		 */
+
+	protected void
+	compact(
+		List<HashWrapper>		keys,
+		List<DHTDBValueImpl>	values )
+	{
+		try{
+			this_mon.enter();
+
+			File	temp = getCompactFile();
+
+			long[]	offsets = new long[values.size()];
+
+			long	pos = 0;
+
+			RandomAccessFile	temp_raf = new RandomAccessFile( temp, "rw" );
+
+			try{
+				temp_raf.setLength( 0 );
+
+				FileChannel	temp_channel = temp_raf.getChannel();
+
+				for (int i=0;i<values.size();i++){
+
+					DHTDBValueImpl	value = values.get(i);
+
+					offsets[i] = -1;
+
+					if ( value.getValueStore() != this ){
+
+						continue;
+					}
+
+					byte[]	bytes = value.getInlineValue();
+
+					if ( bytes == null ){
+
+						bytes = read( value.getValueStoreOffset(), value.getValueLength());
+					}
+
+					byte[]	record = encodeValue( keys.get(i), value, bytes );
+
+					write( temp_channel, pos, record );
+
+					offsets[i] = pos + record.length - bytes.length;
+
+					pos += record.length;
+				}
+
+				temp_channel.force( false );
+
+			}catch( Throwable e ){
+
+				temp_raf.close();
+
+				temp.delete();
+
+				Debug.out( "DHT value store compaction failed", e );
+
+				return;
+			}
+
+			temp_raf.close();
+
+			raf.close();
+
+			if ( !file.delete() || !temp.renameTo( file )){
+
+				Debug.out( "DHT value store compaction failed: can't rename " + temp + " to " + file );
+			}
+
+			raf 	= new RandomAccessFile( file, "rw" );
+			channel	= raf.getChannel();
+
+			file_size = channel.size();
+
+			live_records	= 0;
+			dead_records	= 0;
+
+			if ( file_size == pos ){
+
+				for (int i=0;i<values.size();i++){
+
+					if ( offsets[i] != -1 ){
+
+						DHTDBValueImpl	value = values.get(i);
+
+						value.setValueStoreLocation( this, offsets[i], value.getValueLength(), value.getInlineValue());
+
+						live_records++;
+					}
+				}
+			}else{
+
+					// start again with an empty log and everything back on the heap
+
+				temp_raf = new RandomAccessFile( temp, "r" );
+
+				try{
+					for (int i=0;i<values.size();i++){
+
+						if ( offsets[i] != -1 ){
+
+							DHTDBValueImpl	value = values.get(i);
+
+							byte[]	bytes = new byte[value.getValueLength()];
+
+							temp_raf.seek( offsets[i] );
+
+							temp_raf.readFully( bytes );
+
+							value.clearValueStoreLocation( bytes );
+						}
+					}
+				}finally{
+
+					temp_raf.close();
+				}
+
+				temp.delete();
+
+				raf.setLength( 0 );
+
+				file_size		= 0;
+				spilled_size	= 0;
+			}
+		}catch( Throwable e ){
+
+			Debug.out( "DHT value store compaction failed", e );
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+	private File
+	getCompactFile()
+	{
+		return( new File( file.getParentFile(), file.getName() + ".compact" ));
+	}
+
+	private byte[]
+	encodeValue(
+		HashWrapper			key,
+		DHTDBValueImpl		value,
+		byte[]				bytes )
+
+		throws Exception
+	{
+		byte[]	originator	= exportContact( value.getOriginator());
+		byte[]	sender		= exportContact( value.getSender());
+
+		byte[]	key_bytes = key.getBytes();
+
+		ByteArrayOutputStream	baos = new ByteArrayOutputStream( 64 + key_bytes.length + originator.length + sender.length + bytes.length );
+
+		DataOutputStream	dos = new DataOutputStream( baos );
+
+		dos.writeByte( RT_VALUE );
+		dos.writeByte( key_bytes.length );
+		dos.write( key_bytes );
+		dos.writeLong( value.getCreationTime());
+		dos.writeInt( value.getVersion());
+		dos.writeByte( value.getFlags());
+		dos.writeByte( value.getLifeTimeHours());
+		dos.writeByte( value.getReplicationControl());
+		dos.writeShort( originator.length );
+		dos.write( originator );
+		dos.writeShort( sender.length );
+		dos.write( sender );
+		dos.writeInt( bytes.length );
+		dos.write( bytes );
+
+		dos.close();
+
+		return( frame( baos.toByteArray()));
+	}
+
+	private byte[]
+	exportContact(
+		DHTTransportContact		contact )
+
+		throws Exception
+	{
+		ByteArrayOutputStream	baos = new ByteArrayOutputStream( 64 );
+
+		DataOutputStream	dos = new DataOutputStream( baos );
+
+		contact.exportContact( dos );
+
+		dos.close();
+
+		return( baos.toByteArray());
+	}
+
+	private byte[]
+	frame(
+		byte[]		body )
+	{
+		CRC32	crc = new CRC32();
+
+		crc.update( body );
+
+		byte[]	record = new byte[HEADER_SIZE + body.length];
+
+		ByteBuffer	bb = ByteBuffer.wrap( record );
+
+		bb.putInt( body.length );
+		bb.putInt((int)crc.getValue());
+		bb.put( body );
+
+		return( record );
+	}
+
+	private void
+	write(
+		FileChannel		target,
+		long			offset,
+		byte[]			record )
+
+		throws IOException
+	{
+		ByteBuffer	buffer = ByteBuffer.wrap( record );
+
+		while( buffer.hasRemaining()){
+
+			target.write( buffer, offset + buffer.position());
+		}
+	}
+
+	protected void
+	close()
+	{
+		try{
+			this_mon.enter();
+
+			raf.close();
+
+		}catch( Throwable e ){
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+}
@@ -0,0 +1,310 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package com.aelitis.azureus.core.dht.db.impl.test;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+import org.gudy.azureus2.core3.util.AESemaphore;
+import org.gudy.azureus2.core3.util.FileUtil;
+import org.gudy.azureus2.plugins.PluginInterface;
+
+import com.aelitis.azureus.core.dht.DHT;
+import com.aelitis.azureus.core.dht.DHTFactory;
+import com.aelitis.azureus.core.dht.DHTLogger;
+import com.aelitis.azureus.core.dht.DHTOperationAdapter;
+import com.aelitis.azureus.core.dht.db.DHTDBStats;
+import com.aelitis.azureus.core.dht.transport.DHTTransport;
+import com.aelitis.azureus.core.dht.transport.DHTTransportContact;
+import com.aelitis.azureus.core.dht.transport.DHTTransportFactory;
+
+/**
+ * Many node simulation over DHTTransportLoopbackImpl comparing the databases with values on
+ * the heap against values in a DHTDBValueStore. Each run builds a network, integrates it and
+ * puts values from random nodes, then reports the values held across all nodes, the heap
+ * used after a GC and the size of the store files. For the store run each node's file is
+ * then reopened by a fresh database to check that what was held comes back.
+ * <p>
+ * usage: DHTDBValueStoreTester [nodes] [puts] [value size]
+ */
+
+public class
+DHTDBValueStoreTester
+{
+	public static void
+	main(
+		String[]	args )
+	{
+		int		nodes		= args.length > 0?Integer.parseInt( args[0] ):60;
+		int		puts		= args.length > 1?Integer.parseInt( args[1] ):2000;
+		int		value_size	= args.length > 2?Integer.parseInt( args[2] ):200;
+
+		File	dir = null;
+
+		try{
+			COConfigurationManager.initialiseFromMap( new HashMap());
+
+			dir = File.createTempFile( "dhtdb", "" );
+
+			dir.delete();
+			dir.mkdirs();
+
+			run( "heap ", nodes, puts, value_size, null );
+			run( "store", nodes, puts, value_size, dir );
+
+		}catch( Throwable e ){
+
+			e.printStackTrace();
+
+		}finally{
+
+			if ( dir != null ){
+
+				FileUtil.recursiveDeleteNoCheck( dir );
+			}
+		}
+
+		System.exit( 0 );
+	}
+
+	private static void
+	run(
+		String		name,
+		int			num_nodes,
+		int			puts,
+		int			value_size,
+		File		dir )
+
+		throws Exception
+	{
+		long	base_heap = getHeapUsed();
+
+		DHT[]	dhts = new DHT[num_nodes];
+
+		for (int i=0;i<num_nodes;i++){
+
+			dhts[i] = createDHT();
+
+			if ( dir != null ){
+
+				dhts[i].getDataBase().setValueStore( new File( dir, "node" + i + ".dat" ));
+			}
+		}
+
+			// everyone bootstraps off the first node
+
+		ByteArrayOutputStream	baos = new ByteArrayOutputStream();
+
+		DataOutputStream	dos = new DataOutputStream( baos );
+
+		dhts[0].getTransport().getLocalContact().exportContact( dos );
+
+		dos.close();
+
+		byte[]	root = baos.toByteArray();
+
+		for (int i=1;i<num_nodes;i++){
+
+			dhts[i].getTransport().importContact( new DataInputStream( new ByteArrayInputStream( root )), true );
+		}
+
+			// integration waits on lookup timeouts, do the nodes together
+
+		Thread[]	integrators = new Thread[num_nodes];
+
+		for (int i=0;i<num_nodes;i++){
+
+			final DHT	dht = dhts[i];
+
+			integrators[i] =
+				new Thread( "DHTDBValueStoreTester:integrate" )
+				{
+					public void
+					run()
+					{
+						dht.integrate( true );
+					}
+				};
+
+			integrators[i].start();
+		}
+
+		for (int i=0;i<num_nodes;i++){
+
+			integrators[i].join();
+		}
+
+		Random	random = new Random( 17 );
+
+		long	start = System.currentTimeMillis();
+
+		for (int i=0;i<puts;i++){
+
+			byte[]	key 	= new byte[20];
+			byte[]	value	= new byte[value_size/2 + random.nextInt( value_size )];
+
+			random.nextBytes( key );
+			random.nextBytes( value );
+
+			final AESemaphore	sem = new AESemaphore( "put" );
+
+			dhts[random.nextInt( num_nodes )].put(
+				key, "test", value, DHT.FLAG_SINGLE_VALUE,
+				new DHTOperationAdapter()
+				{
+					public void
+					complete(
+						boolean		timeout )
+					{
+						sem.release();
+					}
+				});
+
+			sem.reserve();
+		}
+
+		long	elapsed = System.currentTimeMillis() - start;
+
+		int		values		= 0;
+		long	value_bytes	= 0;
+
+		int[]	node_values = new int[num_nodes];
+
+		for (int i=0;i<num_nodes;i++){
+
+			DHTDBStats	stats = dhts[i].getDataBase().getStats();
+
+			int[]	details = stats.getValueDetails();
+
+			node_values[i] = details[DHTDBStats.VD_VALUE_COUNT];
+
+			values		+= node_values[i];
+			value_bytes	+= details[DHTDBStats.VD_DIRECT_SIZE] + details[DHTDBStats.VD_INDIRECT_SIZE] + details[DHTDBStats.VD_LOCAL_SIZE];
+		}
+
+		long	heap = getHeapUsed() - base_heap;
+
+		long	file_bytes = 0;
+
+		if ( dir != null ){
+
+			for (int i=0;i<num_nodes;i++){
+
+				file_bytes += new File( dir, "node" + i + ".dat" ).length();
+			}
+		}
+
+		System.out.println(
+			name + ": " + num_nodes + " nodes, " + puts + " puts in " + elapsed + "ms, " + values + " values (" + value_bytes + " bytes), heap " +
+			( heap/1024 ) + "KB" + ( dir==null?"":( ", store files " + ( file_bytes/1024 ) + "KB" )));
+
+		if ( dir != null ){
+
+				// a fresh database on each file should get back the remote values its node held,
+				// everything was put recently so nothing has expired. Each put leaves one local
+				// value at its origin, those aren't stored
+
+			int		restored		= 0;
+			long	restored_bytes	= 0;
+
+			long	start_restore = System.currentTimeMillis();
+
+			for (int i=0;i<num_nodes;i++){
+
+				DHT	dht = createDHT();
+
+				dht.getDataBase().setValueStore( new File( dir, "node" + i + ".dat" ));
+
+				int[]	details = dht.getDataBase().getStats().getValueDetails();
+
+				restored 		+= details[DHTDBStats.VD_VALUE_COUNT];
+				restored_bytes	+= details[DHTDBStats.VD_DIRECT_SIZE] + details[DHTDBStats.VD_INDIRECT_SIZE];
+
+				dht.destroy();
+			}
+
+			System.out.println(
+				name + ": restarted nodes restored " + restored + " of " + ( values - puts ) + " remote values (" + restored_bytes + " bytes) in " +
+				( System.currentTimeMillis() - start_restore ) + "ms" );
+		}
+
+		for (int i=0;i<num_nodes;i++){
+
+			dhts[i].destroy();
+		}
+	}
+
+	private static DHT
+	createDHT()
+	{
+		DHTTransport	transport = DHTTransportFactory.createLoopback( 20 );
+
+		return( DHTFactory.create( transport, new Properties(), null, null, new logger()));
+	}
+
+	private static long
+	getHeapUsed()
+	{
+		for (int i=0;i<3;i++){
+
+			System.gc();
+		}
+
+		return( ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+	}
+
+	private static class
+	logger
+		implements DHTLogger
+	{
+		public void
+		log(
+			String	str )
+		{
+		}
+
+		public void
+		log(
+			Throwable	e )
+		{
+			e.printStackTrace();
+		}
+
+		public void
+		log(
+			int		log_type,
+			String	str )
+		{
+		}
+
+		public boolean
+		isEnabled(
+			int	log_type )
+		{
+			return( false );
+		}
+
+		public PluginInterface
+		getPluginInterface()
+		{
+			return( null );
+		}
+	}
+}
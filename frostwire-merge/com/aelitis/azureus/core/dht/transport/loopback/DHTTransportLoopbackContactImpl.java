@@ -23,6 +23,7 @@
 package com.aelitis.azureus.core.dht.transport.loopback;
 
 import java.io.*;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.Map;
@@ -45,6 +46,8 @@ DHTTransportLoopbackContactImpl
 	private byte[]		id;
 	private int			random_id;
 	
+	private InetSocketAddress	address;
+	
 	protected
 	DHTTransportLoopbackContactImpl(
 		DHTTransportLoopbackImpl	_transport,
@@ -52,6 +55,18 @@ DHTTransportLoopbackContactImpl
 	{
 		transport	= _transport;
 		id			= _id;
+		
+			// control and database code key anti-spoof and per-IP limits off the address so
+			// give each node its own, derived from the id
+		
+		try{
+			address = 
+				new InetSocketAddress( 
+					InetAddress.getByAddress( new byte[]{ 127, id[0], id[1], id[2] }), 
+					1024 + (((id[3]&0xff)<<8 | (id[4]&0xff)) % 60000 ));
+			
+		}catch( Throwable e ){
+		}
 	}
 	
 	public DHTTransport
@@ -123,19 +138,19 @@ DHTTransportLoopbackContactImpl
 	public InetSocketAddress
 	getAddress()
 	{
-		return( null );
+		return( address );
 	}
 	
 	public InetSocketAddress
 	getTransportAddress()
 	{
-		return( null );
+		return( address );
 	}
 	
 	public InetSocketAddress 
 	getExternalAddress() 
 	{
-		return null;
+		return( address );
 	}
 	
 	public boolean
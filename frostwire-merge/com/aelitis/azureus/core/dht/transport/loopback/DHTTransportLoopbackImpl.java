@@ -548,10 +548,24 @@ DHTTransportLoopbackImpl
 			
 			temp.setRandomID( contact.getRandomID());
 			
+				// a real target deserialises its own copy of each value
+			
+			DHTTransportValue[][]	copies = new DHTTransportValue[value_sets.length][];
+			
+			for (int i=0;i<value_sets.length;i++){
+				
+				copies[i] = new DHTTransportValue[value_sets[i].length];
+				
+				for (int j=0;j<copies[i].length;j++){
+					
+					copies[i][j] = copyValue( value_sets[i][j] );
+				}
+			}
+			
 			DHTTransportStoreReply	rep = 
 				target.getRequestHandler().storeRequest( 
 					temp,
-					keys, value_sets );
+					keys, copies );
 			
 			if ( rep.blocked()){
 				
@@ -566,6 +580,83 @@ DHTTransportLoopbackImpl
 		}
 	}
 	
+	protected DHTTransportValue
+	copyValue(
+		final DHTTransportValue		value )
+	{
+		final byte[]	bytes = (byte[])value.getValue().clone();
+		
+		return( 
+			new DHTTransportValue()
+			{
+				public boolean
+				isLocal()
+				{
+					return( value.isLocal());
+				}
+				
+				public long
+				getCreationTime()
+				{
+					return( value.getCreationTime());
+				}
+				
+				public byte[]
+				getValue()
+				{
+					return( bytes );
+				}
+				
+				public int
+				getVersion()
+				{
+					return( value.getVersion());
+				}
+				
+				public DHTTransportContact
+				getOriginator()
+				{
+					return( value.getOriginator());
+				}
+				
+				public int
+				getFlags()
+				{
+					return( value.getFlags());
+				}
+				
+				public int
+				getLifeTimeHours()
+				{
+					return( value.getLifeTimeHours());
+				}
+				
+				public byte
+				getReplicationControl()
+				{
+					return( value.getReplicationControl());
+				}
+				
+				public byte
+				getReplicationFactor()
+				{
+					return( value.getReplicationFactor());
+				}
+				
+				public byte
+				getReplicationFrequencyHours()
+				{
+					return( value.getReplicationFrequencyHours());
+				}
+				
+				public String
+				getString()
+				{
+					return( value.getString());
+				}
+			});
+	}
+	
 		// QUERY STORE
 	
 	public void 
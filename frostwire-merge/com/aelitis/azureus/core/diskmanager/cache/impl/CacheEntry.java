@@ -37,6 +37,10 @@ CacheEntry
 	protected static final int	CT_DATA_WRITE		= 0;
 	protected static final int	CT_READ_AHEAD		= 1;
 	
+		// granularity of getBlockKey, the peer request size
+	
+	protected static final int	BLOCK_SHIFT			= 14;
+	
 	protected CacheFileWithCache		file;
 	protected DirectByteBuffer	buffer;
 	protected long				offset;
@@ -148,6 +152,17 @@ CacheEntry
 		return( usage_count );
 	}
 	
+		/**
+		 * identifies the data rather than the entry so that eviction history survives the entry
+		 * being flushed and the same block read back in later
+		 */
+	
+	protected long
+	getBlockKey()
+	{
+		return(((long)System.identityHashCode( file ) << 32 ) ^ ( offset >>> BLOCK_SHIFT ));
+	}
+	
 	protected int
 	getType()
 	{
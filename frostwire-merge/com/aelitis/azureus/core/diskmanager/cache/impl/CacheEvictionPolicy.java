@@ -0,0 +1,70 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package com.aelitis.azureus.core.diskmanager.cache.impl;
+
+import java.util.Collection;
+
+/**
+ * Decides which entry of a cache segment goes first when space is needed.
+ * Implementations aren't thread safe, the owning segment's monitor guards them
+ */
+
+public interface
+CacheEvictionPolicy
+{
+	public static final String	LRU		= "lru";
+	public static final String	TINYLFU	= "tinylfu";
+
+	public void
+	add(
+		CacheEntry	entry );
+
+		/**
+		 * @return false if the entry isn't held by this policy
+		 */
+
+	public boolean
+	used(
+		CacheEntry	entry );
+
+	public boolean
+	remove(
+		CacheEntry	entry );
+
+		/**
+		 * @return the entry to evict next or null if empty
+		 */
+
+	public CacheEntry
+	getVictim();
+
+		/**
+		 * ranks a victim against those of other segments, lowest is evicted first
+		 */
+
+	public long
+	getVictimRank(
+		CacheEntry	entry );
+
+	public void
+	getEntries(
+		Collection	result );
+
+	public int
+	size();
+}
@@ -0,0 +1,307 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package com.aelitis.azureus.core.diskmanager.cache.impl;
+
+import java.util.*;
+
+/**
+ * W-TinyLFU. New entries land in a small LRU window and then move to the
+ * probation part of a segmented LRU, a hit there promotes them to the protected
+ * part. The victim is whichever of the window and probation heads has been
+ * accessed less often according to a count-min sketch that also remembers
+ * blocks no longer cached, so a one-off sequential read (recheck, streaming
+ * the whole file to a peer) can't push out blocks that are read repeatedly.
+ * <p>
+ * We don't own the eviction itself (the manager drops a clean victim on its
+ * own and flushes a dirty one along with the run that follows it) so the
+ * window/probation contest happens when space is needed rather than on insert.
+ */
+
+public class
+CacheEvictionPolicyTinyLFU
+	implements CacheEvictionPolicy
+{
+	private static final int	WINDOW_PERCENT		= 1;
+	private static final int	PROTECTED_PERCENT	= 80;
+
+	private final LinkedHashMap	window		= new LinkedHashMap( 16, 0.75f, true );
+	private final LinkedHashMap	probation	= new LinkedHashMap( 256, 0.75f, true );
+	private final LinkedHashMap	protect		= new LinkedHashMap( 256, 0.75f, true );
+
+	private final FrequencySketch	sketch;
+
+	protected
+	CacheEvictionPolicyTinyLFU(
+		int		expected_entries )
+	{
+		sketch = new FrequencySketch( expected_entries );
+	}
+
+	public void
+	add(
+		CacheEntry	entry )
+	{
+		sketch.increment( entry.getBlockKey());
+
+		window.put( entry, entry );
+
+		if ( window.size() > getWindowMax()){
+
+			CacheEntry	eldest = getEldest( window );
+
+			window.remove( eldest );
+
+			probation.put( eldest, eldest );
+		}
+	}
+
+	public boolean
+	used(
+		CacheEntry	entry )
+	{
+		if ( window.get( entry ) != null ){
+
+			sketch.increment( entry.getBlockKey());
+
+			return( true );
+		}
+
+		if ( probation.remove( entry ) != null ){
+
+			sketch.increment( entry.getBlockKey());
+
+			protect.put( entry, entry );
+
+			int	protect_max = getProtectedMax();
+
+			while( protect.size() > protect_max ){
+
+				CacheEntry	demoted = getEldest( protect );
+
+				protect.remove( demoted );
+
+				probation.put( demoted, demoted );
+			}
+
+			return( true );
+		}
+
+		if ( protect.get( entry ) != null ){
+
+			sketch.increment( entry.getBlockKey());
+
+			return( true );
+		}
+
+		return( false );
+	}
+
+	public boolean
+	remove(
+		CacheEntry	entry )
+	{
+		return( 	window.remove( entry ) != null ||
+					probation.remove( entry ) != null ||
+					protect.remove( entry ) != null );
+	}
+
+	public CacheEntry
+	getVictim()
+	{
+		CacheEntry	candidate 	= getEldest( window );
+		CacheEntry	victim		= getEldest( probation );
+
+		if ( victim == null ){
+
+			victim = getEldest( protect );
+		}
+
+		if ( candidate == null ){
+
+			return( victim );
+
+		}else if ( victim == null ){
+
+			return( candidate );
+		}
+
+			// ties go against the newcomer, that's what makes scans lose
+
+		if ( sketch.frequency( candidate.getBlockKey()) > sketch.frequency( victim.getBlockKey())){
+
+			return( victim );
+		}
+
+		return( candidate );
+	}
+
+	public long
+	getVictimRank(
+		CacheEntry	entry )
+	{
+			// frequency first, recency to break ties. last_used is a millisecond time so fits in 48 bits
+
+		return(((long)sketch.frequency( entry.getBlockKey()) << 48 ) | ( entry.getLastUsed() & 0xffffffffffffL ));
+	}
+
+	public void
+	getEntries(
+		Collection	result )
+	{
+		result.addAll( window.keySet());
+		result.addAll( probation.keySet());
+		result.addAll( protect.keySet());
+	}
+
+	public int
+	size()
+	{
+		return( window.size() + probation.size() + protect.size());
+	}
+
+	private int
+	getWindowMax()
+	{
+		return( Math.max( 1, size() * WINDOW_PERCENT / 100 ));
+	}
+
+	private int
+	getProtectedMax()
+	{
+		return(( probation.size() + protect.size()) * PROTECTED_PERCENT / 100 );
+	}
+
+	private static CacheEntry
+	getEldest(
+		LinkedHashMap	map )
+	{
+		if ( map.size() == 0 ){
+
+			return( null );
+		}
+
+		return((CacheEntry)map.keySet().iterator().next());
+	}
+
+		/**
+		 * count-min sketch of 4 bit counters, halved every 10 x width increments so that
+		 * old popularity fades
+		 */
+
+	protected static class
+	FrequencySketch
+	{
+		private static final int	DEPTH		= 4;
+		private static final int	MAX_COUNT	= 15;
+
+		private static final long[]	SEEDS = {
+			0x9e3779b97f4a7c15L, 0xc2b2ae3d27d4eb4fL, 0x165667b19e3779f9L, 0xd6e8feb86659fd93L };
+
+		private final byte[][]	table;
+		private final int		mask;
+		private final int		sample_size;
+
+		private int		additions;
+
+		protected
+		FrequencySketch(
+			int		expected_entries )
+		{
+			int	width = 256;
+
+			while( width < expected_entries * 8 && width < ( 1 << 24 )){
+
+				width <<= 1;
+			}
+
+			table 		= new byte[DEPTH][width];
+			mask		= width - 1;
+			sample_size	= 10 * width;
+		}
+
+		protected void
+		increment(
+			long	key )
+		{
+			for (int i=0;i<DEPTH;i++){
+
+				byte[]	row = table[i];
+
+				int	index = index( key, i );
+
+				if ( row[index] < MAX_COUNT ){
+
+					row[index]++;
+				}
+			}
+
+			if ( ++additions == sample_size ){
+
+				reset();
+			}
+		}
+
+		protected int
+		frequency(
+			long	key )
+		{
+			int	min = MAX_COUNT;
+
+			for (int i=0;i<DEPTH;i++){
+
+				min = Math.min( min, table[i][index( key, i )]);
+			}
+
+			return( min );
+		}
+
+		private void
+		reset()
+		{
+			for (int i=0;i<DEPTH;i++){
+
+				byte[]	row = table[i];
+
+				for (int j=0;j<row.length;j++){
+
+					row[j] >>= 1;
+				}
+			}
+
+			additions /= 2;
+		}
+
+		private int
+		index(
+			long	key,
+			int		row )
+		{
+				// murmur3 finaliser, consecutive blocks of a file must scatter
+
+			long	h = key + SEEDS[row];
+
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			h *= 0xc4ceb9fe1a85ec53L;
+			h ^= h >>> 33;
+
+			return((int)h & mask );
+		}
+	}
+}
@@ -29,6 +29,7 @@ package com.aelitis.azureus.core.diskmanager.cache.impl;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.gudy.azureus2.core3.config.COConfigurationManager;
 import org.gudy.azureus2.core3.logging.LogEvent;
@@ -54,6 +55,24 @@ CacheFileManagerImpl
 	
 	public static final int		STATS_UPDATE_FREQUENCY		= 1*1000;	// 1 sec
 	public static final long	DIRTY_CACHE_WRITE_MAX_AGE	= 120*1000;	// 2 mins
+	
+	private static final int	NO_VICTIM_RETRIES			= 1000;	// yields before free space without entries is an error
+	
+		// power of two, roughly two stripes per core
+	
+	public static final int		SEGMENT_COUNT;
+	
+	static{
+		int	cpus 	= Runtime.getRuntime().availableProcessors();
+		int	count	= 1;
+		
+		while( count < cpus*2 && count < 64 ){
+			
+			count <<= 1;
+		}
+		
+		SEGMENT_COUNT = count;
+	}
 		
 	static{
 		if ( DEBUG ){
@@ -114,7 +133,9 @@ CacheFileManagerImpl
 	protected long		cache_files_not_smaller_than;
 	
 	protected long		cache_minimum_free_size;
-	protected long		cache_space_free;
+	
+	protected String	cache_policy;
+	protected AtomicLong	cache_space_free	= new AtomicLong();
 
 	private long	cache_file_id_next	= 0;
 	
@@ -125,24 +146,28 @@ CacheFileManagerImpl
 	protected WeakHashMap		cache_files			= new WeakHashMap();
 	protected WeakHashMap		updated_cache_files	= null;
 	
-		// access order
+		// entries striped across segments, each ordered by its own eviction policy
 	
-	protected LinkedHashMap		cache_entries = new LinkedHashMap(1024, 0.75f, true );
+	protected CacheSegment[]	cache_segments;
 	
 	protected CacheFileManagerStatsImpl	stats;
 	
 
 	protected Map	torrent_to_cache_file_map	= new LightHashMap();
 	
-	protected long				cache_bytes_written;
-	protected long				cache_bytes_read;
-	protected long				file_bytes_written;
-	protected long				file_bytes_read;
+		// updated on every read and write so kept off the monitor
+	
+	protected AtomicLong		cache_bytes_written	= new AtomicLong();
+	protected AtomicLong		cache_bytes_read	= new AtomicLong();
+	protected AtomicLong		file_bytes_written	= new AtomicLong();
+	protected AtomicLong		file_bytes_read		= new AtomicLong();
 	
-	protected long				cache_read_count;
-	protected long				cache_write_count;
-	protected long				file_read_count;
-	protected long				file_write_count;
+	protected AtomicLong		cache_read_count	= new AtomicLong();
+	protected AtomicLong		cache_write_count	= new AtomicLong();
+	protected AtomicLong		file_read_count		= new AtomicLong();
+	protected AtomicLong		file_write_count	= new AtomicLong();
+	
+		// guards the file maps and id allocation, cache entries are guarded by their segment
 	
 	protected AEMonitor			this_mon	= new AEMonitor( "CacheFileManager" );
 	
@@ -171,6 +196,8 @@ CacheFileManagerImpl
 		
 		int		not_smaller_than	= 1024*COConfigurationManager.getIntParameter( "notsmallerthan" );
 		
+		String	policy				= COConfigurationManager.getStringParameter( "diskmanager.perf.cache.policy" );
+		
 		if ( size <= 0 ){
 		
 			Debug.out( "Invalid cache size parameter (" + size + "), caching disabled" );
@@ -178,7 +205,7 @@ CacheFileManagerImpl
 			enabled	= false;
 		}
 		
-		initialise( enabled, enable_read, enable_write, size, not_smaller_than );
+		initialise( enabled, enable_read, enable_write, size, not_smaller_than, policy );
 	}
 
 	protected void
@@ -187,7 +214,8 @@ CacheFileManagerImpl
 		boolean	enable_read,
 		boolean	enable_write,
 		long	size,
-		long	not_smaller_than )
+		long	not_smaller_than,
+		String	policy )
 	{
 		cache_enabled			= enabled && ( enable_read || enable_write );
 		
@@ -201,7 +229,20 @@ CacheFileManagerImpl
 		
 		cache_minimum_free_size	= cache_size/4;
 		
-		cache_space_free		= cache_size;
+		cache_space_free.set( cache_size );
+		
+		cache_policy			= CacheEvictionPolicy.TINYLFU.equalsIgnoreCase( policy )?CacheEvictionPolicy.TINYLFU:CacheEvictionPolicy.LRU;
+		
+		cache_segments = new CacheSegment[ SEGMENT_COUNT ];
+		
+			// entries are mostly 16K blocks or read-aheads of a few of them
+		
+		int	expected_entries = (int)Math.min( Integer.MAX_VALUE, cache_size / ( 16*1024 ) / SEGMENT_COUNT );
+		
+		for (int i=0;i<cache_segments.length;i++){
+			
+			cache_segments[i] = new CacheSegment( i, createEvictionPolicy( cache_policy, expected_entries ));
+		}
 		
 		stats = new CacheFileManagerStatsImpl( this );
 		
@@ -212,7 +253,26 @@ CacheFileManagerImpl
 		if (Logger.isEnabled())
 			Logger.log(new LogEvent(LOGID, "DiskCache: enabled = " + cache_enabled
 					+ ", read = " + cache_read_enabled + ", write = "
-					+ cache_write_enabled + ", size = " + cache_size + " B"));
+					+ cache_write_enabled + ", size = " + cache_size + " B, policy = " + cache_policy ));
+	}
+	
+	protected static CacheEvictionPolicy
+	createEvictionPolicy(
+		String	policy,
+		int		expected_entries )
+	{
+		if ( policy.equals( CacheEvictionPolicy.TINYLFU )){
+			
+			return( new CacheEvictionPolicyTinyLFU( expected_entries ));
+		}
+		
+		return( new CacheEvictionPolicyLRU());
+	}
+	
+	protected String
+	getEvictionPolicy()
+	{
+		return( cache_policy );
 	}
 	
 	protected boolean
@@ -364,6 +424,8 @@ CacheFileManagerImpl
 		boolean	ok 	= false;
 		boolean	log	= false;		
 		
+		int		no_victim	= 0;
+		
 		while( !ok ){
 			
 				// musn't invoke synchronised CacheFile methods while holding manager lock as this
@@ -371,33 +433,57 @@ CacheFileManagerImpl
 			
 			CacheEntry	oldest_entry	= null;
 			
-			try{
-				this_mon.enter();
+			long	free = cache_space_free.get();
 			
-				if ( length < cache_space_free || cache_space_free == cache_size ){
+			if ( length < free || free == cache_size ){
+			
+				ok	= true;
+				
+			}else{
 				
-					ok	= true;
+				oldest_entry = getVictimEntry();
+				
+				if ( oldest_entry == null ){
 					
-				}else{
+						// space is accounted just after an entry leaves its segment, we caught
+						// the gap between the two. That's a handful of instructions so if it persists
+						// the accounting is genuinely out
+					
+					if ( ++no_victim > NO_VICTIM_RETRIES ){
+						
+						throw( new CacheFileManagerException( null, "Cache inconsistent: " + free + " free and no entries"));
+					}
+					
+					Thread.yield();
 					
-					oldest_entry = (CacheEntry)cache_entries.keySet().iterator().next();
+					continue;
 				}
-			}finally{
 				
-				this_mon.exit();
+				no_victim = 0;
 			}
 			
 			if ( !ok ){
 				
 				log	= true;
 				
-				long	old_free	= cache_space_free;
+				long	old_free	= cache_space_free.get();
 			
 				CacheFileWithCache	oldest_file = oldest_entry.getFile();
 				
 				try{
 					
-					oldest_file.flushCache( oldest_entry.getFilePosition(), true, cache_minimum_free_size );
+					if ( oldest_entry.isDirty()){
+						
+							// flush a decent run from here on so the write is worth doing
+						
+						oldest_file.flushCache( oldest_entry.getFilePosition(), true, cache_minimum_free_size );
+						
+					}else{
+						
+							// clean entries cost nothing to drop, so drop exactly what the policy picked
+						
+						oldest_file.releaseCleanEntry( oldest_entry );
+					}
 					
 				}catch( CacheFileManagerException e ){
 					
@@ -415,7 +501,7 @@ CacheFileManagerImpl
 					}
 				}
 				
-				long	flushed = cache_space_free - old_free;
+				long	flushed = cache_space_free.get() - old_free;
 				
 				if (Logger.isEnabled()) {
 					TOTorrentFile tf = file.getTorrentFile();
@@ -427,20 +513,12 @@ CacheFileManagerImpl
 				
 				if ( flushed == 0 ){
 				
-					try{
-						this_mon.enter();
+					if ( getSegment( oldest_entry ).getVictim() == oldest_entry ){
 						
-						if (	cache_entries.size() > 0 &&
-								(CacheEntry)cache_entries.keySet().iterator().next() == oldest_entry ){
-							
-								// hmm, something wrong with cache as the flush should have got rid
-								// of at least the oldest entry
-							
-							throw( new CacheFileManagerException( null, "Cache inconsistent: 0 flushed"));
-						}
-					}finally{
+							// hmm, something wrong with cache as the flush should have got rid
+							// of at least the oldest entry
 						
-						this_mon.exit();
+						throw( new CacheFileManagerException( null, "Cache inconsistent: 0 flushed"));
 					}
 				}
 			}
@@ -460,6 +538,68 @@ CacheFileManagerImpl
 		return( entry );
 	}
 	
+		/**
+		 * striped by block rather than by entry so that a block read back in after being flushed
+		 * lands in the same segment, and hence the same frequency history
+		 */
+	
+	protected CacheSegment
+	getSegment(
+		CacheEntry	entry )
+	{
+		long	key = entry.getBlockKey();
+		
+		int	h = (int)( key ^ ( key >>> 32 )) * 0x9e3779b9;
+		
+		h ^= ( h >>> 16 );
+		
+		return( cache_segments[ h & ( cache_segments.length - 1 )]);
+	}
+	
+		/**
+		 * the entry to evict over all segments, the lowest ranked of each segment's own victim
+		 */
+	
+	protected CacheEntry
+	getVictimEntry()
+	{
+		CacheEntry	victim 		= null;
+		long		victim_rank	= 0;
+		
+		for (int i=0;i<cache_segments.length;i++){
+			
+			CacheSegment	segment = cache_segments[i];
+			
+			CacheEntry	entry = segment.getVictim();
+			
+			if ( entry != null ){
+				
+				long	rank = segment.getVictimRank( entry );
+				
+				if ( victim == null || rank < victim_rank ){
+				
+					victim		= entry;
+					victim_rank	= rank;
+				}
+			}
+		}
+		
+		return( victim );
+	}
+	
+	protected int
+	getEntryCount()
+	{
+		int	count = 0;
+		
+		for (int i=0;i<cache_segments.length;i++){
+			
+			count += cache_segments[i].size();
+		}
+		
+		return( count );
+	}
+	
 	protected void
 	cacheStatsAndCleaner()
 	{		
@@ -501,29 +641,17 @@ CacheFileManagerImpl
 								updated_cache_files	= null;
 							}
 
-							if ( cache_entries.size() > 0 ){
-
-								Iterator it = cache_entries.keySet().iterator();
-
-								while( it.hasNext()){
-
-									CacheEntry	entry = (CacheEntry)it.next();
-
-									// System.out.println( "oldest entry = " + ( now - entry.getLastUsed()));
-
-									if ( entry.isDirty()){
-
-										dirty_files.add( entry.getFile());
-									}
-								}
-							}
-
 							// System.out.println( "cache file = " + cache_files.size() + ", torrent map = " + torrent_to_cache_file_map.size());
 
 						}finally{
 
 							this_mon.exit();
 						}
+						
+						for (int i=0;i<cache_segments.length;i++){
+							
+							cache_segments[i].getDirtyFiles( dirty_files );
+						}
 
 						Iterator	it = dirty_files.iterator();
 
@@ -576,24 +704,31 @@ CacheFileManagerImpl
 	
 		throws CacheFileManagerException
 	{
-		try{
-			this_mon.enter();
-			
-			cache_space_free	-= new_entry.getLength();
-			
-				// 	System.out.println( "Total cache space = " + cache_space_free );
+		getSegment( new_entry ).add( new_entry );
 		
-			cache_entries.put( new_entry, new_entry );
+		cache_space_free.addAndGet( -new_entry.getLength());
+		
+			// 	System.out.println( "Total cache space = " + cache_space_free );
+		
+		if ( DEBUG ){
 			
-			if ( DEBUG ){
-				
+			try{
+				this_mon.enter();
+
 				CacheFileWithCache	file	= new_entry.getFile();
 								
 				long	total_cache_size	= 0;
 				
 				int		my_count = 0;
 
-				Iterator it = cache_entries.keySet().iterator();
+				List	all_entries = new ArrayList();
+				
+				for (int i=0;i<cache_segments.length;i++){
+					
+					cache_segments[i].getEntries( all_entries );
+				}
+				
+				Iterator it = all_entries.iterator();
 				
 				while( it.hasNext()){
 					
@@ -618,7 +753,7 @@ CacheFileManagerImpl
 					//System.out.println( "Cache: file_count = " + my_count );
 				}
 				
-				if ( total_cache_size != cache_size - cache_space_free ){
+				if ( total_cache_size != cache_size - cache_space_free.get()){
 					
 					Debug.out( "Cache inconsistency: used_size = " + total_cache_size + ", free = " + cache_space_free + ", size = " + cache_size );
 					
@@ -628,10 +763,10 @@ CacheFileManagerImpl
 					
 					//System.out.println( "Cache: usage = " + total_cache_size );
 				}
+			}finally{
+				
+				this_mon.exit();
 			}
-		}finally{
-			
-			this_mon.exit();
 		}
 	}
 	
@@ -641,24 +776,13 @@ CacheFileManagerImpl
 	
 		throws CacheFileManagerException
 	{
-		try{
-			this_mon.enter();
+			// only the entry's segment is locked, the MRU update happens there
 		
-				// note that the "get" operation update the MRU in cache_entries
+		if ( !getSegment( entry ).used( entry )){
 			
-			if ( cache_entries.get( entry ) == null ){
-				
-				Debug.out( "Cache inconsistency: entry missing on usage" );
-				
-				throw( new CacheFileManagerException( null, "Cache inconsistency: entry missing on usage"));
-				
-			}else{
-				
-				entry.used();
-			}
-		}finally{
+			Debug.out( "Cache inconsistency: entry missing on usage" );
 			
-			this_mon.exit();
+			throw( new CacheFileManagerException( null, "Cache inconsistency: entry missing on usage"));
 		}
 	}
 	
@@ -670,17 +794,16 @@ CacheFileManagerImpl
 	{
 		entry.getBuffer().returnToPool();
 		
-		try{
-			this_mon.enter();
-			
-			cache_space_free	+= entry.getLength();
+		boolean	removed = getSegment( entry ).remove( entry );
+		
+		cache_space_free.addAndGet( entry.getLength());
+		
+		if ( !removed ){
 			
-			if ( cache_entries.remove( entry ) == null ){
-				
-				Debug.out( "Cache inconsistency: entry missing on removal" );
+			Debug.out( "Cache inconsistency: entry missing on removal" );
 
-				throw( new CacheFileManagerException( null, "Cache inconsistency: entry missing on removal"));
-			}
+			throw( new CacheFileManagerException( null, "Cache inconsistency: entry missing on removal"));
+		}
 
 			/*
 			if ( 	entry.getType() == CacheEntry.CT_READ_AHEAD ){
@@ -697,10 +820,6 @@ CacheFileManagerImpl
 			*/
 			
 			// System.out.println( "Total cache space = " + cache_space_free );
-		}finally{
-			
-			this_mon.exit();
-		}
 	}
 	
 	protected long
@@ -712,7 +831,7 @@ CacheFileManagerImpl
 	protected long
 	getCacheUsed()
 	{
-		long free = cache_space_free;
+		long free = cache_space_free.get();
 		
 		if ( free < 0 ){
 			
@@ -726,115 +845,84 @@ CacheFileManagerImpl
 	cacheBytesWritten(
 		long		num )
 	{
-		try{
-			this_mon.enter();
-			
-			cache_bytes_written	+= num;
-			
-			cache_write_count++;
-			
-		}finally{
-			
-			this_mon.exit();
-		}
+		cache_bytes_written.addAndGet( num );
+		
+		cache_write_count.incrementAndGet();
 	}
 	
 	protected void
 	cacheBytesRead(
 		int		num )
 	{
-		try{
-			this_mon.enter();
-			
-			cache_bytes_read	+= num;
-			
-			cache_read_count++;
-			
-		}finally{
-			
-			this_mon.exit();
-		}
+		cache_bytes_read.addAndGet( num );
+		
+		cache_read_count.incrementAndGet();
 	}
 	
 	protected void
 	fileBytesWritten(
 		long	num )
 	{
-		try{
-			this_mon.enter();
-			
-			file_bytes_written	+= num;
-			
-			file_write_count++;
-			
-		}finally{
-			
-			this_mon.exit();
-		}
+		file_bytes_written.addAndGet( num );
+		
+		file_write_count.incrementAndGet();
 	}
 	
 	protected void
 	fileBytesRead(
 		int		num )
 	{
-		try{
-			this_mon.enter();
-			
-			file_bytes_read	+= num;
-			
-			file_read_count++;
-		}finally{
-			
-			this_mon.exit();
-		}
+		file_bytes_read.addAndGet( num );
+		
+		file_read_count.incrementAndGet();
 	}
 	
 	protected long
 	getBytesWrittenToCache()
 	{
-		return( cache_bytes_written );
+		return( cache_bytes_written.get());
 	}
 	
 	protected long
 	getBytesWrittenToFile()
 	{
-		return( file_bytes_written );
+		return( file_bytes_written.get());
 	}
 	
 	protected long
 	getBytesReadFromCache()
 	{
-		return( cache_bytes_read );
+		return( cache_bytes_read.get());
 	}
 	
 	protected long
 	getBytesReadFromFile()
 	{
-		return( file_bytes_read );
+		return( file_bytes_read.get());
 	}
 	
 	public long
 	getCacheReadCount()
 	{
-		return( cache_read_count );
+		return( cache_read_count.get());
 	}
 	
 	public long
 	getCacheWriteCount()
 	{
-		return( cache_write_count );
+		return( cache_write_count.get());
 	}
 	
 	public long
 	getFileReadCount()
 	{
-		return( file_read_count );
+		return( file_read_count.get());
 	}
 	
 	public long
 	getFileWriteCount()
 	{
-		return( file_write_count );
+		return( file_write_count.get());
 	}
 	
 	protected void
@@ -971,17 +1059,16 @@ CacheFileManagerImpl
 				// grab a copy to avoid potential deadlock as we never take the manager monitor
 				// and then the file's own monitor, always the other way around
 			
-			try{
-				this_mon.enter();
-
-				it = new ArrayList( cache_entries.keySet()).iterator();
-
-			}finally{
+			List	entries = new ArrayList();
+			
+			for (int i=0;i<cache_segments.length;i++){
 				
-				this_mon.exit();
+				cache_segments[i].getEntries( entries );
 			}
+
+			it = entries.iterator();
 			
-			writer.println( "Entries = " + cache_entries.size());
+			writer.println( "Entries = " + entries.size() + ", segments = " + cache_segments.length + ", policy = " + cache_policy );
 							
 			Set	files = new HashSet();
 			
@@ -1154,6 +1154,15 @@ CacheFileWithCache
 		}
 	}
 	
+	protected void
+	releaseCleanEntry(
+		CacheEntry		entry )
+	
+		throws CacheFileManagerException
+	{
+		flushCache( entry.getFilePosition(), entry.getLength(), true, -1, 0, -1 );
+	}
+	
 		// this is the flush method used by the public methods directly (as opposed to those use when reading, writing etc)
 		// and it is the place that pending exceptions are checked for. We don't want to check for this in the internal
 		// logic for flushing as we need to be able to flush from files that have a pending error to clear the cache
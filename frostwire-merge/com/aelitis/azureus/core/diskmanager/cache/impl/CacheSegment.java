@@ -0,0 +1,191 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package com.aelitis.azureus.core.diskmanager.cache.impl;
+
+import java.util.*;
+
+import org.gudy.azureus2.core3.util.AEMonitor;
+
+/**
+ * One stripe of the cache manager's entry list. Each stripe keeps its own
+ * eviction order under its own monitor so hits on different stripes don't
+ * serialise; the manager picks eviction victims across stripes.
+ */
+
+public class
+CacheSegment
+{
+	private final AEMonitor				this_mon;
+
+	private final CacheEvictionPolicy	policy;
+
+	protected
+	CacheSegment(
+		int						index,
+		CacheEvictionPolicy		_policy )
+	{
+		this_mon	= new AEMonitor( "CacheSegment:" + index );
+		policy		= _policy;
+	}
+
+	protected void
+	add(
+		CacheEntry	entry )
+	{
+		try{
+			this_mon.enter();
+
+			policy.add( entry );
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+		/**
+		 * @return false if the entry isn't in this segment
+		 */
+
+	protected boolean
+	used(
+		CacheEntry	entry )
+	{
+		try{
+			this_mon.enter();
+
+			if ( !policy.used( entry )){
+
+				return( false );
+			}
+
+			entry.used();
+
+			return( true );
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+	protected boolean
+	remove(
+		CacheEntry	entry )
+	{
+		try{
+			this_mon.enter();
+
+			return( policy.remove( entry ));
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+		/**
+		 * @return the entry the policy would evict next or null if empty
+		 */
+
+	protected CacheEntry
+	getVictim()
+	{
+		try{
+			this_mon.enter();
+
+			return( policy.getVictim());
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+	protected long
+	getVictimRank(
+		CacheEntry	entry )
+	{
+		try{
+			this_mon.enter();
+
+			return( policy.getVictimRank( entry ));
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+	protected void
+	getDirtyFiles(
+		Set		files )
+	{
+		try{
+			this_mon.enter();
+
+			List	entries = new ArrayList( policy.size());
+
+			policy.getEntries( entries );
+
+			Iterator it = entries.iterator();
+
+			while( it.hasNext()){
+
+				CacheEntry	entry = (CacheEntry)it.next();
+
+				if ( entry.isDirty()){
+
+					files.add( entry.getFile());
+				}
+			}
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+	protected void
+	getEntries(
+		Collection	result )
+	{
+		try{
+			this_mon.enter();
+
+			policy.getEntries( result );
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+	protected int
+	size()
+	{
+		try{
+			this_mon.enter();
+
+			return( policy.size());
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+}
@@ -0,0 +1,364 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package com.aelitis.azureus.core.diskmanager.cache.impl.test;
+
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+import org.gudy.azureus2.core3.torrent.TOTorrent;
+import org.gudy.azureus2.core3.torrent.TOTorrentFactory;
+import org.gudy.azureus2.core3.torrent.TOTorrentFile;
+import org.gudy.azureus2.core3.util.DirectByteBuffer;
+import org.gudy.azureus2.core3.util.DirectByteBufferPool;
+import org.gudy.azureus2.core3.util.FileUtil;
+
+import com.aelitis.azureus.core.diskmanager.cache.CacheFile;
+import com.aelitis.azureus.core.diskmanager.cache.CacheFileManagerStats;
+import com.aelitis.azureus.core.diskmanager.cache.CacheFileOwner;
+import com.aelitis.azureus.core.diskmanager.cache.impl.CacheEvictionPolicy;
+import com.aelitis.azureus.core.diskmanager.cache.impl.CacheFileManagerImpl;
+
+/**
+ * Replays a block read trace through CacheFileWithCache once per eviction policy
+ * and reports the cache hit ratio of each.
+ * <p>
+ * usage: CacheReplayTester [cache MB] [trace file]
+ * <p>
+ * A trace has one read per line, "file offset length", file being a small index
+ * into the set of files replayed. '#' starts a comment. Without a trace a
+ * synthetic seeding workload is used: whole pieces of one file requested with
+ * a skewed popularity, interleaved with a sequential pass over a second file as
+ * a recheck or a streaming peer would cause.
+ */
+
+public class
+CacheReplayTester
+{
+	private static final int	PIECE_SIZE	= 256*1024;
+	private static final int	BLOCK_SIZE	= 16*1024;
+
+	public static void
+	main(
+		String[]	args )
+	{
+		try{
+			int		cache_mb	= args.length > 0?Integer.parseInt( args[0] ):32;
+
+			List	trace		= args.length > 1?loadTrace( new File( args[1] )):generateTrace();
+
+			Map	data = new HashMap();
+
+			data.put( "diskmanager.perf.cache.enable", new Long( 1 ));
+			data.put( "diskmanager.perf.cache.enable.read", new Long( 1 ));
+			data.put( "diskmanager.perf.cache.enable.write", new Long( 1 ));
+			data.put( "diskmanager.perf.cache.size", new Long( cache_mb ));
+			data.put( "notsmallerthan", new Long( 0 ));
+
+			COConfigurationManager.initialiseFromMap( data );
+
+			File	dir = File.createTempFile( "cachereplay", "" );
+
+			dir.delete();
+
+			dir.mkdirs();
+
+			try{
+				TOTorrentFile[]	files = createFiles( dir, trace );
+
+				long	requested = 0;
+
+				for (int i=0;i<trace.size();i++){
+
+					requested += ((long[])trace.get(i))[2];
+				}
+
+				System.out.println( "trace: " + trace.size() + " reads, " + ( requested/(1024*1024)) + " MB, cache " + cache_mb + " MB" );
+
+				String[]	policies = { CacheEvictionPolicy.LRU, CacheEvictionPolicy.TINYLFU };
+
+				for (int i=0;i<policies.length;i++){
+
+					replay( policies[i], dir, files, trace, requested );
+				}
+			}finally{
+
+				FileUtil.recursiveDelete( dir );
+			}
+		}catch( Throwable e ){
+
+			e.printStackTrace();
+		}
+
+		System.exit( 0 );
+	}
+
+	private static void
+	replay(
+		String				policy,
+		final File			dir,
+		TOTorrentFile[]		files,
+		List				trace,
+		long				requested )
+
+		throws Exception
+	{
+		COConfigurationManager.setParameter( "diskmanager.perf.cache.policy", policy );
+
+		CacheFileManagerImpl	manager = new CacheFileManagerImpl();
+
+		CacheFile[]	cache_files = new CacheFile[files.length];
+
+		for (int i=0;i<files.length;i++){
+
+			final TOTorrentFile	tf 		= files[i];
+			final String		name	= "file" + i;
+
+			cache_files[i] = manager.createFile(
+				new CacheFileOwner()
+				{
+					public String
+					getCacheFileOwnerName()
+					{
+						return( name );
+					}
+
+					public TOTorrentFile
+					getCacheFileTorrentFile()
+					{
+						return( tf );
+					}
+
+					public File
+					getCacheFileControlFileDir()
+					{
+						return( dir );
+					}
+
+					public int
+					getCacheMode()
+					{
+						return( CACHE_MODE_NORMAL );
+					}
+				},
+				new File( dir, name ),
+				CacheFile.CT_LINEAR );
+		}
+
+		long	start = System.currentTimeMillis();
+
+		for (int i=0;i<trace.size();i++){
+
+			long[]	read = (long[])trace.get(i);
+
+			DirectByteBuffer	buffer = DirectByteBufferPool.getBuffer( DirectByteBuffer.AL_EXTERNAL, (int)read[2] );
+
+			try{
+				cache_files[(int)read[0]].read( buffer, read[1], CacheFile.CP_READ_CACHE );
+
+			}finally{
+
+				buffer.returnToPool();
+			}
+		}
+
+		long	elapsed = System.currentTimeMillis() - start;
+
+		CacheFileManagerStats	stats = manager.getStats();
+
+		long	from_cache	= stats.getBytesReadFromCache();
+		long	from_file	= stats.getBytesReadFromFile();
+
+		System.out.println(
+			policy + ": hit ratio " + ( from_cache*1000/requested )/10.0 + "%" +
+			", disk reads " + ( from_file/(1024*1024)) + " MB" +
+			", " + elapsed + " ms" );
+
+		for (int i=0;i<cache_files.length;i++){
+
+			cache_files[i].close();
+		}
+	}
+
+	private static TOTorrentFile[]
+	createFiles(
+		File		dir,
+		List		trace )
+
+		throws Exception
+	{
+		long[]	lengths = new long[0];
+
+		for (int i=0;i<trace.size();i++){
+
+			long[]	read = (long[])trace.get(i);
+
+			int	index = (int)read[0];
+
+			if ( index >= lengths.length ){
+
+				long[]	l = new long[index+1];
+
+				System.arraycopy( lengths, 0, l, 0, lengths.length );
+
+				lengths = l;
+			}
+
+			lengths[index] = Math.max( lengths[index], read[1] + read[2] );
+		}
+
+		TOTorrentFile[]	result = new TOTorrentFile[lengths.length];
+
+		for (int i=0;i<lengths.length;i++){
+
+				// sparse, we only care about what the cache does with the data
+
+			File	f = new File( dir, "file" + i );
+
+			RandomAccessFile	raf = new RandomAccessFile( f, "rw" );
+
+			try{
+				raf.setLength( Math.max( PIECE_SIZE, lengths[i] ));
+
+			}finally{
+
+				raf.close();
+			}
+
+			TOTorrent	torrent =
+				TOTorrentFactory.createFromFileOrDirWithFixedPieceLength(
+					f, new URL( "http://localhost/announce" ), PIECE_SIZE ).create();
+
+			result[i] = torrent.getFiles()[0];
+		}
+
+		return( result );
+	}
+
+	private static List
+	loadTrace(
+		File	file )
+
+		throws IOException
+	{
+		List	result = new ArrayList();
+
+		BufferedReader	br = new BufferedReader( new FileReader( file ));
+
+		try{
+			while( true ){
+
+				String	line = br.readLine();
+
+				if ( line == null ){
+
+					break;
+				}
+
+				int	hash = line.indexOf( '#' );
+
+				if ( hash != -1 ){
+
+					line = line.substring( 0, hash );
+				}
+
+				StringTokenizer	tok = new StringTokenizer( line );
+
+				if ( tok.countTokens() == 0 ){
+
+					continue;
+				}
+
+				if ( tok.countTokens() != 3 ){
+
+					throw( new IOException( "Invalid trace line: " + line ));
+				}
+
+				result.add( new long[]{
+						Long.parseLong( tok.nextToken()),
+						Long.parseLong( tok.nextToken()),
+						Long.parseLong( tok.nextToken())});
+			}
+		}finally{
+
+			br.close();
+		}
+
+		return( result );
+	}
+
+	private static List
+	generateTrace()
+	{
+		Random	random = new Random( 0 );
+
+		int		pieces		= 512;			// 128MB seeded file
+		long	scan_length	= 256*1024*1024L;
+
+			// zipf-ish popularity over the pieces
+
+		double[]	cumulative = new double[pieces];
+
+		double	total = 0;
+
+		for (int i=0;i<pieces;i++){
+
+			total += 1.0 / ( i + 1 );
+
+			cumulative[i] = total;
+		}
+
+		List	result = new ArrayList();
+
+		long	scan_position = 0;
+
+		for (int round=0;round<64;round++){
+
+			for (int i=0;i<64;i++){
+
+				double	r = random.nextDouble() * total;
+
+				int	piece = Arrays.binarySearch( cumulative, r );
+
+				if ( piece < 0 ){
+
+					piece = -piece - 1;
+				}
+
+					// scatter the popular pieces over the file
+
+				piece = (int)(( piece * 2654435761L ) % pieces );
+
+				for (int j=0;j<PIECE_SIZE;j+=BLOCK_SIZE){
+
+					result.add( new long[]{ 0, (long)piece*PIECE_SIZE + j, BLOCK_SIZE });
+				}
+			}
+
+			for (int i=0;i<16*1024*1024;i+=BLOCK_SIZE){
+
+				result.add( new long[]{ 1, scan_position, BLOCK_SIZE });
+
+				scan_position = ( scan_position + BLOCK_SIZE ) % scan_length;
+			}
+		}
+
+		return( result );
+	}
+}
@@ -23,6 +23,7 @@
 package com.aelitis.azureus.core.networkmanager;
 
 import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -38,6 +39,7 @@ import com.aelitis.azureus.core.AzureusCore;
 import com.aelitis.azureus.core.networkmanager.impl.*;
 import com.aelitis.azureus.core.networkmanager.impl.http.HTTPNetworkManager;
 import com.aelitis.azureus.core.networkmanager.impl.tcp.TCPNetworkManager;
+import com.aelitis.azureus.core.networkmanager.impl.tcp.TCPTransportImpl;
 import com.aelitis.azureus.core.networkmanager.impl.udp.UDPNetworkManager;
 import com.aelitis.azureus.core.peermanager.messaging.MessageStreamDecoder;
 import com.aelitis.azureus.core.peermanager.messaging.MessageStreamEncoder;
@@ -140,9 +142,25 @@ public class NetworkManager {
   private final List<WriteController> 	write_controllers;
   private final List<ReadController> 	read_controllers;
   
+  	// in reactor mode connections are spread over the controllers individually rather than by partition
+  
+  private final boolean					reactor_mode;
+  
   {
 	 int	num_read = COConfigurationManager.getIntParameter( "network.control.read.processor.count" );
 	 
+	 int	num_write = COConfigurationManager.getIntParameter( "network.control.write.processor.count" );
+
+	 int	reactors = NetworkManagerUtilities.getReactorCount();
+	 
+	 reactor_mode = reactors > 1;
+	 
+	 if ( reactor_mode ){
+		 
+		 num_read 	= reactors;
+		 num_write	= reactors;
+	 }
+	 
 	 read_controllers = new ArrayList<ReadController>(num_read);
 	 
 	 for (int i=0;i<num_read;i++){
@@ -150,8 +168,6 @@ public class NetworkManager {
 		 read_controllers.add( new ReadController());
 	 }
 	 
-	 int	num_write = COConfigurationManager.getIntParameter( "network.control.write.processor.count" );
-	 
 	 write_controllers = new ArrayList<WriteController>(num_write);
 	 
 	 for (int i=0;i<num_write;i++){
@@ -427,7 +443,38 @@ public class NetworkManager {
    * @param entity to add
    */
   public void addWriteEntity( RateControlledEntity entity, int partition_id ) {
-	  if ( write_controllers.size() == 1 || partition_id < 0 ){
+	  addWriteEntity( entity, null, partition_id );
+  }
+  
+  
+  /**
+   * Add an upload entity for write processing. In reactor mode an entity serving a single
+   * TCP connection goes to the controller of the reactor that selects for its channel.
+   * @param entity to add
+   * @param connection the entity serves, null if it serves many
+   */
+  public void addWriteEntity( RateControlledEntity entity, NetworkConnectionBase connection, int partition_id ) {
+	  int	reactor = reactor_mode?getReactor( connection, write_controllers.size()):-1;
+	  
+	  if ( reactor >= 0 ){
+		  
+		  write_controllers.get( reactor ).addWriteEntity( entity );
+		  
+	  }else if ( reactor_mode ){
+		  
+		  WriteController	least = write_controllers.get(0);
+		  
+		  for ( WriteController controller: write_controllers ){
+			  
+			  if ( controller.getEntityCount() < least.getEntityCount()){
+				  
+				  least = controller;
+			  }
+		  }
+		  
+		  least.addWriteEntity( entity );
+		  
+	  }else if ( write_controllers.size() == 1 || partition_id < 0 ){
 		  
 		  write_controllers.get(0).addWriteEntity(entity);
 		  
@@ -460,7 +507,37 @@ public class NetworkManager {
    * @param entity to add
    */
   public void addReadEntity( RateControlledEntity entity, int partition_id ) {
-	  if ( read_controllers.size() == 1 || partition_id < 0 ){
+	  addReadEntity( entity, null, partition_id );
+  }
+  
+  
+  /**
+   * Add a download entity for read processing, placed as for addWriteEntity.
+   * @param entity to add
+   * @param connection the entity serves, null if it serves many
+   */
+  public void addReadEntity( RateControlledEntity entity, NetworkConnectionBase connection, int partition_id ) {
+	  int	reactor = reactor_mode?getReactor( connection, read_controllers.size()):-1;
+	  
+	  if ( reactor >= 0 ){
+		  
+		  read_controllers.get( reactor ).addReadEntity( entity );
+		  
+	  }else if ( reactor_mode ){
+		  
+		  ReadController	least = read_controllers.get(0);
+		  
+		  for ( ReadController controller: read_controllers ){
+			  
+			  if ( controller.getEntityCount() < least.getEntityCount()){
+				  
+				  least = controller;
+			  }
+		  }
+		  
+		  least.addReadEntity( entity );
+		  
+	  }else if ( read_controllers.size() == 1 || partition_id < 0 ){
 		  
 		  read_controllers.get(0).addReadEntity(entity);
 		  
@@ -473,6 +550,42 @@ public class NetworkManager {
   }
   
   
+  /**
+   * The reactor whose selectors the connection's channel is registered with, or -1 when
+   * there's no TCP channel (many connections, other transports) and the least loaded
+   * controller is used instead.
+   */
+  private static int
+  getReactor(
+	NetworkConnectionBase	connection,
+	int						controllers )
+  {
+	  if ( connection == null ){
+		  
+		  return( -1 );
+	  }
+	  
+	  TransportBase	transport = connection.getTransportBase();
+	  
+	  if ( transport instanceof TCPTransportImpl ){
+		  
+		  SocketChannel	channel = ((TCPTransportImpl)transport).getSocketChannel();
+		  
+		  if ( channel != null ){
+			  
+			  int	reactor = TCPNetworkManager.getSingleton().getReactor( channel );
+			  
+			  if ( reactor < controllers ){
+				  
+				  return( reactor );
+			  }
+		  }
+	  }
+	  
+	  return( -1 );
+  }
+  
+  
   /**
    * Remove a download entity from read processing.
    * @param entity to remove
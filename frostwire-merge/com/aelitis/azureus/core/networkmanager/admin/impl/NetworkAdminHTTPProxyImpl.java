@@ -249,7 +249,7 @@ NetworkAdminHTTPProxyImpl
 								}
 							}
 																
-							TCPNetworkManager.getSingleton().getReadSelector().register( 
+							TCPNetworkManager.getSingleton().getReadSelector( transport.getSocketChannel() ).register( 
 								transport.getSocketChannel(), 
 								new VirtualChannelSelector.VirtualSelectorListener() 
 								{
@@ -357,7 +357,7 @@ NetworkAdminHTTPProxyImpl
 												
 											 }else{
 												
-												TCPNetworkManager.getSingleton().getReadSelector().resumeSelects( transport.getSocketChannel() ); 
+												TCPNetworkManager.getSingleton().getReadSelector( transport.getSocketChannel() ).resumeSelects( transport.getSocketChannel() ); 
 											}
 			
 											 return( true );
@@ -0,0 +1,224 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package com.aelitis.azureus.core.networkmanager.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gudy.azureus2.core3.util.Debug;
+import org.gudy.azureus2.core3.util.SystemTime;
+
+import com.aelitis.azureus.core.networkmanager.NetworkManager;
+
+/**
+ * Lock free byte-bucket, a drop-in for ByteBucketMT where buckets are shared between
+ * processor threads. It is a single flat bucket: the global and group limits are still
+ * separate buckets that the connection rate handler checks and charges one by one.
+ * <p>
+ * Usage is a single atomic add. Refills are batched: at most one thread per refill
+ * period wins the CAS on the refill time and credits the whole elapsed interval, the
+ * others just see the tokens. Time that doesn't amount to a whole byte isn't
+ * consumed so slow rates still fill.
+ */
+
+public class
+ByteBucketAtomic
+	implements ByteBucket
+{
+	private static final long	REFILL_PERIOD	= 2;	// millis
+
+	private volatile int rate;
+	private volatile int burst_rate;
+
+	private final AtomicLong	avail_bytes			= new AtomicLong();		//start bucket empty
+	private final AtomicLong	prev_update_time	= new AtomicLong();
+
+	private volatile boolean frozen;
+
+	/**
+	 * Create a new byte-bucket with the given byte fill (guaranteed) rate.
+	 * Burst rate is set to default 1.2X of given fill rate.
+	 * @param rate_bytes_per_sec fill rate
+	 */
+	public ByteBucketAtomic( int rate_bytes_per_sec ) {
+		this.rate 		= rate_bytes_per_sec;
+		this.burst_rate = rate_bytes_per_sec + (rate_bytes_per_sec/5);
+		prev_update_time.set( SystemTime.getMonotonousTime());
+		ensureByteBucketMinBurstRate();
+	}
+
+
+	/**
+	 * Get the number of bytes currently available for use.
+	 * @return number of free bytes
+	 */
+	public int getAvailableByteCount() {
+		long avail = avail_bytes.get();
+
+		if ( avail < NetworkManager.UNLIMITED_RATE ){
+
+			refill();
+
+			avail = avail_bytes.get();
+		}
+
+		if ( avail <= 0 ){
+
+			return( 0 );
+		}
+
+		return((int)Math.min( avail, Integer.MAX_VALUE ));
+	}
+
+
+	/**
+	 * Update the bucket with the number of bytes just used.
+	 * @param bytes_used
+	 */
+	public void setBytesUsed( int bytes_used ) {
+		if ( avail_bytes.get() >= NetworkManager.UNLIMITED_RATE ){
+			return;
+		}
+
+		avail_bytes.addAndGet( -bytes_used );
+	}
+
+
+	/**
+	 * Get the configured fill rate.
+	 * @return guaranteed rate in bytes per sec
+	 */
+	public int getRate() {  return rate;  }
+
+
+	/**
+	 * Get the configured burst rate.
+	 * @return burst rate in bytes per sec
+	 */
+	public int getBurstRate() {  return burst_rate;  }
+
+
+	/**
+	 * Set the current fill/guaranteed rate, with a burst rate of 1.2X the given rate.
+	 * @param rate_bytes_per_sec
+	 */
+	public void setRate( int rate_bytes_per_sec ) {
+		setRate( rate_bytes_per_sec, rate_bytes_per_sec + (rate_bytes_per_sec/5));
+	}
+
+	public void
+	setFrozen(
+		boolean	f )
+	{
+		frozen = f;
+	}
+
+	/**
+	 * Set the current fill/guaranteed rate, along with the burst rate.
+	 * @param rate_bytes_per_sec
+	 * @param burst_rate
+	 */
+	public void setRate( int rate_bytes_per_sec, int burst_rate ) {
+		if( rate_bytes_per_sec < 0 ) {
+			Debug.out("rate_bytes_per_sec [" +rate_bytes_per_sec+ "] < 0");
+			rate_bytes_per_sec = 0;
+		}
+		if( burst_rate < rate_bytes_per_sec ) {
+			Debug.out("burst_rate [" +burst_rate+ "] < rate_bytes_per_sec [" +rate_bytes_per_sec+ "]");
+			burst_rate = rate_bytes_per_sec;
+		}
+		this.rate = rate_bytes_per_sec;
+		this.burst_rate = burst_rate;
+		ensureByteBucketMinBurstRate();
+		clampToBurst();
+	}
+
+
+	private void
+	refill()
+	{
+		if ( frozen ){
+			return;
+		}
+
+		long	prev	= prev_update_time.get();
+		long	now 	= SystemTime.getMonotonousTime();
+
+		long	elapsed = now - prev;
+
+		if ( elapsed < REFILL_PERIOD ){
+
+			if ( elapsed < 0 ){
+
+					// shouldn't happen with the monotonous clock but don't get stuck if it does
+
+				prev_update_time.compareAndSet( prev, now );
+			}
+
+			return;
+		}
+
+		long	add = ( elapsed * rate ) / 1000;
+
+		if ( add <= 0 ){
+
+			return;
+		}
+
+			// only the winner credits the interval
+
+		if ( prev_update_time.compareAndSet( prev, now )){
+
+			avail_bytes.addAndGet( add );
+
+			clampToBurst();
+		}
+	}
+
+	private void
+	clampToBurst()
+	{
+		while( true ){
+
+			long	avail = avail_bytes.get();
+
+			if ( avail <= burst_rate ){
+
+				return;
+			}
+
+				// concurrent usage only lowers the value so a failed CAS just means try again
+
+			if ( avail_bytes.compareAndSet( avail, burst_rate )){
+
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * Make sure the bucket's burst rate is at least MSS-sized,
+	 * otherwise it will never allow a full packet's worth of data.
+	 */
+	private void ensureByteBucketMinBurstRate() {
+		int mss = NetworkManager.getMinMssSize();
+		if( burst_rate < mss ) {  //oops, this won't ever allow a full packet
+			burst_rate = mss;  //so increase the max byte size
+		}
+	}
+}
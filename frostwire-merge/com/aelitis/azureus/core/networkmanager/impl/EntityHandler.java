@@ -130,7 +130,7 @@ public class EntityHandler {
         if( !global_uploader.removePeerConnection( connection ) ) {  //remove it from the general upload pool
           Debug.out( "upgradePeerConnection:: upload entity not found/removed !" );
         }
-        NetworkManager.getSingleton().addWriteEntity( upload_entity, partition_id );  //register it for write processing
+        NetworkManager.getSingleton().addWriteEntity( upload_entity, connection, partition_id );  //register it for write processing
         upgraded_connections.put( connection, upload_entity );  //add it to the upgraded list
       }
       else {
@@ -138,7 +138,7 @@ public class EntityHandler {
         if( !global_downloader.removePeerConnection( connection ) ) {  //remove it from the general upload pool
           Debug.out( "upgradePeerConnection:: download entity not found/removed !" );
         }
-        NetworkManager.getSingleton().addReadEntity( download_entity, partition_id );  //register it for read processing
+        NetworkManager.getSingleton().addReadEntity( download_entity, connection, partition_id );  //register it for read processing
         upgraded_connections.put( connection, download_entity );  //add it to the upgraded list
       }
     }
@@ -22,6 +22,8 @@
 
 package com.aelitis.azureus.core.networkmanager.impl;
 
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+
 import com.aelitis.azureus.core.networkmanager.LimitedRateGroup;
 import com.aelitis.azureus.core.networkmanager.NetworkManager;
 
@@ -47,4 +49,19 @@ public class NetworkManagerUtilities {
   }
   
   
+  /**
+   * Number of read/write reactors, each with its own selectors and processor threads, that
+   * connections are spread over. 1 unless reactor mode is enabled.
+   * @return reactor count
+   */
+  public static int getReactorCount() {
+    if( !COConfigurationManager.getBooleanParameter( "network.control.reactors.enable" ) ) {
+      return 1;
+    }
+    int count = COConfigurationManager.getIntParameter( "network.control.reactors.count" );
+    if( count <= 0 ) {  //one per core
+      count = Runtime.getRuntime().availableProcessors();
+    }
+    return Math.max( 1, count );
+  }
 }
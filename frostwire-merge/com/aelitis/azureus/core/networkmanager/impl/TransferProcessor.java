@@ -23,7 +23,10 @@
 package com.aelitis.azureus.core.networkmanager.impl;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+import org.gudy.azureus2.core3.config.ParameterListener;
 import org.gudy.azureus2.core3.util.AEMonitor;
 import org.gudy.azureus2.core3.util.Debug;
 
@@ -48,6 +51,22 @@ public class TransferProcessor {
 	  }
   }
   
+  private static boolean	LOCK_FREE_BUCKETS;
+  
+  static{
+	  COConfigurationManager.addAndFireParameterListener(
+		  "network.control.bucket.lockfree",
+		  new ParameterListener()
+		  {
+			  public void 
+			  parameterChanged(
+				  String name )
+			  {
+				  LOCK_FREE_BUCKETS = COConfigurationManager.getBooleanParameter( name );
+			  }
+		  });
+  }
+  
   public static final int TYPE_UPLOAD   = 0;
   public static final int TYPE_DOWNLOAD = 1;
   
@@ -57,8 +76,11 @@ public class TransferProcessor {
   private final ByteBucket main_bucket;
   private final EntityHandler main_controller;
   
-  private final HashMap<LimitedRateGroup,GroupData> 			group_buckets 	= new HashMap<LimitedRateGroup,GroupData>();
-  private final HashMap<NetworkConnectionBase,ConnectionData> 	connections 	= new HashMap<NetworkConnectionBase,ConnectionData>();
+  	// concurrent so that lookups needn't take connections_mon, which still serialises
+  	// updates as group membership counts have to move together with the maps
+  
+  private final Map<LimitedRateGroup,GroupData> 			group_buckets 	= new ConcurrentHashMap<LimitedRateGroup,GroupData>();
+  private final Map<NetworkConnectionBase,ConnectionData> 	connections 	= new ConcurrentHashMap<NetworkConnectionBase,ConnectionData>();
   
   private final AEMonitor connections_mon;
 
@@ -155,22 +177,11 @@ public class TransferProcessor {
   public List<NetworkConnectionBase>
   getConnections()
   {
-	  try{ 
-		  connections_mon.enter();
-
-		  return( new ArrayList<NetworkConnectionBase>( connections.keySet()));
-
-	  }finally{
-
-		  connections_mon.exit(); 
-	  }
+	  return( new ArrayList<NetworkConnectionBase>( connections.keySet()));
   }
   
   public boolean isRegistered( NetworkConnectionBase connection ){
-    try{ connections_mon.enter();
-      return( connections.containsKey( connection ));
-    }
-    finally{ connections_mon.exit(); }
+    return( connections.containsKey( connection ));
   }
   
   /**
@@ -360,12 +371,7 @@ public class TransferProcessor {
    * @param connection to upgrade
    */
   public void upgradePeerConnection( final NetworkConnectionBase connection, int partition_id ) {
-    ConnectionData connection_data = null;
-    
-    try{ connections_mon.enter();
-      connection_data = (ConnectionData)connections.get( connection );
-    }
-    finally{ connections_mon.exit(); }
+    ConnectionData connection_data = connections.get( connection );
     
     if( connection_data != null && connection_data.state == ConnectionData.STATE_NORMAL ) {
       final ConnectionData conn_data = connection_data;
@@ -457,12 +463,7 @@ public class TransferProcessor {
    * @param connection to downgrade
    */
   public void downgradePeerConnection( NetworkConnectionBase connection ) {
-    ConnectionData conn_data = null;
-    
-    try{ connections_mon.enter();
-      conn_data = (ConnectionData)connections.get( connection );
-    }
-    finally{ connections_mon.exit(); }
+    ConnectionData conn_data = connections.get( connection );
     
     if( conn_data != null && conn_data.state == ConnectionData.STATE_UPGRADED ) {
       main_controller.downgradePeerConnection( connection );
@@ -483,12 +484,19 @@ public class TransferProcessor {
 	return( main_controller.getRateHandler( connection ));  
   }
   
+  	// single threaded processors keep ByteBucketST, nothing else touches their buckets
+  
   private ByteBucket
   createBucket(
 	int	bytes_per_sec )
   {
 	  if ( multi_threaded ){
 		  
+		  if ( LOCK_FREE_BUCKETS ){
+			  
+			  return( new ByteBucketAtomic( bytes_per_sec ));
+		  }
+		  
 		  return( new ByteBucketMT( bytes_per_sec ));
 		  
 	  }else{
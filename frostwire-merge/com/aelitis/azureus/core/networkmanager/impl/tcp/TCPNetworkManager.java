@@ -24,6 +24,7 @@ package com.aelitis.azureus.core.networkmanager.impl.tcp;
 
 
 import java.net.InetAddress;
+import java.nio.channels.spi.AbstractSelectableChannel;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -35,6 +36,7 @@ import org.gudy.azureus2.core3.util.Debug;
 import org.gudy.azureus2.core3.util.SystemTime;
 
 import com.aelitis.azureus.core.networkmanager.VirtualChannelSelector;
+import com.aelitis.azureus.core.networkmanager.impl.NetworkManagerUtilities;
 import com.aelitis.azureus.core.stats.AzureusCoreStats;
 import com.aelitis.azureus.core.stats.AzureusCoreStatsProvider;
 
@@ -118,10 +120,10 @@ TCPNetworkManager
 	    if( tcp_mss_size < 512 )  tcp_mss_size = 512; 
 	}
 	
-	private final VirtualChannelSelector read_selector 	= 
-			new VirtualChannelSelector( "TCP network manager", VirtualChannelSelector.OP_READ, true );
-	private final VirtualChannelSelector write_selector = 
-			new VirtualChannelSelector( "TCP network manager", VirtualChannelSelector.OP_WRITE, true );
+		// one selector pair per reactor, a channel always maps to the same pair
+	
+	private final VirtualChannelSelector[] read_selectors;
+	private final VirtualChannelSelector[] write_selectors;
 
 	private final TCPConnectionManager connect_disconnect_manager = new TCPConnectionManager();
 
@@ -160,10 +162,30 @@ TCPNetworkManager
 				}
 			});
 		
-		   //start read selector processing
+		int	reactors = NetworkManagerUtilities.getReactorCount();
+		
+		read_selectors	= new VirtualChannelSelector[reactors];
+		write_selectors	= new VirtualChannelSelector[reactors];
 		
+		for (int i=0;i<reactors;i++){
+			
+			String	suffix = reactors==1?"":( ":" + i );
+			
+			read_selectors[i] 	= new VirtualChannelSelector( "TCP network manager" + suffix, VirtualChannelSelector.OP_READ, true );
+			write_selectors[i] 	= new VirtualChannelSelector( "TCP network manager" + suffix, VirtualChannelSelector.OP_WRITE, true );
+			
+			startReadSelector( read_selectors[i], "ReadController:ReadSelector" + suffix );
+			startWriteSelector( write_selectors[i], "WriteController:WriteSelector" + suffix );
+		}
+	}
+	
+	private void
+	startReadSelector(
+		final VirtualChannelSelector	read_selector,
+		String							name )
+	{
 		AEThread2 read_selector_thread = 
-	    	new AEThread2( "ReadController:ReadSelector", true ) 
+	    	new AEThread2( name, true ) 
 	    	{
 		    	public void 
 		    	run() 
@@ -208,11 +230,15 @@ TCPNetworkManager
 	    	
 	    read_selector_thread.setPriority( Thread.MAX_PRIORITY - 2 );
 	    read_selector_thread.start();
-	    
-	    	//start write selector processing
-	    
+	}
+	
+	private void
+	startWriteSelector(
+		final VirtualChannelSelector	write_selector,
+		String							name )
+	{
 	    AEThread2 write_selector_thread = 
-	    	new AEThread2( "WriteController:WriteSelector", true )
+	    	new AEThread2( name, true )
 	    	{
 		    	public void 
 		    	run() 
@@ -293,16 +319,55 @@ TCPNetworkManager
 	 * Get the virtual selector used for socket channel read readiness.
 	 * @return read readiness selector
 	 */
-	public VirtualChannelSelector getReadSelector() {  return read_selector;  }
+	public VirtualChannelSelector getReadSelector() {  return read_selectors[0];  }
 
 
 	/**
 	 * Get the virtual selector used for socket channel write readiness.
 	 * @return write readiness selector
 	 */
-	public VirtualChannelSelector getWriteSelector() {  return write_selector;  }
+	public VirtualChannelSelector getWriteSelector() {  return write_selectors[0];  }
+
+	
+	/**
+	 * Get the read readiness selector of the reactor the given channel belongs to. All
+	 * operations for a channel must go through the same selector.
+	 * @param channel to select for
+	 * @return read readiness selector
+	 */
+	public VirtualChannelSelector getReadSelector( AbstractSelectableChannel channel ) {  return read_selectors[getReactor( channel, read_selectors.length )];  }
+	
+	
+	/**
+	 * Get the write readiness selector of the reactor the given channel belongs to.
+	 * @param channel to select for
+	 * @return write readiness selector
+	 */
+	public VirtualChannelSelector getWriteSelector( AbstractSelectableChannel channel ) {  return write_selectors[getReactor( channel, write_selectors.length )];  }
 
+	
+	/**
+	 * Get the reactor the given channel belongs to, in reactor mode the connection's
+	 * read and write controllers are picked by the same index.
+	 * @param channel to look up
+	 * @return reactor index
+	 */
+	public int getReactor( AbstractSelectableChannel channel ) {  return getReactor( channel, read_selectors.length );  }
 
+	
+	private static int
+	getReactor(
+		AbstractSelectableChannel	channel,
+		int							reactors )
+	{
+		if ( reactors == 1 ){
+			
+			return( 0 );
+		}
+		
+		return(( System.identityHashCode( channel ) & 0x7fffffff ) % reactors );
+	}
+	
 	public boolean
 	isTCPListenerEnabled()
 	{
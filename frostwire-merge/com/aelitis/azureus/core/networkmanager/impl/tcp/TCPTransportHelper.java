@@ -430,7 +430,7 @@ TCPTransportHelper
 		final selectListener		listener,
 		Object						attachment )
 	{
-		TCPNetworkManager.getSingleton().getReadSelector().register(
+		TCPNetworkManager.getSingleton().getReadSelector( channel ).register(
 				channel,
 				new VirtualSelectorListener()
 				{
@@ -461,7 +461,7 @@ TCPTransportHelper
 		final selectListener		listener,
 		Object						attachment )
 	{
-		TCPNetworkManager.getSingleton().getWriteSelector().register(
+		TCPNetworkManager.getSingleton().getWriteSelector( channel ).register(
 				channel,
 				new VirtualSelectorListener()
 				{
@@ -494,7 +494,7 @@ TCPTransportHelper
 	public void
 	cancelReadSelects()
 	{
-		TCPNetworkManager.getSingleton().getReadSelector().cancel( channel );
+		TCPNetworkManager.getSingleton().getReadSelector( channel ).cancel( channel );
 	}
 
 	public void
@@ -504,13 +504,13 @@ TCPTransportHelper
 			TimeFormatter.milliTrace( "tcp: cancel write selects" );
 		}
 		
-		TCPNetworkManager.getSingleton().getWriteSelector().cancel( channel );
+		TCPNetworkManager.getSingleton().getWriteSelector( channel ).cancel( channel );
 	}
 
 	public void
 	resumeReadSelects()
 	{
-		TCPNetworkManager.getSingleton().getReadSelector().resumeSelects( channel );
+		TCPNetworkManager.getSingleton().getReadSelector( channel ).resumeSelects( channel );
 	}
 
 	public void
@@ -520,13 +520,13 @@ TCPTransportHelper
 			TimeFormatter.milliTrace( "tcp: resume write selects" );
 		}
 		
-		TCPNetworkManager.getSingleton().getWriteSelector().resumeSelects( channel );
+		TCPNetworkManager.getSingleton().getWriteSelector( channel ).resumeSelects( channel );
 	}
 
 	public void
 	pauseReadSelects()
 	{
-		TCPNetworkManager.getSingleton().getReadSelector().pauseSelects( channel );
+		TCPNetworkManager.getSingleton().getReadSelector( channel ).pauseSelects( channel );
 	}
 
 	public void
@@ -536,7 +536,7 @@ TCPTransportHelper
 			TimeFormatter.milliTrace( "tcp: pause write selects" );
 		}
 		
-		TCPNetworkManager.getSingleton().getWriteSelector().pauseSelects( channel );
+		TCPNetworkManager.getSingleton().getWriteSelector( channel ).pauseSelects( channel );
 	}
 
 	public boolean
@@ -550,8 +550,8 @@ TCPTransportHelper
 	{
 		closed = true;
 		
-		TCPNetworkManager.getSingleton().getReadSelector().cancel( channel );
-		TCPNetworkManager.getSingleton().getWriteSelector().cancel( channel );
+		TCPNetworkManager.getSingleton().getReadSelector( channel ).cancel( channel );
+		TCPNetworkManager.getSingleton().getWriteSelector( channel ).cancel( channel );
 		TCPNetworkManager.getSingleton().getConnectDisconnectManager().closeConnection( channel );
 	}
 
@@ -0,0 +1,186 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package com.aelitis.azureus.core.networkmanager.impl.test;
+
+import java.util.HashMap;
+
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+
+import com.aelitis.azureus.core.networkmanager.impl.ByteBucket;
+import com.aelitis.azureus.core.networkmanager.impl.ByteBucketAtomic;
+import com.aelitis.azureus.core.networkmanager.impl.ByteBucketMT;
+import com.aelitis.azureus.core.networkmanager.impl.ByteBucketST;
+
+/**
+ * Contention benchmark for the byte-bucket implementations, shaped like the
+ * upgraded connection rate handler in TransferProcessor: every send checks a
+ * shared global bucket and its group bucket (one group per pair of threads),
+ * takes the smaller allowance up to a packet and charges both.
+ * <p>
+ * usage: ByteBucketTester [threads] [seconds] [global MB/s] [group MB/s]
+ * <p>
+ * Reports operations per second and the achieved rate against the global limit,
+ * an overshoot means the bucket lost updates. ByteBucketST isn't thread safe and
+ * is only there as the uncontended baseline.
+ */
+
+public class
+ByteBucketTester
+{
+	private static final int	PACKET	= 1460;
+
+	private static final int	ST		= 0;
+	private static final int	MT		= 1;
+	private static final int	ATOMIC	= 2;
+
+	private static final String[]	NAMES = { "ByteBucketST", "ByteBucketMT", "ByteBucketAtomic" };
+
+	public static void
+	main(
+		String[]	args )
+	{
+		int		threads		= args.length > 0?Integer.parseInt( args[0] ):4;
+		int		seconds		= args.length > 1?Integer.parseInt( args[1] ):3;
+		int		global_rate	= ( args.length > 2?Integer.parseInt( args[2] ):50 )*1024*1024;
+		int		group_rate	= ( args.length > 3?Integer.parseInt( args[3] ):20 )*1024*1024;
+
+		COConfigurationManager.initialiseFromMap( new HashMap());
+
+		for (int type=0;type<NAMES.length;type++){
+
+			run( type, threads, seconds, global_rate, group_rate );
+		}
+
+		System.exit( 0 );
+	}
+
+	private static void
+	run(
+		final int		type,
+		int				threads,
+		int				seconds,
+		int				global_rate,
+		int				group_rate )
+	{
+		final ByteBucket	global = create( type, global_rate );
+
+		ByteBucket[]	groups = new ByteBucket[( threads + 1 )/2];
+
+		for (int i=0;i<groups.length;i++){
+
+			groups[i] = create( type, group_rate );
+		}
+
+		final long	end = System.currentTimeMillis() + seconds*1000L;
+
+		final long[]	ops 	= new long[threads];
+		final long[]	bytes	= new long[threads];
+
+		Thread[]	workers = new Thread[threads];
+
+		for (int i=0;i<threads;i++){
+
+			final int			index	= i;
+			final ByteBucket	group	= groups[i/2];
+
+			workers[i] =
+				new Thread( "ByteBucketTester:" + i )
+				{
+					public void
+					run()
+					{
+						long	count 	= 0;
+						long	sent	= 0;
+
+						while(( count & 1023 ) != 0 || System.currentTimeMillis() < end ){
+
+							int	allowed = Math.min( global.getAvailableByteCount(), group.getAvailableByteCount());
+
+							if ( allowed > 0 ){
+
+								int	used = Math.min( allowed, PACKET );
+
+								group.setBytesUsed( used );
+								global.setBytesUsed( used );
+
+								sent += used;
+							}
+
+							count++;
+						}
+
+						ops[index]		= count;
+						bytes[index]	= sent;
+					}
+				};
+		}
+
+		long	start = System.currentTimeMillis();
+
+		for (int i=0;i<threads;i++){
+
+			workers[i].start();
+		}
+
+		long	total_ops 	= 0;
+		long	total_bytes	= 0;
+
+		for (int i=0;i<threads;i++){
+
+			try{
+				workers[i].join();
+
+			}catch( InterruptedException e ){
+			}
+
+			total_ops 	+= ops[i];
+			total_bytes	+= bytes[i];
+		}
+
+		long	elapsed = Math.max( 1, System.currentTimeMillis() - start );
+
+		int		limit = Math.min( global_rate, group_rate*groups.length );
+
+		System.out.println(
+			NAMES[type] + ": " + threads + " threads, " + ( total_ops*1000/elapsed ) + " ops/s, " +
+			( total_bytes*1000/elapsed/1024 ) + " KB/s of " + ( limit/1024 ) + " KB/s" +
+			( type==ST?" (not thread safe)":"" ));
+	}
+
+	private static ByteBucket
+	create(
+		int		type,
+		int		rate )
+	{
+		switch( type ){
+
+			case ST:{
+
+				return( new ByteBucketST( rate ));
+			}
+			case MT:{
+
+				return( new ByteBucketMT( rate ));
+			}
+			default:{
+
+				return( new ByteBucketAtomic( rate ));
+			}
+		}
+	}
+}
@@ -326,7 +326,7 @@ PHETester
 		final TransportHelperFilter	filter )
 	{
 		try{
-			TCPNetworkManager.getSingleton().getReadSelector().register(
+			TCPNetworkManager.getSingleton().getReadSelector( ((TCPTransportHelper)filter.getHelper()).getSocketChannel() ).register(
 				((TCPTransportHelper)filter.getHelper()).getSocketChannel(),
 				new VirtualSelectorListener()
 				{
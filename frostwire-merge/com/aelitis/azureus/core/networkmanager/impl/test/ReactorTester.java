@@ -0,0 +1,434 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package com.aelitis.azureus.core.networkmanager.impl.test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+import org.gudy.azureus2.core3.util.AEThread2;
+
+import com.aelitis.azureus.core.networkmanager.EventWaiter;
+import com.aelitis.azureus.core.networkmanager.RateHandler;
+import com.aelitis.azureus.core.networkmanager.VirtualChannelSelector;
+import com.aelitis.azureus.core.networkmanager.impl.ByteBucket;
+import com.aelitis.azureus.core.networkmanager.impl.ByteBucketMT;
+import com.aelitis.azureus.core.networkmanager.impl.RateControlledEntity;
+import com.aelitis.azureus.core.networkmanager.impl.ReadController;
+
+/**
+ * Loopback read benchmark for the reactor layout: thousands of simulated peers each
+ * with a local socket pair, the receiving ends spread over per reactor selectors and
+ * read controllers exactly as TCPNetworkManager and NetworkManager do in reactor mode,
+ * all drawing from one global ByteBucketMT as the TransferProcessor does.
+ * <p>
+ * usage: ReactorTester [peers] [reactors] [seconds] [limit KB/s, 0 = unlimited]
+ * <p>
+ * Runs once with a single reactor and once with the given number and reports the
+ * aggregate read rate of each, which must stay under the limit when one is set.
+ */
+
+public class
+ReactorTester
+{
+	private static final int	WRITE_CHUNK	= 16*1024;
+
+	public static void
+	main(
+		String[]	args )
+	{
+		int		peers		= args.length > 0?Integer.parseInt( args[0] ):2000;
+		int		reactors	= args.length > 1?Integer.parseInt( args[1] ):Runtime.getRuntime().availableProcessors();
+		int		seconds		= args.length > 2?Integer.parseInt( args[2] ):5;
+		int		limit		= args.length > 3?Integer.parseInt( args[3] )*1024:0;
+
+		try{
+			COConfigurationManager.initialiseFromMap( new HashMap());
+
+			ServerSocketChannel	server = ServerSocketChannel.open();
+
+			server.socket().bind( new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), 0 ), 1024 );
+
+			SocketChannel[]	senders 	= new SocketChannel[peers];
+			SocketChannel[]	receivers	= new SocketChannel[peers];
+
+			for (int i=0;i<peers;i++){
+
+				senders[i] = SocketChannel.open( server.socket().getLocalSocketAddress());
+
+				receivers[i] = server.accept();
+
+				senders[i].configureBlocking( false );
+				receivers[i].configureBlocking( false );
+			}
+
+			System.out.println( peers + " loopback peers connected" );
+
+			int[]	runs = reactors > 1?new int[]{ 1, reactors }:new int[]{ 1 };
+
+			for (int i=0;i<runs.length;i++){
+
+				run( senders, receivers, runs[i], seconds, limit );
+			}
+		}catch( Throwable e ){
+
+			e.printStackTrace();
+		}
+
+		System.exit( 0 );
+	}
+
+	private static void
+	run(
+		final SocketChannel[]	senders,
+		SocketChannel[]			receivers,
+		int						reactors,
+		int						seconds,
+		int						limit )
+
+		throws Exception
+	{
+		final ByteBucket	bucket = limit==0?null:new ByteBucketMT( limit );
+
+		final VirtualChannelSelector[]	selectors 	= new VirtualChannelSelector[reactors];
+		ReadController[]				controllers	= new ReadController[reactors];
+
+		final boolean[]	stop = { false };
+
+		for (int i=0;i<reactors;i++){
+
+			final VirtualChannelSelector	selector =
+				selectors[i] = new VirtualChannelSelector( "ReactorTester:" + i, VirtualChannelSelector.OP_READ, true );
+
+			controllers[i] = new ReadController();
+
+			new AEThread2( "ReactorTester:ReadSelector:" + i, true )
+			{
+				public void
+				run()
+				{
+					while( !stop[0] ){
+
+						selector.select( 25 );
+					}
+				}
+			}.start();
+		}
+
+		Peer[]	peers = new Peer[receivers.length];
+
+		for (int i=0;i<receivers.length;i++){
+
+				// same mapping as TCPNetworkManager
+
+			int	reactor = ( System.identityHashCode( receivers[i] ) & 0x7fffffff ) % reactors;
+
+			peers[i] = new Peer( receivers[i], selectors[reactor], bucket );
+
+			selectors[reactor].register( receivers[i], peers[i], null );
+
+				// and the same reactor's controller, as NetworkManager does for single peer entities
+
+			controllers[reactor].addReadEntity( peers[i] );
+		}
+
+		Thread	writer =
+			new Thread( "ReactorTester:Writer" )
+			{
+				public void
+				run()
+				{
+					ByteBuffer	data = ByteBuffer.allocateDirect( WRITE_CHUNK );
+
+					while( !stop[0] ){
+
+						boolean	progress = false;
+
+						for (int i=0;i<senders.length;i++){
+
+							data.clear();
+
+							try{
+								if ( senders[i].write( data ) > 0 ){
+
+									progress = true;
+								}
+							}catch( Throwable e ){
+							}
+						}
+
+						if ( !progress ){
+
+							try{
+								Thread.sleep( 1 );
+
+							}catch( Throwable e ){
+							}
+						}
+					}
+				}
+			};
+
+		writer.setDaemon( true );
+
+		writer.start();
+
+			// let the socket buffers fill and the bucket settle before measuring
+
+		Thread.sleep( 1000 );
+
+		long	start_bytes = getBytes( peers );
+		long	start		= System.currentTimeMillis();
+
+		Thread.sleep( seconds*1000L );
+
+		long	bytes 	= getBytes( peers ) - start_bytes;
+		long	elapsed	= System.currentTimeMillis() - start;
+
+		stop[0] = true;
+
+		writer.join();
+
+		for (int i=0;i<peers.length;i++){
+
+			for (int j=0;j<controllers.length;j++){
+
+				controllers[j].removeReadEntity( peers[i] );
+			}
+
+			peers[i].selector.cancel( receivers[i] );
+		}
+
+			// drain what's left so the next run starts from empty socket buffers
+
+		ByteBuffer	drain = ByteBuffer.allocateDirect( 64*1024 );
+
+		for (int i=0;i<receivers.length;i++){
+
+			while( true ){
+
+				drain.clear();
+
+				if ( receivers[i].read( drain ) <= 0 ){
+
+					break;
+				}
+			}
+		}
+
+		long	rate = bytes*1000/Math.max( 1, elapsed );
+
+		System.out.println(
+			reactors + " reactor(s): " + rate/1024 + " KB/s" +
+			( limit==0?"":( " (limit " + limit/1024 + " KB/s)" )));
+	}
+
+	private static long
+	getBytes(
+		Peer[]	peers )
+	{
+		long	total = 0;
+
+		for (int i=0;i<peers.length;i++){
+
+			total += peers[i].bytes;
+		}
+
+		return( total );
+	}
+
+	private static class
+	Peer
+		implements RateControlledEntity, VirtualChannelSelector.VirtualSelectorListener
+	{
+		private final SocketChannel				channel;
+		private final VirtualChannelSelector	selector;
+		private final ByteBucket				bucket;
+
+		private final ByteBuffer	buffer = ByteBuffer.allocateDirect( 32*1024 );
+
+		private volatile boolean		ready;
+		private volatile EventWaiter	waiter;
+
+		private volatile long	bytes;
+
+		private final RateHandler	rate_handler =
+			new RateHandler()
+			{
+				public int
+				getCurrentNumBytesAllowed()
+				{
+					return( bucket==null?buffer.capacity():bucket.getAvailableByteCount());
+				}
+
+				public void
+				bytesProcessed(
+					int		num_bytes_processed )
+				{
+					if ( bucket != null ){
+
+						bucket.setBytesUsed( num_bytes_processed );
+					}
+				}
+			};
+
+		private
+		Peer(
+			SocketChannel				_channel,
+			VirtualChannelSelector		_selector,
+			ByteBucket					_bucket )
+		{
+			channel		= _channel;
+			selector	= _selector;
+			bucket		= _bucket;
+		}
+
+		public boolean
+		selectSuccess(
+			VirtualChannelSelector	sel,
+			SocketChannel			sc,
+			Object					attachment )
+		{
+			ready = true;
+
+			EventWaiter	w = waiter;
+
+			if ( w != null ){
+
+				w.eventOccurred();
+			}
+
+			return( true );
+		}
+
+		public void
+		selectFailure(
+			VirtualChannelSelector	sel,
+			SocketChannel			sc,
+			Object					attachment,
+			Throwable				msg )
+		{
+			ready = false;
+		}
+
+		public boolean
+		canProcess(
+			EventWaiter		_waiter )
+		{
+			waiter = _waiter;
+
+			return( ready && rate_handler.getCurrentNumBytesAllowed() > 0 );
+		}
+
+		public int
+		doProcessing(
+			EventWaiter		_waiter,
+			int				max_bytes_permitted )
+		{
+			int	allowed = Math.min( buffer.capacity(), rate_handler.getCurrentNumBytesAllowed());
+
+			if ( allowed <= 0 ){
+
+				return( 0 );
+			}
+
+			buffer.clear();
+
+			buffer.limit( allowed );
+
+			int	read;
+
+			try{
+				read = channel.read( buffer );
+
+			}catch( Throwable e ){
+
+				read = -1;
+			}
+
+			if ( read > 0 ){
+
+				bytes += read;
+
+				rate_handler.bytesProcessed( read );
+			}
+
+			if ( read < allowed ){
+
+					// drained, back to the selector
+
+				ready = false;
+
+				if ( read >= 0 ){
+
+					selector.resumeSelects( channel );
+				}
+			}
+
+			return( Math.max( 0, read ));
+		}
+
+		public int
+		getPriority()
+		{
+			return( PRIORITY_NORMAL );
+		}
+
+		public boolean
+		getPriorityBoost()
+		{
+			return( false );
+		}
+
+		public long
+		getBytesReadyToWrite()
+		{
+			return( 0 );
+		}
+
+		public int
+		getConnectionCount(
+			EventWaiter		_waiter )
+		{
+			return( 1 );
+		}
+
+		public int
+		getReadyConnectionCount(
+			EventWaiter		_waiter )
+		{
+			return( ready?1:0 );
+		}
+
+		public RateHandler
+		getRateHandler()
+		{
+			return( rate_handler );
+		}
+
+		public String
+		getString()
+		{
+			return( "peer: " + channel );
+		}
+	}
+}
@@ -10,7 +10,6 @@ import org.gudy.azureus2.core3.util.*;
 
 import com.aelitis.azureus.core.peermanager.messaging.Message;
 import com.aelitis.azureus.core.peermanager.messaging.MessageException;
-import com.aelitis.azureus.core.peermanager.messaging.MessagingUtil;
 
 public class LTHandshake implements LTMessage {
 	
@@ -34,8 +33,15 @@ public class LTHandshake implements LTMessage {
 			throw new MessageException( "[" +getID() + "] decode error: less than 1 byte in payload");
 		}
 		
-		// Try decoding the data now.
-		Map res_data_dict = MessagingUtil.convertBencodedByteStreamToPayload(data, 1, getID());
+		// Decode straight from the message buffer rather than copying it out first.
+		Map res_data_dict;
+		try {
+			res_data_dict = new BDecoderReader(data.getBuffer(DirectByteBuffer.SS_MSG)).readMap();
+		}
+		catch (Throwable t) {
+			throw new MessageException( "[" +getID()+ "] payload stream b-decode error: " +t.getMessage() );
+		}
+		data.returnToPool();
 		
 		LTHandshake result = new LTHandshake(res_data_dict, this.version);
 		return result;
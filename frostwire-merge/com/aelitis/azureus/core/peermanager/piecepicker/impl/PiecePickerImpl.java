@@ -163,6 +163,8 @@ implements PiecePicker
 	private int		globalMin;
 	private int		globalMax;
 	private long bytesUnavailable;
+	/** number of downloadable, requestable pieces at each availability level, as of the last updateAvailability */
+	private volatile int[]		availabilityHistogram;
 	/**
 	 * The rarest availability level of pieces that we affirmatively want to try to request from others soonest
 	 * ie; our prime targets for requesting rarest pieces
@@ -186,6 +188,8 @@ implements PiecePicker
 
 	/** the priority for starting each piece/base priority for resuming */
 	private int[]				startPriorities;
+	/** packed like BitFlags.words, set for the pieces that were undone with startPriorities >=0 when they were computed */
+	private long[]				startableWords;
 
 	protected volatile boolean	hasNeededUndonePiece;
 	protected volatile long		neededUndonePieceChange;
@@ -410,50 +414,77 @@ implements PiecePicker
 		}
 		} finally {availabilityMon.exit();}
 
-		int i;
 		int allMin =Integer.MAX_VALUE;
+		int nbAtMin =0;
 		int allMax =0;
 		int rarestMin =Integer.MAX_VALUE;
-		for (i =0; i <nbPieces; i++)
+		int nbAvail =0;
+		long totalAvail =0;
+		long newBytesUnavailable = 0;
+		// one pass, bucketing the pieces by availability level: the pieces we want to request and
+		// the active ones not yet fully requested. rarestMin is the first non-empty wanted bucket
+		int[] wanted =new int[globalMax +2];
+		int[] unrequested =new int[wanted.length];
+		for (int i =0; i <nbPieces; i++)
 		{
 			final int avail =availability[i];
-			final DiskManagerPiece dmPiece =dmPieces[i];
-			final PEPiece	pePiece = pePieces[i];
-
-			if (avail >0 &&avail <rarestMin && dmPiece.isDownloadable() && (pePiece == null || pePiece.isRequestable())) 
-				rarestMin =avail;	// most important targets for near future requests from others
 
 			if (avail <allMin)
+			{
 				allMin =avail;
+				nbAtMin =1;
+			} else if (avail ==allMin)
+				nbAtMin++;
 			if (avail > allMax)
 				allMax =avail;
-		}
-		// copy updated local variables into globals
-		globalMin =allMin;
-		globalMax =allMax;
-		globalMinOthers =rarestMin;
 
-		int total =0;
-		int rarestActive =0;
-		long totalAvail =0;
-		long newBytesUnavailable = 0;
-		for (i =0; i <nbPieces; i++ )
-		{
-			final int avail =availability[i];
 			final DiskManagerPiece dmPiece =dmPieces[i];
-			final PEPiece	pePiece = pePieces[i];
 
 			if (avail >0)
 			{
-				if (avail >allMin)
-					total++;
-				if (avail <=rarestMin &&dmPiece.isDownloadable() && pePiece != null && !pePiece.isRequested())
-					rarestActive++;
+				nbAvail++;
 				totalAvail +=avail;
+
+				if (dmPiece.isDownloadable())
+				{
+					if (avail >=wanted.length)
+					{
+						final int[] newWanted =new int[avail *2];
+						System.arraycopy(wanted, 0, newWanted, 0, wanted.length);
+						wanted =newWanted;
+						final int[] newUnrequested =new int[avail *2];
+						System.arraycopy(unrequested, 0, newUnrequested, 0, unrequested.length);
+						unrequested =newUnrequested;
+					}
+
+					final PEPiece	pePiece = pePieces[i];
+
+					if (pePiece == null || pePiece.isRequestable())
+					{
+						wanted[avail]++;
+						if (avail <rarestMin)
+							rarestMin =avail;	// most important targets for near future requests from others
+					}
+					if (pePiece != null && !pePiece.isRequested())
+						unrequested[avail]++;
+				}
 			} else {
 				newBytesUnavailable += dmPiece.getLength();
 			}
 		}
+		// copy updated local variables into globals
+		globalMin =allMin;
+		globalMax =allMax;
+		globalMinOthers =rarestMin;
+		availabilityHistogram =wanted;
+
+		// pieces above the minimum availability and active ones at or below the rarest wanted level
+		final int total =allMin >0 ?nbAvail -nbAtMin :nbAvail;
+		int rarestActive =0;
+		final int rarestTop =rarestMin <unrequested.length ?rarestMin :unrequested.length -1;
+		for (int a =1; a <=rarestTop; a++)
+			rarestActive +=unrequested[a];
+
 		// copy updated local variables into globals
 		float newGlobalAvail = (total /(float) nbPieces) +allMin;
 		if ( globalAvail >= 1.0 &&  newGlobalAvail < 1.0 ){
@@ -479,9 +510,7 @@ implements PiecePicker
 		final int[]	newAvailability = new int[nbPieces];
 		int j;
 		int i;
-		// first our pieces
-		for (j =0; j <nbPieces; j++)
-			newAvailability[j] =dmPieces[j].isDone() ?1 :0;
+		int seeds =0;
 		//for all peers
 		final int peersSize =peers.size();
 		for (i =0; i <peersSize; i++)
@@ -493,18 +522,36 @@ implements PiecePicker
 				final BitFlags peerHavePieces =peer.getAvailable();
 				if (peerHavePieces !=null &&peerHavePieces.nbSet >0)
 				{
-					for (j =peerHavePieces.start; j <=peerHavePieces.end; j++)
-					{
-						if (peerHavePieces.flags[j])
-							++newAvailability[j];
-					}
+					// seeds add one to everything, do that once at the end
+					if (peerHavePieces.nbSet ==nbPieces)
+						seeds++;
+					else
+						addWords(newAvailability, peerHavePieces, 1);
 				}
 			}
 		}
+		// then our pieces
+		for (j =0; j <nbPieces; j++)
+			newAvailability[j] +=seeds +(dmPieces[j].isDone() ?1 :0);
 		
 		return newAvailability;
 	}
 
+	/**
+	 * Adds delta to the availability of each piece flagged in peerHavePieces, walking
+	 * the packed words so that the gaps in a peer's bitfield are skipped 64 at a time
+	 */
+	private static void addWords(final int[] avail, final BitFlags peerHavePieces, final int delta)
+	{
+		final long[] words =peerHavePieces.words;
+		final int endW =peerHavePieces.end >>>6;
+		for (int w =peerHavePieces.start >>>6; w <=endW; w++)
+		{
+			for (long bits =words[w]; bits !=0; bits &=bits -1)
+				avail[(w <<6) +Long.numberOfTrailingZeros(bits)] +=delta;
+		}
+	}
+
 	public int
 	getNumberOfPieces()
 	{
@@ -1211,6 +1258,7 @@ implements PiecePicker
 
 		boolean			foundPieceToDownload =false;
 		final int[]		newPriorities   =new int[nbPieces];
+		final long[]	newStartable	=new long[(nbPieces +63) >>>6];
 
 		// locals are a tiny bit faster
 		final boolean firstPiecePriorityL =firstPiecePriority;
@@ -1350,6 +1398,8 @@ implements PiecePicker
 				}
 
 				newPriorities[i] = startPriority;
+				if (startPriority >=0)
+					newStartable[i >>>6] |=1L <<i;
 			}
 		} catch (Throwable e)
 		{
@@ -1362,6 +1412,7 @@ implements PiecePicker
 			neededUndonePieceChange++;
 		}
 
+		startableWords =newStartable;
 		startPriorities =newPriorities;
 	}
 
@@ -1957,14 +2008,19 @@ implements PiecePicker
         
         CopyOnWriteSet<Integer>	forced = forced_pieces;
         
+        final long[]	peerWords 	= peerHavePieces.words;
+        final long[]	startable	= startableWords;
+        
 			// Try to continue a piece already loaded, according to priority
         
-        for (i =startI; i <=endI; i++){
+        for (int w =startI >>>6; w <=endI >>>6; w++){
         
-        		// is the piece available from this peer?
+        		// only visit the pieces available from this peer that we might want
         	
-        	if ( peerHavePieces.flags[i]){
+        	for (long bits =peerWords[w] &startable[w]; bits !=0; bits &=bits -1){
         	
+        		i = (w <<6) +Long.numberOfTrailingZeros(bits);
+        		
         		priority = startPriorities[i];
         		
         		final DiskManagerPiece dmPiece = dmPieces[i];
@@ -2955,12 +3011,7 @@ implements PiecePicker
 			if ( availabilityAsynch == null ){
 				availabilityAsynch = (int[])availability.clone();
 			}
-			for (int i =peerHavePieces.start; i <=peerHavePieces.end; i++)
-			{
-				if ( peerHavePieces.flags[i] ){
-					++availabilityAsynch[i];
-				}
-			}
+			addWords(availabilityAsynch, peerHavePieces, 1);
 			availabilityChange++;
 			} finally {availabilityMon.exit();}
 		}
@@ -2980,10 +3031,12 @@ implements PiecePicker
 			{
 				availabilityAsynch = (int[])availability.clone();
 			}
-			for (int i =peerHavePieces.start; i <=peerHavePieces.end; i++)
+			final long[] words =peerHavePieces.words;
+			for (int w =peerHavePieces.start >>>6; w <=peerHavePieces.end >>>6; w++)
 			{
-				if (peerHavePieces.flags[i])
+				for (long bits =words[w]; bits !=0; bits &=bits -1)
 				{
+					final int i =(w <<6) +Long.numberOfTrailingZeros(bits);
 					if (availabilityAsynch[i] >(dmPieces[i].isDone() ?1 :0))
 						--availabilityAsynch[i];
 					else
@@ -3065,6 +3118,10 @@ implements PiecePicker
 					availabilityDrift++;
 				availabilityChange++;
 				} finally {availabilityMon.exit();}
+				// done pieces have a start priority of 0 until the next recompute, let it be picked as before
+				final long[] startable =startableWords;
+				if (startable !=null)
+					startable[pieceNumber >>>6] |=1L <<pieceNumber;
 				nbPiecesDone--;
 				if (dmPiece.calcNeeded() &&!hasNeededUndonePiece)
 				{
@@ -3229,6 +3286,32 @@ implements PiecePicker
 		return( str );
 	}
 
+	private String
+	getHistogramString()
+	{
+		int[]	histogram = availabilityHistogram;
+
+		if ( histogram == null ){
+
+			return( "" );
+		}
+
+		String	str 	= "";
+		int		shown	= 0;
+
+		for (int i=1;i<histogram.length && shown < 16;i++){
+
+			if ( histogram[i] > 0 ){
+
+				str += (str.length()==0?"":", ") + i + "=" + histogram[i];
+
+				shown++;
+			}
+		}
+
+		return( str );
+	}
+
 	public void
 	generateEvidence(
 			IndentWriter	writer )
@@ -3243,6 +3326,7 @@ implements PiecePicker
 			writer.println( "nbRarestActive: " + nbRarestActive );
 			writer.println( "globalMin: " + globalMin );
 			writer.println( "globalMinOthers: " + globalMinOthers );
+			writer.println( "availabilityHistogram: " + getHistogramString());
 			writer.println( "hasNeededUndonePiece: " + hasNeededUndonePiece );
 			writer.println( "endGameMode: " + endGameMode );
 			writer.println( "endGameModeAbandoned: " + endGameModeAbandoned );
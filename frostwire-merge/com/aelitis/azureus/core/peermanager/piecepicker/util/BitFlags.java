@@ -32,6 +32,10 @@ import com.aelitis.azureus.core.util.HashCodeUtils;
  * Originaly designed as a boolean array to correspond to the pieces in a torrent,
  * for example to show which pieces are; downloading, high priority, rarest, available, or whatever.
  * This class is subject to experimentation, although the important uses of the class must NOT be broken.
+ * <p>
+ * The flags are mirrored into a packed long[] (bit i is in word i>>>6) so that large
+ * arrays can be walked, counted and combined a word at a time. The mirror is kept up
+ * to date by the methods here, so don't modify flags[] directly.
  */
 public class BitFlags
     implements Cloneable
@@ -46,6 +50,8 @@ public class BitFlags
 	public int			nbSet;
     /** The array of bit flags */
 	public final boolean[]	flags;
+    /** The same flags packed 64 to a word */
+	public final long[]		words;
 	
 	public BitFlags(final int count)
 	{
@@ -53,12 +59,14 @@ public class BitFlags
         end =0;
         nbSet =0;
 		flags =new boolean[count];
+		words =new long[(count +63) >>>6];
 	}
 
 	public BitFlags(final boolean[]	_flags )
 	{
         start =_flags.length;
 		flags	= _flags;
+		words	= new long[(flags.length +63) >>>6];
 		for (int i=0;i<flags.length;i++){
 			if ( flags[i]){
 				nbSet++;
@@ -66,6 +74,7 @@ public class BitFlags
 					start = i;
 				}
 				end	= i;
+				words[i >>>6] |=1L <<i;
 			}
 		}
 	}
@@ -77,6 +86,7 @@ public class BitFlags
         end =other.end;
         nbSet =other.nbSet;
         flags =(boolean[])other.flags.clone();
+        words =(long[])other.words.clone();
     }
 
     public Object clone()
@@ -129,6 +139,7 @@ public class BitFlags
 	public void clear()
 	{
 		Arrays.fill(flags, false);
+		Arrays.fill(words, 0);
 		start =flags.length;
 		end =0;
 		nbSet =0;
@@ -138,6 +149,7 @@ public class BitFlags
 	public void setStart(final int i)
 	{
 		flags[i] =true;
+		words[i >>>6] |=1L <<i;
 		nbSet++;
 		start =i;
 	}
@@ -148,6 +160,7 @@ public class BitFlags
 		if (!flags[i])
 		{
 			flags[i] =true;
+			words[i >>>6] |=1L <<i;
 			nbSet++;
 			if (start >i)
 				start =i;
@@ -160,6 +173,7 @@ public class BitFlags
 	public void setEnd(final int i)
 	{
 		flags[i] =true;
+		words[i >>>6] |=1L <<i;
 		nbSet++;
 		end =i;
 	}
@@ -168,11 +182,15 @@ public class BitFlags
 	public void setOnly(final int i)
 	{
         if (start <flags.length)
-            Arrays.fill(flags, start, end, false);
+        {
+            Arrays.fill(flags, start, end +1, false);
+            clearWords(start, end +1);
+        }
 		nbSet =1;
 		start =i;
 		end =i;
 		flags[i] =true;
+		words[i >>>6] |=1L <<i;
 	}
 	
 	public void setAll()
@@ -180,11 +198,67 @@ public class BitFlags
 		start =0;
 		end =flags.length -1;
 		Arrays.fill(flags, true);
+		Arrays.fill(words, -1L);
+		if ((flags.length &63) !=0)
+			words[words.length -1] =-1L >>>(64 -(flags.length &63));
 		nbSet =flags.length;
 	}
+
+	/** clears the packed bits from (inclusive) to to (exclusive) */
+	private void clearWords(final int from, final int to)
+	{
+		if (from >=to)
+			return;
+		final int firstWord =from >>>6;
+		final int lastWord =(to -1) >>>6;
+		final long firstMask =-1L <<from;
+		final long lastMask =-1L >>>-to;
+		if (firstWord ==lastWord)
+		{
+			words[firstWord] &=~(firstMask &lastMask);
+			return;
+		}
+		words[firstWord] &=~firstMask;
+		for (int w =firstWord +1; w <lastWord; w++)
+			words[w] =0;
+		words[lastWord] &=~lastMask;
+	}
+
+	/**
+	 * Counts the set flags a word at a time. This is what nbSet should be, it's here
+	 * for checking and for callers that don't trust the administrative fields.
+	 * @return the number of set flags
+	 */
+	public int cardinality()
+	{
+		int count =0;
+		for (int w =0; w <words.length; w++)
+			count +=Long.bitCount(words[w]);
+		return count;
+	}
+
+	/**
+	 * @param from index to start looking from
+	 * @return the index of the first set flag at or after from, or -1 if there is none
+	 */
+	public int nextSetBit(final int from)
+	{
+		if (from >=flags.length)
+			return -1;
+		int w =from >>>6;
+		long word =words[w] &(-1L <<from);
+		while (true)
+		{
+			if (word !=0)
+				return (w <<6) +Long.numberOfTrailingZeros(word);
+			if (++w >=words.length)
+				return -1;
+			word =words[w];
+		}
+	}
 	
 	/**
-	 * Experimental.  Returns a new BitFlags with flags set as the logical AND of both BitFlags.
+	 * Returns a new BitFlags with flags set as the logical AND of both BitFlags.
      * The length of both must be the same.
 	 * @param other BitFlags to be ANDed with this BitFlags. Must not be null.
 	 * @return new BitFlags representing the logical AND of the two
@@ -195,33 +269,55 @@ public class BitFlags
 		if (this.nbSet >0 &&other.nbSet >0)
 		{
             // setup outer union bounds
-			int i =this.start >other.start ?this.start :other.start;
+			final int startI =this.start >other.start ?this.start :other.start;
 			final int endI =this.end <other.end ?this.end :other.end;
-            // find the first common set bit
-			for (; i <=endI; i++)
+			if (startI <=endI)
 			{
-				if (this.flags[i] &&other.flags[i])
-				{
-                    result.flags[i] =true;
-                    result.nbSet++;
-                    result.start =i;
-					break;
-				}
+				for (int w =startI >>>6; w <=endI >>>6; w++)
+					result.words[w] =this.words[w] &other.words[w];
+				result.fillFromWords(startI >>>6, endI >>>6);
 			}
-            // find any remaining common bits
-			for (; i <=endI; i++)
-			{
-				if (this.flags[i] &&other.flags[i])
-				{
-                    result.flags[i] =true;
-                    result.nbSet++;
-                    result.end =i;
-				}
-			}
-            if (result.end <result.start)
-                result.end =result.start;
 		}
 		return result;
 	}
 
+	/**
+	 * Returns a new BitFlags with the flags of this BitFlags that are not set in the other.
+     * The length of both must be the same.
+	 * @param other BitFlags whose flags are to be removed. Must not be null.
+	 * @return new BitFlags representing this AND NOT other
+	 */
+	public BitFlags andNot(final BitFlags other)
+	{
+		final BitFlags result =new BitFlags(flags.length);
+		if (this.nbSet >0)
+		{
+			for (int w =this.start >>>6; w <=this.end >>>6; w++)
+				result.words[w] =this.words[w] &~other.words[w];
+			result.fillFromWords(this.start >>>6, this.end >>>6);
+		}
+		return result;
+	}
+
+	/** sets up flags and the administrative fields from the words in the given range */
+	private void fillFromWords(final int firstWord, final int lastWord)
+	{
+		for (int w =firstWord; w <=lastWord; w++)
+		{
+			long word =words[w];
+			if (word ==0)
+				continue;
+			nbSet +=Long.bitCount(word);
+			if (start ==flags.length)
+				start =(w <<6) +Long.numberOfTrailingZeros(word);
+			end =(w <<6) +63 -Long.numberOfLeadingZeros(word);
+			while (word !=0)
+			{
+				flags[(w <<6) +Long.numberOfTrailingZeros(word)] =true;
+				word &=word -1;
+			}
+		}
+        if (nbSet ==0)
+            end =0;
+	}
 }
@@ -0,0 +1,389 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package com.aelitis.azureus.core.peermanager.piecepicker.util.test;
+
+import java.util.Random;
+
+import com.aelitis.azureus.core.peermanager.piecepicker.util.BitFlags;
+
+/**
+ * Checks the packed words of BitFlags against the boolean flags and times the two
+ * loops PiecePickerImpl spends its time in, walking the flags as it used to and
+ * walking the words as it does now:
+ * <ul>
+ * <li>rebuilding availability from every peer's bitfield (recomputeAvailability)</li>
+ * <li>visiting the pieces a peer has that we still want (getRequestCandidate)</li>
+ * </ul>
+ * usage: BitFlagsTester [pieces] [peers] [seed percent] [wanted percent] [rounds]
+ */
+
+public class
+BitFlagsTester
+{
+	public static void
+	main(
+		String[]	args )
+	{
+		int		pieces	= args.length > 0?Integer.parseInt( args[0] ):500000;
+		int		peers	= args.length > 1?Integer.parseInt( args[1] ):300;
+		int		seeds	= args.length > 2?Integer.parseInt( args[2] ):20;
+		int		wanted	= args.length > 3?Integer.parseInt( args[3] ):30;
+		int		rounds	= args.length > 4?Integer.parseInt( args[4] ):10;
+
+		Random	random = new Random( 0 );
+
+		check( random );
+
+		BitFlags[]	have = new BitFlags[peers];
+
+		for (int i=0;i<peers;i++){
+
+			have[i] = new BitFlags( pieces );
+
+			if ( random.nextInt( 100 ) < seeds ){
+
+				have[i].setAll();
+
+			}else{
+
+					// peers part way through, clumped the way sequential-ish downloaders are
+
+				int	percent = random.nextInt( 100 );
+
+				for (int j=0;j<pieces;j++){
+
+					if ( random.nextInt( 100 ) < percent ){
+
+						have[i].set( j );
+					}
+				}
+			}
+		}
+
+		BitFlags	want = new BitFlags( pieces );
+
+		for (int j=0;j<pieces;j++){
+
+			if ( random.nextInt( 100 ) < wanted ){
+
+				want.set( j );
+			}
+		}
+
+		System.out.println( pieces + " pieces, " + peers + " peers, " + seeds + "% seeds, " + wanted + "% wanted" );
+
+		for (int pass=0;pass<2;pass++){
+
+				// first pass is warm up
+
+			boolean	report = pass == 1;
+
+			long	start = System.nanoTime();
+
+			int[]	flag_avail = null;
+
+			for (int r=0;r<rounds;r++){
+
+				flag_avail = availabilityFlags( have, pieces );
+			}
+
+			long	flag_time = System.nanoTime() - start;
+
+			start = System.nanoTime();
+
+			int[]	word_avail = null;
+
+			for (int r=0;r<rounds;r++){
+
+				word_avail = availabilityWords( have, pieces );
+			}
+
+			long	word_time = System.nanoTime() - start;
+
+			for (int j=0;j<pieces;j++){
+
+				if ( flag_avail[j] != word_avail[j] ){
+
+					throw( new RuntimeException( "availability mismatch at " + j ));
+				}
+			}
+
+			if ( report ){
+
+				System.out.println(
+					"availability rebuild: flags " + flag_time/rounds/1000 + " us, words " +
+					word_time/rounds/1000 + " us" );
+			}
+
+			start = System.nanoTime();
+
+			long	flag_visits = 0;
+
+			for (int r=0;r<rounds;r++){
+
+				for (int i=0;i<peers;i++){
+
+					flag_visits += candidatesFlags( have[i], want );
+				}
+			}
+
+			flag_time = System.nanoTime() - start;
+
+			start = System.nanoTime();
+
+			long	word_visits = 0;
+
+			for (int r=0;r<rounds;r++){
+
+				for (int i=0;i<peers;i++){
+
+					word_visits += candidatesWords( have[i], want );
+				}
+			}
+
+			word_time = System.nanoTime() - start;
+
+			if ( flag_visits != word_visits ){
+
+				throw( new RuntimeException( "candidate mismatch: " + flag_visits + "/" + word_visits ));
+			}
+
+			if ( report ){
+
+				long	calls = (long)rounds*peers;
+
+				System.out.println(
+					"request candidates: flags " + flag_time/calls/1000 + " us/peer, words " +
+					word_time/calls/1000 + " us/peer (" + word_visits/calls + " visits/peer)" );
+			}
+		}
+	}
+
+	private static int[]
+	availabilityFlags(
+		BitFlags[]	have,
+		int			pieces )
+	{
+		int[]	avail = new int[pieces];
+
+		for (int i=0;i<have.length;i++){
+
+			BitFlags	flags = have[i];
+
+			for (int j=flags.start;j<=flags.end;j++){
+
+				if ( flags.flags[j] ){
+
+					avail[j]++;
+				}
+			}
+		}
+
+		return( avail );
+	}
+
+	private static int[]
+	availabilityWords(
+		BitFlags[]	have,
+		int			pieces )
+	{
+		int[]	avail = new int[pieces];
+
+		int	seeds = 0;
+
+		for (int i=0;i<have.length;i++){
+
+			BitFlags	flags = have[i];
+
+			if ( flags.nbSet == pieces ){
+
+				seeds++;
+
+				continue;
+			}
+
+			long[]	words = flags.words;
+
+			for (int w=flags.start>>>6;w<=flags.end>>>6;w++){
+
+				for (long bits=words[w];bits!=0;bits&=bits-1){
+
+					avail[(w<<6) + Long.numberOfTrailingZeros( bits )]++;
+				}
+			}
+		}
+
+		if ( seeds > 0 ){
+
+			for (int j=0;j<pieces;j++){
+
+				avail[j] += seeds;
+			}
+		}
+
+		return( avail );
+	}
+
+	private static int
+	candidatesFlags(
+		BitFlags	have,
+		BitFlags	want )
+	{
+		int	visits = 0;
+
+		for (int i=have.start;i<=have.end;i++){
+
+			if ( have.flags[i] && want.flags[i] ){
+
+				visits++;
+			}
+		}
+
+		return( visits );
+	}
+
+	private static int
+	candidatesWords(
+		BitFlags	have,
+		BitFlags	want )
+	{
+		int	visits = 0;
+
+		long[]	have_words	= have.words;
+		long[]	want_words	= want.words;
+
+		for (int w=have.start>>>6;w<=have.end>>>6;w++){
+
+			for (long bits=have_words[w]&want_words[w];bits!=0;bits&=bits-1){
+
+				visits++;
+			}
+		}
+
+		return( visits );
+	}
+
+		/**
+		 * random operations on small arrays, the words must always agree with the flags
+		 */
+
+	private static void
+	check(
+		Random		random )
+	{
+		for (int test=0;test<2000;test++){
+
+			int	size = 1 + random.nextInt( 300 );
+
+			BitFlags	a = new BitFlags( size );
+			BitFlags	b = new BitFlags( size );
+
+			for (int op=0;op<20;op++){
+
+				BitFlags	target = random.nextBoolean()?a:b;
+
+				switch( random.nextInt( 6 )){
+
+					case 0:{
+						target.set( random.nextInt( size ));
+						break;
+					}
+					case 1:{
+						target.setOnly( random.nextInt( size ));
+						break;
+					}
+					case 2:{
+						if ( random.nextInt( 10 ) == 0 ){
+							target.setAll();
+						}
+						break;
+					}
+					case 3:{
+						if ( random.nextInt( 10 ) == 0 ){
+							target.clear();
+						}
+						break;
+					}
+					default:{
+						target.set( random.nextInt( size ));
+						break;
+					}
+				}
+
+				verify( a );
+				verify( b );
+			}
+
+			BitFlags	and 	= a.and( b );
+			BitFlags	and_not	= a.andNot( b );
+
+			verify( and );
+			verify( and_not );
+
+			for (int i=0;i<size;i++){
+
+				if ( and.flags[i] != ( a.flags[i] && b.flags[i] ) ||
+					 and_not.flags[i] != ( a.flags[i] && !b.flags[i] )){
+
+					throw( new RuntimeException( "and/andNot wrong at " + i ));
+				}
+			}
+		}
+
+		System.out.println( "BitFlags checks ok" );
+	}
+
+	private static void
+	verify(
+		BitFlags	f )
+	{
+		for (int i=0;i<f.flags.length;i++){
+
+			boolean	bit = ( f.words[i>>>6] & ( 1L << i )) != 0;
+
+			if ( bit != f.flags[i] ){
+
+				throw( new RuntimeException( "word/flag mismatch at " + i + " of " + f.flags.length ));
+			}
+
+			int	next = f.nextSetBit( i );
+
+			int	expected = -1;
+
+			for (int j=i;j<f.flags.length;j++){
+
+				if ( f.flags[j] ){
+
+					expected = j;
+
+					break;
+				}
+			}
+
+			if ( next != expected ){
+
+				throw( new RuntimeException( "nextSetBit(" + i + ") = " + next + ", expected " + expected ));
+			}
+		}
+
+		if ( f.cardinality() != f.nbSet ){
+
+			throw( new RuntimeException( "cardinality " + f.cardinality() + " != nbSet " + f.nbSet ));
+		}
+	}
+}
@@ -255,6 +255,11 @@ DHTPluginImpl
 			
 			dht.setLogging( _logging );
 			
+			if ( conf.getPluginBooleanParameter( "dht.valuestore.enable", true )){
+				
+				dht.getDataBase().setValueStore( new File( getDataDir( _network ), "values.dat" ));
+			}
+			
 			DHTTransportContact root_seed = importRootSeed();
 			
 			storage_manager.importContacts( dht );
@@ -29,6 +29,7 @@ import java.util.*;
 import org.gudy.azureus2.core3.util.AEThread2;
 import org.gudy.azureus2.core3.util.SystemTime;
 import org.gudy.azureus2.plugins.Plugin;
+import org.gudy.azureus2.plugins.PluginAdapter;
 import org.gudy.azureus2.plugins.PluginInterface;
 import org.gudy.azureus2.plugins.download.Download;
 import org.gudy.azureus2.plugins.download.DownloadManagerListener;
@@ -47,6 +48,7 @@ import com.aelitis.azureus.core.tracker.TrackerPeerSource;
 import com.aelitis.azureus.core.tracker.TrackerPeerSourceAdapter;
 import com.aelitis.azureus.plugins.extseed.impl.getright.ExternalSeedReaderFactoryGetRight;
 import com.aelitis.azureus.plugins.extseed.impl.webseed.ExternalSeedReaderFactoryWebSeed;
+import com.aelitis.azureus.plugins.extseed.util.ExternalSeedHTTPConnectionPool;
 
 public class 
 ExternalSeedPlugin
@@ -159,6 +161,16 @@ ExternalSeedPlugin
 		
 		dt.queue();		
 		
+		plugin_interface.addListener(
+			new PluginAdapter()
+			{
+				public void
+				closedownInitiated()
+				{
+					ExternalSeedHTTPConnectionPool.closeAll();
+				}
+			});
+		
 		UTTimer timer = utilities.createTimer("ExternalPeerScheduler", true);
 		
 		timer.addPeriodicEvent(
@@ -484,6 +496,13 @@ ExternalSeedPlugin
 			
 			setStatus( "Running: Downloads with external seeds = " + download_map.size());
 			
+				// nobody left to reuse the keep-alive sockets
+			
+			if ( download_map.size() == 0 ){
+				
+				ExternalSeedHTTPConnectionPool.closeAll();
+			}
+			
 		}finally{
 			
 			download_mon.exit();
@@ -54,6 +54,7 @@ import com.aelitis.azureus.plugins.extseed.ExternalSeedPlugin;
 import com.aelitis.azureus.plugins.extseed.ExternalSeedReader;
 import com.aelitis.azureus.plugins.extseed.ExternalSeedReaderListener;
 import com.aelitis.azureus.plugins.extseed.util.ExternalSeedHTTPDownloaderListener;
+import com.aelitis.azureus.plugins.extseed.util.ExternalSeedHostStats;
 
 public abstract class 
 ExternalSeedReaderImpl 
@@ -65,6 +66,9 @@ ExternalSeedReaderImpl
 	public static final int STALLED_PEER_SPEED			= 5*1024;
 	
 	public static final int TOP_PIECE_PRIORITY			= 100*1000;
+	
+	public static final int STREAM_ADAPT_PERIOD			= 10*1000;
+	public static final int STREAM_MAX_DEFAULT			= 4;
 
 	private static boolean	use_avail_to_activate;
 	
@@ -103,13 +107,33 @@ ExternalSeedReaderImpl
 	private volatile PeerManager		current_manager;
 		
 	private List<PeerReadRequest>			requests			= new LinkedList<PeerReadRequest>();
-	private List<PeerReadRequest>			dangling_requests;
-
-	private Thread			request_thread;
+	private List<PeerReadRequest>			dangling_requests	= new ArrayList<PeerReadRequest>();
+	
+	private int				active_streams;
+	private int				starting_streams;
 	private Semaphore		request_sem;
 	private Monitor			requests_mon;
 	
-	private ExternalSeedReaderRequest	active_read_request;
+	private List<ExternalSeedReaderRequest>	active_read_requests = new ArrayList<ExternalSeedReaderRequest>();
+	
+		// parallel request streams, the target moves between min and max following throughput
+	
+	private int				min_streams;
+	private int				max_streams;
+	private volatile int	stream_target;
+	
+	private long			stream_period_start	= -1;
+	private long			stream_period_bytes;
+	private long			stream_period_latency;
+	private int				stream_period_latencies;
+	private long			stream_period_batch_time;
+	private int				stream_period_batches;
+	private boolean			stream_period_limited;
+	private long			stream_last_rate	= -1;
+	private int				stream_last_change;
+	private int				stream_hold_periods;
+	
+	private ExternalSeedHostStats	host_stats;
 	
 	private int[]		priority_offsets;
 	
@@ -155,6 +179,12 @@ ExternalSeedReaderImpl
 		}
 		
 		transient_seed		= getBooleanParam( _params, "transient", false );
+		
+		min_streams			= Math.max( 1, getIntParam( _params, "min_streams", 1 ));
+		max_streams			= Math.max( min_streams, getIntParam( _params, "max_streams", STREAM_MAX_DEFAULT ));
+		stream_target		= min_streams;
+		
+		host_stats	= ExternalSeedHostStats.getStats( host );
 
 		requests_mon	= plugin.getPluginInterface().getUtilities().getMonitor();
 		request_sem		= plugin.getPluginInterface().getUtilities().getSemaphore();
@@ -211,7 +241,39 @@ ExternalSeedReaderImpl
 	public String
 	getStatus()
 	{
-		return( status );
+		String	str = status;
+		
+		if ( active ){
+			
+			str += " (streams=" + active_streams + "/" + stream_target + ")";
+		}
+		
+		return( str );
+	}
+	
+	public ExternalSeedHostStats
+	getHostStats()
+	{
+		return( host_stats );
+	}
+	
+	public int
+	getStreamTarget()
+	{
+		return( stream_target );
+	}
+	
+		/**
+		 * for readers that can't run requests in parallel
+		 */
+	
+	protected void
+	setMaxStreams(
+		int		max )
+	{
+		max_streams		= Math.max( 1, max );
+		min_streams		= Math.min( min_streams, max_streams );
+		stream_target	= Math.min( stream_target, max_streams );
 	}
 	
 	public boolean
@@ -692,12 +754,16 @@ ExternalSeedReaderImpl
 		try{
 			requests_mon.enter();
 
-			if ( request_thread != null ){
+			starting_streams--;
+			
+			if ( active_streams >= stream_target ){
 				
 				return;
 			}
 
-			request_thread = Thread.currentThread();
+			active_streams++;
+			
+			host_stats.streamStarted();
 			
 		}finally{
 			
@@ -714,9 +780,9 @@ ExternalSeedReaderImpl
 						
 						if ( requests.size() == 0 ){
 							
-							dangling_requests = null;
+							active_streams--;
 							
-							request_thread	= null;
+							host_stats.streamEnded();
 							
 							break;
 						}
@@ -726,57 +792,88 @@ ExternalSeedReaderImpl
 					}
 				}else{
 					
-					List<PeerReadRequest>	selected_requests 	= new ArrayList<PeerReadRequest>();
-					PeerReadRequest			cancelled_request	= null;
+					List<List<PeerReadRequest>>	selected_runs 		= new ArrayList<List<PeerReadRequest>>();
+					List<PeerReadRequest>		all_selected		= new ArrayList<PeerReadRequest>();
+					PeerReadRequest				cancelled_request	= null;
 					
 					try{
 						requests_mon.enter();
 
-							// get an advisory set to process together
+							// get an advisory set to process together, when pipelining take further
+							// sets (if already queued) to go out on the same connection
 						
-						int	count = selectRequests( requests );
+						int	depth = getPipelineDepth();
 						
-						if ( count <= 0 || count > requests.size()){
+						while( selected_runs.size() < depth && requests.size() > 0 ){
 							
-							Debug.out( "invalid count" );
+							boolean	first_run = selected_runs.size() == 0;
 							
-							count	= 1;
-						}
-						
-						for (int i=0;i<count;i++){
+							coalesceRequests( requests );
 							
-							PeerReadRequest	request = requests.remove(0);
+							int	count = selectRequests( requests );
+							
+							if ( count <= 0 || count > requests.size()){
+								
+								Debug.out( "invalid count" );
+								
+								count	= 1;
+							}
+							
+							List<PeerReadRequest>	selected_requests = new ArrayList<PeerReadRequest>();
+
+							boolean	hit_cancelled = false;
 							
-							if ( request.isCancelled()){
+							for (int i=0;i<count;i++){
 								
-									// if this is the first request then process it, otherwise leave
-									// for the next-round
-															
-								if ( i == 0 ){
+								PeerReadRequest	request = requests.remove(0);
+								
+								if ( request.isCancelled()){
+									
+										// if this is the first request then process it, otherwise leave
+										// for the next-round
+																
+									if ( first_run && i == 0 ){
+										
+										cancelled_request = request;
+										
+									}else{
+										
+										requests.add( 0, request );
+									}
+									
+									hit_cancelled = true;
 									
-									cancelled_request = request;
+									break;
 									
 								}else{
 									
-									requests.add( 0, request );
+									selected_requests.add( request );
+																	
+									if ( i > 0 || !first_run ){
+									
+											// we've only got the sem for the first request, catch up for subsequent.
+											// another stream may have been woken for one of these and be waiting
+											// on the monitor, if so it gets an empty queue and we skip its permit
+										
+										request_sem.reserveIfAvailable();
+									}
 								}
+							}
+							
+							if ( selected_requests.size() > 0 ){
+							
+								selected_runs.add( selected_requests );
+							
+								all_selected.addAll( selected_requests );
+							}
+							
+							if ( hit_cancelled ){
 								
 								break;
-								
-							}else{
-								
-								selected_requests.add( request );
-																
-								if ( i > 0 ){
-								
-										// we've only got the sem for the first request, catch up for subsequent
-									
-									request_sem.reserve();
-								}
 							}
 						}
 						
-						dangling_requests = new ArrayList<PeerReadRequest>( selected_requests );
+						dangling_requests.addAll( all_selected );
 						
 					}finally{
 						
@@ -787,9 +884,45 @@ ExternalSeedReaderImpl
 						
 						informCancelled( cancelled_request );
 
-					}else{
+					}else if ( selected_runs.size() > 0 ){
 						
-						processRequests( selected_requests );
+						long	start = SystemTime.getMonotonousTime();
+						
+						try{
+							processRequestRuns( selected_runs );
+							
+						}finally{
+							
+							try{
+								requests_mon.enter();
+								
+								dangling_requests.removeAll( all_selected );
+								
+							}finally{
+								
+								requests_mon.exit();
+							}
+						}
+						
+						updateStreamTarget( SystemTime.getMonotonousTime() - start );
+					}
+					
+					try{
+						requests_mon.enter();
+						
+						if ( active_streams > stream_target ){
+							
+								// the target has come down
+							
+							active_streams--;
+							
+							host_stats.streamEnded();
+							
+							break;
+						}
+					}finally{
+						
+						requests_mon.exit();
 					}
 				}
 			}catch( Throwable e ){
@@ -855,6 +988,10 @@ ExternalSeedReaderImpl
 				
 				return( rate_bytes_permitted );
 			}
+			
+				// out of permitted bytes, extra streams won't help this period
+			
+			stream_period_limited = true;
 		}
 		
 		if ( !rate_sem.reserve( 1000 )){
@@ -869,10 +1006,14 @@ ExternalSeedReaderImpl
 	reportBytesRead(
 		int		num )
 	{
+		host_stats.bytesReceived( num );
+		
 		synchronized( rate_sem ){
 			
 			rate_bytes_read += num;
 			
+			stream_period_bytes += num;
+			
 			rate_bytes_permitted -= num;
 			
 			if ( rate_bytes_permitted < 0 ){
@@ -898,9 +1039,17 @@ ExternalSeedReaderImpl
 	public int
 	getMaximumNumberOfRequests()
 	{
-		if ( getRequestCount() == 0 ){
+		int	group = (int)(( getPieceGroupSize() * torrent.getPieceSize() ) / PeerReadRequest.NORMAL_REQUEST_SIZE );
+		
+			// when pipelining or running parallel streams more groups can be queued while
+			// one is being read
+		
+		int	depth	= getPipelineDepth() * stream_target;
+		int	count	= getRequestCount();
+		
+		if ( count <= ( depth - 1 ) * group ){
 			
-			return((int)(( getPieceGroupSize() * torrent.getPieceSize() ) / PeerReadRequest.NORMAL_REQUEST_SIZE ));
+			return( depth * group - count );
 			
 		}else{
 			
@@ -1030,6 +1179,66 @@ ExternalSeedReaderImpl
 		return( priority_offsets );
 	}
 	
+		/**
+		 * Requests don't always arrive in offset order, pull any that continue the run at the
+		 * head of the queue up behind it so they go out as one range
+		 */
+	
+	protected void
+	coalesceRequests(
+		List<PeerReadRequest>	requests )
+	{
+		long	piece_size = torrent.getPieceSize();
+		
+		PeerReadRequest	head = requests.get(0);
+		
+		long	next_start = head.getPieceNumber() * piece_size + head.getOffset() + head.getLength();
+		
+		int		last_piece_number = head.getPieceNumber();
+		
+		for (int i=1;i<requests.size();i++){
+			
+			PeerReadRequest	request = requests.get(i);
+			
+			if ( request.getPieceNumber() * piece_size + request.getOffset() != next_start ){
+				
+					// the run ends here, look further down the queue for its continuation
+				
+				int	found = -1;
+				
+				for (int j=i+1;j<requests.size();j++){
+					
+					PeerReadRequest	other = requests.get(j);
+					
+					if ( other.getPieceNumber() * piece_size + other.getOffset() == next_start ){
+						
+						found = j;
+						
+						break;
+					}
+				}
+				
+				if ( found == -1 ){
+					
+					return;
+				}
+				
+				requests.add( i, requests.remove( found ));
+				
+				request = requests.get(i);
+			}
+			
+			if ( request.getPieceNumber() != last_piece_number && !getRequestCanSpanPieces()){
+				
+				return;
+			}
+			
+			next_start = request.getPieceNumber() * piece_size + request.getOffset() + request.getLength();
+			
+			last_piece_number = request.getPieceNumber();
+		}
+	}
+	
 	protected int
 	selectRequests(
 		List<PeerReadRequest>	requests )
@@ -1178,20 +1387,60 @@ ExternalSeedReaderImpl
 	
 		throws ExternalSeedException;
 	
+		/**
+		 * @return the number of separate ranges that can be requested back to back, 1 unless
+		 * the reader overrides readData for a list of requests
+		 */
+	
+	protected int
+	getPipelineDepth()
+	{
+		return( 1 );
+	}
+	
 	protected void
-	processRequests(
-		List<PeerReadRequest>		requests )
+	readData(
+		List<ExternalSeedReaderRequest>	requests )
+	
+		throws ExternalSeedException
+	{
+		for ( ExternalSeedReaderRequest request: requests ){
+			
+			current_request = request;
+			
+			readData( request );
+		}
+	}
+	
+	protected void
+	processRequestRuns(
+		List<List<PeerReadRequest>>		runs )
 	{	
 		boolean	ok = false;
-				
-		ExternalSeedReaderRequest	request = new ExternalSeedReaderRequest( this, requests );
 		
-		active_read_request = request;
+		List<ExternalSeedReaderRequest>	read_requests = new ArrayList<ExternalSeedReaderRequest>( runs.size());
+		
+		for ( List<PeerReadRequest> run: runs ){
+			
+			read_requests.add( new ExternalSeedReaderRequest( this, run ));
+		}
 		
 		try{
-			current_request = request;
+			requests_mon.enter();
+		
+			active_read_requests.addAll( read_requests );
 			
-			readData( request );
+		}finally{
+			
+			requests_mon.exit();
+		}
+		
+		read_requests.get(0).measureLatency();
+		
+		try{
+			current_request = read_requests.get(0);
+			
+			readData( read_requests );
 													
 			ok	= true;
 
@@ -1204,17 +1453,31 @@ ExternalSeedReaderImpl
 			
 			status = "Failed: " + Debug.getNestedExceptionMessage(e);
 			
-			request.failed();
+			for ( ExternalSeedReaderRequest request: read_requests ){
+				
+				request.failed();
+			}
 			
 		}catch( Throwable e ){
 			
 			status = "Failed: " + Debug.getNestedExceptionMessage(e);
 				
-			request.failed();
+			for ( ExternalSeedReaderRequest request: read_requests ){
+				
+				request.failed();
+			}
 			
 		}finally{
 			
-			active_read_request = null;
+			try{
+				requests_mon.enter();
+			
+				active_read_requests.removeAll( read_requests );
+				
+			}finally{
+				
+				requests_mon.exit();
+			}
 			
 			if ( ok ){
 				
@@ -1230,6 +1493,161 @@ ExternalSeedReaderImpl
 		}
 	}
 	
+	protected void
+	processRequests(
+		List<PeerReadRequest>		requests )
+	{	
+		List<List<PeerReadRequest>>	runs = new ArrayList<List<PeerReadRequest>>( 1 );
+		
+		runs.add( requests );
+		
+		processRequestRuns( runs );
+	}
+	
+		/**
+		 * Called by each stream after a batch. Every STREAM_ADAPT_PERIOD the throughput is
+		 * compared with the last period: a stream is added while the requests spend a good part
+		 * of their time waiting for the first byte (so more in parallel should help) and taken
+		 * away again if adding one didn't improve things. Nothing changes while the rate limit
+		 * is what holds us back.
+		 */
+	
+	protected void
+	updateStreamTarget(
+		long		batch_time )
+	{
+		int	new_target;
+		
+		synchronized( rate_sem ){
+			
+			long	now = SystemTime.getMonotonousTime();
+			
+			stream_period_batch_time += batch_time;
+			stream_period_batches++;
+			
+			if ( stream_period_start == -1 ){
+				
+				stream_period_start = now;
+				
+				return;
+			}
+			
+			long	elapsed = now - stream_period_start;
+			
+			if ( elapsed < STREAM_ADAPT_PERIOD ){
+				
+				return;
+			}
+			
+			long	rate 			= stream_period_bytes*1000/elapsed;
+			long	avg_latency		= stream_period_latencies==0?0:stream_period_latency/stream_period_latencies;
+			long	avg_batch		= stream_period_batch_time/stream_period_batches;
+			
+			new_target = stream_target;
+			
+			int	change = 0;
+			
+			if ( stream_period_limited || rate == 0 ){
+				
+			}else if ( stream_last_change > 0 && rate < stream_last_rate + stream_last_rate/20 ){
+				
+				if ( new_target > min_streams ){
+					
+					new_target--;
+					
+					change = -1;
+				}
+				
+				stream_hold_periods = 6;
+				
+			}else if ( stream_hold_periods > 0 ){
+				
+				stream_hold_periods--;
+				
+			}else if ( new_target < max_streams && avg_latency*5 > avg_batch ){
+				
+				new_target++;
+				
+				change = 1;
+			}
+			
+			stream_last_change	= change;
+			stream_last_rate	= rate;
+			
+			stream_period_start			= now;
+			stream_period_bytes			= 0;
+			stream_period_latency		= 0;
+			stream_period_latencies		= 0;
+			stream_period_batch_time	= 0;
+			stream_period_batches		= 0;
+			stream_period_limited		= false;
+			
+			if ( change != 0 ){
+				
+				log( getName() + ": streams " + stream_target + " -> " + new_target + ", rate=" + rate + ", latency=" + avg_latency + ", batch=" + avg_batch );
+			}
+		}
+		
+		if ( new_target != stream_target ){
+			
+			try{
+				requests_mon.enter();
+				
+				stream_target = new_target;
+				
+				startStreams();
+				
+			}finally{
+				
+				requests_mon.exit();
+			}
+		}
+	}
+	
+	protected void
+	reportLatency(
+		long		millis )
+	{
+		host_stats.requestLatency( millis );
+		
+		synchronized( rate_sem ){
+			
+			stream_period_latency += millis;
+			stream_period_latencies++;
+		}
+	}
+	
+		/**
+		 * called with requests_mon held
+		 */
+	
+	protected void
+	startStreams()
+	{
+		if ( requests.size() == 0 ){
+			
+			return;
+		}
+		
+		int	wanted = stream_target - active_streams - starting_streams;
+		
+		for (int i=0;i<wanted;i++){
+			
+			starting_streams++;
+			
+			plugin.getPluginInterface().getUtilities().createThread(
+					"RequestProcessor",
+					new Runnable()
+					{
+						public void
+						run()
+						{
+							processRequests();
+						}
+					});
+		}
+	}
+	
 	public void
 	addRequests(
 		List<PeerReadRequest>	new_requests )
@@ -1249,19 +1667,7 @@ ExternalSeedReaderImpl
 				request_sem.release();
 			}
 						
-			if ( request_thread == null ){
-				
-				plugin.getPluginInterface().getUtilities().createThread(
-						"RequestProcessor",
-						new Runnable()
-						{
-							public void
-							run()
-							{
-								processRequests();
-							}
-						});
-			}
+			startStreams();
 
 		}finally{
 			
@@ -1281,7 +1687,7 @@ ExternalSeedReaderImpl
 				request.cancel();
 			}
 			
-			if ( dangling_requests != null && dangling_requests.contains( request ) && !request.isCancelled()){
+			if ( dangling_requests.contains( request ) && !request.isCancelled()){
 				
 				request.cancel();
 			}
@@ -1306,20 +1712,17 @@ ExternalSeedReaderImpl
 				}
 			}	
 			
-			if ( dangling_requests != null ){
-			
-				for ( PeerReadRequest request: dangling_requests ){
-							
-					if ( !request.isCancelled()){
-	
-						request.cancel();
-					}
+			for ( PeerReadRequest request: dangling_requests ){
+						
+				if ( !request.isCancelled()){
+
+					request.cancel();
 				}
-			}	
+			}
 			
-			if ( active_read_request != null ){
+			for ( ExternalSeedReaderRequest request: active_read_requests ){
 				
-				active_read_request.cancel();
+				request.cancel();
 			}
 		}finally{
 			
@@ -1395,40 +1798,32 @@ ExternalSeedReaderImpl
 		try{
 			requests_mon.enter();
 
-			int size = requests.size();
-			
-			if ( dangling_requests != null ){
-				
-				size += dangling_requests.size();
-			}
+			int size = requests.size() + dangling_requests.size();
 			
 			int[] res = new int[size];
 
 			int	pos = 0;
 			
-			if ( dangling_requests != null ){
+			for ( PeerReadRequest r: dangling_requests ){
 				
-				for ( PeerReadRequest r: dangling_requests ){
-					
-					int	piece_number = r.getPieceNumber();
-					
-					boolean	hit = false;
+				int	piece_number = r.getPieceNumber();
+				
+				boolean	hit = false;
+				
+				for ( int i=0;i<pos;i++){
 					
-					for ( int i=0;i<pos;i++){
+					if ( piece_number == res[i] ){
 						
-						if ( piece_number == res[i] ){
-							
-							hit = true;
-							
-							break;
-						}
-					}
-					
-					if ( !hit ){
+						hit = true;
 						
-						res[pos++] = piece_number;
+						break;
 					}
 				}
+				
+				if ( !hit ){
+					
+					res[pos++] = piece_number;
+				}
 			}
 			
 			for ( PeerReadRequest r: requests ){
@@ -1476,12 +1871,7 @@ ExternalSeedReaderImpl
 		try{
 			requests_mon.enter();
 
-			int res = requests.size();
-			
-			if ( dangling_requests != null ){
-				
-				res += dangling_requests.size();
-			}
+			int res = requests.size() + dangling_requests.size();
 			
 			return( res );
 			
@@ -24,6 +24,7 @@ package com.aelitis.azureus.plugins.extseed.impl;
 
 import java.util.List;
 
+import org.gudy.azureus2.core3.util.SystemTime;
 import org.gudy.azureus2.plugins.peers.PeerReadRequest;
 
 import com.aelitis.azureus.plugins.extseed.ExternalSeedException;
@@ -47,6 +48,8 @@ ExternalSeedReaderRequest
 	private byte[]				current_buffer;
 	private int					current_position;
 	
+	private long				latency_start	= -1;
+	
 	protected 
 	ExternalSeedReaderRequest(
 		ExternalSeedReaderImpl		_reader,
@@ -69,6 +72,17 @@ ExternalSeedReaderRequest
 		}
 	}
 	
+		/**
+		 * time to the first byte of this request gets reported to the reader. Only makes sense
+		 * for a request that is sent straight away, not one queued behind others on the connection
+		 */
+	
+	protected void
+	measureLatency()
+	{
+		latency_start = SystemTime.getMonotonousTime();
+	}
+	
 	public int
 	getStartPieceNumber()
 	{
@@ -216,6 +230,13 @@ ExternalSeedReaderRequest
 	reportBytesRead(
 		int		num )
 	{
+		if ( latency_start != -1 ){
+			
+			reader.reportLatency( SystemTime.getMonotonousTime() - latency_start );
+			
+			latency_start = -1;
+		}
+		
 		reader.reportBytesRead( num );
 	}
 }
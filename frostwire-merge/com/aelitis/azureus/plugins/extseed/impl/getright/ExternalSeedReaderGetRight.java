@@ -52,16 +52,22 @@ ExternalSeedReaderGetRight
 	implements PiecePriorityProvider
 {
 	private static final int	TARGET_REQUEST_SIZE_DEFAULT	= 256*1024;
+	private static final int	PIPELINE_DEPTH_DEFAULT		= 3;
 	
 	private URL			url;
 	private int			port;
 	
-	private ExternalSeedHTTPDownloader[]	http_downloaders;
+		// the downloaders hold per-request state so each concurrent read takes its own set
+	
+	private URL[]									downloader_urls;
+	private List<ExternalSeedHTTPDownloader[]>		downloader_sets 	= new ArrayList<ExternalSeedHTTPDownloader[]>();
+	private LinkedList<ExternalSeedHTTPDownloader[]>	free_downloader_sets	= new LinkedList<ExternalSeedHTTPDownloader[]>();
 	private long[]							downloader_offsets;
 	private long[]							downloader_lengths;
 	
 	private int			piece_size;
 	private int			piece_group_size;
+	private int			pipeline_depth;
 		
 	private long[]		piece_priorities;
 	
@@ -81,6 +87,15 @@ ExternalSeedReaderGetRight
 		int target_request_size	= getIntParam( _params, "req_size", TARGET_REQUEST_SIZE_DEFAULT );
 		
 		linear_download	= getBooleanParam( _params, "linear", false );
+		
+		pipeline_depth	= linear_download?1:Math.max( 1, getIntParam( _params, "pipeline", PIPELINE_DEPTH_DEFAULT ));
+
+		if ( linear_download ){
+			
+				// a linear download reads the file front to back, one stream only
+			
+			setMaxStreams( 1 );
+		}
 
 		url		= _url;
 		
@@ -108,20 +123,16 @@ ExternalSeedReaderGetRight
 	{
 		synchronized( this ){
 			
-			if ( http_downloaders != null ){
+			if ( downloader_urls != null ){
 				
 				return;
 			}
 			
 			TOTorrent	to_torrent = ((TorrentImpl)getTorrent()).getTorrent();
-	
-			String	ua = getUserAgent();
 			
 			if ( to_torrent.isSimpleTorrent()){
 				
-				http_downloaders = 
-					new ExternalSeedHTTPDownloader[]{ 
-						linear_download?new ExternalSeedHTTPDownloaderLinear( url, ua ):new ExternalSeedHTTPDownloaderRange( url, ua )};
+				downloader_urls		= new URL[]{ url };
 				
 				downloader_offsets 	= new long[]{ 0 };
 				downloader_lengths	= new long[]{ to_torrent.getSize() };
@@ -130,7 +141,7 @@ ExternalSeedReaderGetRight
 				
 				TOTorrentFile[]	files = to_torrent.getFiles();
 				
-				http_downloaders = new ExternalSeedHTTPDownloader[ files.length ];
+				downloader_urls = new URL[ files.length ];
 				
 				downloader_offsets 	= new long[ files.length ];
 				downloader_lengths	= new long[ files.length ];
@@ -164,7 +175,7 @@ ExternalSeedReaderGetRight
 							file_url_str += "/" + URLEncoder.encode( new String( bits[j], "ISO-8859-1" ), "ISO-8859-1" ).replaceAll("\\+", "%20");
 						}
 						
-						http_downloaders[i] = linear_download?new ExternalSeedHTTPDownloaderLinear( new URL( file_url_str), ua ):new ExternalSeedHTTPDownloaderRange( new URL( file_url_str), ua );
+						downloader_urls[i] = new URL( file_url_str );
 						
 						downloader_offsets[i]	= offset;
 						downloader_lengths[i]	= length;
@@ -179,6 +190,48 @@ ExternalSeedReaderGetRight
 		}
 	}
 	
+	private ExternalSeedHTTPDownloader[]
+	borrowDownloaders()
+	{
+		setupDownloaders();
+		
+		synchronized( this ){
+			
+			if ( free_downloader_sets.size() > 0 ){
+				
+				return( free_downloader_sets.removeLast());
+			}
+			
+			String	ua = getUserAgent();
+
+			ExternalSeedHTTPDownloader[]	downloaders = new ExternalSeedHTTPDownloader[ downloader_urls.length ];
+			
+			for (int i=0;i<downloaders.length;i++){
+				
+				URL	u = downloader_urls[i];
+				
+				if ( u != null ){
+					
+					downloaders[i] = linear_download?new ExternalSeedHTTPDownloaderLinear( u, ua ):new ExternalSeedHTTPDownloaderRange( u, ua );
+				}
+			}
+			
+			downloader_sets.add( downloaders );
+			
+			return( downloaders );
+		}
+	}
+	
+	private void
+	releaseDownloaders(
+		ExternalSeedHTTPDownloader[]	downloaders )
+	{
+		synchronized( this ){
+			
+			free_downloader_sets.add( downloaders );
+		}
+	}
+	
 	public boolean
 	sameAs(
 		ExternalSeedReader	other )
@@ -220,6 +273,12 @@ ExternalSeedReaderGetRight
 	{
 		return( true );
 	}
+	
+	protected int
+	getPipelineDepth()
+	{
+		return( pipeline_depth );
+	}
 		
 	protected void
 	setActiveSupport(
@@ -255,18 +314,21 @@ ExternalSeedReaderGetRight
 			
 			if ( !active ){
 				
-				boolean	downloaders_set;
+				List<ExternalSeedHTTPDownloader[]>	sets;
 				
 				synchronized( this ){
 					
-					downloaders_set = http_downloaders != null;
+					sets = new ArrayList<ExternalSeedHTTPDownloader[]>( downloader_sets );
 				}
 				
-				if ( downloaders_set ){
+				for ( ExternalSeedHTTPDownloader[] downloaders: sets ){
 					
-					for ( ExternalSeedHTTPDownloader d: http_downloaders ){
+					for ( ExternalSeedHTTPDownloader d: downloaders ){
+						
+						if ( d != null ){
 						
-						d.deactivate();
+							d.deactivate();
+						}
 					}
 				}
 			}
@@ -305,7 +367,119 @@ ExternalSeedReaderGetRight
 	
 		throws ExternalSeedException
 	{	
-		readData( request.getStartPieceNumber(), request.getStartPieceOffset(), request.getLength(), request );
+		readData( Collections.singletonList( request ));
+	}
+	
+		/**
+		 * Runs that all fall within one file go through that file's downloader together (on a
+		 * keep-alive connection, pipelined if more than one), anything spanning files is read
+		 * a run at a time
+		 */
+	
+	protected void
+	readData(
+		List<ExternalSeedReaderRequest>		requests )
+	
+		throws ExternalSeedException
+	{
+		ExternalSeedHTTPDownloader[]	http_downloaders = borrowDownloaders();
+		
+		try{
+			readData( http_downloaders, requests );
+			
+		}finally{
+			
+			releaseDownloaders( http_downloaders );
+		}
+	}
+	
+	private void
+	readData(
+		ExternalSeedHTTPDownloader[]		http_downloaders,
+		List<ExternalSeedReaderRequest>		requests )
+	
+		throws ExternalSeedException
+	{
+		int	num = requests.size();
+		
+		long[]	offsets		= new long[num];
+		int[]	lengths		= new int[num];
+		
+		int	downloader_index = -1;
+		
+		for (int i=0;i<num && downloader_index != -2;i++){
+			
+			ExternalSeedReaderRequest	request = requests.get(i);
+			
+			long	request_start 	= request.getStartPieceNumber() * (long)piece_size + request.getStartPieceOffset();
+			long	request_end		= request_start + request.getLength();
+			
+			int	index = -2;
+			
+			for (int j=0;j<http_downloaders.length;j++){
+				
+				if ( 	downloader_offsets[j] <= request_start && 
+						request_end <= downloader_offsets[j] + downloader_lengths[j] ){
+					
+					index = j;
+					
+					break;
+				}
+			}
+			
+			if ( i == 0 ){
+				
+				downloader_index = index;
+				
+			}else if ( index != downloader_index ){
+				
+				downloader_index = -2;
+			}
+			
+			if ( index >= 0 ){
+			
+				offsets[i]	= request_start - downloader_offsets[index];
+				lengths[i]	= request.getLength();
+			}
+		}
+		
+		if ( 	downloader_index < 0 || 
+				!( http_downloaders[downloader_index] instanceof ExternalSeedHTTPDownloaderRange )){
+			
+			for ( ExternalSeedReaderRequest request: requests ){
+			
+				readData( http_downloaders, request.getStartPieceNumber(), request.getStartPieceOffset(), request.getLength(), request );
+			}
+			
+			return;
+		}
+		
+		setReconnectDelay( RECONNECT_DEFAULT, false );
+
+		ExternalSeedHTTPDownloaderRange http_downloader = (ExternalSeedHTTPDownloaderRange)http_downloaders[downloader_index];
+		
+        try{
+			http_downloader.downloadRanges( 
+					offsets, 
+					lengths,
+					requests.toArray( new ExternalSeedHTTPDownloaderListener[num] ),
+					isTransient());
+
+        }catch( ExternalSeedException ese ){
+        	
+        	if ( http_downloader.getLastResponse() == 503 && http_downloader.getLast503RetrySecs() >= 0 ){
+		
+				int	retry_secs = http_downloader.getLast503RetrySecs();
+				
+				setReconnectDelay( retry_secs * 1000, true );
+				
+				throw( new ExternalSeedException( "Server temporarily unavailable, retrying in " + retry_secs + " seconds" ));
+        		
+        	}else{
+        		
+        		throw(ese);                	
+        	}
+        }
 	}
 	
 	protected void
@@ -313,12 +487,31 @@ ExternalSeedReaderGetRight
 		int											start_piece_number,
 		int											start_piece_offset,
 		int											length,
-		final ExternalSeedHTTPDownloaderListener	listener )
+		ExternalSeedHTTPDownloaderListener			listener )
 	
 		throws ExternalSeedException
 	{	
-		setupDownloaders();
+		ExternalSeedHTTPDownloader[]	http_downloaders = borrowDownloaders();
 		
+		try{
+			readData( http_downloaders, start_piece_number, start_piece_offset, length, listener );
+			
+		}finally{
+			
+			releaseDownloaders( http_downloaders );
+		}
+	}
+	
+	private void
+	readData(
+		ExternalSeedHTTPDownloader[]				http_downloaders,
+		int											start_piece_number,
+		int											start_piece_offset,
+		int											length,
+		final ExternalSeedHTTPDownloaderListener	listener )
+	
+		throws ExternalSeedException
+	{	
 		setReconnectDelay( RECONNECT_DEFAULT, false );
 		
 		long	request_start 	= start_piece_number * (long)piece_size + start_piece_offset;
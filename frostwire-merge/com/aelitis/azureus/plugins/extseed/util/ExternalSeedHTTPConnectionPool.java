@@ -0,0 +1,303 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package com.aelitis.azureus.plugins.extseed.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+
+import org.gudy.azureus2.core3.util.SimpleTimer;
+import org.gudy.azureus2.core3.util.SystemTime;
+import org.gudy.azureus2.core3.util.TimerEvent;
+import org.gudy.azureus2.core3.util.TimerEventPerformer;
+import org.gudy.azureus2.core3.util.TimerEventPeriodic;
+
+/**
+ * Idle keep-alive sockets to web seed hosts, keyed by host:port. A connection is taken out
+ * of the pool for the duration of a request (or a pipelined batch of them) and handed back
+ * once its responses have been read in full, anything else closes it. A timer closes those
+ * left idle for IDLE_TIMEOUT, it only runs while the pool holds something.
+ */
+
+public class
+ExternalSeedHTTPConnectionPool
+{
+	private static final int	MAX_IDLE_PER_HOST	= 4;
+	private static final int	IDLE_TIMEOUT		= 30*1000;
+
+	private static final Map<String,LinkedList<Connection>>	idle = new HashMap<String,LinkedList<Connection>>();
+
+	private static long		connections_created;
+	private static long		connections_reused;
+
+	private static TimerEventPeriodic	reaper;
+
+		/**
+		 * @param timeout connect timeout in millis, 0 for none
+		 */
+
+	public static Connection
+	getConnection(
+		String		host,
+		int			port,
+		int			timeout )
+
+		throws IOException
+	{
+		String	key = host + ":" + port;
+
+		long	now = SystemTime.getMonotonousTime();
+
+		synchronized( idle ){
+
+			LinkedList<Connection>	list = idle.get( key );
+
+			while( list != null && list.size() > 0 ){
+
+					// most recently used first, anything that has sat too long gets dropped
+
+				Connection	con = list.removeLast();
+
+				if ( list.size() == 0 ){
+
+					idle.remove( key );
+				}
+
+				if ( now - con.last_used < IDLE_TIMEOUT && !con.socket.isClosed()){
+
+					connections_reused++;
+
+					con.reused = true;
+
+					return( con );
+				}
+
+				con.close();
+			}
+
+			connections_created++;
+		}
+
+		Socket	socket = new Socket();
+
+		try{
+			socket.setTcpNoDelay( true );
+
+			socket.connect( new InetSocketAddress( host, port ), timeout );
+
+		}catch( IOException e ){
+
+			try{
+				socket.close();
+
+			}catch( Throwable f ){
+			}
+
+			throw( e );
+		}
+
+		return( new Connection( key, socket ));
+	}
+
+	public static void
+	releaseConnection(
+		Connection		con )
+	{
+		con.last_used = SystemTime.getMonotonousTime();
+
+		synchronized( idle ){
+
+			LinkedList<Connection>	list = idle.get( con.key );
+
+			if ( list == null ){
+
+				list = new LinkedList<Connection>();
+
+				idle.put( con.key, list );
+			}
+
+			list.addLast( con );
+
+			if ( list.size() > MAX_IDLE_PER_HOST ){
+
+				list.removeFirst().close();
+			}
+
+			if ( reaper == null ){
+
+				reaper =
+					SimpleTimer.addPeriodicEvent(
+						"ExternalSeedHTTPConnectionPool:reaper",
+						IDLE_TIMEOUT/2,
+						new TimerEventPerformer()
+						{
+							public void
+							perform(
+								TimerEvent	event )
+							{
+								closeIdle();
+							}
+						});
+			}
+		}
+	}
+
+	private static void
+	closeIdle()
+	{
+		long	now = SystemTime.getMonotonousTime();
+
+		synchronized( idle ){
+
+			Iterator<LinkedList<Connection>>	it = idle.values().iterator();
+
+			while( it.hasNext()){
+
+				LinkedList<Connection>	list = it.next();
+
+					// oldest first
+
+				while( list.size() > 0 && now - list.getFirst().last_used >= IDLE_TIMEOUT ){
+
+					list.removeFirst().close();
+				}
+
+				if ( list.size() == 0 ){
+
+					it.remove();
+				}
+			}
+
+			if ( idle.size() == 0 ){
+
+				cancelReaper();
+			}
+		}
+	}
+
+	private static void
+	cancelReaper()
+	{
+		if ( reaper != null ){
+
+			reaper.cancel();
+
+			reaper = null;
+		}
+	}
+
+	public static long[]
+	getStats()
+	{
+		synchronized( idle ){
+
+			return( new long[]{ connections_created, connections_reused });
+		}
+	}
+
+	public static void
+	closeAll()
+	{
+		synchronized( idle ){
+
+			for ( LinkedList<Connection> list: idle.values()){
+
+				for ( Connection con: list ){
+
+					con.close();
+				}
+			}
+
+			idle.clear();
+
+			cancelReaper();
+		}
+	}
+
+	public static class
+	Connection
+	{
+		private final String		key;
+		private final Socket		socket;
+		private final InputStream	is;
+		private final OutputStream	os;
+
+		private long		last_used;
+		private boolean		reused;
+
+		private
+		Connection(
+			String		_key,
+			Socket		_socket )
+
+			throws IOException
+		{
+			key		= _key;
+			socket	= _socket;
+
+			is	= new BufferedInputStream( socket.getInputStream(), 16*1024 );
+			os	= socket.getOutputStream();
+		}
+
+		public InputStream
+		getInputStream()
+		{
+			return( is );
+		}
+
+		public OutputStream
+		getOutputStream()
+		{
+			return( os );
+		}
+
+		public void
+		setTimeout(
+			int		millis )
+
+			throws IOException
+		{
+			socket.setSoTimeout( millis );
+		}
+
+			/**
+			 * a reused connection may have been closed by the server while idle, a failure
+			 * before any response has been read is then worth retrying on a new one
+			 */
+
+		public boolean
+		isReused()
+		{
+			return( reused );
+		}
+
+		public void
+		close()
+		{
+			try{
+				socket.close();
+
+			}catch( Throwable e ){
+			}
+		}
+	}
+}
@@ -27,9 +27,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.InetSocketAddress;
 import java.net.PasswordAuthentication;
-import java.net.Socket;
 import java.net.URL;
 import java.util.HashSet;
 import java.util.Set;
@@ -462,211 +460,215 @@ redirect_loop:
 	
 		throws ExternalSeedException
 	{
-		Socket	socket	= null;
+		int	done = 
+			downloadSocket( 
+				original_url,
+				new String[][]{ prop_names },
+				new String[][]{ prop_values },
+				new int[]{ length },
+				new ExternalSeedHTTPDownloaderListener[]{ listener },
+				con_fail_is_perm_fail );
 		
-		boolean	connected = false;
+		if ( done == 0 ){
+			
+			ExternalSeedException	error = new ExternalSeedException("Connection failed: redirected (" + last_response + ")" );
+			
+			error.setPermanentFailure( true );
+			
+			throw( error );
+		}
+	}
+	
+		/**
+		 * Reads a number of ranges in order. For plain http without a proxy the requests are
+		 * pipelined on a pooled keep-alive connection, otherwise (or if the server redirects)
+		 * they are done one at a time through downloadRange
+		 */
+	
+	public void
+	downloadRanges(
+		long[]									offsets,
+		int[]									lengths,
+		ExternalSeedHTTPDownloaderListener[]	listeners,
+		boolean									con_fail_is_perm_fail )
+	
+		throws ExternalSeedException
+	{
+		int	done = 0;
 		
-		try{				
-			String	output_header = 
-				"GET " + original_url.getPath() + "?" + original_url.getQuery() + " HTTP/1.1" + NL +
-				"Host: " + original_url.getHost() + (original_url.getPort()==-1?"":( ":" + original_url.getPort())) + NL +
-				"Accept: */*" + NL +
-				"Connection: Close" + NL +	// if we want to support keep-alive we'll need to implement a socket cache etc.
-				"User-Agent: " + user_agent + NL;
+		URL	target = redirected_url==null?original_url:redirected_url;
 		
-			for (int i=0;i<prop_names.length;i++){
+		if ( canPipeline( target )){
+			
+			String[][]	prop_names	= new String[offsets.length][];
+			String[][]	prop_values	= new String[offsets.length][];
+			
+			for (int i=0;i<offsets.length;i++){
 				
-				output_header += prop_names[i] + ":" + prop_values[i] + NL;
+				prop_names[i]	= new String[]{ "Range" };
+				prop_values[i]	= new String[]{ "bytes=" + offsets[i] + "-" + (offsets[i]+lengths[i]-1)};
 			}
 			
-			output_header += NL;
+			done = downloadSocket( target, prop_names, prop_values, lengths, listeners, con_fail_is_perm_fail );
+		}
+		
+			// anything left over got a redirect, the URLConnection path follows those
+		
+		for (int i=done;i<offsets.length;i++){
 			
-			int	time_remaining	= listener.getPermittedTime();
+			downloadRange( offsets[i], lengths[i], listeners[i], con_fail_is_perm_fail );
+		}
+	}
+	
+	protected boolean
+	canPipeline(
+		URL		target )
+	{
+		if ( !target.getProtocol().equalsIgnoreCase( "http" )){
 			
-			if ( time_remaining > 0 ){
-				
-				socket = new Socket();
-				
-				socket.connect( new InetSocketAddress( original_url.getHost(), original_url.getPort()==-1?original_url.getDefaultPort():original_url.getPort()), time_remaining );
-				
-			}else{
+			return( false );
+		}
 		
-				socket = new Socket(  original_url.getHost(), original_url.getPort()==-1?original_url.getDefaultPort():original_url.getPort());
-			}
+		String	proxy = System.getProperty( "http.proxyHost" );
+		String	socks = System.getProperty( "socksProxyHost" );
+		
+		return(( proxy == null || proxy.length() == 0 ) && ( socks == null || socks.length() == 0 ));
+	}
+	
+		/**
+		 * @return the number of requests completed, less than the number asked for only if the
+		 * server responded with a redirect
+		 */
+	
+	protected int
+	downloadSocket(
+		URL										target,
+		String[][]								prop_names,
+		String[][]								prop_values,
+		int[]									lengths,
+		ExternalSeedHTTPDownloaderListener[]	listeners,
+		boolean									con_fail_is_perm_fail )
+	
+		throws ExternalSeedException
+	{
+		ExternalSeedHTTPConnectionPool.Connection	con = null;
+		
+		boolean	connected = false;
+		
+		int		done	= 0;
+		
+		boolean	retried	= false;
+		
+		try{
+			String	host	= target.getHost();
+			int		port	= target.getPort()==-1?target.getDefaultPort():target.getPort();
 			
-			connected	= true;
+			String	file = target.getFile();
 			
-			time_remaining	= listener.getPermittedTime();
-
-			if ( time_remaining < 0 ){
-					
-				throw( new IOException( "Timeout during connect" ));
+			if ( file.length() == 0 ){
 				
-			}else if ( time_remaining > 0 ){
-				
-				socket.setSoTimeout( time_remaining );
+				file = "/";
 			}
 			
-			OutputStream	os = socket.getOutputStream();
-			
-			os.write( output_header.getBytes( "ISO-8859-1" ));
-			
-			os.flush();
-			
-			InputStream is = socket.getInputStream();
+			String	header_base = 
+				"GET " + file + " HTTP/1.1" + NL +
+				"Host: " + host + (target.getPort()==-1?"":( ":" + target.getPort())) + NL +
+				"Accept: */*" + NL +
+				"Connection: Keep-Alive" + NL +
+				"User-Agent: " + user_agent + NL;
 			
-			try{
-				String	input_header = "";
+			while( done < lengths.length ){
 				
-				while( true ){
-					
-					byte[]	buffer = new byte[1];
-					
-					int	len = is.read( buffer );
-					
-					if ( len < 0 ){
-						
-						throw( new IOException( "input too short reading header" ));
-					}
-					
-					input_header	+= (char)buffer[0];
-					
-					if ( input_header.endsWith(NL+NL)){
-					
-						break;
-					}
-				}
-								
-				// HTTP/1.1 403 Forbidden
+				int	time_remaining	= listeners[done].getPermittedTime();
+				
+				con = ExternalSeedHTTPConnectionPool.getConnection( host, port, time_remaining>0?time_remaining:0 );
 				
-				int	line_end = input_header.indexOf(NL);
+				connected	= true;
 				
-				if ( line_end == -1 ){
+				time_remaining	= listeners[done].getPermittedTime();
+	
+				if ( time_remaining < 0 ){
 					
-					throw( new IOException( "header too short" ));
+					throw( new IOException( "Timeout during connect" ));
 				}
 				
-				String	first_line = input_header.substring(0,line_end);
-				
-				StringTokenizer	tok = new StringTokenizer(first_line, " " );
+				con.setTimeout( time_remaining );
 				
-				tok.nextToken();
+					// everything outstanding goes out in one write, the responses come back in order
 				
-				int	response = Integer.parseInt( tok.nextToken());
+				StringBuffer	output = new StringBuffer( 256*( lengths.length - done ));
 				
-				last_response	= response;
-				
-				last_response_retry_after_secs	= -1;
-				
-				String	response_str	= tok.nextToken();				
-				
-				if ( 	response == HttpURLConnection.HTTP_ACCEPTED || 
-						response == HttpURLConnection.HTTP_OK ||
-						response == HttpURLConnection.HTTP_PARTIAL ){
-					
-					byte[]	buffer 		= null;
-					int		buffer_pos	= 0;
-					int		buffer_len	= 0;
+				for (int i=done;i<lengths.length;i++){
 					
-					int	pos = 0;
+					output.append( header_base );
 					
-					while( pos < length ){
-						
-						if ( buffer == null ){
-							
-							buffer 		= listener.getBuffer();							
-							buffer_pos	= listener.getBufferPosition();
-							buffer_len	= listener.getBufferLength();
-						}
+					for (int j=0;j<prop_names[i].length;j++){
 						
-						int	to_read = buffer_len - buffer_pos;
-						
-						int	permitted = listener.getPermittedBytes();
-						
-						if ( permitted < to_read ){
-							
-							to_read	= permitted;
-						}
-						
-						int	len = is.read( buffer, buffer_pos, to_read );
-						
-						if ( len < 0 ){
-							
-							break;
-						}
-						
-						listener.reportBytesRead( len );
-						
-						pos	+= len;
-						
-						buffer_pos	+= len;
-						
-						if ( buffer_pos == buffer_len ){
-							
-							listener.done();
-							
-							buffer		= null;
-							buffer_pos	= 0;
-						}
+						output.append( prop_names[i][j] ).append( ":" ).append( prop_values[i][j] ).append( NL );
 					}
 					
-					if ( pos != length ){
+					output.append( NL );
+				}
+				
+				OutputStream	os = con.getOutputStream();
+				
+				os.write( output.toString().getBytes( "ISO-8859-1" ));
+				
+				os.flush();
+				
+				boolean	keep_alive = true;
+				
+				try{
+					while( done < lengths.length && keep_alive ){
 						
-						String	log_str;
+						int	res = readResponse( con.getInputStream(), lengths[done], listeners[done] );
 						
-						if ( buffer == null ){
+						if ( res == RESPONSE_REDIRECT ){
 							
-							log_str = "No buffer assigned";
+							con.close();
 							
-						}else{
+							con = null;
 							
-							log_str =  new String( buffer, 0, buffer_pos>64?64:buffer_pos );
+							return( done );
 						}
 						
-						throw( new ExternalSeedException("Connection failed: data too short - " + length + "/" + pos + " [last=" + log_str + "]" ));
+						done++;
+						
+						keep_alive = res == RESPONSE_KEEP_ALIVE;
 					}
+				}catch( IOException e ){
 					
-					// System.out.println( "download length: " + pos );
-										
-				}else if ( 	response == 503 ){
+						// the server can drop an idle connection just as we reuse it, give it 
+						// one more go on a new one
 					
-						// webseed support for temp unavail - read the data
-					
-					String	data_str = "";
-					
-					while( true ){
+					if ( con.isReused() && !response_started && !retried ){
 						
-						byte[]	buffer = new byte[1];
+						retried = true;
 						
-						int	len = is.read( buffer );
+						con.close();
 						
-						if ( len < 0 ){
-							
-							break;
-						}
+						con = null;
 						
-						data_str += (char)buffer[0];
+						continue;
 					}
 					
-					last_response_retry_after_secs = Integer.parseInt( data_str );
+					throw( e );
+				}
 				
-						// this gets trapped below and turned into an appropriate ExternalSeedException
+				if ( keep_alive ){
 					
-					throw( new IOException( "Server overloaded" ));
+					ExternalSeedHTTPConnectionPool.releaseConnection( con );
 					
 				}else{
 					
-					ExternalSeedException	error = new ExternalSeedException("Connection failed: " + response_str );
-					
-					error.setPermanentFailure( true );
-					
-					throw( error );
+					con.close();
 				}
-			}finally{
 				
-				is.close();
+				con = null;
 			}
 			
+			return( done );
+			
 		}catch( IOException e ){
 			
 			if ( con_fail_is_perm_fail && !connected ){
@@ -699,14 +701,257 @@ redirect_loop:
 			
 		}finally{
 			
-			if ( socket != null ){
+			if ( con != null ){
 				
-				try{
-					socket.close();
+				con.close();
+			}
+		}
+	}
+	
+	private static final int	RESPONSE_KEEP_ALIVE	= 1;
+	private static final int	RESPONSE_CLOSE		= 2;
+	private static final int	RESPONSE_REDIRECT	= 3;
+	
+	private boolean	response_started;
+	
+		/**
+		 * reads one response with its body, leaving the stream at the start of the next one
+		 */
+	
+	protected int
+	readResponse(
+		InputStream							is,
+		int									length,
+		ExternalSeedHTTPDownloaderListener	listener )
+	
+		throws IOException, ExternalSeedException
+	{
+		response_started	= false;
+		
+		String	first_line = readLine( is );
+		
+		if ( first_line == null ){
+			
+			throw( new IOException( "input too short reading header" ));
+		}
+		
+		response_started	= true;
+		
+			// HTTP/1.1 403 Forbidden
+		
+		StringTokenizer	tok = new StringTokenizer(first_line, " " );
+		
+		String	version = tok.nextToken();
+		
+		int	response = Integer.parseInt( tok.nextToken());
+		
+		String	response_str	= tok.hasMoreTokens()?tok.nextToken():"";
+		
+		long	content_length	= -1;
+		boolean	keep_alive		= version.equals( "HTTP/1.1" );
+		
+		int	header_size = first_line.length();
+		
+		while( true ){
+			
+			String	line = readLine( is );
+			
+			if ( line == null ){
+				
+				throw( new IOException( "input too short reading header" ));
+			}
+			
+			if ( line.length() == 0 ){
+				
+				break;
+			}
+			
+			header_size += line.length();
+			
+			if ( header_size > 64*1024 ){
+				
+				throw( new IOException( "header too large" ));
+			}
+			
+			int	pos = line.indexOf( ':' );
+			
+			if ( pos == -1 ){
+				
+				continue;
+			}
+			
+			String	name	= line.substring( 0, pos ).trim().toLowerCase();
+			String	value	= line.substring( pos+1 ).trim();
+			
+			if ( name.equals( "content-length" )){
+				
+				content_length = Long.parseLong( value );
+				
+			}else if ( name.equals( "connection" )){
+				
+				keep_alive = value.equalsIgnoreCase( "keep-alive" );
+				
+			}else if ( name.equals( "transfer-encoding" )){
+				
+				keep_alive = false;
+			}
+		}
+		
+		last_response	= response;
+		
+		last_response_retry_after_secs	= -1;
+		
+			// without a length the body runs to the close
+		
+		if ( content_length != length ){
+			
+			keep_alive = false;
+		}
+		
+		if ( 	response == HttpURLConnection.HTTP_ACCEPTED || 
+				response == HttpURLConnection.HTTP_OK ||
+				response == HttpURLConnection.HTTP_PARTIAL ){
+			
+			byte[]	buffer 		= null;
+			int		buffer_pos	= 0;
+			int		buffer_len	= 0;
+			
+			int	pos = 0;
+			
+			while( pos < length ){
+				
+				if ( buffer == null ){
 					
-				}catch( Throwable e ){
+					buffer 		= listener.getBuffer();							
+					buffer_pos	= listener.getBufferPosition();
+					buffer_len	= listener.getBufferLength();
+				}
+				
+				int	to_read = buffer_len - buffer_pos;
+				
+				int	permitted = listener.getPermittedBytes();
+				
+				if ( permitted < to_read ){
+					
+					to_read	= permitted;
 				}
+				
+				int	len = is.read( buffer, buffer_pos, to_read );
+				
+				if ( len < 0 ){
+					
+					break;
+				}
+				
+				listener.reportBytesRead( len );
+				
+				pos	+= len;
+				
+				buffer_pos	+= len;
+				
+				if ( buffer_pos == buffer_len ){
+					
+					listener.done();
+					
+					buffer		= null;
+					buffer_pos	= 0;
+				}
+			}
+			
+			if ( pos != length ){
+				
+				String	log_str;
+				
+				if ( buffer == null ){
+					
+					log_str = "No buffer assigned";
+					
+				}else{
+					
+					log_str =  new String( buffer, 0, buffer_pos>64?64:buffer_pos );
+				}
+				
+				throw( new ExternalSeedException("Connection failed: data too short - " + length + "/" + pos + " [last=" + log_str + "]" ));
+			}
+			
+			// System.out.println( "download length: " + pos );
+			
+			return( keep_alive?RESPONSE_KEEP_ALIVE:RESPONSE_CLOSE );
+			
+		}else if ( 	response == HttpURLConnection.HTTP_MOVED_TEMP ||
+					response == HttpURLConnection.HTTP_MOVED_PERM ){
+			
+			return( RESPONSE_REDIRECT );
+			
+		}else if ( 	response == 503 ){
+			
+				// webseed support for temp unavail - read the data
+			
+			String	data_str = "";
+			
+			while( content_length < 0 || data_str.length() < content_length ){
+				
+				int	b = is.read();
+				
+				if ( b < 0 ){
+					
+					break;
+				}
+				
+				data_str += (char)b;
 			}
+			
+			last_response_retry_after_secs = Integer.parseInt( data_str.trim());
+		
+				// this gets trapped below and turned into an appropriate ExternalSeedException
+			
+			throw( new IOException( "Server overloaded" ));
+			
+		}else{
+			
+			ExternalSeedException	error = new ExternalSeedException("Connection failed: " + response_str );
+			
+			error.setPermanentFailure( true );
+			
+			throw( error );
+		}
+	}
+	
+	protected String
+	readLine(
+		InputStream		is )
+	
+		throws IOException
+	{
+		StringBuffer	line = new StringBuffer( 64 );
+		
+		while( true ){
+			
+			int	b = is.read();
+			
+			if ( b < 0 ){
+				
+				return( line.length()==0?null:line.toString());
+			}
+			
+			if ( b == '\n' ){
+				
+				int	len = line.length();
+				
+				if ( len > 0 && line.charAt( len-1 ) == '\r' ){
+					
+					line.setLength( len-1 );
+				}
+				
+				return( line.toString());
+			}
+			
+			if ( line.length() > 8*1024 ){
+				
+				throw( new IOException( "header line too long" ));
+			}
+			
+			line.append((char)b );
 		}
 	}
 	
@@ -0,0 +1,163 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package com.aelitis.azureus.plugins.extseed.util;
+
+import java.util.*;
+
+import org.gudy.azureus2.core3.util.Average;
+import org.gudy.azureus2.core3.util.DisplayFormatters;
+
+/**
+ * Throughput, request latency and stream counts for a web seed host, summed over all the
+ * readers (torrents) using it.
+ */
+
+public class
+ExternalSeedHostStats
+{
+	private static final Map<String,ExternalSeedHostStats>	host_map = new HashMap<String,ExternalSeedHostStats>();
+
+	public static ExternalSeedHostStats
+	getStats(
+		String		host )
+	{
+		synchronized( host_map ){
+
+			ExternalSeedHostStats	stats = host_map.get( host );
+
+			if ( stats == null ){
+
+				stats = new ExternalSeedHostStats( host );
+
+				host_map.put( host, stats );
+			}
+
+			return( stats );
+		}
+	}
+
+	public static List<ExternalSeedHostStats>
+	getAllStats()
+	{
+		synchronized( host_map ){
+
+			return( new ArrayList<ExternalSeedHostStats>( host_map.values()));
+		}
+	}
+
+	private final String		host;
+
+	private final Average		rate = Average.getInstance( 1000, 10 );
+
+	private long		bytes_received;
+	private long		requests;
+	private long		rtt_average	= -1;
+	private int			streams;
+
+	private
+	ExternalSeedHostStats(
+		String		_host )
+	{
+		host	= _host;
+	}
+
+	public String
+	getHost()
+	{
+		return( host );
+	}
+
+	public void
+	bytesReceived(
+		int		num )
+	{
+		rate.addValue( num );
+
+		synchronized( this ){
+
+			bytes_received += num;
+		}
+	}
+
+		/**
+		 * @param millis time from sending a request to the first byte of its response
+		 */
+
+	public synchronized void
+	requestLatency(
+		long		millis )
+	{
+		requests++;
+
+		rtt_average = rtt_average<0?millis:(( rtt_average*7 + millis )/8 );
+	}
+
+	public synchronized void
+	streamStarted()
+	{
+		streams++;
+	}
+
+	public synchronized void
+	streamEnded()
+	{
+		streams--;
+	}
+
+	public long
+	getDataReceiveRate()
+	{
+		return( rate.getAverage());
+	}
+
+	public synchronized long
+	getBytesReceived()
+	{
+		return( bytes_received );
+	}
+
+	public synchronized long
+	getRequestCount()
+	{
+		return( requests );
+	}
+
+		/**
+		 * @return smoothed time to first byte in millis, -1 if nothing has been measured
+		 */
+
+	public synchronized long
+	getLatency()
+	{
+		return( rtt_average );
+	}
+
+	public synchronized int
+	getStreamCount()
+	{
+		return( streams );
+	}
+
+	public String
+	getString()
+	{
+		return(
+			host + ": streams=" + getStreamCount() + ", rate=" + DisplayFormatters.formatByteCountToKiBEtcPerSec( getDataReceiveRate()) +
+			", latency=" + getLatency() + "ms, received=" + DisplayFormatters.formatByteCountToKiBEtc( getBytesReceived()) + ", requests=" + getRequestCount());
+	}
+}
@@ -0,0 +1,584 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package com.aelitis.azureus.plugins.extseed.util.test;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+
+import com.aelitis.azureus.plugins.extseed.ExternalSeedException;
+import com.aelitis.azureus.plugins.extseed.util.ExternalSeedHTTPConnectionPool;
+import com.aelitis.azureus.plugins.extseed.util.ExternalSeedHTTPDownloaderListener;
+import com.aelitis.azureus.plugins.extseed.util.ExternalSeedHTTPDownloaderRange;
+import com.aelitis.azureus.plugins.extseed.util.ExternalSeedHostStats;
+
+/**
+ * Runs ExternalSeedHTTPDownloaderRange against an embedded HTTP/1.1 range server that
+ * serves a generated file and can be told to close after every response. Loopback has no
+ * latency so the server adds it: a round trip delay before answering a request it had to
+ * wait for (pipelined requests that are already buffered don't pay it again) and a
+ * connect delay on new connections for the TCP/TLS handshake. It can also cap the rate of
+ * each connection the way many hosts and CDNs do, which is what parallel streams get
+ * around. Each mode reads the same list of random ranges and every range is checked
+ * against the file.
+ * <p>
+ * usage: ExternalSeedHTTPDownloaderTester [ranges] [range KB] [rtt ms] [connect delay ms] [pipeline depth] [streams] [KB/s per connection]
+ */
+
+public class
+ExternalSeedHTTPDownloaderTester
+{
+	private static final int	FILE_SIZE	= 64*1024*1024;
+
+	public static void
+	main(
+		String[]	args )
+	{
+		int		num_ranges		= args.length > 0?Integer.parseInt( args[0] ):1000;
+		int		range_kb		= args.length > 1?Integer.parseInt( args[1] ):16;
+		int		rtt				= args.length > 2?Integer.parseInt( args[2] ):5;
+		int		connect_delay	= args.length > 3?Integer.parseInt( args[3] ):3*rtt;
+		int		depth			= args.length > 4?Integer.parseInt( args[4] ):4;
+		int		streams			= args.length > 5?Integer.parseInt( args[5] ):4;
+		int		con_rate		= args.length > 6?Integer.parseInt( args[6] ):4096;
+
+		try{
+			COConfigurationManager.initialiseFromMap( new HashMap());
+
+			Random	random = new Random( 17 );
+
+			long[]	offsets = new long[num_ranges];
+			int[]	lengths = new int[num_ranges];
+
+			for (int i=0;i<num_ranges;i++){
+
+				lengths[i] = range_kb*1024;
+				offsets[i] = ( random.nextInt( FILE_SIZE - lengths[i] )/16384 )*16384L;
+			}
+
+			run( "close per request  ", offsets, lengths, rtt, connect_delay, con_rate, true, 1, 1 );
+			run( "keep-alive         ", offsets, lengths, rtt, connect_delay, con_rate, false, 1, 1 );
+			run( "keep-alive pipeline", offsets, lengths, rtt, connect_delay, con_rate, false, depth, 1 );
+			run( "pipeline, " + streams + " streams", offsets, lengths, rtt, connect_delay, con_rate, false, depth, streams );
+
+		}catch( Throwable e ){
+
+			e.printStackTrace();
+		}
+
+		System.exit( 0 );
+	}
+
+	private static void
+	run(
+		String				name,
+		final long[]		offsets,
+		final int[]			lengths,
+		int					rtt,
+		int					connect_delay,
+		int					con_rate,
+		boolean				close_per_request,
+		final int			depth,
+		int					streams )
+
+		throws Exception
+	{
+		ExternalSeedHTTPConnectionPool.closeAll();
+
+		RangeServer	server = new RangeServer( rtt, connect_delay, con_rate, close_per_request );
+
+		final URL	url = new URL( "http://127.0.0.1:" + server.getPort() + "/data.bin" );
+
+			// one stats object per run, the host is the same each time
+
+		final ExternalSeedHostStats	stats = ExternalSeedHostStats.getStats( name );
+
+		long[]	stats_before = ExternalSeedHTTPConnectionPool.getStats();
+
+		long	start = System.currentTimeMillis();
+
+		final int[]		next	= { 0 };
+		final int[]		bad		= { 0 };
+		final String[]	error	= { null };
+
+		Thread[]	threads = new Thread[streams];
+
+		for (int s=0;s<streams;s++){
+
+			threads[s] =
+				new Thread( "ExternalSeedHTTPDownloaderTester:stream" )
+				{
+					public void
+					run()
+					{
+							// each stream has its own downloader as the reader's do
+
+						stats.streamStarted();
+
+						try{
+							ExternalSeedHTTPDownloaderRange	downloader = new ExternalSeedHTTPDownloaderRange( url, "Tester" );
+
+							while( true ){
+
+								int	i;
+
+								synchronized( next ){
+
+									i = next[0];
+
+									next[0] += depth;
+								}
+
+								if ( i >= offsets.length ){
+
+									break;
+								}
+
+								int	num = Math.min( depth, offsets.length - i );
+
+								long[]	o = new long[num];
+								int[]	l = new int[num];
+
+								checkingListener[]	listeners = new checkingListener[num];
+
+								for (int j=0;j<num;j++){
+
+									o[j]	= offsets[i+j];
+									l[j]	= lengths[i+j];
+
+									listeners[j] = new checkingListener( o[j], l[j], stats );
+								}
+
+								downloader.downloadRanges( o, l, listeners, false );
+
+								for (int j=0;j<num;j++){
+
+									if ( !listeners[j].isOK()){
+
+										synchronized( bad ){
+
+											bad[0]++;
+										}
+									}
+								}
+							}
+						}catch( Throwable e ){
+
+							error[0] = e.toString();
+
+						}finally{
+
+							stats.streamEnded();
+						}
+					}
+				};
+
+			threads[s].start();
+		}
+
+		for (int s=0;s<streams;s++){
+
+			threads[s].join();
+		}
+
+		long	elapsed = System.currentTimeMillis() - start;
+
+		long[]	stats_after = ExternalSeedHTTPConnectionPool.getStats();
+
+		long	bytes = 0;
+
+		for (int i=0;i<lengths.length;i++){
+
+			bytes += lengths[i];
+		}
+
+		server.close();
+
+		System.out.println(
+			name + ": " + offsets.length + " ranges in " + elapsed + "ms (" + ( bytes*1000/Math.max( 1, elapsed )/1024 ) + " KB/s), " +
+			( stats_after[0] - stats_before[0] ) + " connections, " + ( stats_after[1] - stats_before[1] ) + " reuses, " +
+			server.getRequests() + " requests served, " + ( bad[0]==0?"data ok":( bad[0] + " BAD RANGES" )) +
+			( error[0]==null?"":( ", FAILED: " + error[0] )));
+
+		System.out.println( "    time to first byte " + stats.getLatency() + "ms (smoothed) over " + stats.getRequestCount() + " requests, " + stats.getBytesReceived() + " bytes" );
+	}
+
+	private static byte
+	dataAt(
+		long	pos )
+	{
+		return((byte)(( pos * 31 ) ^ ( pos >> 11 )));
+	}
+
+	private static class
+	checkingListener
+		implements ExternalSeedHTTPDownloaderListener
+	{
+		private final long						offset;
+		private final byte[]					buffer;
+		private final ExternalSeedHostStats		stats;
+
+		private final long		created	= System.currentTimeMillis();
+
+		private int			position;
+		private boolean		done;
+		private boolean		first_read	= true;
+
+		private
+		checkingListener(
+			long					_offset,
+			int						_length,
+			ExternalSeedHostStats	_stats )
+		{
+			offset	= _offset;
+			buffer	= new byte[_length];
+			stats	= _stats;
+		}
+
+		public byte[]
+		getBuffer()
+
+			throws ExternalSeedException
+		{
+			return( buffer );
+		}
+
+		public void
+		setBufferPosition(
+			int	_position )
+		{
+			position = _position;
+		}
+
+		public int
+		getBufferPosition()
+		{
+			return( position );
+		}
+
+		public int
+		getBufferLength()
+		{
+			return( buffer.length );
+		}
+
+		public int
+		getPermittedBytes()
+
+			throws ExternalSeedException
+		{
+			return( buffer.length );
+		}
+
+		public int
+		getPermittedTime()
+		{
+			return( 0 );
+		}
+
+		public void
+		reportBytesRead(
+			int		num )
+		{
+			if ( first_read ){
+
+				first_read = false;
+
+				stats.requestLatency( System.currentTimeMillis() - created );
+			}
+
+			stats.bytesReceived( num );
+		}
+
+		public boolean
+		isCancelled()
+		{
+			return( false );
+		}
+
+		public void
+		done()
+		{
+			done = true;
+		}
+
+		private boolean
+		isOK()
+		{
+			if ( !done ){
+
+				return( false );
+			}
+
+			for (int i=0;i<buffer.length;i++){
+
+				if ( buffer[i] != dataAt( offset + i )){
+
+					return( false );
+				}
+			}
+
+			return( true );
+		}
+	}
+
+	private static class
+	RangeServer
+	{
+		private final ServerSocket	server_socket;
+
+		private final int			rtt;
+		private final int			connect_delay;
+		private final int			con_rate;
+		private final boolean		close_per_request;
+
+		private volatile boolean	closed;
+
+		private int					requests;
+
+		private
+		RangeServer(
+			int			_rtt,
+			int			_connect_delay,
+			int			_con_rate,
+			boolean		_close_per_request )
+
+			throws IOException
+		{
+			rtt					= _rtt;
+			connect_delay		= _connect_delay;
+			con_rate			= _con_rate;
+			close_per_request	= _close_per_request;
+
+			server_socket = new ServerSocket( 0, 50, InetAddress.getByName( "127.0.0.1" ));
+
+			Thread	t =
+				new Thread( "RangeServer:accept" )
+				{
+					public void
+					run()
+					{
+						while( !closed ){
+
+							try{
+								final Socket	socket = server_socket.accept();
+
+								Thread	handler =
+									new Thread( "RangeServer:connection" )
+									{
+										public void
+										run()
+										{
+											handle( socket );
+										}
+									};
+
+								handler.setDaemon( true );
+
+								handler.start();
+
+							}catch( Throwable e ){
+							}
+						}
+					}
+				};
+
+			t.setDaemon( true );
+
+			t.start();
+		}
+
+		private int
+		getPort()
+		{
+			return( server_socket.getLocalPort());
+		}
+
+		private synchronized int
+		getRequests()
+		{
+			return( requests );
+		}
+
+		private void
+		handle(
+			Socket		socket )
+		{
+			try{
+					// stands in for the handshake round trips a new connection costs
+
+				Thread.sleep( connect_delay );
+
+				InputStream		is = new BufferedInputStream( socket.getInputStream());
+				OutputStream	os = new BufferedOutputStream( socket.getOutputStream(), 64*1024 );
+
+					// a request that wasn't already buffered when the previous one was read has
+					// had to wait for our response to get to the client and come back
+
+				boolean	waited = true;
+
+				long	con_start	= System.currentTimeMillis();
+				long	con_bytes	= 0;
+
+				while( true ){
+
+					String	request_line = readLine( is );
+
+					if ( request_line == null ){
+
+						break;
+					}
+
+					long	start	= 0;
+					long	end		= FILE_SIZE - 1;
+
+					boolean	range = false;
+
+					while( true ){
+
+						String	line = readLine( is );
+
+						if ( line == null || line.length() == 0 ){
+
+							break;
+						}
+
+						if ( line.toLowerCase().startsWith( "range:" )){
+
+							String	spec = line.substring( line.indexOf( '=' ) + 1 ).trim();
+
+							int	pos = spec.indexOf( '-' );
+
+							start	= Long.parseLong( spec.substring( 0, pos ));
+							end		= Long.parseLong( spec.substring( pos+1 ));
+
+							range = true;
+						}
+					}
+
+					synchronized( this ){
+
+						requests++;
+					}
+
+					if ( waited ){
+
+						Thread.sleep( rtt );
+					}
+
+					waited = is.available() == 0;
+
+					long	length = end - start + 1;
+
+					String	header =
+						"HTTP/1.1 " + ( range?"206 Partial Content":"200 OK" ) + "\r\n" +
+						"Content-Length: " + length + "\r\n" +
+						( range?( "Content-Range: bytes " + start + "-" + end + "/" + FILE_SIZE + "\r\n" ):"" ) +
+						( close_per_request?"Connection: close\r\n":"" ) +
+						"\r\n";
+
+					os.write( header.getBytes( "ISO-8859-1" ));
+
+					for (long i=start;i<=end;i++){
+
+						os.write( dataAt( i ));
+					}
+
+						// only flush once the pipelined requests already received have been answered
+
+					if ( close_per_request || is.available() == 0 ){
+
+						os.flush();
+					}
+
+					con_bytes += length;
+
+					if ( con_rate > 0 ){
+
+							// hold the connection to its rate
+
+						long	due = con_start + con_bytes*1000/( con_rate*1024L );
+
+						long	now = System.currentTimeMillis();
+
+						if ( due > now ){
+
+							os.flush();
+
+							Thread.sleep( due - now );
+						}
+					}
+
+					if ( close_per_request ){
+
+						break;
+					}
+				}
+			}catch( Throwable e ){
+
+			}finally{
+
+				try{
+					socket.close();
+
+				}catch( Throwable e ){
+				}
+			}
+		}
+
+		private String
+		readLine(
+			InputStream		is )
+
+			throws IOException
+		{
+			StringBuffer	sb = new StringBuffer();
+
+			while( true ){
+
+				int	b = is.read();
+
+				if ( b < 0 ){
+
+					return( sb.length()==0?null:sb.toString());
+				}
+
+				if ( b == '\n' ){
+
+					return( sb.toString().trim());
+				}
+
+				sb.append((char)b );
+			}
+		}
+
+		private void
+		close()
+		{
+			closed = true;
+
+			try{
+				server_socket.close();
+
+			}catch( Throwable e ){
+			}
+		}
+	}
+}
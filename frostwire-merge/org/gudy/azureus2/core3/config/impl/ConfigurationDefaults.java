@@ -211,6 +211,8 @@ public class ConfigurationDefaults {
     def.put("Use Resume", TRUE);
     def.put("On Resume Recheck All", FALSE);
     def.put("Save Resume Interval", new Long(5));
+    def.put("downloads.journal.enable", TRUE);
+    def.put("global.startup.load.threads", ZERO);
     def.put("Check Pieces on Completion", TRUE);
     def.put("Stop Ratio", new Float(0));
     def.put("Stop Peers Ratio", ZERO);
@@ -410,6 +412,7 @@ public class ConfigurationDefaults {
     
     def.put( "Tracker Port UDP Enable", FALSE );
     def.put( "Tracker Port UDP Version", new Long(2) );
+    def.put( "Tracker UDP Worker Threads", ZERO );
     def.put( "Tracker Send Peer IDs", TRUE );
     def.put( "Tracker Max Peers Returned", new Long(100) );
     def.put( "Tracker Scrape Cache", new Long( TRTrackerServer.DEFAULT_SCRAPE_CACHE_PERIOD ) );
@@ -507,6 +510,9 @@ public class ConfigurationDefaults {
     def.put( "diskmanager.perf.read.maxmb", new Long(5));
     def.put( "diskmanager.perf.write.maxthreads", new Long(32));
     def.put( "diskmanager.perf.write.maxmb", new Long(5));
+    def.put( "diskmanager.perf.cache.policy", "lru");		// lru or tinylfu
+    def.put( "diskmanager.perf.buffer.pool", "standard");	// standard or magazine
+    def.put( "diskmanager.perf.buffer.pool.track", FALSE);
     def.put( "diskmanager.perf.cache.trace", FALSE);
     def.put( "diskmanager.perf.cache.flushpieces", TRUE);
     def.put( "diskmanager.perf.read.aggregate.enable", FALSE );
@@ -517,6 +523,7 @@ public class ConfigurationDefaults {
     def.put( "diskmanager.perf.write.aggregate.byte.limit", ZERO );
     def.put( "diskmanager.perf.checking.read.priority", FALSE );
     def.put( "diskmanager.perf.checking.fully.async", FALSE );
+    def.put( "diskmanager.perf.checking.sequential", FALSE );
     def.put( "diskmanager.perf.queue.torrent.bias", TRUE );
     
     	// Peer control
@@ -562,6 +569,9 @@ public class ConfigurationDefaults {
     def.put( "network.control.read.aggressive", FALSE );
     def.put( "network.control.read.processor.count", new Long(1));
     def.put( "network.control.write.processor.count", new Long(1));
+    def.put( "network.control.reactors.enable", FALSE );
+    def.put( "network.control.reactors.count", new Long(0));	// 0 -> one per core
+    def.put( "network.control.bucket.lockfree", TRUE );
     def.put( "peermanager.schedule.time", new Long(100));
     def.put( "enable_small_osx_fonts", TRUE );
     def.put( "Play Download Finished Announcement", FALSE);
@@ -23,6 +23,7 @@
 package org.gudy.azureus2.core3.disk.impl.access;
 
 import org.gudy.azureus2.core3.disk.*;
+import org.gudy.azureus2.core3.disk.impl.DiskManagerRecheckInstance;
 
 /**
  * @author parg
@@ -52,6 +53,22 @@ DMChecker
 		DiskManagerCheckRequest			request,
 		DiskManagerCheckRequestListener listener );
 	
+		/**
+		 * Checks the flagged pieces by streaming their data in large sequential reads.
+		 * Blocks until all have been reported to the listener or the checker is stopped
+		 * @param recheck_inst	permission is obtained from this before each read, may be null
+		 * @return false if sequential checking is disabled or unsuitable for this download's
+		 * storage, in which case nothing has been done
+		 */
+	
+	public boolean
+	checkPiecesSequentially(
+		boolean[]							pieces,
+		Object								user_data,
+		boolean								low_priority,
+		DiskManagerRecheckInstance			recheck_inst,
+		DiskManagerCheckRequestListener		listener );
+	
 	public boolean
 	hasOutstandingCheckRequestForPiece(
 		int		piece_number );
@@ -22,6 +22,7 @@
 
 package org.gudy.azureus2.core3.disk.impl.access.impl;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.gudy.azureus2.core3.config.COConfigurationManager;
@@ -37,6 +38,7 @@ import org.gudy.azureus2.core3.logging.*;
 import org.gudy.azureus2.core3.util.*;
 
 import com.aelitis.azureus.core.diskmanager.cache.CacheFile;
+import com.aelitis.azureus.core.diskmanager.cache.CacheFileManagerException;
 
 /**
  * @author parg
@@ -49,8 +51,13 @@ DMCheckerImpl
 {
 	protected static final LogIDs LOGID = LogIDs.DISK;
     
+	private static final int	SEQUENTIAL_CHUNK_SIZE	= 4*1024*1024;
+	private static final int	SEQUENTIAL_QUEUE_CHUNKS	= 4;
+	private static final long	SEQUENTIAL_LOG_PERIOD	= 5*1000;
+	
 	private static boolean	flush_pieces;
 	private static boolean	checking_read_priority;
+	private static boolean	sequential_checking;
 	
 	private static AEMonitor		class_mon	= new AEMonitor( "DMChecker:class" );
 	private static List				async_check_queue		= new ArrayList();
@@ -108,13 +115,15 @@ DMCheckerImpl
     	    {
     	   	    flush_pieces				= COConfigurationManager.getBooleanParameter( "diskmanager.perf.cache.flushpieces" );
        	   	  	checking_read_priority		= COConfigurationManager.getBooleanParameter( "diskmanager.perf.checking.read.priority" );
+       	   	  	sequential_checking			= COConfigurationManager.getBooleanParameter( "diskmanager.perf.checking.sequential" );
      	    }
     	 };
 
  		COConfigurationManager.addAndFireParameterListeners( 
  			new String[]{
  				"diskmanager.perf.cache.flushpieces",
- 				"diskmanager.perf.checking.read.priority" },
+ 				"diskmanager.perf.checking.read.priority",
+ 				"diskmanager.perf.checking.sequential" },
  				param_listener );
     }
    
@@ -309,7 +318,92 @@ DMCheckerImpl
 		  				           
 			            final AESemaphore	 run_sem = new AESemaphore( "DMChecker::completeRecheck:runsem", 2 );
 			            
-			            int nbPieces = disk_manager.getNbPieces();
+			            final int nbPieces = disk_manager.getNbPieces();
+			            
+			            boolean[]	to_check = new boolean[nbPieces];
+			            
+			            for ( int i=0; i < nbPieces; i++ ){
+			            	
+		  					DiskManagerPiece	dm_piece = disk_manager.getPiece(i);
+		  					
+		  					to_check[i] = dm_piece.isDone() || !dm_piece.isSkipped();
+			            }
+			            
+			            boolean	sequential = 
+			            	checkPiecesSequentially( 
+			            		to_check, 
+			            		request.getUserData(), 
+			            		false, 
+			            		recheck_inst,
+			            		new DiskManagerCheckRequestListener()
+			            		{
+			            			public void 
+			            			checkCompleted( 
+			            				DiskManagerCheckRequest 	request,
+			            				boolean						passed )
+			            			{
+			            				try{
+			            					listener.checkCompleted( request, passed );
+			            					
+			            				}catch( Throwable e ){
+			            					
+			            					Debug.printStackTrace(e);
+			            					
+			            				}finally{
+			            					
+			            					complete( request );
+			            				}
+			            			}
+			            			
+			            			public void
+			            			checkCancelled(
+			            				DiskManagerCheckRequest		request )
+			            			{
+			            				try{
+			            					listener.checkCancelled( request );
+			            					
+			            				}catch( Throwable e ){
+			            					
+			            					Debug.printStackTrace(e);
+			            					
+			            				}finally{
+			            					
+			            					complete( request );
+			            				}
+			            			}
+			            			
+			            			public void 
+			            			checkFailed( 
+			            				DiskManagerCheckRequest 	request, 
+			            				Throwable		 			cause )
+			            			{
+			            				try{
+			            					listener.checkFailed( request, cause );
+			            					
+			            				}catch( Throwable e ){
+			            					
+			            					Debug.printStackTrace(e);
+			            					
+			            				}finally{
+			            					
+			            					complete( request );
+			            				}
+			            			}
+			            			
+			            			protected void
+			            			complete(
+			            				DiskManagerCheckRequest		request )
+			            			{
+			            					// pieces complete roughly in order, good enough for a progress bar
+			            				
+			            				complete_recheck_progress = Math.max( complete_recheck_progress, 1000*request.getPieceNumber() / nbPieces );
+			            			}
+			            		});
+			            
+			            if ( sequential ){
+			            	
+			            	return;
+			            }
 			            
 		  				for ( int i=0; i < nbPieces; i++ ){
 		  					
@@ -501,8 +595,14 @@ DMCheckerImpl
 		
 		request.requestStarts();
 		
-		enqueueCheckRequestSupport( 
-				request, 
+		enqueueCheckRequestSupport( request, createStateListener( listener ), read_flush );
+	}
+	
+	protected DiskManagerCheckRequestListener
+	createStateListener(
+		final DiskManagerCheckRequestListener 	listener )
+	{
+		return( 
 				new DiskManagerCheckRequestListener() 
 				{
 					public void 
@@ -587,7 +687,7 @@ DMCheckerImpl
 							}
 						}
 					}
-				}, read_flush );
+				});
 	}  
 	  
 	
@@ -916,5 +1016,588 @@ DMCheckerImpl
 			
 			listener.checkFailed( request, e );
 		}
-	}	 
+	}
+	
+		/**
+		 * Streams the pieces' data in SEQUENTIAL_CHUNK_SIZE reads, one read per file per chunk, in
+		 * file order. Filled chunks are handed to a dispatcher that feeds the piece slices to the 
+		 * ConcurrentHasher while the next chunks are read; at most SEQUENTIAL_QUEUE_CHUNKS are held
+		 * between reading and the last hash completing.
+		 * Bypasses the disk access controller, it's there to arbitrate between many small
+		 * concurrent requests which is exactly what turns a recheck into a seek storm
+		 */
+	
+	public boolean
+	checkPiecesSequentially(
+		boolean[]								pieces,
+		final Object							user_data,
+		final boolean							low_priority,
+		DiskManagerRecheckInstance				recheck_inst,
+		DiskManagerCheckRequestListener			listener )
+	{
+		if ( !sequential_checking || !checking_enabled ){
+			
+			return( false );
+		}
+		
+		DiskManagerFileInfo[]	files = disk_manager.getFiles();
+		
+		Map	file_lengths = new HashMap();
+		
+		try{
+			for (int i=0;i<files.length;i++){
+				
+				CacheFile	cache_file = ((DiskManagerFileInfoImpl)files[i]).getCacheFile();
+				
+					// compact and reordered storage needs the per-piece checks and setPieceComplete
+				
+				if ( cache_file.getStorageType() != CacheFile.CT_LINEAR ){
+					
+					return( false );
+				}
+				
+				file_lengths.put( files[i], new Long( cache_file.getLength()));
+			}
+		}catch( Throwable e ){
+			
+				// as in enqueueCheckRequestSupport the files may have been closed under us
+			
+			return( false );
+		}
+		
+		final DiskManagerCheckRequestListener	state_listener = createStateListener( listener );
+		
+		final short	read_policy = flush_pieces?CacheFile.CP_FLUSH:CacheFile.CP_NONE;
+		
+		final AESemaphore	chunk_sem 		= new AESemaphore( "DMChecker::sequential:chunks", SEQUENTIAL_QUEUE_CHUNKS );
+		final AESemaphore	pieces_sem		= new AESemaphore( "DMChecker::sequential:pieces" );
+		
+		final List			chunk_queue		= new ArrayList();
+		final AESemaphore	chunk_queue_sem	= new AESemaphore( "DMChecker::sequential:queue" );
+		
+		new AEThread2( "DMChecker::sequential:dispatch", true )
+		{
+			public void
+			run()
+			{
+				while( true ){
+					
+					chunk_queue_sem.reserve();
+					
+					SequentialChunk	chunk;
+					
+					synchronized( chunk_queue ){
+						
+						chunk = (SequentialChunk)chunk_queue.remove(0);
+					}
+					
+					if ( chunk == null ){
+						
+						break;
+					}
+					
+					try{
+						dispatchChunk( chunk, user_data, low_priority, state_listener, chunk_sem, pieces_sem );
+						
+					}catch( Throwable e ){
+						
+							// the reader is waiting on a pieces_sem release for every piece, keep going
+						
+						Debug.printStackTrace( e );
+						
+						failChunk( chunk, e, user_data, low_priority, state_listener, chunk_sem, pieces_sem );
+					}
+				}
+			}
+		}.start();
+		
+		int		pieces_queued	= 0;
+		long	bytes_read		= 0;
+		
+		long	start			= SystemTime.getMonotonousTime();
+		long	last_log		= start;
+		
+		try{
+			int	piece_number = 0;
+			
+			while( piece_number < pieces.length && !stopped ){
+				
+				if ( !pieces[piece_number] ){
+					
+					piece_number++;
+					
+					continue;
+				}
+				
+				if ( !isPieceOnDisk( piece_number, file_lengths )){
+					
+					DiskManagerCheckRequest	request = createCheckRequest( piece_number, user_data );
+					
+					request.setLowPriority( low_priority );
+					
+					request.requestStarts();
+					
+					state_listener.checkCompleted( request, false );
+					
+					piece_number++;
+					
+					continue;
+				}
+				
+					// gather a run of consecutive pieces
+				
+				int		chunk_start		= piece_number;
+				int		chunk_length	= 0;
+				
+				while( piece_number < pieces.length && pieces[piece_number] && isPieceOnDisk( piece_number, file_lengths )){
+				
+					int	piece_length = disk_manager.getPieceLength( piece_number );
+					
+					if ( chunk_length > 0 && chunk_length + piece_length > SEQUENTIAL_CHUNK_SIZE ){
+						
+						break;
+					}
+					
+					chunk_length += piece_length;
+					
+					piece_number++;
+				}
+				
+				if ( recheck_inst != null ){
+					
+					while( !stopped ){
+		  				
+		  				if ( recheck_inst.getPermission()){
+		  					
+		  					break;
+		  				}
+		  			}
+				}
+				
+				chunk_sem.reserve();
+				
+				try{
+					this_mon.enter();
+					
+					if ( stopped ){
+						
+						chunk_sem.release();
+						
+						break;
+					}
+					
+					async_reads++;
+					
+				}finally{
+					
+					this_mon.exit();
+				}
+				
+				SequentialChunk	chunk = new SequentialChunk( chunk_start, piece_number );
+				
+				try{
+					chunk.buffer = DirectByteBufferPool.getBuffer( DirectByteBuffer.AL_DM_CHECK, chunk_length );
+					
+					readChunk( chunk, read_policy );
+										
+					bytes_read += chunk_length;
+					
+				}catch( Throwable e ){
+					
+					chunk.error	= e;
+					
+				}finally{
+					
+					try{
+						this_mon.enter();
+
+						async_reads--;
+
+						if ( stopped ){
+
+							async_read_sem.release();
+						}
+					}finally{
+
+						this_mon.exit();
+					}
+				}
+				
+				pieces_queued += chunk.end - chunk.start;
+				
+				synchronized( chunk_queue ){
+					
+					chunk_queue.add( chunk );
+				}
+				
+				chunk_queue_sem.release();
+				
+				long	now = SystemTime.getMonotonousTime();
+				
+				if ( now - last_log >= SEQUENTIAL_LOG_PERIOD ){
+					
+					last_log = now;
+					
+					logRate( "progress " + ( 1000L*piece_number/pieces.length )/10.0 + "%", bytes_read, now - start );
+				}
+			}
+		}finally{
+			
+			synchronized( chunk_queue ){
+				
+				chunk_queue.add( null );
+			}
+			
+			chunk_queue_sem.release();
+			
+			for (int i=0;i<pieces_queued;i++){
+				
+				pieces_sem.reserve();
+			}
+			
+			logRate( stopped?"stopped":"complete", bytes_read, SystemTime.getMonotonousTime() - start );
+		}
+		
+		return( true );
+	}
+	
+	private boolean
+	isPieceOnDisk(
+		int		piece_number,
+		Map		file_lengths )
+	{
+		DMPieceList	piece_list = disk_manager.getPieceList( piece_number );
+		
+		for (int i=0;i<piece_list.size();i++){
+			
+			DMPieceMapEntry	entry = piece_list.get(i);
+			
+			Long	file_length = (Long)file_lengths.get( entry.getFile());
+			
+			if ( file_length == null || file_length.longValue() < entry.getOffset() + entry.getLength()){
+				
+				return( false );
+			}
+		}
+		
+		return( true );
+	}
+	
+	private void
+	readChunk(
+		SequentialChunk		chunk,
+		short				read_policy )
+	
+		throws CacheFileManagerException
+	{
+		DirectByteBuffer	buffer = chunk.buffer;
+		
+		CacheFile	read_file 		= null;
+		long		read_offset		= 0;
+		int			read_length		= 0;
+		
+			// coalesce the piece map entries into one read per file
+		
+		for (int i=chunk.start;i<chunk.end;i++){
+			
+			DMPieceList	piece_list = disk_manager.getPieceList( i );
+			
+			for (int j=0;j<piece_list.size();j++){
+				
+				DMPieceMapEntry	entry = piece_list.get(j);
+				
+				CacheFile	cache_file = entry.getFile().getCacheFile();
+				
+				if ( cache_file == read_file && read_offset + read_length == entry.getOffset()){
+					
+					read_length += entry.getLength();
+					
+				}else{
+					
+					if ( read_file != null ){
+						
+						readChunkSupport( buffer, read_file, read_offset, read_length, read_policy );
+					}
+					
+					read_file	= cache_file;
+					read_offset	= entry.getOffset();
+					read_length	= entry.getLength();
+				}
+			}
+		}
+		
+		if ( read_file != null ){
+			
+			readChunkSupport( buffer, read_file, read_offset, read_length, read_policy );
+		}
+		
+		buffer.flip( DirectByteBuffer.SS_DR );
+	}
+	
+	private void
+	readChunkSupport(
+		DirectByteBuffer	buffer,
+		CacheFile			file,
+		long				offset,
+		int					length,
+		short				read_policy )
+	
+		throws CacheFileManagerException
+	{
+		int	position = buffer.position( DirectByteBuffer.SS_DR );
+		
+		buffer.limit( DirectByteBuffer.SS_DR, position + length );
+		
+		file.read( buffer, offset, read_policy );
+		
+		if ( buffer.position( DirectByteBuffer.SS_DR ) != position + length ){
+			
+			throw( new CacheFileManagerException( file, "Short read: " + ( buffer.position( DirectByteBuffer.SS_DR ) - position ) + " of " + length ));
+		}
+	}
+	
+	private void
+	dispatchChunk(
+		final SequentialChunk					chunk,
+		Object									user_data,
+		boolean									low_priority,
+		final DiskManagerCheckRequestListener	listener,
+		final AESemaphore						chunk_sem,
+		final AESemaphore						pieces_sem )
+	{
+		int	piece_offset = 0;
+		
+		for (int i=chunk.start;i<chunk.end;i++){
+			
+			final int	piece_number	= i;
+			final int	piece_length	= disk_manager.getPieceLength( i );
+			
+			final DiskManagerCheckRequest	request = createCheckRequest( i, user_data );
+			
+			request.setLowPriority( low_priority );
+			
+			request.requestStarts();
+			
+			boolean	cancelled;
+			
+			try{
+				this_mon.enter();
+				
+				cancelled = stopped;
+				
+				if ( !cancelled ){
+				
+					async_checks++;
+				}
+			}finally{
+				
+				this_mon.exit();
+			}
+			
+			if ( cancelled || chunk.error != null ){
+				
+				try{
+					if ( cancelled ){
+						
+						listener.checkCancelled( request );
+						
+					}else{
+					
+						listener.checkFailed( request, chunk.error );
+					}
+				}finally{
+					
+					if ( !cancelled ){
+						
+						asyncCheckComplete();
+					}
+					
+					chunk.dispatched++;
+					
+					pieceComplete( chunk, chunk_sem, pieces_sem );
+				}
+				
+				piece_offset += piece_length;
+				
+				continue;
+			}
+			
+			boolean	handed_off = false;
+			
+			try{
+				ByteBuffer	piece_data = chunk.buffer.getBuffer( DirectByteBuffer.SS_DW ).duplicate();
+				
+				piece_data.limit( piece_offset + piece_length );
+				piece_data.position( piece_offset );
+				
+				piece_offset += piece_length;
+				
+				ConcurrentHasher.getSingleton().addRequest(
+					piece_data,
+					new ConcurrentHasherRequestListener()
+					{
+						public void
+						complete(
+							ConcurrentHasherRequest	hash_request )
+						{
+							try{
+								byte[]	actual_hash = hash_request.getResult();
+								
+								if ( actual_hash == null ){
+									
+									listener.checkCancelled( request );
+									
+								}else{
+									
+									request.setHash( actual_hash );
+									
+									listener.checkCompleted( request, Arrays.equals( actual_hash, disk_manager.getPieceHash( piece_number )));
+								}
+							}catch( Throwable e ){
+								
+								Debug.printStackTrace( e );
+								
+								listener.checkFailed( request, e );
+								
+							}finally{
+								
+								asyncCheckComplete();
+								
+								pieceComplete( chunk, chunk_sem, pieces_sem );
+							}
+						}
+					},
+					low_priority );
+				
+				handed_off = true;
+				
+			}finally{
+				
+				if ( !handed_off ){
+					
+					asyncCheckComplete();
+				}
+			}
+			
+			chunk.dispatched++;
+		}
+	}
+	
+		/**
+		 * fails the pieces of a chunk that dispatchChunk didn't get as far as handing on
+		 */
+	
+	private void
+	failChunk(
+		SequentialChunk							chunk,
+		Throwable								cause,
+		Object									user_data,
+		boolean									low_priority,
+		DiskManagerCheckRequestListener			listener,
+		AESemaphore								chunk_sem,
+		AESemaphore								pieces_sem )
+	{
+		for (int i=chunk.start+chunk.dispatched;i<chunk.end;i++){
+			
+			try{
+				DiskManagerCheckRequest	request = createCheckRequest( i, user_data );
+				
+				request.setLowPriority( low_priority );
+				
+				listener.checkFailed( request, cause );
+				
+			}catch( Throwable e ){
+				
+				Debug.printStackTrace( e );
+				
+			}finally{
+				
+				pieceComplete( chunk, chunk_sem, pieces_sem );
+			}
+		}
+		
+		chunk.dispatched = chunk.end - chunk.start;
+	}
+	
+	private void
+	pieceComplete(
+		SequentialChunk		chunk,
+		AESemaphore			chunk_sem,
+		AESemaphore			pieces_sem )
+	{
+		boolean	chunk_done;
+		
+		synchronized( chunk ){
+			
+			chunk_done = --chunk.outstanding == 0;
+		}
+		
+		if ( chunk_done ){
+			
+			if ( chunk.buffer != null ){
+			
+				chunk.buffer.returnToPool();
+			}
+			
+			chunk_sem.release();
+		}
+		
+		pieces_sem.release();
+	}
+	
+	private void
+	asyncCheckComplete()
+	{
+		try{
+			this_mon.enter();
+		
+			async_checks--;
+			
+			if ( stopped ){
+				  
+				async_check_sem.release();
+			}
+		}finally{
+			
+			this_mon.exit();
+		}
+	}
+	
+	private void
+	logRate(
+		String		state,
+		long		bytes,
+		long		elapsed )
+	{
+		if ( Logger.isEnabled()){
+			
+			long	rate = elapsed==0?0:bytes*1000/elapsed;
+			
+			Logger.log(new LogEvent(disk_manager, LOGID, 
+					"Sequential check " + state + ": read " + DisplayFormatters.formatByteCountToKiBEtc( bytes ) + 
+					" at " + DisplayFormatters.formatByteCountToKiBEtcPerSec( rate )));
+		}
+	}
+	
+	private static class
+	SequentialChunk
+	{
+		final int			start;
+		final int			end;
+		
+		DirectByteBuffer	buffer;
+		Throwable			error;
+		
+		int					outstanding;
+		int					dispatched;		// only touched by the dispatcher
+		
+		SequentialChunk(
+			int		_start,
+			int		_end )
+		{
+			start		= _start;
+			end			= _end;
+			outstanding	= _end - _start;
+		}
+	}
 }
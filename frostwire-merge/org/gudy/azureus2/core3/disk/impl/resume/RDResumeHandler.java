@@ -506,7 +506,9 @@ RDResumeHandler
 					
 					// resume not enabled, recheck everything
 					
-					for (int i = 0; i < pieces.length; i++){
+					boolean	sequential = checkAllPiecesSequentially( file_sizes, failed_pieces, recheck_inst );
+					
+					for (int i = 0; !sequential && i < pieces.length; i++){
 	
 						check_position	= i;
 						
@@ -799,6 +801,130 @@ RDResumeHandler
 		}
 	}
 	
+		/**
+		 * full check by streaming the files rather than piece by piece reads
+		 * @return false if the checker can't do it for this download, nothing has been done
+		 */
+	
+	private boolean
+	checkAllPiecesSequentially(
+		Map										file_sizes,
+		final List<DiskManagerCheckRequest>		failed_pieces,
+		DiskManagerRecheckInstance				recheck_inst )
+	{
+		final int	nbPieces = disk_manager.getNbPieces();
+		
+		final boolean[]	to_check	= new boolean[nbPieces];
+		final boolean[]	checked		= new boolean[nbPieces];
+		
+		for (int i = 0; i < nbPieces; i++){
+			
+				// same test as the piece by piece loop, no underlying data means not done
+			
+			boolean pieceCannotExist = false;
+
+			DMPieceList list = disk_manager.getPieceList(i);
+			
+			for (int j=0;j<list.size();j++){
+				DMPieceMapEntry	entry = list.get(j);
+				
+				Long	file_size 		= (Long)file_sizes.get(entry.getFile());
+				if ( file_size == null || file_size.longValue() < entry.getOffset() + entry.getLength()){
+					pieceCannotExist = true;
+					break;
+				}
+			}
+			
+			to_check[i] = !pieceCannotExist;
+		}
+		
+		check_position	= 0;
+		
+		boolean	done = 
+			checker.checkPiecesSequentially(
+				to_check,
+				null,
+				true,
+				recheck_inst,
+				new DiskManagerCheckRequestListener()
+				{
+					public void 
+					checkCompleted( 
+						DiskManagerCheckRequest 	request,
+						boolean						passed )
+					{
+						if ( TEST_RECHECK_FAILURE_HANDLING && (int)(Math.random()*10) == 0 ){
+							
+							disk_manager.getPiece(request.getPieceNumber()).setDone(false);
+							
+							passed  = false;
+						}
+						
+						if ( !passed ){
+							
+							synchronized( failed_pieces ){
+								
+								failed_pieces.add( request );
+							}
+						}
+						
+						complete( request );
+					}
+					 
+					public void
+					checkCancelled(
+						DiskManagerCheckRequest		request )
+					{
+						complete( request );
+					}
+					
+					public void 
+					checkFailed( 
+						DiskManagerCheckRequest 	request, 
+						Throwable		 			cause )
+					{
+						complete( request );
+					}
+					
+					protected void
+					complete(
+						DiskManagerCheckRequest		request )
+					{
+							// pieces complete slightly out of order, check_position must only pass
+							// pieces that are actually done for an interrupted check to resume correctly
+						
+						synchronized( checked ){
+							
+							checked[request.getPieceNumber()] = true;
+							
+							int	position = check_position;
+							
+							while( position < nbPieces && ( checked[position] || !to_check[position] )){
+								
+								position++;
+							}
+							
+							check_position = position;
+						}
+						
+						disk_manager.setPercentDone( Math.min( 1000, (( check_position + 1 ) * 1000 ) / nbPieces ));
+					}
+				});
+		
+		if ( done ){
+			
+			for (int i = 0; i < nbPieces; i++){
+				
+				if ( !to_check[i] ){
+					
+					disk_manager.getPiece(i).setDone( false );
+				}
+			}
+		}
+		
+		return( done );
+	}
+	
 	public void 
 	saveResumeData(
 		boolean interim_save ) 	// data is marked as "invalid" if this is true to enable checking on pieces on crash restart
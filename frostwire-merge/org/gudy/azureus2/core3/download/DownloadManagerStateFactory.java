@@ -23,6 +23,7 @@
 package org.gudy.azureus2.core3.download;
 
 import java.io.File;
+import java.util.List;
 
 import org.gudy.azureus2.core3.download.impl.*;
 
@@ -58,6 +59,20 @@ DownloadManagerStateFactory
 		DownloadManagerStateImpl.saveGlobalStateCache();
 	}
 	
+	public static int
+	preloadDownloadStates(
+		List<byte[]>	hashes,
+		int				threads )
+	{
+		return( DownloadManagerStateImpl.preloadDownloadStates( hashes, threads ));
+	}
+	
+	public static long
+	getPreloadWaitTime()
+	{
+		return( DownloadManagerStateImpl.getPreloadWaitTime());
+	}
+	
 	public static void
 	discardGlobalStateCache()
 	{
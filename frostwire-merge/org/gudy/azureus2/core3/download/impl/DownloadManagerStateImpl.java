@@ -156,6 +156,12 @@ DownloadManagerStateImpl
 	private static Map					global_state_cache			= new HashMap();
 	private static ArrayList			global_state_cache_wrappers	= new ArrayList();
 	
+		// state files being read ahead of the (serial) download load loop during startup
+	
+	private static Map<HashWrapper,PreloadedState>	preloaded_states	= new HashMap<HashWrapper,PreloadedState>();
+	private static ThreadPool						preload_pool;
+	private static long								preload_wait_time;
+	
 	private DownloadManagerImpl			download_manager;
 	
 	private final TorrentUtils.ExtendedTorrent	torrent;
@@ -282,7 +288,12 @@ DownloadManagerStateImpl
 	
 		throws TOTorrentException
 	{
-		boolean	discard_pieces = state_map.size() > 32;
+			// a preloaded state was read with the flag decided up front, stick with it so the
+			// download's state and torrent are read the same way
+		
+		PreloadedState	preload = torrent_hash==null?null:takePreloadedState( torrent_hash );
+		
+		boolean	discard_pieces = preload==null?state_map.size() > 32:preload.discard_pieces;
 		
 		// System.out.println( "getDownloadState: hash = " + (torrent_hash==null?"null":ByteFormatter.encodeString(torrent_hash) + ", file = " + torrent_file ));
 
@@ -310,7 +321,7 @@ DownloadManagerStateImpl
 						
 					}else{
 						
-						saved_state = TorrentUtils.readDelegateFromFile( saved_file, discard_pieces );
+						saved_state = getPreloadedState( preload, saved_file, discard_pieces );
 					}
 					
 				}catch( Throwable e ){
@@ -495,11 +506,144 @@ DownloadManagerStateImpl
 		}
 	}
 	
+		/**
+		 * Starts reading the state files of the given downloads in the background so that
+		 * the subsequent getDownloadState calls, made in the same order, find them decoded.
+		 * Downloads covered by the global state cache are skipped as they're loaded lazily anyway.
+		 * @return number of state files queued
+		 */
+	
+	public static int
+	preloadDownloadStates(
+		List<byte[]>	hashes,
+		int				threads )
+	{
+		synchronized( preloaded_states ){
+			
+			if ( preload_pool == null ){
+				
+				preload_pool = new ThreadPool( "DownloadStatePreload", threads, true );
+			}
+			
+			int	queued = 0;
+			
+				// decided once from the total that will be loaded, getDownloadState uses the
+				// preload's flag rather than its own running count
+			
+			boolean	discard_pieces = state_map.size() + hashes.size() > 32;
+			
+			for ( int i=0;i<hashes.size();i++){
+				
+				byte[]		hash = hashes.get(i);
+				HashWrapper	hw	 = new HashWrapper( hash );
+				
+				if ( global_state_cache.containsKey( hw ) || preloaded_states.containsKey( hw )){
+					
+					continue;
+				}
+				
+				final File	saved_file = getStateFile( hash );
+				
+				if ( !saved_file.exists()){
+					
+					continue;
+				}
+				
+				final PreloadedState	preload = new PreloadedState( discard_pieces );
+				
+				preloaded_states.put( hw, preload );
+				
+				preload_pool.run(
+					new AERunnable()
+					{
+						public void
+						runSupport()
+						{
+							try{
+								preload.torrent = TorrentUtils.readDelegateFromFile( saved_file, preload.discard_pieces );
+								
+							}catch( Throwable e ){
+								
+									// the load proper will retry and report it
+							}finally{
+								
+								preload.sem.releaseForever();
+							}
+						}
+					});
+				
+				queued++;
+			}
+			
+			return( queued );
+		}
+	}
+	
+	private static PreloadedState
+	takePreloadedState(
+		byte[]		torrent_hash )
+	{
+		synchronized( preloaded_states ){
+			
+			return( preloaded_states.remove( new HashWrapper( torrent_hash )));
+		}
+	}
+	
+	private static TorrentUtils.ExtendedTorrent
+	getPreloadedState(
+		PreloadedState	preload,
+		File			saved_file,
+		boolean			discard_pieces )
+	
+		throws TOTorrentException
+	{
+		if ( preload != null ){
+			
+			long	start = SystemTime.getHighPrecisionCounter();
+			
+			preload.sem.reserve();
+			
+			synchronized( preloaded_states ){
+				
+				preload_wait_time += SystemTime.getHighPrecisionCounter() - start;
+			}
+			
+			if ( preload.torrent != null ){
+				
+				return( preload.torrent );
+			}
+		}
+		
+		return( TorrentUtils.readDelegateFromFile( saved_file, discard_pieces ));
+	}
+	
+		/**
+		 * @return total time (in nanos) spent waiting for preloads to complete
+		 */
+	
+	public static long
+	getPreloadWaitTime()
+	{
+		synchronized( preloaded_states ){
+			
+			return( preload_wait_time );
+		}
+	}
+	
 	public static void
 	discardGlobalStateCache()
 	{
 		getGlobalStateFile().delete();
 		
+		synchronized( preloaded_states ){
+			
+				// anything still outstanding is for a download that didn't get loaded
+			
+			preloaded_states.clear();
+			
+			preload_pool = null;
+		}
+		
 		for ( int i=0;i<global_state_cache_wrappers.size();i++){
 			
 			((CachedStateWrapper)global_state_cache_wrappers.get(i)).clearCache();
@@ -3090,6 +3234,23 @@ DownloadManagerStateImpl
 		}
 	}
 	
+	private static class
+	PreloadedState
+	{
+		private final AESemaphore				sem = new AESemaphore( "DownloadStatePreload" );
+		
+		private final boolean							discard_pieces;
+		
+		private volatile TorrentUtils.ExtendedTorrent	torrent;
+		
+		private
+		PreloadedState(
+			boolean		_discard_pieces )
+		{
+			discard_pieces	= _discard_pieces;
+		}
+	}
+	
 	protected static class
 	CachedStateWrapper
 		extends 	LogRelation
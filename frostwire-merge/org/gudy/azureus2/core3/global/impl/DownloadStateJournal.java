@@ -0,0 +1,1010 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package org.gudy.azureus2.core3.global.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import org.gudy.azureus2.core3.util.AEMonitor;
+import org.gudy.azureus2.core3.util.BDecoder;
+import org.gudy.azureus2.core3.util.BEncoder;
+import org.gudy.azureus2.core3.util.Constants;
+import org.gudy.azureus2.core3.util.Debug;
+import org.gudy.azureus2.core3.util.HashWrapper;
+
+/**
+ * Append-only replacement for downloads.config. Each download's export map is stored as a
+ * compactly encoded record keyed by its hash and a save only appends the records that have
+ * changed since the last one (plus removals), so an idle download costs nothing to save.
+ * Once the dead records outweigh the live ones the file is rewritten as a snapshot.
+ * <p>
+ * Record layout: type, key length (varint), key, payload length (varint), payload, CRC32 of
+ * everything before it. A torn or corrupt tail is dropped on load, losing at most the last save.
+ * <p>
+ * load() hands back the same shape as downloads.config ("downloads" list in position order
+ * and "pause_data") so the loading code doesn't care where the state came from.
+ */
+
+public class
+DownloadStateJournal
+{
+	private static final byte[]	MAGIC		= { 'A', 'Z', 'D', 'J' };
+	private static final byte	VERSION		= 1;
+
+	private static final byte	RT_PUT		= 1;
+	private static final byte	RT_REMOVE	= 2;
+	private static final byte	RT_PAUSE	= 3;
+
+	private static final byte	T_LONG		= 0;
+	private static final byte	T_BYTES		= 1;
+	private static final byte	T_LIST		= 2;
+	private static final byte	T_MAP		= 3;
+	private static final byte	T_BENCODED	= 4;
+
+	private static final int	MIN_COMPACT_SIZE	= 256*1024;
+
+		// well known keys get a one byte id, append only - never reorder or remove entries
+
+	private static final String[]	KEYS = {
+		"torrent_hash", "persistent", "torrent", "save_dir", "save_file", "maxdl", "maxul",
+		"state", "position", "downloaded", "uploaded", "completed", "discarded", "hashfailbytes",
+		"forceStart", "secondsDownloading", "secondsOnlySeeding", "uploads", "creationTime",
+		"file_priorities", "allocated", "hash", "force", "path", "stopped",
+	};
+
+	private static final Map<String,Integer>	KEY_IDS = new HashMap<String,Integer>();
+
+	static{
+		for (int i=0;i<KEYS.length;i++){
+
+			KEY_IDS.put( KEYS[i], new Integer( i+1 ));
+		}
+	}
+
+	private static final byte[]	PAUSE_KEY = {};
+
+	private final File		file;
+
+		// what the file currently holds, used to work out what a save has to append
+
+	private final Map<HashWrapper,byte[]>	written 	= new HashMap<HashWrapper,byte[]>();
+	private byte[]							written_pause;
+
+	private long	file_size;
+	private long	live_size;
+
+	private boolean	loaded;
+
+	private final AEMonitor	this_mon	= new AEMonitor( "DownloadStateJournal" );
+
+	public
+	DownloadStateJournal(
+		File		_file )
+	{
+		file	= _file;
+	}
+
+	public File
+	getFile()
+	{
+		return( file );
+	}
+
+	public boolean
+	exists()
+	{
+		try{
+			this_mon.enter();
+
+			recover();
+
+			return( file.exists() && file.length() > MAGIC.length );
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+		/**
+		 * @return the state in downloads.config form, null if there's no usable journal
+		 */
+
+	public Map
+	load()
+	{
+		try{
+			this_mon.enter();
+
+			written.clear();
+
+			written_pause	= null;
+			file_size		= 0;
+			live_size		= 0;
+			loaded			= true;
+
+			recover();
+
+			if ( !file.exists()){
+
+				return( null );
+			}
+
+			byte[]	data;
+
+			FileInputStream	is = new FileInputStream( file );
+
+			try{
+				data = new byte[(int)file.length()];
+
+				int	pos = 0;
+
+				while( pos < data.length ){
+
+					int	len = is.read( data, pos, data.length - pos );
+
+					if ( len <= 0 ){
+
+						break;
+					}
+
+					pos += len;
+				}
+
+				if ( pos < data.length ){
+
+					data = Arrays.copyOf( data, pos );
+				}
+			}finally{
+
+				is.close();
+			}
+
+			if ( data.length < MAGIC.length + 1 || !Arrays.equals( Arrays.copyOf( data, MAGIC.length ), MAGIC )){
+
+				Debug.out( "Download state journal '" + file + "' has a bad header, ignoring it" );
+
+				return( null );
+			}
+
+			if ( data[MAGIC.length] != VERSION ){
+
+				Debug.out( "Download state journal '" + file + "' has unsupported version " + data[MAGIC.length] );
+
+				return( null );
+			}
+
+			Map<HashWrapper,byte[]>	payloads 	= new LinkedHashMap<HashWrapper,byte[]>();
+			byte[]					pause		= null;
+
+			int[]	pos 	= { MAGIC.length + 1 };
+			int		good	= pos[0];
+
+			CRC32	crc = new CRC32();
+
+			while( pos[0] < data.length ){
+
+				int	start = pos[0];
+
+				try{
+					byte	type 	= data[pos[0]++];
+					byte[]	key		= readBytes( data, pos );
+					byte[]	payload	= readBytes( data, pos );
+
+					if ( pos[0] + 4 > data.length ){
+
+						throw( new IOException( "truncated" ));
+					}
+
+					crc.reset();
+					crc.update( data, start, pos[0] - start );
+
+					int	stored = readInt( data, pos[0] );
+
+					pos[0] += 4;
+
+					if ((int)crc.getValue() != stored ){
+
+						throw( new IOException( "bad checksum" ));
+					}
+
+					if ( type == RT_PUT ){
+
+						payloads.put( new HashWrapper( key ), payload );
+
+					}else if ( type == RT_REMOVE ){
+
+						payloads.remove( new HashWrapper( key ));
+
+					}else if ( type == RT_PAUSE ){
+
+						pause = payload;
+
+					}else{
+
+						throw( new IOException( "unknown record type " + type ));
+					}
+
+					good = pos[0];
+
+				}catch( Throwable e ){
+
+						// most likely a save that was cut short, everything before it is good
+
+					Debug.out( "Download state journal '" + file + "' damaged at offset " + start + " of " + data.length + ", dropping the rest: " + Debug.getNestedExceptionMessage( e ));
+
+					break;
+				}
+			}
+
+			if ( good < data.length ){
+
+				truncate( good );
+			}
+
+			file_size = good;
+
+			List<Map>	downloads = new ArrayList<Map>( payloads.size());
+
+			for ( Map.Entry<HashWrapper,byte[]> entry: payloads.entrySet()){
+
+				byte[]	payload = entry.getValue();
+
+				try{
+					downloads.add((Map)decode( payload, new int[]{ 0 }));
+
+					written.put( entry.getKey(), payload );
+
+					live_size += recordSize( entry.getKey().getBytes(), payload );
+
+				}catch( Throwable e ){
+
+					Debug.out( "Download state journal: failed to decode entry", e );
+				}
+			}
+
+				// records are in first-save order, the saves were in position order
+
+			Collections.sort(
+				downloads,
+				new Comparator<Map>()
+				{
+					public int
+					compare(
+						Map		m1,
+						Map		m2 )
+					{
+						long	p1 = getPosition( m1 );
+						long	p2 = getPosition( m2 );
+
+						return( p1<p2?-1:(p1==p2?0:1));
+					}
+				});
+
+			Map	result = new HashMap();
+
+			result.put( "downloads", downloads );
+
+			if ( pause != null ){
+
+				try{
+					List	pause_data = (List)decode( pause, new int[]{ 0 });
+
+					written_pause = pause;
+
+					live_size += recordSize( PAUSE_KEY, pause );
+
+					if ( pause_data.size() > 0 ){
+
+						result.put( "pause_data", pause_data );
+					}
+				}catch( Throwable e ){
+
+					Debug.out( "Download state journal: failed to decode pause data", e );
+				}
+			}
+
+			return( result );
+
+		}catch( Throwable e ){
+
+			Debug.out( "Failed to load download state journal '" + file + "'", e );
+
+			written.clear();
+
+			written_pause	= null;
+			file_size		= 0;
+			live_size		= 0;
+
+			return( null );
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+		/**
+		 * Brings the journal in line with the given downloads.config style state, appending
+		 * changed entries only or writing a fresh snapshot when the file has got too sparse.
+		 * @param downloads export maps, keyed by their "torrent_hash" (or "torrent" if absent)
+		 * @param pause_data may be null
+		 * @return number of records appended, -1 if a snapshot was written
+		 */
+
+	public int
+	save(
+		List<Map>	downloads,
+		List		pause_data )
+
+		throws IOException
+	{
+		try{
+			this_mon.enter();
+
+			if ( !loaded ){
+
+					// never read it, anything already there is of unknown relation to what we're saving
+
+				loaded = true;
+
+				file_size = 0;
+			}
+
+			Map<HashWrapper,byte[]>	current = new LinkedHashMap<HashWrapper,byte[]>( downloads.size()*2 );
+
+			for ( Map dm_map: downloads ){
+
+				byte[]	key = (byte[])dm_map.get( "torrent_hash" );
+
+				if ( key == null ){
+
+					Object	torrent = dm_map.get( "torrent" );
+
+					key = torrent instanceof String?((String)torrent).getBytes( Constants.DEFAULT_ENCODING ):(byte[])torrent;
+				}
+
+				if ( key == null ){
+
+					continue;
+				}
+
+				current.put( new HashWrapper( key ), encode( dm_map ));
+			}
+
+			byte[]	pause = encode( pause_data==null?new ArrayList():pause_data );
+
+			long	new_live = recordSize( PAUSE_KEY, pause );
+
+			for ( Map.Entry<HashWrapper,byte[]> entry: current.entrySet()){
+
+				new_live += recordSize( entry.getKey().getBytes(), entry.getValue());
+			}
+
+			ByteArrayOutputStream	baos 	= new ByteArrayOutputStream();
+			int						records	= 0;
+
+			for ( Map.Entry<HashWrapper,byte[]> entry: current.entrySet()){
+
+				byte[]	old = written.get( entry.getKey());
+
+				if ( old == null || !Arrays.equals( old, entry.getValue())){
+
+					writeRecord( baos, RT_PUT, entry.getKey().getBytes(), entry.getValue());
+
+					records++;
+				}
+			}
+
+			for ( HashWrapper key: written.keySet()){
+
+				if ( !current.containsKey( key )){
+
+					writeRecord( baos, RT_REMOVE, key.getBytes(), new byte[0] );
+
+					records++;
+				}
+			}
+
+			if ( written_pause == null || !Arrays.equals( written_pause, pause )){
+
+				writeRecord( baos, RT_PAUSE, PAUSE_KEY, pause );
+
+				records++;
+			}
+
+			boolean	snapshot =
+				file_size == 0 ||
+				!file.exists() ||
+				file_size + baos.size() > Math.max( MIN_COMPACT_SIZE, new_live*2 );
+
+			if ( snapshot ){
+
+				writeSnapshot( current, pause );
+
+			}else if ( records > 0 ){
+
+				append( baos.toByteArray());
+			}
+
+			written.clear();
+			written.putAll( current );
+
+			written_pause	= pause;
+			live_size		= new_live;
+
+			return( snapshot?-1:records );
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+	public void
+	delete()
+	{
+		try{
+			this_mon.enter();
+
+			written.clear();
+
+			written_pause	= null;
+			file_size		= 0;
+			live_size		= 0;
+
+			if ( file.exists() && !file.delete()){
+
+				Debug.out( "Failed to delete '" + file + "'" );
+			}
+
+			getBackupFile().delete();
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+	public long
+	getFileSize()
+	{
+		return( file_size );
+	}
+
+	public long
+	getLiveSize()
+	{
+		return( live_size );
+	}
+
+	private void
+	writeSnapshot(
+		Map<HashWrapper,byte[]>	entries,
+		byte[]					pause )
+
+		throws IOException
+	{
+		ByteArrayOutputStream	baos = new ByteArrayOutputStream((int)Math.min( Integer.MAX_VALUE - 64, live_size + 1024 ));
+
+		baos.write( MAGIC );
+		baos.write( VERSION );
+
+		for ( Map.Entry<HashWrapper,byte[]> entry: entries.entrySet()){
+
+			writeRecord( baos, RT_PUT, entry.getKey().getBytes(), entry.getValue());
+		}
+
+		writeRecord( baos, RT_PAUSE, PAUSE_KEY, pause );
+
+		byte[]	data = baos.toByteArray();
+
+		File	temp = new File( file.getParentFile(), file.getName() + ".saving" );
+
+		FileOutputStream	os = new FileOutputStream( temp, false );
+
+		try{
+			os.write( data );
+
+			os.flush();
+
+			os.getFD().sync();
+
+		}finally{
+
+			os.close();
+		}
+
+			// the old journal stays around as the backup until the new one is in place, nothing
+			// else holds the download list while the journal is in use
+
+		File	backup = getBackupFile();
+
+		if ( backup.exists() && !backup.delete()){
+
+			Debug.out( "Save of '" + file + "' fails - couldn't delete " + backup );
+		}
+
+		if ( file.exists() && !file.renameTo( backup )){
+
+			throw( new IOException( "Save of '" + file + "' fails - couldn't rename existing file to " + backup ));
+		}
+
+		if ( !temp.renameTo( file )){
+
+			backup.renameTo( file );
+
+			throw( new IOException( "Save of '" + file + "' fails - couldn't rename " + temp ));
+		}
+
+		backup.delete();
+
+		file_size = data.length;
+	}
+
+	private File
+	getBackupFile()
+	{
+		return( new File( file.getParentFile(), file.getName() + ".bak" ));
+	}
+
+		/**
+		 * Puts the backup back if a snapshot was interrupted between moving the old journal aside
+		 * and renaming the new one into place, drops it if the new one made it
+		 */
+
+	private void
+	recover()
+	{
+		File	backup = getBackupFile();
+
+		if ( !backup.exists()){
+
+			return;
+		}
+
+		if ( file.exists()){
+
+			backup.delete();
+
+		}else if ( backup.renameTo( file )){
+
+			Debug.out( "Download state journal '" + file + "' restored from " + backup );
+
+		}else{
+
+			Debug.out( "Failed to restore download state journal '" + file + "' from " + backup );
+		}
+	}
+
+	private void
+	append(
+		byte[]		data )
+
+		throws IOException
+	{
+		FileOutputStream	os = new FileOutputStream( file, true );
+
+		try{
+			os.write( data );
+
+			os.flush();
+
+			os.getFD().sync();
+
+		}finally{
+
+			os.close();
+		}
+
+		file_size += data.length;
+	}
+
+	private void
+	truncate(
+		long		length )
+	{
+		try{
+			RandomAccessFile	raf = new RandomAccessFile( file, "rw" );
+
+			try{
+				raf.setLength( length );
+
+			}finally{
+
+				raf.close();
+			}
+		}catch( Throwable e ){
+
+			Debug.out( "Failed to truncate '" + file + "'", e );
+		}
+	}
+
+	private static long
+	getPosition(
+		Map		map )
+	{
+		Object	pos = map.get( "position" );
+
+		return( pos instanceof Long?((Long)pos).longValue():Long.MAX_VALUE );
+	}
+
+	private static long
+	recordSize(
+		byte[]		key,
+		byte[]		payload )
+	{
+		return( 1 + varintSize( key.length ) + key.length + varintSize( payload.length ) + payload.length + 4 );
+	}
+
+	private static void
+	writeRecord(
+		ByteArrayOutputStream	baos,
+		byte					type,
+		byte[]					key,
+		byte[]					payload )
+	{
+		int	start = baos.size();
+
+		ByteArrayOutputStream	record = new ByteArrayOutputStream( payload.length + key.length + 16 );
+
+		record.write( type );
+
+		writeVarint( record, key.length );
+
+		record.write( key, 0, key.length );
+
+		writeVarint( record, payload.length );
+
+		record.write( payload, 0, payload.length );
+
+		byte[]	bytes = record.toByteArray();
+
+		CRC32	crc = new CRC32();
+
+		crc.update( bytes );
+
+		baos.write( bytes, 0, bytes.length );
+
+		int	c = (int)crc.getValue();
+
+		baos.write( c >>> 24 );
+		baos.write( c >>> 16 );
+		baos.write( c >>> 8 );
+		baos.write( c );
+
+		if ( baos.size() - start != recordSize( key, payload )){
+
+			Debug.out( "record size mismatch" );
+		}
+	}
+
+		// compact value encoding, decodes to what a bencode round trip would give
+		// (Longs, byte[]s, Lists and Maps with String keys)
+
+	protected static byte[]
+	encode(
+		Object		value )
+
+		throws IOException
+	{
+		ByteArrayOutputStream	baos = new ByteArrayOutputStream( 256 );
+
+		encode( baos, value );
+
+		return( baos.toByteArray());
+	}
+
+	private static void
+	encode(
+		ByteArrayOutputStream	baos,
+		Object					value )
+
+		throws IOException
+	{
+		if ( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte ){
+
+			long	l = ((Number)value).longValue();
+
+			baos.write( T_LONG );
+
+			writeVarint( baos, ( l << 1 ) ^ ( l >> 63 ));
+
+		}else if ( value instanceof Boolean ){
+
+			baos.write( T_LONG );
+
+			writeVarint( baos, ((Boolean)value).booleanValue()?2:0 );
+
+		}else if ( value instanceof byte[] ){
+
+			byte[]	b = (byte[])value;
+
+			baos.write( T_BYTES );
+
+			writeVarint( baos, b.length );
+
+			baos.write( b, 0, b.length );
+
+		}else if ( value instanceof String ){
+
+			byte[]	b = ((String)value).getBytes( Constants.DEFAULT_ENCODING );
+
+			baos.write( T_BYTES );
+
+			writeVarint( baos, b.length );
+
+			baos.write( b, 0, b.length );
+
+		}else if ( value instanceof List ){
+
+			List	l = (List)value;
+
+			baos.write( T_LIST );
+
+			writeVarint( baos, l.size());
+
+			for ( Object o: l ){
+
+				encode( baos, o );
+			}
+		}else if ( value instanceof Map ){
+
+			Map		m = (Map)value;
+
+				// sorted so that equal maps always encode identically
+
+			TreeMap	sorted = new TreeMap();
+
+			for ( Object o: m.entrySet()){
+
+				Map.Entry	entry = (Map.Entry)o;
+
+				Object	v = entry.getValue();
+
+				if ( v != null ){
+
+					sorted.put( String.valueOf( entry.getKey()), v );
+				}
+			}
+
+			baos.write( T_MAP );
+
+			writeVarint( baos, sorted.size());
+
+			for ( Object o: sorted.entrySet()){
+
+				Map.Entry	entry = (Map.Entry)o;
+
+				String	key = (String)entry.getKey();
+
+				Integer	id = KEY_IDS.get( key );
+
+				if ( id != null ){
+
+					writeVarint( baos, id.intValue());
+
+				}else{
+
+					byte[]	kb = key.getBytes( Constants.DEFAULT_ENCODING );
+
+					writeVarint( baos, 0 );
+					writeVarint( baos, kb.length );
+
+					baos.write( kb, 0, kb.length );
+				}
+
+				encode( baos, entry.getValue());
+			}
+		}else{
+
+				// anything else goes through bencoding so it comes back as it would have done
+
+			Map	wrapper = new HashMap();
+
+			wrapper.put( "v", value );
+
+			byte[]	b = BEncoder.encode( wrapper );
+
+			baos.write( T_BENCODED );
+
+			writeVarint( baos, b.length );
+
+			baos.write( b, 0, b.length );
+		}
+	}
+
+	protected static Object
+	decode(
+		byte[]		data,
+		int[]		pos )
+
+		throws IOException
+	{
+		if ( pos[0] >= data.length ){
+
+			throw( new IOException( "truncated value" ));
+		}
+
+		byte	type = data[pos[0]++];
+
+		switch( type ){
+
+			case T_LONG:{
+
+				long	v = readVarint( data, pos );
+
+				return( new Long(( v >>> 1 ) ^ -( v & 1 )));
+			}
+			case T_BYTES:{
+
+				return( readBytes( data, pos ));
+			}
+			case T_LIST:{
+
+				int	size = (int)readVarint( data, pos );
+
+				List	l = new ArrayList( size );
+
+				for (int i=0;i<size;i++){
+
+					l.add( decode( data, pos ));
+				}
+
+				return( l );
+			}
+			case T_MAP:{
+
+				int	size = (int)readVarint( data, pos );
+
+				Map	m = new HashMap( size*2 );
+
+				for (int i=0;i<size;i++){
+
+					int		id = (int)readVarint( data, pos );
+
+					String	key;
+
+					if ( id == 0 ){
+
+						key = new String( readBytes( data, pos ), Constants.DEFAULT_ENCODING );
+
+					}else if ( id <= KEYS.length ){
+
+						key = KEYS[id-1];
+
+					}else{
+
+						throw( new IOException( "unknown key id " + id ));
+					}
+
+					m.put( key, decode( data, pos ));
+				}
+
+				return( m );
+			}
+			case T_BENCODED:{
+
+				return( BDecoder.decode( readBytes( data, pos )).get( "v" ));
+			}
+			default:{
+
+				throw( new IOException( "unknown value type " + type ));
+			}
+		}
+	}
+
+	private static byte[]
+	readBytes(
+		byte[]		data,
+		int[]		pos )
+
+		throws IOException
+	{
+		long	len = readVarint( data, pos );
+
+		if ( len < 0 || pos[0] + len > data.length ){
+
+			throw( new IOException( "truncated" ));
+		}
+
+		byte[]	b = Arrays.copyOfRange( data, pos[0], pos[0] + (int)len );
+
+		pos[0] += (int)len;
+
+		return( b );
+	}
+
+	private static void
+	writeVarint(
+		ByteArrayOutputStream	baos,
+		long					v )
+	{
+		while(( v & ~0x7fL ) != 0 ){
+
+			baos.write((int)(( v & 0x7f ) | 0x80 ));
+
+			v >>>= 7;
+		}
+
+		baos.write((int)v );
+	}
+
+	private static long
+	readVarint(
+		byte[]		data,
+		int[]		pos )
+
+		throws IOException
+	{
+		long	result 	= 0;
+		int		shift	= 0;
+
+		while( true ){
+
+			if ( pos[0] >= data.length || shift > 63 ){
+
+				throw( new IOException( "truncated" ));
+			}
+
+			int	b = data[pos[0]++];
+
+			result |= ((long)( b & 0x7f )) << shift;
+
+			if (( b & 0x80 ) == 0 ){
+
+				return( result );
+			}
+
+			shift += 7;
+		}
+	}
+
+	private static int
+	varintSize(
+		long	v )
+	{
+		int	size = 1;
+
+		while(( v & ~0x7fL ) != 0 ){
+
+			size++;
+
+			v >>>= 7;
+		}
+
+		return( size );
+	}
+
+	private static int
+	readInt(
+		byte[]		data,
+		int			pos )
+	{
+		return(	(( data[pos] & 0xff ) << 24 ) |
+				(( data[pos+1] & 0xff ) << 16 ) |
+				(( data[pos+2] & 0xff ) << 8 ) |
+				( data[pos+3] & 0xff ));
+	}
+}
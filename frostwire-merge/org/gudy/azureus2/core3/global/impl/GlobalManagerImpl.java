@@ -191,6 +191,12 @@ public class GlobalManagerImpl
     // Set this flag to disable interaction with downloads.config.
     // Do *NOT* change this - only the constructor should set it once.
 	private boolean cripple_downloads_config;
+	
+	private volatile String	startup_timings	= "";
+
+		// incremental alternative to rewriting all of downloads.config on every save
+
+	private DownloadStateJournal	download_journal = new DownloadStateJournal( new File( SystemProperties.getUserPath(), "downloads.journal" ));
 
 	private TRTrackerScraper 			trackerScraper;
 	private GlobalManagerStatsWriter 	stats_writer;
@@ -1945,9 +1951,17 @@ public class GlobalManagerImpl
 		  }
 	
 		  
+		  long	start_time		= SystemTime.getHighPrecisionCounter();
+		  long	phase_start		= start_time;
+		  long	listener_time	= 0;
+		  
+		  StringBuffer	timings = new StringBuffer();
+		  
 		  try{
 			  DownloadManagerStateFactory.loadGlobalStateCache();
 			  
+			  phase_start = addStartupTiming( timings, "state cache", phase_start );
+			  
 			  int triggerOnCount = 2;
 			  ArrayList<DownloadManager> downloadsAdded = new ArrayList<DownloadManager>();
 			  lastListenerUpdate = 0;
@@ -1956,8 +1970,10 @@ public class GlobalManagerImpl
 					  progress_listener.reportCurrentTask(MessageText.getString("splash.loadingTorrents"));
 				  }
 				  
-				  Map map = FileUtil.readResilientConfigFile("downloads.config");
+				  Map map = readDownloadState();
 		
+				  phase_start = addStartupTiming( timings, "download list", phase_start );
+				  
 				  boolean debug = Boolean.getBoolean("debug");
 		
 				  Iterator iter = null;
@@ -1973,6 +1989,32 @@ public class GlobalManagerImpl
 					  //New way, downloads stored in a list
 					  iter = downloads.iterator();
 					  nbDownloads = downloads.size();
+					  
+					  int	threads = getStartupLoadThreads();
+					  
+					  if ( threads > 1 ){
+						  
+						  	// state files missing from the state cache get read ahead in parallel, the
+						  	// managers are still created (and positions assigned) one by one below
+						  
+						  List<byte[]>	hashes = new ArrayList<byte[]>( nbDownloads );
+						  
+						  for ( Object o: downloads ){
+							  
+							  Map		m 			= (Map)o;
+							  byte[]	hash		= (byte[])m.get( "torrent_hash" );
+							  Long		persistent	= (Long)m.get( "persistent" );
+							  
+							  if ( hash != null && ( persistent == null || persistent.longValue() == 1 )){
+								  
+								  hashes.add( hash );
+							  }
+						  }
+						  
+						  int	queued = DownloadManagerStateFactory.preloadDownloadStates( hashes, threads );
+						  
+						  timings.append( ", preloading " ).append( queued ).append( " with " ).append( threads ).append( " threads" );
+					  }
 				  }
 				  int currentDownload = 0;
 				  while (iter.hasNext()) {
@@ -1993,11 +2035,20 @@ public class GlobalManagerImpl
 	
 						  if (downloadsAdded.size() >= triggerOnCount) {
 							  triggerOnCount *= 2;
+							  long listener_start = SystemTime.getHighPrecisionCounter();
 							  triggerAddListener(downloadsAdded);
+							  listener_time += SystemTime.getHighPrecisionCounter() - listener_start;
 							  downloadsAdded.clear();
 						  }
 					  }
 				  }
+				  
+				  timings.append( ", " ).append( currentDownload ).append( " downloads" );
+				  
+				  phase_start = addStartupTiming( timings, "managers", phase_start );
+				  
+				  timings.append( " (listeners " ).append( listener_time/1000000 ).append( "ms, waiting for preload " );
+				  timings.append( DownloadManagerStateFactory.getPreloadWaitTime()/1000000 ).append( "ms)" );
 		
 				  // This is set to true by default, but once the downloads have been loaded, we have no reason to ever
 				  // to do this check again - we only want to do it once to upgrade the state of existing downloads
@@ -2034,6 +2085,9 @@ public class GlobalManagerImpl
 				  // Someone could have mucked with the config file and set weird positions,
 				  // so fix them up.
 				  fixUpDownloadManagerPositions();
+				  
+				  phase_start = addStartupTiming( timings, "fixups", phase_start );
+				  
 				  Logger.log(new LogEvent(LOGID, "Loaded " + managers_cow.size()
 						  + " torrents"));
 		
@@ -2052,6 +2106,12 @@ public class GlobalManagerImpl
 		  }finally{
 			  
 			  DownloadManagerStateFactory.discardGlobalStateCache();
+			  
+			  addStartupTiming( timings, "total", start_time );
+			  
+			  startup_timings = timings.substring( 2 );
+			  
+			  Logger.log(new LogEvent(LOGID, "Startup: " + startup_timings ));
 		  }
 	  }finally{
 		  
@@ -2059,6 +2119,34 @@ public class GlobalManagerImpl
 	  }
   }
   
+  private static long
+  addStartupTiming(
+	StringBuffer	timings,
+	String			phase,
+	long			phase_start )
+  {
+	  long	now = SystemTime.getHighPrecisionCounter();
+	  
+	  timings.append( ", " ).append( phase ).append( " " ).append(( now - phase_start )/1000000 ).append( "ms" );
+	  
+	  return( now );
+  }
+  
+  private static int
+  getStartupLoadThreads()
+  {
+	  int	threads = COConfigurationManager.getIntParameter( "global.startup.load.threads" );
+	  
+	  if ( threads <= 0 ){
+		  
+		  	// reading state files is mostly I/O and bdecoding, no point in going wide
+		  
+		  threads = Math.min( 4, Runtime.getRuntime().availableProcessors());
+	  }
+	  
+	  return( threads );
+  }
+  
   private void triggerAddListener(List downloadsToAdd) {
 		try {
 			managers_mon.enter();
@@ -2160,6 +2248,26 @@ public class GlobalManagerImpl
       finally {  paused_list_mon.exit();  }
       
         
+	    if ( COConfigurationManager.getBooleanParameter( "downloads.journal.enable" )){
+	    	
+	    	try{
+	    		download_journal.save( list, (List)map.get( "pause_data" ));
+	    		
+	    		return;
+	    		
+	    	}catch( Throwable e ){
+	    		
+	    		Debug.out( "Failed to save download state journal, falling back to downloads.config", e );
+	    		
+	    			// don't leave a stale journal around to be preferred at next start
+	    		
+	    		download_journal.delete();
+	    	}
+	    }else if ( download_journal.exists()){
+	    	
+	    	download_journal.delete();
+	    }
+	    
 	    FileUtil.writeResilientConfigFile("downloads.config", map );
   	}finally{
   		
@@ -2167,6 +2275,29 @@ public class GlobalManagerImpl
   	}
   }
   
+  private Map
+  readDownloadState()
+  {
+	  	// the journal is only ever newer than downloads.config unless it has been disabled
+	  	// and downloads.config saved since, in which case the journal would have been deleted
+	  
+	  if ( download_journal.exists()){
+		  
+		  Map map = download_journal.load();
+		  
+		  if ( map != null ){
+			  
+			  if (Logger.isEnabled())
+				  Logger.log(new LogEvent(LOGID, "Loaded download state from " + download_journal.getFile() + " (" 
+						  + download_journal.getFileSize() + " bytes, " + download_journal.getLiveSize() + " live)"));
+			  
+			  return( map );
+		  }
+	  }
+	  
+	  return( FileUtil.readResilientConfigFile("downloads.config"));
+  }
+  
   public DownloadManager
   loadDownload(
 	Map 							mDownload,
@@ -3401,6 +3532,7 @@ public class GlobalManagerImpl
 	    	managers_mon.enter();
 	    	
 			writer.println( "  managers: " + managers_cow.size());
+			writer.println( "  startup: " + startup_timings );
 		
 			for (int i=0;i<managers_cow.size();i++){
 				
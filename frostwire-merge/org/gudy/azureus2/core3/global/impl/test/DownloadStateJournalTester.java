@@ -0,0 +1,288 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package org.gudy.azureus2.core3.global.impl.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+import org.gudy.azureus2.core3.global.impl.DownloadStateJournal;
+import org.gudy.azureus2.core3.util.BDecoder;
+import org.gudy.azureus2.core3.util.BEncoder;
+import org.gudy.azureus2.core3.util.FileUtil;
+
+/**
+ * Compares saving download state through the journal with rewriting a downloads.config
+ * style file. Builds synthetic export maps, then repeatedly changes a few of them (as a
+ * periodic save with a handful of active downloads would) and saves both ways.
+ * <p>
+ * usage: DownloadStateJournalTester [downloads] [saves] [changed per save]
+ * <p>
+ * Checks that the journal loads back what was saved (in position order), and that a
+ * torn final record only loses that record. Also checks that a snapshot interrupted after
+ * the old journal was moved aside still loads the old one.
+ */
+
+public class
+DownloadStateJournalTester
+{
+	public static void
+	main(
+		String[]	args )
+	{
+		int		downloads	= args.length > 0?Integer.parseInt( args[0] ):5000;
+		int		saves		= args.length > 1?Integer.parseInt( args[1] ):50;
+		int		changed		= args.length > 2?Integer.parseInt( args[2] ):10;
+
+		File	dir = null;
+
+		try{
+			COConfigurationManager.initialiseFromMap( new HashMap());
+
+			dir = File.createTempFile( "journal", "" );
+
+			dir.delete();
+			dir.mkdirs();
+
+			Random	random = new Random( 17 );
+
+			List<Map>	list = new ArrayList<Map>();
+
+			for (int i=0;i<downloads;i++){
+
+				list.add( createEntry( random, i ));
+			}
+
+			List	pause_data = new ArrayList();
+
+			File	config = new File( dir, "downloads.config" );
+
+			DownloadStateJournal	journal = new DownloadStateJournal( new File( dir, "downloads.journal" ));
+
+			journal.load();
+
+			long	config_time 	= 0;
+			long	journal_time	= 0;
+			long	appended		= 0;
+			int		snapshots		= 0;
+
+			for (int i=0;i<saves;i++){
+
+				for (int j=0;j<changed;j++){
+
+					Map	m = list.get( random.nextInt( downloads ));
+
+					m.put( "downloaded", new Long( ((Long)m.get( "downloaded" )).longValue() + random.nextInt( 1024*1024 )));
+					m.put( "uploaded", new Long( ((Long)m.get( "uploaded" )).longValue() + random.nextInt( 1024*1024 )));
+					m.put( "secondsDownloading", new Long( ((Long)m.get( "secondsDownloading" )).longValue() + 30 ));
+				}
+
+				if ( i == saves/2 ){
+
+					pause_data.add( createPause( list.get( 0 )));
+				}
+
+				long	start = System.nanoTime();
+
+				Map	map = new HashMap();
+
+				map.put( "downloads", list );
+
+				if ( pause_data.size() > 0 ){
+
+					map.put( "pause_data", pause_data );
+				}
+
+				FileUtil.writeResilientFile( config, map );
+
+				long	mid = System.nanoTime();
+
+				int	records = journal.save( list, pause_data );
+
+				long	end = System.nanoTime();
+
+				config_time 	+= mid - start;
+				journal_time	+= end - mid;
+
+				if ( records < 0 ){
+
+					snapshots++;
+
+				}else{
+
+					appended += records;
+				}
+			}
+
+			System.out.println(
+				"save: downloads.config " + ( config_time/saves/1000 ) + "us (" + config.length() + " bytes), journal " +
+				( journal_time/saves/1000 ) + "us (" + journal.getFileSize() + " bytes, " + journal.getLiveSize() + " live, " +
+				appended + " records appended, " + snapshots + " snapshots)" );
+
+			long	start = System.nanoTime();
+
+			Map	from_config = BDecoder.decode( FileUtil.readFileAsByteArray( config ));
+
+			long	mid = System.nanoTime();
+
+			DownloadStateJournal	reader = new DownloadStateJournal( journal.getFile());
+
+			Map	from_journal = reader.load();
+
+			long	end = System.nanoTime();
+
+			System.out.println( "load: downloads.config " + (( mid - start )/1000 ) + "us, journal " + (( end - mid )/1000 ) + "us" );
+
+			check( "journal", from_config, from_journal );
+
+				// chop the final record in half, only the last save's changes should go
+
+			Map	last = list.get( downloads - 1 );
+
+			last.put( "downloaded", new Long( 1 ));
+
+			journal.save( list, pause_data );
+
+			long	size = journal.getFile().length();
+
+			RandomAccessFile	raf = new RandomAccessFile( journal.getFile(), "rw" );
+
+			raf.setLength( size - 5 );
+
+			raf.close();
+
+			Map	torn = new DownloadStateJournal( journal.getFile()).load();
+
+			check( "torn", from_config, torn );
+
+			System.out.println( "torn tail: " + ( journal.getFile().length() < size - 5?"truncated":"NOT TRUNCATED" ));
+
+				// crash mid snapshot: old journal renamed to .bak, new one only partly written
+
+			File	file	= journal.getFile();
+			File	backup	= new File( dir, file.getName() + ".bak" );
+
+			file.renameTo( backup );
+
+			FileOutputStream	os = new FileOutputStream( new File( dir, file.getName() + ".saving" ));
+
+			os.write( new byte[100] );
+
+			os.close();
+
+			DownloadStateJournal	recovered = new DownloadStateJournal( file );
+
+			if ( !recovered.exists()){
+
+				System.out.println( "interrupted snapshot: FAILED, journal not found" );
+
+			}else{
+
+				check( "interrupted snapshot", from_config, recovered.load());
+
+				System.out.println( "interrupted snapshot: restored from backup" + ( backup.exists()?", BACKUP LEFT BEHIND":"" ));
+			}
+
+		}catch( Throwable e ){
+
+			e.printStackTrace();
+
+		}finally{
+
+			if ( dir != null ){
+
+				FileUtil.recursiveDeleteNoCheck( dir );
+			}
+		}
+
+		System.exit( 0 );
+	}
+
+	private static Map
+	createEntry(
+		Random		random,
+		int			index )
+	{
+		Map	m = new HashMap();
+
+		byte[]	hash = new byte[20];
+
+		random.nextBytes( hash );
+
+		m.put( "torrent_hash", hash );
+		m.put( "persistent", new Long( 1 ));
+		m.put( "torrent", "/home/user/.azureus/torrents/download-" + index + ".torrent" );
+		m.put( "save_dir", "/home/user/Downloads" );
+		m.put( "save_file", "Download number " + index );
+		m.put( "maxdl", new Long( 0 ));
+		m.put( "maxul", new Long( 0 ));
+		m.put( "state", new Long( index%3==0?70:75 ));
+		m.put( "position", new Long( index + 1 ));
+		m.put( "downloaded", new Long( random.nextInt( Integer.MAX_VALUE )));
+		m.put( "uploaded", new Long( random.nextInt( Integer.MAX_VALUE )));
+		m.put( "completed", new Long( 1000 ));
+		m.put( "discarded", new Long( 0 ));
+		m.put( "hashfailbytes", new Long( 0 ));
+		m.put( "forceStart", new Long( 0 ));
+		m.put( "secondsDownloading", new Long( random.nextInt( 100000 )));
+		m.put( "secondsOnlySeeding", new Long( random.nextInt( 1000000 )));
+		m.put( "uploads", new Long( 4 ));
+		m.put( "creationTime", new Long( 1700000000000L + index ));
+		m.put( "allocated", new Long( 1 ));
+
+		List	priorities = new ArrayList();
+
+		for (int i=0;i<index%7;i++){
+
+			priorities.add( new Long( i%2 ));
+		}
+
+		m.put( "file_priorities", priorities );
+
+		return( m );
+	}
+
+	private static Map
+	createPause(
+		Map		entry )
+	{
+		Map	m = new HashMap();
+
+		m.put( "hash", entry.get( "torrent_hash" ));
+		m.put( "force", new Long( 0 ));
+
+		return( m );
+	}
+
+	private static void
+	check(
+		String	name,
+		Map		expected,
+		Map		actual )
+
+		throws Exception
+	{
+			// compare via the canonical bencoding, both sides have byte[] strings by now
+
+		boolean	same = Arrays.equals( BEncoder.encode( expected ), BEncoder.encode( actual ));
+
+		System.out.println( name + ": " + ( same?"matches downloads.config":"MISMATCH" ));
+	}
+}
@@ -321,6 +321,8 @@ TOTorrentCreateImpl
 											 
 			setPieces( file_hasher.getPieces());
 			
+			reportRate();
+			
 			if ( add_other_hashes ){
 				
 				byte[]	sha1_digest = file_hasher.getSHA1Digest();
@@ -443,10 +445,29 @@ TOTorrentCreateImpl
 				reported_progress = this_progress;
 				
 				((TOTorrentProgressListener)progress_listeners.get(i)).reportProgress( reported_progress );
+				
+				if ( reported_progress % 10 == 0 ){
+					
+					reportRate();
+				}
 			}
 		}
 	}
 	
+	protected void
+	reportRate()
+	{
+		TOTorrentFileHasher	hasher = file_hasher;
+		
+		if ( hasher != null && progress_listeners.size() > 0 ){
+			
+			report( 
+				"Torrent.create.progress.hashrate", 
+				DisplayFormatters.formatByteCountToKiBEtcPerSec( hasher.getReadRate()) + 
+				" (" + DisplayFormatters.formatByteCountToKiBEtc( hasher.getBytesRead()) + ")" );
+		}
+	}
+	
 	protected long
 	calculateNumberOfPieces(
 		File				_file,
@@ -24,6 +24,7 @@ package org.gudy.azureus2.core3.torrent.impl;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.gudy.azureus2.core3.html.HTMLUtils;
@@ -37,6 +38,8 @@ public class
 TOTorrentDeserialiseImpl
 	extends TOTorrentImpl
 {
+	private static final String[]	PIECES_SLICE_PATH = { TK_INFO, TK_PIECES };
+	
 	public
 	TOTorrentDeserialiseImpl(
 		File		file )
@@ -210,11 +213,14 @@ TOTorrentDeserialiseImpl
 		throws TOTorrentException
 	{
 		try{
-			BDecoder decoder = new BDecoder();
+			BDecoderReader reader = new BDecoderReader( bytes );
+			
+			reader.setVerifyMapOrder( true );
 			
-			decoder.setVerifyMapOrder( true );
+				// the piece hashes are split up straight from the encoded data rather than
+				// being copied out into one big array first
 			
-			Map meta_data = decoder.decodeByteArray( bytes );
+			Map meta_data = reader.readMap( PIECES_SLICE_PATH );
 	
 			// print( "", "", meta_data );
 			
@@ -620,13 +626,15 @@ TOTorrentDeserialiseImpl
 				setFiles( files );
 			}
 							
-			byte[]	flat_pieces = (byte[])info.get( TK_PIECES );
+			Object	pieces_value = info.get( TK_PIECES );
+			
+			ByteBuffer	flat_pieces = pieces_value instanceof ByteBuffer?(ByteBuffer)pieces_value:ByteBuffer.wrap((byte[])pieces_value );
 			
 				// work out how many pieces we require for the torrent
 			
 			int	pieces_required = (int)((total_length + (piece_length-1)) / piece_length);
 			
-			int		pieces_supplied = flat_pieces.length/20;
+			int		pieces_supplied = flat_pieces.remaining()/20;
 			
 			if ( pieces_supplied < pieces_required ){
 				
@@ -643,7 +651,7 @@ TOTorrentDeserialiseImpl
 			
 			for (int i=0;i<pieces.length;i++){
 				
-				System.arraycopy( flat_pieces, i*20, pieces[i], 0, 20 );
+				flat_pieces.get( pieces[i] );
 			}	
 				
 			setPieces( pieces );	
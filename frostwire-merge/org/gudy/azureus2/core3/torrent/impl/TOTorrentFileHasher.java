@@ -25,22 +25,59 @@ package org.gudy.azureus2.core3.torrent.impl;
 
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.gudy.azureus2.core3.torrent.*;
 import org.gudy.azureus2.core3.util.*;
 
+/**
+ * Files are read sequentially through a FileChannel into batch buffers holding a whole
+ * number of pieces (at least READ_SIZE bytes), the piece hashes of a full batch are then
+ * computed on the hash pool while the next batch is read. Results are kept per batch so
+ * the piece order doesn't depend on which thread finishes first. The optional overall and
+ * per-file hashes are streaming so they stay on the reading thread.
+ */
+
 public class 
 TOTorrentFileHasher 
 {
+	private static final int	READ_SIZE			= 1024*1024;
+	private static final long	MAX_BUFFER_MEMORY	= 64*1024*1024;
+	
+	private static final int	HASH_THREADS;
+	
+	static{
+		int	threads = Runtime.getRuntime().availableProcessors();
+		
+		try{
+			threads = Integer.parseInt( System.getProperty( "az.create.torrent.hash.threads", String.valueOf( threads )));
+			
+		}catch( Throwable e ){
+		}
+		
+		HASH_THREADS = Math.max( 1, threads );
+	}
+	
+	private static final ThreadPool	hash_pool = new ThreadPool( "TOTorrentCreate:hash", HASH_THREADS, true );
+	
 	protected boolean	do_other_per_file_hash;
 	protected int		piece_length;
 	
-	protected Vector	pieces = new Vector();
+	protected List<batch>	batches = new ArrayList<batch>();
+	
+	protected int		batch_size;
+	
+	protected ArrayBlockingQueue<byte[]>	free_buffers;
 	
 	protected byte[]	buffer;
 	protected int		buffer_pos;
 	 
+	protected byte[][]	pieces;
+	
 	protected SHA1Hasher					overall_sha1_hash;
 	protected ED2KHasher					overall_ed2k_hash;
 	
@@ -51,8 +88,15 @@ TOTorrentFileHasher
 	protected byte[]						per_file_ed2k_digest;
 	
 	protected TOTorrentFileHasherListener	listener;
-		
-	protected boolean						cancelled;
+	
+	protected int							pieces_hashed;
+	
+	protected long							start_time	= -1;
+	protected long							bytes_read;
+	
+	protected Throwable						hash_error;
+	
+	protected volatile boolean				cancelled;
 	
 	protected
 	TOTorrentFileHasher(
@@ -71,7 +115,22 @@ TOTorrentFileHasher
 		piece_length			= _piece_length;
 		listener				= _listener;
 		
-		buffer = new byte[piece_length];
+		int	pieces_per_batch = Math.max( 1, READ_SIZE / piece_length );
+		
+		batch_size = pieces_per_batch * piece_length;
+		
+			// one batch being read plus one per hash thread, within the memory budget
+		
+		int	num_buffers = (int)Math.max( 2, Math.min( HASH_THREADS + 1, MAX_BUFFER_MEMORY / batch_size ));
+		
+		free_buffers = new ArrayBlockingQueue<byte[]>( num_buffers );
+		
+		for (int i=1;i<num_buffers;i++){
+			
+			free_buffers.add( new byte[batch_size] );
+		}
+		
+		buffer = new byte[batch_size];
 	}
 		
 	long
@@ -82,11 +141,16 @@ TOTorrentFileHasher
 	{
 		long		file_length = 0;
 		
-		InputStream is = null;
+		FileInputStream	fis = null;
 		
 		SHA1Hasher	sha1_hash		= null;
 		ED2KHasher	ed2k_hash		= null;
 		
+		if ( start_time == -1 ){
+			
+			start_time = SystemTime.getMonotonousTime();
+		}
+		
 		try{
 			if ( do_other_per_file_hash ){
 				
@@ -94,17 +158,15 @@ TOTorrentFileHasher
 				ed2k_hash		= new ED2KHasher();
 			}
 			
-			is = new BufferedInputStream(new FileInputStream( _file ), 65536);
+			fis = new FileInputStream( _file );
+			
+			FileChannel	channel = fis.getChannel();
 
 			while(true){
 	
-				if ( cancelled ){
-						
-					throw( new TOTorrentException( 	"TOTorrentCreate: operation cancelled",
-													TOTorrentException.RT_CANCELLED ));
-				}
+				checkCancelled();
 				
-				int	len = is.read( buffer, buffer_pos, piece_length - buffer_pos );
+				int	len = channel.read( ByteBuffer.wrap( buffer, buffer_pos, batch_size - buffer_pos ));
 				
 				if ( len > 0 ){
 					
@@ -114,33 +176,17 @@ TOTorrentFileHasher
 						ed2k_hash.update( buffer, buffer_pos, len );
 					}
 					
-					
 					file_length += len;
 					
+					bytes_read	+= len;
+					
 					buffer_pos += len;
 					
-					if ( buffer_pos == piece_length ){
+					if ( buffer_pos == batch_size ){
 						
-						// hash this piece
-						
-						byte[] hash = new SHA1Hasher().calculateHash(buffer);
-
-						if ( overall_sha1_hash != null ){
-							
-							overall_sha1_hash.update( buffer );
-							overall_ed2k_hash.update( buffer );
-						}
-						
-						pieces.add( hash );
-						
-						if ( listener != null ){
-							
-							listener.pieceHashed( pieces.size() );
-						}
-						
-						buffer_pos = 0;					
+						submitBatch();
 					}
-				}else{
+				}else if ( len < 0 ){
 					
 					break;
 				}		
@@ -161,9 +207,9 @@ TOTorrentFileHasher
 			throw( new TOTorrentException( 	"TOTorrentFileHasher: file read fails '" + e.toString() + "'",
 											TOTorrentException.RT_READ_FAILS ));
 		}finally {
-			if (is != null) {
+			if (fis != null) {
 				try {
-					is.close();
+					fis.close();
 				}
 				catch (Exception e) {
 				}
@@ -173,16 +219,103 @@ TOTorrentFileHasher
 		return( file_length );
 	}
 	
-	protected byte[]
-	getPerFileSHA1Digest()
+	protected void
+	checkCancelled()
+	
+		throws TOTorrentException
 	{
-		return( per_file_sha1_digest );
+		if ( cancelled ){
+			
+			throw( new TOTorrentException( 	"TOTorrentCreate: operation cancelled",
+											TOTorrentException.RT_CANCELLED ));
+		}
 	}
 	
-	protected byte[]
-	getPerFileED2KDigest()
+		/**
+		 * hands the current buffer (full, or the final partial one) to the hash pool and
+		 * picks up a free one, blocking while all the buffers are waiting to be hashed
+		 */
+	
+	protected void
+	submitBatch()
+	
+		throws TOTorrentException, InterruptedException
 	{
-		return( per_file_ed2k_digest );
+		if ( overall_sha1_hash != null ){
+			
+			overall_sha1_hash.update( buffer, 0, buffer_pos );
+			overall_ed2k_hash.update( buffer, 0, buffer_pos );
+		}
+		
+		final batch	b = new batch( buffer, buffer_pos );
+		
+		batches.add( b );
+		
+		hash_pool.run(
+			new AERunnable()
+			{
+				public void
+				runSupport()
+				{
+					hashBatch( b );
+				}
+			});
+		
+		buffer		= null;
+		buffer_pos	= 0;
+		
+		while( buffer == null ){
+			
+			checkCancelled();
+			
+			buffer = free_buffers.poll( 250, TimeUnit.MILLISECONDS );
+		}
+	}
+	
+	protected void
+	hashBatch(
+		batch		b )
+	{
+		try{
+			if ( !cancelled ){
+				
+				SHA1Hasher	hasher = new SHA1Hasher();
+				
+				int	num = ( b.length + piece_length - 1 ) / piece_length;
+				
+				byte[][]	hashes = new byte[num][];
+				
+				for (int i=0;i<num;i++){
+					
+					int	pos = i*piece_length;
+					
+					hashes[i] = hasher.calculateHash( ByteBuffer.wrap( b.buffer, pos, Math.min( piece_length, b.length - pos )));
+				}
+				
+				b.hashes = hashes;
+				
+				if ( listener != null ){
+					
+					synchronized( this ){
+						
+						pieces_hashed += num;
+						
+						listener.pieceHashed( pieces_hashed );
+					}
+				}
+			}
+		}catch( Throwable e ){
+			
+			synchronized( this ){
+				
+				hash_error = e;
+			}
+		}finally{
+			
+			free_buffers.offer( b.buffer );
+			
+			b.done.release();
+		}
 	}
 	
 	protected byte[][]
@@ -190,40 +323,55 @@ TOTorrentFileHasher
 		
 		throws TOTorrentException
 	{
+		if ( pieces != null ){
+			
+			return( pieces );
+		}
+		
 		try{
 			if ( buffer_pos > 0 ){
 								
-				byte[] rem = new byte[buffer_pos];
-				
-				System.arraycopy( buffer, 0, rem, 0, buffer_pos );
-				
-				pieces.addElement(new SHA1Hasher().calculateHash(rem));
+				submitBatch();
+			}
+			
+			List<byte[]>	res = new ArrayList<byte[]>();
+			
+			for ( batch b: batches ){
 				
-				if ( overall_sha1_hash != null ){
+				while( !b.done.reserve( 250 )){
 					
-					overall_sha1_hash.update( rem );
-					overall_ed2k_hash.update( rem );
+					checkCancelled();
 				}
 				
-				if ( listener != null ){
-							
-					listener.pieceHashed( pieces.size() );
+				if ( b.hashes == null ){
+					
+					checkCancelled();
+					
+					synchronized( this ){
+					
+						throw( new TOTorrentException( 	"TOTorrentFileHasher: hash fails '" + hash_error + "'",
+														TOTorrentException.RT_HASH_FAILS ));
+					}
 				}
 				
-				buffer_pos = 0;
+				res.addAll( Arrays.asList( b.hashes ));
 			}
 		
+			batches.clear();
+			
 			if ( overall_sha1_hash != null && sha1_digest == null ){
 				
 				sha1_digest	= overall_sha1_hash.getDigest();
 				ed2k_digest	= overall_ed2k_hash.getDigest();
 			}
 			
-			byte[][] res = new byte[pieces.size()][];
-		
-			pieces.copyInto( res );
-		
-			return( res );
+			pieces = res.toArray( new byte[res.size()][] );
+			
+			return( pieces );
+			
+		}catch( TOTorrentException e ){
+			
+			throw( e );
 			
 		}catch( Throwable e ){
 			
@@ -232,6 +380,18 @@ TOTorrentFileHasher
 		}
 	}
 	
+	protected byte[]
+	getPerFileSHA1Digest()
+	{
+		return( per_file_sha1_digest );
+	}
+	
+	protected byte[]
+	getPerFileED2KDigest()
+	{
+		return( per_file_ed2k_digest );
+	}
+	
 	protected byte[]
 	getED2KDigest()
 	
@@ -258,9 +418,52 @@ TOTorrentFileHasher
 		return( sha1_digest );
 	}
 	
+		/**
+		 * @return bytes read per second since the first file was added
+		 */
+	
+	protected long
+	getReadRate()
+	{
+		if ( start_time == -1 ){
+			
+			return( 0 );
+		}
+		
+		long	elapsed = SystemTime.getMonotonousTime() - start_time;
+		
+		return( elapsed<=0?0:( bytes_read*1000/elapsed ));
+	}
+	
+	protected long
+	getBytesRead()
+	{
+		return( bytes_read );
+	}
+	
 	protected void
 	cancel()
 	{
 		cancelled	= true;
 	}
+	
+	protected static class
+	batch
+	{
+		final byte[]		buffer;
+		final int			length;
+		
+		final AESemaphore	done = new AESemaphore( "TOTorrentFileHasher:batch" );
+		
+		volatile byte[][]	hashes;
+		
+		protected
+		batch(
+			byte[]		_buffer,
+			int			_length )
+		{
+			buffer	= _buffer;
+			length	= _length;
+		}
+	}
 }
@@ -0,0 +1,255 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package org.gudy.azureus2.core3.torrent.impl.test;
+
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+import org.gudy.azureus2.core3.torrent.*;
+import org.gudy.azureus2.core3.util.FileUtil;
+import org.gudy.azureus2.core3.util.SHA1Hasher;
+
+/**
+ * Creates a torrent over a directory of random files with uneven sizes (so pieces span
+ * file boundaries) and checks the piece hashes and per-file sha1s against a plain
+ * sequential read of the same files, reporting the time taken by each.
+ * <p>
+ * usage: TOTorrentCreateTester [files] [total MB] [piece KB] [other hashes]
+ * <p>
+ * With other hashes true the creator also produces the overall and per-file sha1/ed2k,
+ * ed2k needs an MD4 provider to be registered.
+ * <p>
+ * The hash thread count comes from -Daz.create.torrent.hash.threads, default is the
+ * number of processors.
+ */
+
+public class
+TOTorrentCreateTester
+{
+	public static void
+	main(
+		String[]	args )
+	{
+		int		num_files	= args.length > 0?Integer.parseInt( args[0] ):50;
+		int		total_mb	= args.length > 1?Integer.parseInt( args[1] ):256;
+		int		piece_kb	= args.length > 2?Integer.parseInt( args[2] ):256;
+		boolean	add_hashes	= args.length > 3?Boolean.parseBoolean( args[3] ):false;
+		
+		File	dir = null;
+		
+		try{
+			COConfigurationManager.initialiseFromMap( new HashMap());
+			
+			dir = File.createTempFile( "tocreate", "" );
+			
+			dir.delete();
+			dir.mkdirs();
+			
+			File	base = new File( dir, "data" );
+			
+			List<File>	files = createFiles( base, num_files, total_mb*1024L*1024 );
+			
+			int	piece_length = piece_kb*1024;
+			
+			long	start = System.currentTimeMillis();
+			
+			List<byte[]>	file_hashes = new ArrayList<byte[]>();
+			
+			List<byte[]>	ref_pieces = hashSequential( files, piece_length, file_hashes );
+			
+			long	ref_time = System.currentTimeMillis() - start;
+			
+			TOTorrentCreator	creator = 
+				TOTorrentFactory.createFromFileOrDirWithFixedPieceLength( base, new URL( "http://tracker.example.com/announce" ), add_hashes, piece_length );
+			
+			creator.addListener(
+				new TOTorrentProgressListener()
+				{
+					public void
+					reportProgress(
+						int		percent_complete )
+					{
+					}
+					
+					public void
+					reportCurrentTask(
+						String	task_description )
+					{
+						System.out.println( "    " + task_description );
+					}
+				});
+			
+			start = System.currentTimeMillis();
+			
+			TOTorrent	torrent = creator.create();
+			
+			long	create_time = System.currentTimeMillis() - start;
+			
+			byte[][]	pieces = torrent.getPieces();
+			
+			boolean	ok = pieces.length == ref_pieces.size();
+			
+			for (int i=0;ok && i<pieces.length;i++){
+				
+				ok = Arrays.equals( pieces[i], ref_pieces.get(i));
+			}
+			
+			TOTorrentFile[]	tfs = torrent.getFiles();
+			
+			boolean	files_ok = tfs.length == file_hashes.size();
+			
+			for (int i=0;add_hashes && files_ok && i<tfs.length;i++){
+				
+				files_ok = Arrays.equals((byte[])tfs[i].getAdditionalProperties().get( "sha1" ), file_hashes.get(i));
+			}
+			
+			long	mb = total_mb;
+			
+			System.out.println( "sequential: " + ref_time + "ms (" + ( mb*1000/Math.max( 1, ref_time )) + " MB/s)" );
+			System.out.println( "create:     " + create_time + "ms (" + ( mb*1000/Math.max( 1, create_time )) + " MB/s" + ( add_hashes?", with other hashes":"" ) + ")" );
+			System.out.println( pieces.length + " pieces " + ( ok?"match":"MISMATCH" ) + ", " + tfs.length + " files" + ( add_hashes?( files_ok?", file hashes match":", file hash MISMATCH" ):"" ));
+			
+		}catch( Throwable e ){
+			
+			e.printStackTrace();
+			
+		}finally{
+			
+			if ( dir != null ){
+				
+				FileUtil.recursiveDeleteNoCheck( dir );
+			}
+		}
+		
+		System.exit( 0 );
+	}
+	
+	private static List<File>
+	createFiles(
+		File		base,
+		int			num_files,
+		long		total )
+	
+		throws IOException
+	{
+		base.mkdirs();
+		
+		Random	random = new Random( 17 );
+		
+		byte[]	block = new byte[64*1024];
+		
+		List<File>	files = new ArrayList<File>();
+		
+		long	left = total;
+		
+		for (int i=0;i<num_files;i++){
+			
+			long	len = i==num_files-1?left:Math.min( left, (long)( random.nextDouble()*2*total/num_files ));
+			
+			left -= len;
+			
+				// names sort the same way the creator orders them
+			
+			File	file = new File( base, "file" + ( 1000 + i ) + ".dat" );
+			
+			OutputStream	os = new BufferedOutputStream( new FileOutputStream( file ));
+			
+			try{
+				while( len > 0 ){
+					
+					random.nextBytes( block );
+					
+					int	chunk = (int)Math.min( block.length, len );
+					
+					os.write( block, 0, chunk );
+					
+					len -= chunk;
+				}
+			}finally{
+				
+				os.close();
+			}
+			
+			files.add( file );
+		}
+		
+		return( files );
+	}
+	
+	private static List<byte[]>
+	hashSequential(
+		List<File>		files,
+		int				piece_length,
+		List<byte[]>	file_hashes )
+	
+		throws IOException
+	{
+		List<byte[]>	pieces = new ArrayList<byte[]>();
+		
+		byte[]	buffer	= new byte[piece_length];
+		int		pos		= 0;
+		
+		for ( File file: files ){
+			
+			SHA1Hasher	file_hash = new SHA1Hasher();
+			
+			InputStream	is = new BufferedInputStream( new FileInputStream( file ), 65536 );
+			
+			try{
+				while( true ){
+					
+					int	len = is.read( buffer, pos, piece_length - pos );
+					
+					if ( len <= 0 ){
+						
+						break;
+					}
+					
+					file_hash.update( buffer, pos, len );
+					
+					pos += len;
+					
+					if ( pos == piece_length ){
+						
+						pieces.add( new SHA1Hasher().calculateHash( buffer ));
+						
+						pos = 0;
+					}
+				}
+			}finally{
+				
+				is.close();
+			}
+			
+			file_hashes.add( file_hash.getDigest());
+		}
+		
+		if ( pos > 0 ){
+			
+			byte[]	rem = new byte[pos];
+			
+			System.arraycopy( buffer, 0, rem, 0, pos );
+			
+			pieces.add( new SHA1Hasher().calculateHash( rem ));
+		}
+		
+		return( pieces );
+	}
+}
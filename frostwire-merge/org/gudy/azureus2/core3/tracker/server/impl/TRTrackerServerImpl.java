@@ -28,6 +28,7 @@ package org.gudy.azureus2.core3.tracker.server.impl;
 
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.net.InetSocketAddress;
 import java.net.URL;
 import java.net.URLDecoder;
@@ -66,9 +67,10 @@ TRTrackerServerImpl
 	
 	public static String	redirect_on_not_found		= "";
 	
-		// torrent map is static across all protocol servers
+		// torrent map is static across all protocol servers. Updates are made under class_mon,
+		// announce/scrape lookups go straight to the map
 	
-	private static Map		torrent_map = new HashMap(); 
+	private static Map<HashWrapper,TRTrackerServerTorrentImpl>	torrent_map = new ConcurrentHashMap<HashWrapper,TRTrackerServerTorrentImpl>(); 
 	
 	private static Map		link_map	= new HashMap();
 	
@@ -811,17 +813,7 @@ TRTrackerServerImpl
 		
 			// don't invoke listeners when synched, deadlock possible
 		
-		TRTrackerServerTorrentImpl	entry;
-		
-		try{
-			class_mon.enter();
-			
-			entry = (TRTrackerServerTorrentImpl)torrent_map.get( hash );
-			
-		}finally{
-			
-			class_mon.exit();
-		}
+		TRTrackerServerTorrentImpl	entry = torrent_map.get( hash );
 		
 		if ( entry == null ){
 			
@@ -900,15 +892,7 @@ TRTrackerServerImpl
 	getTorrent(
 		byte[]		hash )
 	{
-		try{
-			class_mon.enter();
-		
-			return((TRTrackerServerTorrentImpl)torrent_map.get(new HashWrapper(hash)));
-			
-		}finally{
-			
-			class_mon.exit();
-		}
+		return( torrent_map.get( new HashWrapper( hash )));
 	}
 	
 	public TRTrackerServerTorrentImpl
@@ -932,11 +916,9 @@ TRTrackerServerImpl
 		try{
 			class_mon.enter();
 		
-			TRTrackerServerTorrentImpl[]	res = new TRTrackerServerTorrentImpl[torrent_map.size()];
-			
-			torrent_map.values().toArray( res );
+				// other protocol servers update the map under their own monitor so the size can move
 			
-			return( res );	
+			return( torrent_map.values().toArray( new TRTrackerServerTorrentImpl[0] ));	
 		}finally{
 			
 			class_mon.exit();
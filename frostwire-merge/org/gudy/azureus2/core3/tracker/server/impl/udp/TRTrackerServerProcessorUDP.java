@@ -55,12 +55,23 @@ TRTrackerServerProcessorUDP
 	private DatagramSocket			socket;
 	private DatagramPacket			request_dg;
 	
-	private static Map<Long,connectionData>				connection_id_map 	= new LinkedHashMap<Long,connectionData>();
-	private static Map<String,List<connectionData>>		connection_ip_map 	= new HashMap<String,List<connectionData>>();
-	private static long									last_timeout_check;
+		// connection ids are spread over shards by client address, the low bits of an id
+		// name its shard so a check only ever locks the one shard
+	
+	private static final int	CONNECTION_SHARD_BITS	= 4;
+	private static final int	CONNECTION_SHARDS		= 1 << CONNECTION_SHARD_BITS;
+	private static final long	CONNECTION_SHARD_MASK	= CONNECTION_SHARDS - 1;
+	
+	private static connectionShard[]	connection_shards	= new connectionShard[CONNECTION_SHARDS];
+	
+	static{
+		for (int i=0;i<CONNECTION_SHARDS;i++){
+			
+			connection_shards[i] = new connectionShard( i );
+		}
+	}
 	
 	private static SecureRandom		random				= RandomUtils.SECURE_RANDOM;
-	private static AEMonitor		random_mon 			= new AEMonitor( "TRTrackerServerUDP:rand" );
 
 	static{
 	  	PRUDPTrackerCodecs.registerCodecs();
@@ -77,12 +88,23 @@ TRTrackerServerProcessorUDP
 		request_dg		= _packet;
 	}
 	
+	protected InetAddress
+	getClientAddress()
+	{
+		return( request_dg.getAddress());
+	}
+	
 	public void
 	runSupport()
 	{				
-		byte[]	input_buffer = new byte[request_dg.getLength()];
+		byte[]	input_buffer = request_dg.getData();
 		
-		System.arraycopy( request_dg.getData(), 0, input_buffer, 0, input_buffer.length );
+		if ( request_dg.getOffset() != 0 || request_dg.getLength() != input_buffer.length ){
+			
+			input_buffer = new byte[request_dg.getLength()];
+		
+			System.arraycopy( request_dg.getData(), request_dg.getOffset(), input_buffer, 0, input_buffer.length );
+		}
 		
 		int	packet_data_length = input_buffer.length;
 		
@@ -313,93 +335,20 @@ TRTrackerServerProcessorUDP
 	allocateConnectionId(
 		String	client_address )
 	{
-		try{
-			random_mon.enter();
-	
-			long	id = random.nextLong();
-			
-			Long	new_key = new Long(id);
-			
-			connectionData	new_data = new connectionData( client_address, id );
-			
-				// check for timeouts
-			
-			if ( new_data.getTime() - last_timeout_check > 500 ){
-				
-				last_timeout_check = new_data.getTime();
-				
-				Iterator<Long>	it = connection_id_map.keySet().iterator();
-							
-				while(it.hasNext()){
-					
-					Long	key = it.next();
-					
-					connectionData	data = connection_id_map.get(key);
-				
-					if ( new_data.getTime() - data.getTime() > CONNECTION_ID_LIFETIME ){
-						
-						// System.out.println( "TRTrackerServerProcessorUDP: connection id timeout" );
-						
-						it.remove();
-						
-						List<connectionData> cds = connection_ip_map.get( client_address );
-
-						if ( cds != null ){
-							
-							Iterator<connectionData> it2 = cds.iterator();
-								
-							while( it2.hasNext()){
-								
-								if ( it2.next().getID() == key ){
-									
-									it2.remove();
-									
-									break;
-								}
-							}
-							
-							if ( cds.size() == 0 ){
-								
-								connection_ip_map.remove( client_address );
-							}
-						}
-						
-					}else{
-							// insertion order into map is time based - LinkedHashMap returns keys in same order
-						
-						break;
-					}
-				}
-			}
-				
-			List<connectionData> cds = connection_ip_map.get( client_address );
-			
-			if ( cds == null ){
-			
-				cds = new ArrayList<connectionData>();
-				
-				connection_ip_map.put( client_address, cds );
-			}
-			
-			cds.add( new_data );
-			
-			if ( cds.size() > 512 ){
-				
-				connectionData dead = cds.remove(0);
-				
-				connection_id_map.remove( dead.getID());
-			}
-			
-			connection_id_map.put( new_key, new_data );
-			
-			// System.out.println( "TRTrackerServerProcessorUDP: allocated:" + id + ", connection id map size = " + connection_id_map.size());
-			
-			return( id );
-			
-		}finally{
+		long	id;
+		
+		synchronized( random ){
 			
-			random_mon.exit();
+			id = random.nextLong();
 		}
+		
+		connectionShard	shard = connection_shards[( client_address.hashCode() & 0x7fffffff ) % CONNECTION_SHARDS];
+		
+		id = ( id & ~CONNECTION_SHARD_MASK ) | shard.getIndex();
+		
+		shard.add( client_address, id );
+		
+		return( id );
 	}
 	
 	protected boolean
@@ -407,37 +356,7 @@ TRTrackerServerProcessorUDP
 		String	client_address,
 		long	id )
 	{
-		try{
-			random_mon.enter();
-			
-			Long	key = new Long(id);
-			
-			connectionData data = (connectionData)connection_id_map.get( key );
-			
-			if ( data == null ){
-				
-				// System.out.println( "TRTrackerServerProcessorUDP: rejected:" + id + ", data not found" );
-				
-				return( false );
-				
-			}else{
-				
-				if ( SystemTime.getMonotonousTime() - data.getTime() > CONNECTION_ID_LIFETIME ){
-					
-					return( false );
-				}
-			}
-			
-			boolean	ok = data.getAddress().equals( client_address );
-			
-			// System.out.println( "TRTrackerServerProcessorUDP: tested:" + id + "/" + client_address + " -> " + ok );
-			
-			return( ok );
-			
-		}finally{
-			
-			random_mon.exit();
-		}
+		return( connection_shards[(int)( id & CONNECTION_SHARD_MASK )].check( client_address, id ));
 	}
 	
 	protected PRUDPPacket
@@ -581,12 +500,17 @@ TRTrackerServerProcessorUDP
 		Map[]						root_out = new Map[1];
 		TRTrackerServerPeerImpl[]	peer_out = new TRTrackerServerPeerImpl[1];
 		
+			// the reply carries compact ipv4 peers anyway, so when enabled ask for them in that form
+			// and save building a map per peer (compact replies also get cached for big swarms)
+		
+		byte	compact_mode = server.isCompactEnabled()?TRTrackerServerTorrentImpl.COMPACT_MODE_NORMAL:TRTrackerServerTorrentImpl.COMPACT_MODE_NONE;
+		
 		TRTrackerServerTorrentImpl torrent =
 			processTrackerRequest( 
 				server, "", root_out, peer_out, 
 				request_type,
 				(byte[][])hashbytes.toArray(new byte[0][0]), null, null,
-				peer_id, false, TRTrackerServerTorrentImpl.COMPACT_MODE_NONE, key, // currently no "no_peer_id" / "compact" in the packet and anyway they aren't returned / key
+				peer_id, false, compact_mode, key,
 				event, false,
 				port,
 				0, 0,
@@ -607,19 +531,10 @@ TRTrackerServerProcessorUDP
 				
 				reply.setInterval(((Long)root.get("interval")).intValue());
 				
-				List	peers = (List)root.get("peers");
-				
-				int[]	addresses 	= new int[peers.size()];
-				short[]	ports		= new short[addresses.length];
+				Object	peers = root.get("peers");
 				
-				for (int i=0;i<addresses.length;i++){
-					
-					Map	peer = (Map)peers.get(i);
-					
-					addresses[i] 	= PRHelpers.addressToInt(new String((byte[])peer.get("ip")));
-					
-					ports[i]		= (short)((Long)peer.get("port")).shortValue();
-				}
+				int[]	addresses 	= getPeerAddresses( peers );
+				short[]	ports		= getPeerPorts( peers );
 				
 				reply.setPeers( addresses, ports );
 				
@@ -640,19 +555,10 @@ TRTrackerServerProcessorUDP
 
 				reply.setLeechersSeeders(leechers,seeders);
 				
-				List	peers = (List)root.get("peers");
+				Object	peers = root.get("peers");
 				
-				int[]	addresses 	= new int[peers.size()];
-				short[]	ports		= new short[addresses.length];
-				
-				for (int i=0;i<addresses.length;i++){
-					
-					Map	peer = (Map)peers.get(i);
-					
-					addresses[i] 	= PRHelpers.addressToInt(new String((byte[])peer.get("ip")));
-					
-					ports[i]		= (short)((Long)peer.get("port")).shortValue();
-				}
+				int[]	addresses 	= getPeerAddresses( peers );
+				short[]	ports		= getPeerPorts( peers );
 				
 				reply.setPeers( addresses, ports );
 				
@@ -747,6 +653,234 @@ TRTrackerServerProcessorUDP
 		}
 	}
 	
+		// "peers" is either the compact form, 4 byte address + 2 byte port per peer, or a list
+		// of peer maps when compact replies are disabled. ipv6 peers (in "peers6") can't be
+		// returned over this protocol
+	
+	protected static int[]
+	getPeerAddresses(
+		Object		peers )
+	
+		throws UnknownHostException
+	{
+		if ( peers instanceof List ){
+			
+			List	list = (List)peers;
+			
+			int[]	addresses = new int[list.size()];
+			
+			for (int i=0;i<addresses.length;i++){
+				
+				Map	peer = (Map)list.get(i);
+				
+				addresses[i] = PRHelpers.addressToInt(new String((byte[])peer.get("ip")));
+			}
+			
+			return( addresses );
+		}
+		
+		byte[]	compact = (byte[])peers;
+		
+		int[]	addresses = new int[compact==null?0:compact.length/6];
+		
+		for (int i=0;i<addresses.length;i++){
+			
+			int	pos = i*6;
+			
+			addresses[i] = 	(( compact[pos]   & 0xff ) << 24 ) |
+							(( compact[pos+1] & 0xff ) << 16 ) |
+							(( compact[pos+2] & 0xff ) << 8 ) |
+							( compact[pos+3] & 0xff );
+		}
+		
+		return( addresses );
+	}
+	
+	protected static short[]
+	getPeerPorts(
+		Object		peers )
+	{
+		if ( peers instanceof List ){
+			
+			List	list = (List)peers;
+			
+			short[]	ports = new short[list.size()];
+			
+			for (int i=0;i<ports.length;i++){
+				
+				Map	peer = (Map)list.get(i);
+				
+				ports[i] = (short)((Long)peer.get("port")).shortValue();
+			}
+			
+			return( ports );
+		}
+		
+		byte[]	compact = (byte[])peers;
+		
+		short[]	ports = new short[compact==null?0:compact.length/6];
+		
+		for (int i=0;i<ports.length;i++){
+			
+			int	pos = i*6 + 4;
+			
+			ports[i] = (short)((( compact[pos] & 0xff ) << 8 ) | ( compact[pos+1] & 0xff ));
+		}
+		
+		return( ports );
+	}
+	
+	private static class
+	connectionShard
+	{
+		private final int		index;
+		
+		private final Map<Long,connectionData>				connection_id_map 	= new LinkedHashMap<Long,connectionData>();
+		private final Map<String,List<connectionData>>		connection_ip_map 	= new HashMap<String,List<connectionData>>();
+		private long										last_timeout_check;
+		
+		private final AEMonitor	this_mon = new AEMonitor( "TRTrackerServerUDP:conn" );
+		
+		private
+		connectionShard(
+			int		_index )
+		{
+			index	= _index;
+		}
+		
+		private int
+		getIndex()
+		{
+			return( index );
+		}
+		
+		private void
+		add(
+			String	client_address,
+			long	id )
+		{
+			try{
+				this_mon.enter();
+		
+				Long	new_key = new Long(id);
+				
+				connectionData	new_data = new connectionData( client_address, id );
+				
+					// check for timeouts
+				
+				if ( new_data.getTime() - last_timeout_check > 500 ){
+					
+					last_timeout_check = new_data.getTime();
+					
+					Iterator<Long>	it = connection_id_map.keySet().iterator();
+								
+					while(it.hasNext()){
+						
+						Long	key = it.next();
+						
+						connectionData	data = connection_id_map.get(key);
+					
+						if ( new_data.getTime() - data.getTime() > CONNECTION_ID_LIFETIME ){
+							
+							// System.out.println( "TRTrackerServerProcessorUDP: connection id timeout" );
+							
+							it.remove();
+							
+							List<connectionData> cds = connection_ip_map.get( data.getAddress());
+	
+							if ( cds != null ){
+								
+								Iterator<connectionData> it2 = cds.iterator();
+									
+								while( it2.hasNext()){
+									
+									if ( it2.next().getID() == key ){
+										
+										it2.remove();
+										
+										break;
+									}
+								}
+								
+								if ( cds.size() == 0 ){
+									
+									connection_ip_map.remove( data.getAddress());
+								}
+							}
+							
+						}else{
+								// insertion order into map is time based - LinkedHashMap returns keys in same order
+							
+							break;
+						}
+					}
+				}
+					
+				List<connectionData> cds = connection_ip_map.get( client_address );
+				
+				if ( cds == null ){
+				
+					cds = new ArrayList<connectionData>();
+					
+					connection_ip_map.put( client_address, cds );
+				}
+				
+				cds.add( new_data );
+				
+				if ( cds.size() > 512 ){
+					
+					connectionData dead = cds.remove(0);
+					
+					connection_id_map.remove( dead.getID());
+				}
+				
+				connection_id_map.put( new_key, new_data );
+				
+				// System.out.println( "TRTrackerServerProcessorUDP: allocated:" + id + ", connection id map size = " + connection_id_map.size());
+				
+			}finally{
+				
+				this_mon.exit();
+			}
+		}
+		
+		private boolean
+		check(
+			String	client_address,
+			long	id )
+		{
+			try{
+				this_mon.enter();
+				
+				connectionData data = connection_id_map.get( new Long(id));
+				
+				if ( data == null ){
+					
+					// System.out.println( "TRTrackerServerProcessorUDP: rejected:" + id + ", data not found" );
+					
+					return( false );
+					
+				}else{
+					
+					if ( SystemTime.getMonotonousTime() - data.getTime() > CONNECTION_ID_LIFETIME ){
+						
+						return( false );
+					}
+				}
+				
+				boolean	ok = data.getAddress().equals( client_address );
+				
+				// System.out.println( "TRTrackerServerProcessorUDP: tested:" + id + "/" + client_address + " -> " + ok );
+				
+				return( ok );
+				
+			}finally{
+				
+				this_mon.exit();
+			}
+		}
+	}
+	
 	protected static class
 	connectionData
 	{
@@ -27,6 +27,9 @@ package org.gudy.azureus2.core3.tracker.server.impl.udp;
  */
 
 import java.net.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.gudy.azureus2.core3.util.*;
 import org.gudy.azureus2.core3.config.*;
@@ -44,9 +47,19 @@ TRTrackerServerUDP
 	private static final LogIDs LOGID = LogIDs.TRACKER;
 	
 	private static final int THREAD_POOL_SIZE				= 10;
+	
+	private static final int WORKER_QUEUE_SIZE				= 1024;
 
 	private ThreadPool	thread_pool;
 	
+		// when "Tracker UDP Worker Threads" is non-zero requests are handed to a fixed set of
+		// workers, picked by client address so a client's connect and announce stay in order,
+		// instead of the thread pool. Each worker is a plain queue run one request at a time,
+		// a worker with a full queue drops the request and the client will retry
+	
+	private workerQueue[]	workers;
+	private long			dropped_requests;
+	
 	private int				port;
 	private InetAddress		current_bind_ip;
 	
@@ -64,7 +77,20 @@ TRTrackerServerUDP
 		
 		port		= _port;
 		
-		thread_pool = new ThreadPool( "TrackerServer:UDP:"+port, THREAD_POOL_SIZE );
+		int	num_workers = COConfigurationManager.getIntParameter( "Tracker UDP Worker Threads" );
+		
+		if ( num_workers > 0 ){
+			
+			workers = new workerQueue[num_workers];
+			
+			for (int i=0;i<num_workers;i++){
+				
+				workers[i] = new workerQueue( i );
+			}
+		}else{
+		
+			thread_pool = new ThreadPool( "TrackerServer:UDP:"+port, THREAD_POOL_SIZE );
+		}
 		
 		try{
 			InetAddress bind_ip = NetworkAdmin.getSingleton().getSingleHomedServiceBindAddress();
@@ -132,24 +158,57 @@ TRTrackerServerUDP
 		long	successful_accepts 	= 0;
 		long	failed_accepts		= 0;
 		
+			// the receive buffer is reused, each request gets an exact sized copy which the
+			// processor then decodes in place
+		
+		byte[] buf = new byte[PRUDPPacket.MAX_PACKET_SIZE];
+		
+		DatagramPacket recv_packet = new DatagramPacket( buf, buf.length );
+
 		while( !closed ){
 			
 			try{				
-				byte[] buf = new byte[PRUDPPacket.MAX_PACKET_SIZE];
-								
-				DatagramPacket packet = new DatagramPacket( buf, buf.length, address );
+				recv_packet.setData( buf );
 				
-				socket.receive( packet );
+				socket.receive( recv_packet );
 				
 				successful_accepts++;
 				
 				failed_accepts	= 0;
 				
-				String	ip = packet.getAddress().getHostAddress();
+				InetAddress	client_address = recv_packet.getAddress();
+				
+				String	ip = client_address.getHostAddress();
 								
 				if ( !ip_filter.isInRange( ip, "Tracker", null )){
-										
-					thread_pool.run( new TRTrackerServerProcessorUDP( this, socket, packet ));
+					
+					byte[]	data = new byte[recv_packet.getLength()];
+					
+					System.arraycopy( buf, recv_packet.getOffset(), data, 0, data.length );
+					
+					DatagramPacket packet = new DatagramPacket( data, data.length, client_address, recv_packet.getPort());
+					
+					TRTrackerServerProcessorUDP	processor = new TRTrackerServerProcessorUDP( this, socket, packet );
+					
+					if ( workers == null ){
+						
+						thread_pool.run( processor );
+						
+					}else{
+						
+						workerQueue	worker = workers[( client_address.hashCode() & 0x7fffffff ) % workers.length];
+						
+						if ( !worker.queue( processor )){
+							
+							dropped_requests++;
+							
+							if ( dropped_requests % 1000 == 1 ){
+								
+								Logger.log(new LogEvent(LOGID, LogEvent.LT_WARNING,
+										"TRTrackerServerUDP: worker queue full on port " + port + ", " + dropped_requests + " requests dropped" )); 
+							}
+						}
+					}
 				}					
 				
 			}catch( Throwable e ){
@@ -183,6 +242,12 @@ TRTrackerServerUDP
 		return( port );
 	}
 	
+	public long
+	getDroppedRequests()
+	{
+		return( dropped_requests );
+	}
+	
 	public String
 	getHost()
 	{
@@ -219,6 +284,73 @@ TRTrackerServerUDP
 			
 		}
 		
+		if ( workers != null ){
+			
+			for (int i=0;i<workers.length;i++){
+				
+				workers[i].destroy();
+			}
+		}
+		
 		destroySupport();
 	}
+	
+	protected class
+	workerQueue
+	{
+		private ArrayBlockingQueue<TRTrackerServerProcessorUDP>	queue = new ArrayBlockingQueue<TRTrackerServerProcessorUDP>( WORKER_QUEUE_SIZE );
+		
+		protected
+		workerQueue(
+			int		index )
+		{
+			AEThread2	thread = 
+				new AEThread2( "TRTrackerServerUDP:worker:" + port + ":" + index, true )
+				{
+					public void
+					run()
+					{
+						process();
+					}
+				};
+				
+			thread.start();
+		}
+		
+		protected boolean
+		queue(
+			TRTrackerServerProcessorUDP		processor )
+		{
+			return( queue.offer( processor ));
+		}
+		
+		protected void
+		process()
+		{
+			while( !closed ){
+				
+				try{
+						// timed so the worker notices the server closing
+					
+					TRTrackerServerProcessorUDP	processor = queue.poll( 1, TimeUnit.SECONDS );
+					
+					if ( processor != null ){
+					
+						processor.run();
+					}
+				}catch( InterruptedException e ){
+					
+				}catch( Throwable e ){
+					
+					Debug.printStackTrace( e );
+				}
+			}
+		}
+		
+		protected void
+		destroy()
+		{
+			queue.clear();
+		}
+	}
 }
@@ -0,0 +1,346 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package org.gudy.azureus2.core3.tracker.server.impl.udp.test;
+
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+import org.gudy.azureus2.core3.tracker.server.TRTrackerServer;
+import org.gudy.azureus2.core3.tracker.server.TRTrackerServerFactory;
+
+/**
+ * Loopback load generator for the UDP tracker. Starts a tracker on a free port, permits a
+ * set of torrents and runs client threads that speak plain BEP 15 (connect then repeated
+ * announces), each from its own 127.0.0.x address so requests spread over the workers.
+ * Every announce has to come back as an announce reply for the right transaction.
+ * <p>
+ * usage: TRTrackerServerUDPLoadTester [clients] [torrents] [seconds] [worker threads...]
+ * <p>
+ * A worker thread count of 0 is the thread pool mode. Reports announces/sec, p50/p99
+ * latency and lost requests for each mode.
+ */
+
+public class
+TRTrackerServerUDPLoadTester
+{
+	private static final long	PROTOCOL_ID	= 0x41727101980L;
+
+	public static void
+	main(
+		String[]	args )
+	{
+		int		clients		= args.length > 0?Integer.parseInt( args[0] ):32;
+		int		torrents	= args.length > 1?Integer.parseInt( args[1] ):100;
+		int		seconds		= args.length > 2?Integer.parseInt( args[2] ):5;
+
+		int[]	modes;
+
+		if ( args.length > 3 ){
+
+			modes = new int[args.length-3];
+
+			for (int i=0;i<modes.length;i++){
+
+				modes[i] = Integer.parseInt( args[i+3] );
+			}
+		}else{
+
+			modes = new int[]{ 0, 4 };
+		}
+
+		try{
+			COConfigurationManager.initialiseFromMap( new HashMap());
+
+			byte[][]	hashes = new byte[torrents][20];
+
+			Random	random = new Random( 17 );
+
+			for (int i=0;i<torrents;i++){
+
+				random.nextBytes( hashes[i] );
+			}
+
+			for (int i=0;i<modes.length;i++){
+
+				run( modes[i], clients, hashes, seconds );
+			}
+		}catch( Throwable e ){
+
+			e.printStackTrace();
+		}
+
+		System.exit( 0 );
+	}
+
+	private static void
+	run(
+		int				workers,
+		int				clients,
+		final byte[][]	hashes,
+		int				seconds )
+
+		throws Exception
+	{
+		COConfigurationManager.setParameter( "Tracker UDP Worker Threads", workers );
+
+		DatagramSocket	probe = new DatagramSocket( 0 );
+
+		final int	port = probe.getLocalPort();
+
+		probe.close();
+
+		TRTrackerServer	server = TRTrackerServerFactory.create( "loadtest", TRTrackerServerFactory.PR_UDP, port, false, false, true );
+
+		for (int i=0;i<hashes.length;i++){
+
+			server.permit( "loadtest", hashes[i], true );
+		}
+
+		final long		end 		= System.currentTimeMillis() + seconds*1000L;
+		final long[]	lost		= { 0 };
+		final String[]	error		= { null };
+
+		final List<long[]>	latencies = new ArrayList<long[]>();
+
+		Thread[]	threads = new Thread[clients];
+
+		for (int i=0;i<clients;i++){
+
+			final int	index = i;
+
+			threads[i] =
+				new Thread( "TRTrackerServerUDPLoadTester:" + i )
+				{
+					public void
+					run()
+					{
+						try{
+							long[]	times = client( index, port, hashes, end, lost );
+
+							synchronized( latencies ){
+
+								latencies.add( times );
+							}
+						}catch( Throwable e ){
+
+							error[0] = e.toString();
+						}
+					}
+				};
+
+			threads[i].start();
+		}
+
+		for (int i=0;i<clients;i++){
+
+			threads[i].join();
+		}
+
+		server.close();
+
+		int	total = 0;
+
+		for (int i=0;i<latencies.size();i++){
+
+			total += latencies.get(i).length;
+		}
+
+		long[]	all = new long[total];
+
+		int	pos = 0;
+
+		for (int i=0;i<latencies.size();i++){
+
+			long[]	l = latencies.get(i);
+
+			System.arraycopy( l, 0, all, pos, l.length );
+
+			pos += l.length;
+		}
+
+		Arrays.sort( all );
+
+		System.out.println(
+			( workers==0?"thread pool     ":( workers + " worker threads" )) + ": " + ( total/seconds ) + " announces/sec, p50 " +
+			( total==0?0:all[total/2]/1000 ) + "us, p99 " + ( total==0?0:all[(int)( total*0.99 )]/1000 ) + "us, " + lost[0] + " lost" +
+			( error[0]==null?"":( ", FAILED: " + error[0] )));
+	}
+
+	private static long[]
+	client(
+		int				index,
+		int				port,
+		byte[][]		hashes,
+		long			end,
+		long[]			lost )
+
+		throws Exception
+	{
+		InetAddress	local = InetAddress.getByAddress( new byte[]{ 127, 0, (byte)( index/250 ), (byte)( 1 + index%250 )});
+
+		DatagramSocket	socket = new DatagramSocket( new InetSocketAddress( local, 0 ));
+
+		socket.setSoTimeout( 1000 );
+
+		InetSocketAddress	target = new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), port );
+
+		Random	random = new Random( index );
+
+		byte[]	peer_id = new byte[20];
+
+		random.nextBytes( peer_id );
+
+		ByteBuffer	request	= ByteBuffer.allocate( 98 );
+		byte[]		reply	= new byte[2048];
+
+		DatagramPacket	reply_packet = new DatagramPacket( reply, reply.length );
+
+		long[]	times 	= new long[1024];
+		int		count	= 0;
+
+		long	connection_id	= -1;
+		int		txn				= index << 20;
+
+		while( System.currentTimeMillis() < end ){
+
+			if ( connection_id == -1 ){
+
+				request.clear();
+				request.putLong( PROTOCOL_ID );
+				request.putInt( 0 );
+				request.putInt( ++txn );
+
+				socket.send( new DatagramPacket( request.array(), 16, target ));
+
+				if ( !receive( socket, reply_packet, txn, 0 )){
+
+					synchronized( lost ){
+
+						lost[0]++;
+					}
+
+					continue;
+				}
+
+				connection_id = ByteBuffer.wrap( reply ).getLong( 8 );
+			}
+
+				// peers rotate through a small range of ports per client so the swarms grow
+
+			peer_id[0] = (byte)random.nextInt( 64 );
+
+			request.clear();
+			request.putLong( connection_id );
+			request.putInt( 1 );
+			request.putInt( ++txn );
+			request.put( hashes[random.nextInt( hashes.length )] );
+			request.put( peer_id );
+			request.putLong( 0 );
+			request.putLong( random.nextInt( 2 )==0?0:1024*1024 );
+			request.putLong( 0 );
+			request.putInt( 0 );
+			request.putInt( 0 );
+			request.putInt( 0 );
+			request.putInt( 50 );
+			request.putShort((short)( 10000 + peer_id[0] ));
+
+			long	start = System.nanoTime();
+
+			socket.send( new DatagramPacket( request.array(), 98, target ));
+
+			if ( !receive( socket, reply_packet, txn, 1 )){
+
+				synchronized( lost ){
+
+					lost[0]++;
+				}
+
+				connection_id = -1;
+
+				continue;
+			}
+
+			if ((( reply_packet.getLength() - 20 ) % 6 ) != 0 ){
+
+				throw( new Exception( "bad announce reply length " + reply_packet.getLength()));
+			}
+
+			if ( count == times.length ){
+
+				long[]	t = new long[count*2];
+
+				System.arraycopy( times, 0, t, 0, count );
+
+				times = t;
+			}
+
+			times[count++] = System.nanoTime() - start;
+		}
+
+		socket.close();
+
+		long[]	res = new long[count];
+
+		System.arraycopy( times, 0, res, 0, count );
+
+		return( res );
+	}
+
+	private static boolean
+	receive(
+		DatagramSocket	socket,
+		DatagramPacket	packet,
+		int				txn,
+		int				action )
+
+		throws Exception
+	{
+		while( true ){
+
+			packet.setLength( packet.getData().length );
+
+			try{
+				socket.receive( packet );
+
+			}catch( SocketTimeoutException e ){
+
+				return( false );
+			}
+
+			ByteBuffer	bb = ByteBuffer.wrap( packet.getData(), 0, packet.getLength());
+
+			if ( packet.getLength() < 8 || bb.getInt( 4 ) != txn ){
+
+					// late reply to an earlier request
+
+				continue;
+			}
+
+			int	reply_action = bb.getInt( 0 );
+
+			if ( reply_action != action ){
+
+				throw( new Exception( "unexpected reply action " + reply_action + " for action " + action ));
+			}
+
+			return( true );
+		}
+	}
+}
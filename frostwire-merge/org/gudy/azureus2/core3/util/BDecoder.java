@@ -800,6 +800,23 @@ public class BDecoder
 		
 		getByteArrayFromStream(dbis, length, tempArray);		
 		
+		mapPortablePath( tempArray, context );
+		
+		return tempArray; 
+	}
+	
+		/**
+		 * In portable mode, rewrites the drive letter of path-like values that were saved
+		 * relative to the portable root
+		 */
+	
+	static void
+	mapPortablePath(
+		byte[]		tempArray,
+		String		context )
+	{
+		int	length = tempArray.length;
+		
 		if ( PORTABLE_ROOT != null && length >= PORTABLE_ROOT.length && tempArray[1] == ':' && tempArray[2] == '\\' && context != null ){
 			
 			boolean	mismatch = false;
@@ -845,8 +862,6 @@ public class BDecoder
 				}
 			}
 		}
-		
-		return tempArray; 
 	}
 
 	private void getByteArrayFromStream(InputStream dbis, int length, byte[] targetArray) throws IOException {
@@ -0,0 +1,655 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package org.gudy.azureus2.core3.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Pull style bencode reader working directly on a ByteBuffer. The caller walks the
+ * structure (enterDict/hasNext/readKey/.../exit) and decides per value whether to
+ * materialise it (readBytes, readLong, readValue), look at it in place (readSlice, which
+ * doesn't copy) or skip it. Nothing is allocated for skipped values.
+ * <p>
+ * readValue() produces the same trees as BDecoder (LightHashMap, ArrayList, Long, byte[]),
+ * including the map order check and portable path mapping, but without recovery mode.
+ * <p>
+ * The reader works on its own view of the buffer, getPosition() gives how far it has got.
+ */
+
+public class
+BDecoderReader
+{
+	public static final int	T_DICT		= 0;
+	public static final int	T_LIST		= 1;
+	public static final int	T_INT		= 2;
+	public static final int	T_BYTES		= 3;
+	public static final int	T_END		= 4;
+	public static final int	T_EOF		= 5;
+
+	private static final int MAX_MAP_KEY_SIZE		= 64*1024;
+
+	private final ByteBuffer	buffer;
+
+	private boolean	verify_map_order;
+	private boolean	intern_keys			= true;
+
+	private int		depth;
+
+	private String	last_key;
+
+	private char[]	key_chars = new char[32];
+
+	public
+	BDecoderReader(
+		ByteBuffer		_buffer )
+	{
+		buffer	= _buffer.duplicate();
+	}
+
+	public
+	BDecoderReader(
+		byte[]		data )
+	{
+		buffer	= ByteBuffer.wrap( data );
+	}
+
+	public void
+	setVerifyMapOrder(
+		boolean	b )
+	{
+		verify_map_order = b;
+	}
+
+	public void
+	setInternKeys(
+		boolean	b )
+	{
+		intern_keys = b;
+	}
+
+	public int
+	getPosition()
+	{
+		return( buffer.position());
+	}
+
+		/**
+		 * @return the type of the next value without consuming it
+		 */
+
+	public int
+	peek()
+
+		throws IOException
+	{
+		if ( !buffer.hasRemaining()){
+
+			return( T_EOF );
+		}
+
+		int	b = buffer.get( buffer.position());
+
+		switch( b ){
+			case 'd':{
+				return( T_DICT );
+			}
+			case 'l':{
+				return( T_LIST );
+			}
+			case 'i':{
+				return( T_INT );
+			}
+			case 'e':{
+				return( T_END );
+			}
+			default:{
+				if ( b >= '0' && b <= '9' ){
+
+					return( T_BYTES );
+				}
+
+				throw( new BEncodingException( "BDecoder: unknown command '" + b + "' at " + buffer.position()));
+			}
+		}
+	}
+
+	public void
+	enterDict()
+
+		throws IOException
+	{
+		expect( 'd' );
+
+		depth++;
+	}
+
+	public void
+	enterList()
+
+		throws IOException
+	{
+		expect( 'l' );
+
+		depth++;
+	}
+
+		/**
+		 * @return true if the current dictionary or list has another entry
+		 */
+
+	public boolean
+	hasNext()
+
+		throws IOException
+	{
+		if ( !buffer.hasRemaining()){
+
+				// same leniency as BDecoder - only the outermost container may be unterminated
+
+			if ( depth > 1 ){
+
+				throw( new BEncodingException( "BDecoder: invalid input data, 'e' missing from end of dictionary/list" ));
+			}
+
+			return( false );
+		}
+
+		return( buffer.get( buffer.position()) != 'e' );
+	}
+
+		/**
+		 * Leaves the current dictionary or list, skipping any entries not yet read
+		 */
+
+	public void
+	exit()
+
+		throws IOException
+	{
+		while( hasNext()){
+
+			skipValue();
+		}
+
+		if ( buffer.hasRemaining()){
+
+			buffer.get();
+		}
+
+		depth--;
+	}
+
+	public String
+	readKey()
+
+		throws IOException
+	{
+		int	length = readLength();
+
+		if ( length > MAX_MAP_KEY_SIZE ){
+
+			throw( new IOException( "dictionary key is too large - " + length + ":, max=" + MAX_MAP_KEY_SIZE ));
+		}
+
+		if ( length > key_chars.length ){
+
+			key_chars = new char[length];
+		}
+
+		int	pos = buffer.position();
+
+			// BDecoder decodes keys as ISO-8859-1 which is a straight byte->char mapping
+
+		for (int i=0;i<length;i++){
+
+			key_chars[i] = (char)( buffer.get( pos+i ) & 0xff );
+		}
+
+		buffer.position( pos + length );
+
+		String	key = new String( key_chars, 0, length );
+
+		if ( intern_keys ){
+
+			key = StringInterner.intern( key );
+		}
+
+		last_key = key;
+
+		return( key );
+	}
+
+	public long
+	readLong()
+
+		throws IOException
+	{
+		expect( 'i' );
+
+		int		start 		= buffer.position();
+		long	value		= 0;
+		boolean	negative	= false;
+		boolean	simple		= true;
+
+		while( true ){
+
+			if ( !buffer.hasRemaining()){
+
+				throw( new BEncodingException( "BDecoder: truncated number" ));
+			}
+
+			int	b = buffer.get();
+
+			if ( b == 'e' ){
+
+				break;
+			}
+
+			if ( b >= '0' && b <= '9' && value <= ( Long.MAX_VALUE - 9 ) / 10 ){
+
+				value = value*10 + ( b - '0' );
+
+			}else if ( b == '-' && buffer.position() == start + 1 ){
+
+				negative = true;
+
+			}else{
+
+				simple = false;
+			}
+		}
+
+		if ( simple ){
+
+			return( negative?-value:value );
+		}
+
+			// odd encodings, let the general parse (and its recovery) sort them out
+
+		int	len = buffer.position() - 1 - start;
+
+		char[]	chars = new char[len];
+
+		for (int i=0;i<len;i++){
+
+			chars[i] = (char)( buffer.get( start + i ) & 0xff );
+		}
+
+		String	str = new String( chars );
+
+		try{
+			return( Long.parseLong( str ));
+
+		}catch( NumberFormatException e ){
+
+			try{
+				long l = (long)Double.parseDouble( str );
+
+				Debug.out( "Invalid number '" + str + "' - decoding as " + l + " and attempting recovery" );
+
+				return( l );
+
+			}catch( Throwable f ){
+			}
+
+			throw( e );
+		}
+	}
+
+	public byte[]
+	readBytes()
+
+		throws IOException
+	{
+		return( readBytes( last_key ));
+	}
+
+		/**
+		 * @return a view of the next byte string, sharing the underlying buffer
+		 */
+
+	public ByteBuffer
+	readSlice()
+
+		throws IOException
+	{
+		int	length = readLength();
+
+		ByteBuffer	slice = buffer.slice();
+
+		slice.limit( length );
+
+		buffer.position( buffer.position() + length );
+
+		return( slice );
+	}
+
+	public void
+	skipValue()
+
+		throws IOException
+	{
+		switch( peek()){
+
+			case T_DICT:
+			case T_LIST:{
+
+				buffer.get();
+
+				depth++;
+
+				exit();
+
+				break;
+			}
+			case T_INT:{
+
+				while( buffer.hasRemaining() && buffer.get() != 'e' ){
+				}
+
+				break;
+			}
+			case T_BYTES:{
+
+				int	length = readLength();
+
+				buffer.position( buffer.position() + length );
+
+				break;
+			}
+			case T_END:{
+
+				throw( new BEncodingException( "BDecoder: unexpected 'e' at " + buffer.position()));
+			}
+			default:{
+
+				throw( new BEncodingException( "BDecoder: unexpected end of data" ));
+			}
+		}
+	}
+
+		/**
+		 * Materialises the next value the same way BDecoder would
+		 * @return null at the end of a container or of the data
+		 */
+
+	public Object
+	readValue()
+
+		throws IOException
+	{
+		return( readValue( last_key==null?"":last_key, null, 0 ));
+	}
+
+	public Map
+	readMap()
+
+		throws IOException
+	{
+		return( readMap( null ));
+	}
+
+		/**
+		 * As readMap() except that the byte string found by following the given keys from
+		 * this map (e.g. { "info", "pieces" }) is returned as a slice rather than a byte[]
+		 */
+
+	public Map
+	readMap(
+		String[]	slice_path )
+
+		throws IOException
+	{
+		Object	res = readValue( last_key==null?"":last_key, slice_path, 0 );
+
+		if ( res == null ){
+
+			throw( new BEncodingException( "BDecoder: zero length file" ));
+
+		}else if ( !( res instanceof Map )){
+
+			throw( new BEncodingException( "BDecoder: top level isn't a Map" ));
+		}
+
+		return((Map)res );
+	}
+
+	private Object
+	readValue(
+		String		context,
+		String[]	slice_path,
+		int			slice_depth )
+
+		throws IOException
+	{
+		switch( peek()){
+
+			case T_DICT:{
+
+				enterDict();
+
+				LightHashMap	map = new LightHashMap();
+
+				int		prev_key_pos	= -1;
+				int		prev_key_len	= 0;
+
+				while( hasNext()){
+
+					String	key = readKey();
+
+					if ( verify_map_order ){
+
+							// keys are one char per byte so the raw key is just behind us
+
+						int	key_len = key.length();
+						int	key_pos = buffer.position() - key_len;
+
+						if ( prev_key_pos >= 0 && compareKeys( prev_key_pos, prev_key_len, key_pos, key_len ) > 0 ){
+
+							if ( !( map instanceof LightHashMapEx )){
+
+								LightHashMapEx x = new LightHashMapEx( map );
+
+								x.setFlag( LightHashMapEx.FL_MAP_ORDER_INCORRECT, true );
+
+								map = x;
+							}
+						}
+
+						prev_key_pos	= key_pos;
+						prev_key_len	= key_len;
+					}
+
+					int	type = peek();
+
+					if ( type == T_END || type == T_EOF ){
+
+						System.err.println( "Invalid encoding - value not serialsied for '" + key + "' - ignoring: map so far=" + map + ",loc=" + Debug.getCompressedStackTrace());
+
+						break;
+					}
+
+					Object	value;
+
+					if ( slice_path != null && key.equals( slice_path[slice_depth] )){
+
+						if ( slice_depth < slice_path.length - 1 ){
+
+							value = readValue( key, slice_path, slice_depth + 1 );
+
+						}else if ( type == T_BYTES ){
+
+							value = readSlice();
+
+						}else{
+
+							value = readValue( key, null, 0 );
+						}
+					}else{
+
+						value = readValue( key, null, 0 );
+					}
+
+					if ( map.put( key, value ) != null ){
+
+						Debug.out( "BDecoder: key '" + key + "' already exists!" );
+					}
+				}
+
+				exit();
+
+				map.compactify( -0.9f );
+
+				return( map );
+			}
+			case T_LIST:{
+
+				enterList();
+
+				ArrayList	list = new ArrayList();
+
+				while( hasNext()){
+
+					list.add( readValue( context, null, 0 ));
+				}
+
+				exit();
+
+				list.trimToSize();
+
+				return( list );
+			}
+			case T_INT:{
+
+				return( new Long( readLong()));
+			}
+			case T_BYTES:{
+
+				return( readBytes( context ));
+			}
+			default:{
+
+				return( null );
+			}
+		}
+	}
+
+	private byte[]
+	readBytes(
+		String		context )
+
+		throws IOException
+	{
+		int	length = readLength();
+
+		byte[]	data = new byte[length];
+
+		buffer.get( data );
+
+		BDecoder.mapPortablePath( data, context );
+
+		return( data );
+	}
+
+	private int
+	readLength()
+
+		throws IOException
+	{
+		int	length = 0;
+
+		while( true ){
+
+			if ( !buffer.hasRemaining()){
+
+				throw( new BEncodingException( "BDecoder: truncated string length" ));
+			}
+
+			int	b = buffer.get();
+
+			if ( b == ':' ){
+
+				break;
+			}
+
+			if ( b < '0' || b > '9' ){
+
+				throw( new BEncodingException( "BDecoder: invalid string length character '" + (char)b + "'" ));
+			}
+
+			length = length*10 + ( b - '0' );
+
+			if ( length > BDecoder.MAX_BYTE_ARRAY_SIZE ){
+
+				throw( new IOException( "Byte array length too large (" + length + ")" ));
+			}
+		}
+
+		if ( length > buffer.remaining()){
+
+			throw( new IOException( "BDecoder::getByteArrayFromStream: truncated" ));
+		}
+
+		return( length );
+	}
+
+	private void
+	expect(
+		char		c )
+
+		throws IOException
+	{
+		if ( !buffer.hasRemaining()){
+
+			throw( new BEncodingException( "BDecoder: expected '" + c + "', found end of data" ));
+		}
+
+		int	b = buffer.get();
+
+		if ( b != c ){
+
+			throw( new BEncodingException( "BDecoder: expected '" + c + "', found '" + (char)b + "' at " + ( buffer.position() - 1 )));
+		}
+	}
+
+	private int
+	compareKeys(
+		int		pos1,
+		int		len1,
+		int		pos2,
+		int		len2 )
+	{
+		int	len = Math.min( len1, len2 );
+
+		for (int i=0;i<len;i++){
+
+			int	b1 = buffer.get( pos1 + i )&0xff;
+			int	b2 = buffer.get( pos2 + i )&0xff;
+
+			if ( b1 != b2 ){
+
+				return( b1 - b2 );
+			}
+		}
+
+		return( len1 - len2 );
+	}
+}
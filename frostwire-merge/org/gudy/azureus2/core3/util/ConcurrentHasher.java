@@ -42,9 +42,7 @@ ConcurrentHasher
 	protected int			processor_num;
 	
 	protected List<ConcurrentHasherRequest>				requests		= new LinkedList<ConcurrentHasherRequest>();
-	
-	protected List<SHA1Hasher>	hashers			= new ArrayList<SHA1Hasher>();
-	
+		
 	protected AESemaphore		request_sem		= new AESemaphore("ConcHashReqQ");
 	protected AESemaphore		scheduler_sem	= new AESemaphore("ConcHashSched");
 		
@@ -91,105 +89,87 @@ ConcurrentHasher
 			processor_num	= 1;
 		}
 			
-			// one more that proc num seems to improve performance ;)
+			// one more that proc num seems to improve performance ;) - it keeps a request
+			// queued for whichever worker frees up next
 		
 		for (int i=0;i<processor_num + 1;i++){
 			
 			scheduler_sem.release();
 		}
 	
-		final ThreadPool pool	= new ThreadPool( "ConcurrentHasher", 64 );
+			// one worker per core, each with its own digest. Workers take requests straight
+			// off the queue rather than via a scheduler thread and a pool hand-off
 		
-		new AEThread2("ConcurrentHasher:scheduler", true )
-		{
-			public void
-			run()
+		for (int i=0;i<processor_num;i++){
+			
+			new AEThread2("ConcurrentHasher:" + i, true )
 			{
-				while(true){
-					
-						// get a request to run
-					
-					request_sem.reserve();
-					
-						// now extract the request
-					
-					final ConcurrentHasherRequest	req;
-					final SHA1Hasher				hasher;
+				public void
+				run()
+				{
+					SHA1DigestHasher	hasher = new SHA1DigestHasher();
 					
-					try{
-						requests_mon.enter();
+					while(true){
+						
+							// get a request to run
 						
-						req	= requests.remove(0);
+						request_sem.reserve();
 						
-						if ( hashers.size() == 0 ){
+						final ConcurrentHasherRequest	req;
+						
+						try{
+							requests_mon.enter();
 							
-							hasher = new SHA1Hasher();
+							req	= requests.remove(0);
 							
-						}else{
+						}finally{
 							
-							hasher	= hashers.remove( hashers.size()-1 );
+							requests_mon.exit();
 						}
-					}finally{
 						
-						requests_mon.exit();
-					}
-					
-					pool.run( 
-							new AERunnable()
-							{
-								public void
-								runSupport()
-								{
-									try{											
-										req.run( hasher );
-										
-									}finally{
-										try{
-											requests_mon.enter();
-
-											hashers.add( hasher );
-										
-										}finally{
-											
-											requests_mon.exit();
-										}
-
-										if ( friendly_hashing && req.isLowPriority()){
-				
-											try{  
-												int	size = req.getSize();
-												
-													// pieces can be several MB so delay based on size
-												
-												final int max = 250;
-												final int min = 50;
-												
-												size = size/1024;	// in K
-												
-												size = size/8;
-												
-													// 4MB -> 500
-													// 1MB -> 125
-												
-												size = Math.min( size, max );
-												size = Math.max( size, min );
-												
-												Thread.sleep( size );
-					
-											}catch( Throwable e ){ 
-					
-												Debug.printStackTrace( e ); 
-											}
-										}
-									       		
-										scheduler_sem.release();
-									}
+						try{											
+							req.run( hasher );
+							
+						}catch( Throwable e ){
+							
+							Debug.printStackTrace( e );
+							
+						}finally{
+	
+							if ( friendly_hashing && req.isLowPriority()){
+	
+								try{  
+									int	size = req.getSize();
+									
+										// pieces can be several MB so delay based on size
+									
+									final int max = 250;
+									final int min = 50;
+									
+									size = size/1024;	// in K
+									
+									size = size/8;
+									
+										// 4MB -> 500
+										// 1MB -> 125
+									
+									size = Math.min( size, max );
+									size = Math.max( size, min );
+									
+									Thread.sleep( size );
+		
+								}catch( Throwable e ){ 
+		
+									Debug.printStackTrace( e ); 
 								}
-							});
-												
+							}
+						       		
+							scheduler_sem.release();
+						}
+					}
 				}
-			}
-		}.start();
+			}.start();
+		}
 	}
 	
 		/**
@@ -225,7 +205,7 @@ ConcurrentHasher
 		
 
 		// test code to force synchronous checking
-		//SHA1Hasher	hasher = new SHA1Hasher();
+		//SHA1DigestHasher	hasher = new SHA1DigestHasher();
 		//req.run( hasher );
 		
 		scheduler_sem.reserve();
@@ -245,45 +225,124 @@ ConcurrentHasher
 		return( req );
 	}
 	
+		/**
+		 * Compares SHA1Hasher with SHA1DigestHasher on one thread, then pushes pieces through
+		 * the hasher as a recheck would.
+		 * usage: ConcurrentHasher [piece KB] [MB per run]
+		 */
+	
 	public static void
 	main(
 		String[]	args )
 	{
-		/*
-		final ConcurrentHasher	hasher = ConcurrentHasher.getSingleton();
+		final int	piece_size	= 1024*( args.length > 0?Integer.parseInt( args[0] ):256 );
+		final long	total		= 1024L*1024*( args.length > 1?Integer.parseInt( args[1] ):1024 );
 		
-		int		threads			= 1;
+		final int	pieces = (int)( total / piece_size );
 		
-		final long	buffer_size		= 128*1024;
-		final long	loop			= 1024;
+		DirectByteBuffer[]	buffers = new DirectByteBuffer[ 64 ];
 		
-		for (int i=0;i<threads;i++){
-						
-			new Thread()
-			{
-				public void
-				run()
-				{
-					// SHA1Hasher sha1_hasher = new SHA1Hasher();
-					
-					long	start = System.currentTimeMillis();
-					//ByteBuffer	buffer = ByteBuffer.allocate((int)buffer_size);
-					
-					for (int j=0;j<loop;j++){
-						
-												
-						//sha1_hasher.calculateHash( buffer );
-						//ConcurrentHasherRequest req = hasher.addRequest( buffer );
-					}
-					
-					long	elapsed = System.currentTimeMillis() - start;
-					
-					System.out.println( 
-							"elapsed = " + elapsed + ", " + 
-							((loop*buffer_size*1000)/elapsed) + " B/sec" );
-				}
-			}.start();
+		Random	random = new Random( 0 );
+		
+		byte[]	data = new byte[ piece_size ];
+		
+		for (int i=0;i<buffers.length;i++){
+			
+			random.nextBytes( data );
+			
+			buffers[i] = DirectByteBufferPool.getBuffer( DirectByteBuffer.AL_DM_CHECK, piece_size );
+			
+			buffers[i].put( DirectByteBuffer.SS_DW, data );
+			
+			buffers[i].flip( DirectByteBuffer.SS_DW );
+		}
+		
+		SHA1Hasher			java_hasher		= new SHA1Hasher();
+		SHA1DigestHasher	digest_hasher	= new SHA1DigestHasher();
+		
+		for (int i=0;i<buffers.length;i++){
+			
+			ByteBuffer	b = buffers[i].getBuffer( DirectByteBuffer.SS_DW );
+			
+			if ( !Arrays.equals( java_hasher.calculateHash( b ), digest_hasher.calculateHash( b ))){
+				
+				throw( new RuntimeException( "hash mismatch" ));
+			}
+		}
+		
+		System.out.println( "piece " + piece_size/1024 + " KB, " + total/(1024*1024) + " MB per run, " + singleton.processor_num + " cores, native digest = " + digest_hasher.isNative());
+		
+			// first round is warm-up
+		
+		for (int round=0;round<2;round++){
+			
+			long	start = System.nanoTime();
+			
+			for (int i=0;i<pieces;i++){
+				
+				java_hasher.calculateHash( buffers[i%buffers.length].getBuffer( DirectByteBuffer.SS_DW ));
+			}
+			
+			report( round, "SHA1Hasher, 1 thread", total, start );
+			
+			start = System.nanoTime();
+			
+			for (int i=0;i<pieces;i++){
+				
+				digest_hasher.calculateHash( buffers[i%buffers.length].getBuffer( DirectByteBuffer.SS_DW ));
+			}
+			
+			report( round, "SHA1DigestHasher, 1 thread", total, start );
+			
+			start = System.nanoTime();
+			
+			final AESemaphore	done = new AESemaphore( "ConcurrentHasher:test" );
+			
+			for (int i=0;i<pieces;i++){
+				
+					// a buffer is only hashed by one request at a time in real use, duplicate
+					// so concurrent requests on the same data don't share a position
+				
+				singleton.addRequest( 
+					buffers[i%buffers.length].getBuffer( DirectByteBuffer.SS_DW ).duplicate(),
+					new ConcurrentHasherRequestListener()
+					{
+						public void
+						complete(
+							ConcurrentHasherRequest	req )
+						{
+							done.release();
+						}
+					},
+					false );
+			}
+			
+			for (int i=0;i<pieces;i++){
+				
+				done.reserve();
+			}
+			
+			report( round, "ConcurrentHasher", total, start );
+		}
+		
+		for (int i=0;i<buffers.length;i++){
+			
+			buffers[i].returnToPool();
+		}
+	}
+	
+	private static void
+	report(
+		int		round,
+		String	name,
+		long	bytes,
+		long	start )
+	{
+		long	elapsed = Math.max( 1, ( System.nanoTime() - start ) / 1000000 );
+		
+		if ( round > 0 ){
+		
+			System.out.println( "    " + name + ": " + ( bytes*1000/elapsed/(1024*1024)) + " MB/s" );
 		}
-		*/
 	}
 }
@@ -128,7 +128,7 @@ ConcurrentHasherRequest
 	
 	protected void
 	run(
-		SHA1Hasher	hasher )
+		SHA1DigestHasher	hasher )
 	{
 		if ( !cancelled ){
 			
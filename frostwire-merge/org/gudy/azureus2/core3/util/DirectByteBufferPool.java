@@ -22,6 +22,7 @@
  */
 package org.gudy.azureus2.core3.util;
 
+import org.gudy.azureus2.core3.config.COConfigurationManager;
 
 
 public abstract class 
@@ -30,6 +31,9 @@ DirectByteBufferPool
 	//According to reports (from the http://mina.apache.org folks), hotspot vms actually
 	//work better with non-direct (heap) buffers for network and disk io these days.
 	
+	public static final String	POOL_STANDARD	= "standard";
+	public static final String	POOL_MAGAZINE	= "magazine";
+	
 	private static final DirectByteBufferPool	impl;
 	
 	static{	
@@ -40,7 +44,16 @@ DirectByteBufferPool
 			Debug.outNoStack( "******** USE_HEAP_BUFFERS MODE DEPRECATED ********" );
 		}
 			
-		impl = new DirectByteBufferPoolReal();
+			// thread magazines + lock free depots instead of the synchronized pools
+		
+		if ( POOL_MAGAZINE.equals( COConfigurationManager.getStringParameter( "diskmanager.perf.buffer.pool" ))){
+			
+			impl = new DirectByteBufferPoolMagazine();
+			
+		}else{
+			
+			impl = new DirectByteBufferPoolReal();
+		}
 	}
 	
 
@@ -0,0 +1,1017 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package org.gudy.azureus2.core3.util;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+import org.gudy.azureus2.core3.config.ParameterListener;
+import org.gudy.azureus2.core3.disk.DiskManager;
+import org.gudy.azureus2.core3.logging.LogAlert;
+import org.gudy.azureus2.core3.logging.Logger;
+
+/**
+ * Buffer pool without a global lock. Each size class has a lock free stack of
+ * batches of free buffers (the depot) and every thread keeps a small magazine of
+ * buffers per class in front of it, so the common allocate/return pair touches
+ * no shared state at all and a depot push or pop moves half a magazine at a time.
+ * <p>
+ * Buffers of 2K and under are slices of 4K direct chunks as with the standard
+ * pool, a chunk becomes collectable once all of its slices have been dropped.
+ * <p>
+ * Tracking of handed out buffers can be switched on and off while running, it
+ * costs a synchronized map operation per buffer so is off by default.
+ */
+
+public class
+DirectByteBufferPoolMagazine
+	extends DirectByteBufferPool
+	implements AEDiagnosticsEvidenceGenerator
+{
+	private static final boolean disable_gc = System.getProperty( "az.disable.explicit.gc", "0" ).equals( "1" );
+
+	private static final int START_POWER 	= 12;    // 4096
+	private static final int END_POWER   	= 25;    // 33554432
+
+	public static final int MAX_SIZE = 1 << END_POWER;
+
+	private static final int[]	SLICE_SIZES 		= { 8, 16, 32, 64, 128, 256, 512, 1024, 2048 };
+	private static final int	SLICE_CHUNK_SIZE	= 4096;
+
+	private static final int[]	EXTRA_BUCKETS = { DiskManager.BLOCK_SIZE + 128 };
+
+		// a thread holds at most this much per size class, bigger buffers skip the magazine
+
+	private static final int	MAGAZINE_BYTES		= 64*1024;
+	private static final int	MAGAZINE_MAX		= 32;
+
+	private static final long COMPACTION_CHECK_PERIOD 	= 2*60*1000;
+	private static final long MAX_FREE_BYTES 			= 10*1024*1024;
+	private static final long MIN_FREE_BYTES 			= 1*1024*1024;
+
+	private static volatile boolean	track_handed_out;
+
+	private static final Map	handed_out = new IdentityHashMap();	// ByteBuffer.equals is on contents
+
+	static{
+		COConfigurationManager.addAndFireParameterListener(
+			"diskmanager.perf.buffer.pool.track",
+			new ParameterListener()
+			{
+				public void
+				parameterChanged(
+					String	name )
+				{
+					setLeakTracking(
+						AEDiagnostics.TRACE_DBB_POOL_USAGE ||
+						COConfigurationManager.getBooleanParameter( name ));
+				}
+			});
+	}
+
+	public static void
+	setLeakTracking(
+		boolean		enabled )
+	{
+		synchronized( handed_out ){
+
+			track_handed_out = enabled;
+
+				// anything handed out while off is unknown so start afresh either way
+
+			handed_out.clear();
+		}
+	}
+
+	public static boolean
+	isLeakTracking()
+	{
+		return( track_handed_out );
+	}
+
+	private final SizeClass[]		classes;
+
+	private final ThreadLocal		thread_cache =
+		new ThreadLocal()
+		{
+			protected Object
+			initialValue()
+			{
+				return( new ThreadCache( classes ));
+			}
+		};
+
+		// bumped by compaction, threads push their magazines back to the depot when they see it change
+
+	private volatile int	flush_generation;
+
+	private final StripedCounter	allocations		= new StripedCounter();
+	private final StripedCounter	hits			= new StripedCounter();
+	private final StripedCounter	misses			= new StripedCounter();
+	private final StripedCounter	returns			= new StripedCounter();
+
+	protected
+	DirectByteBufferPoolMagazine()
+	{
+		TreeSet	sizes = new TreeSet();
+
+		for (int i=0;i<SLICE_SIZES.length;i++){
+
+			sizes.add( new Integer( SLICE_SIZES[i] ));
+		}
+
+		for (int p=START_POWER;p<=END_POWER;p++){
+
+			sizes.add( new Integer( 1 << p ));
+		}
+
+		for (int i=0;i<EXTRA_BUCKETS.length;i++){
+
+			sizes.add( new Integer( EXTRA_BUCKETS[i] ));
+		}
+
+		classes = new SizeClass[sizes.size()];
+
+		Iterator	it = sizes.iterator();
+
+		for (int i=0;i<classes.length;i++){
+
+			classes[i] = new SizeClass( i, ((Integer)it.next()).intValue());
+		}
+
+		SimpleTimer.addPeriodicEvent(
+			"DirectBB:compact",
+			COMPACTION_CHECK_PERIOD,
+			new TimerEventPerformer()
+			{
+				public void
+				perform(
+					TimerEvent	event )
+				{
+					compactBuffers();
+				}
+			});
+
+		AEDiagnostics.addEvidenceGenerator( this );
+	}
+
+	protected DirectByteBuffer
+	getBufferSupport(
+		byte	allocator,
+		int		length )
+	{
+		if ( length < 1 ){
+
+			Debug.out( "requested length [" + length + "] < 1" );
+
+			return( null );
+		}
+
+		if ( length > MAX_SIZE ){
+
+			Debug.out( "requested length [" + length + "] > MAX_SIZE [" + MAX_SIZE + "]" );
+
+			return( null );
+		}
+
+		SizeClass	sc = classes[getClassIndex( length )];
+
+		ThreadCache	cache = (ThreadCache)thread_cache.get();
+
+		checkFlush( cache );
+
+		ByteBuffer	buff = cache.pop( sc );
+
+		if ( buff == null ){
+
+			ByteBuffer[]	batch = sc.pop();
+
+			if ( batch != null ){
+
+				buff = batch[0];
+
+				for (int i=1;i<batch.length;i++){
+
+					cache.push( sc, batch[i] );
+				}
+			}
+		}
+
+		if ( buff == null ){
+
+			misses.increment();
+
+			buff = allocate( sc, cache );
+
+		}else{
+
+			hits.increment();
+		}
+
+		allocations.increment();
+
+		DirectByteBuffer	res = new DirectByteBuffer( allocator, buff, this );
+
+		buff.clear();
+
+		buff.limit( length );
+
+		if ( track_handed_out ){
+
+			synchronized( handed_out ){
+
+				if ( track_handed_out && handed_out.put( buff, res ) != null ){
+
+					Debug.out( "buffer handed out twice!!!!" );
+
+					throw( new RuntimeException( "Buffer handed out twice" ));
+				}
+			}
+		}
+
+		return( res );
+	}
+
+	protected void
+	returnBufferSupport(
+		DirectByteBuffer	dbb )
+	{
+		ByteBuffer	buff = dbb.getBufferInternal();
+
+		if ( buff == null ){
+
+			Debug.out( "Returned dbb has null delegate" );
+
+			throw( new RuntimeException( "Returned dbb has null delegate" ));
+		}
+
+		if ( track_handed_out ){
+
+			synchronized( handed_out ){
+
+					// not finding it is fine if it was handed out before tracking was enabled
+
+				handed_out.remove( buff );
+			}
+		}
+
+		int	capacity = buff.capacity();
+
+		int	index = getClassIndex( capacity );
+
+		if ( index >= classes.length || classes[index].size != capacity ){
+
+			Debug.out( "Invalid buffer given; could not find proper buffer pool" );
+
+			return;
+		}
+
+		returns.increment();
+
+		SizeClass	sc = classes[index];
+
+		ThreadCache	cache = (ThreadCache)thread_cache.get();
+
+		checkFlush( cache );
+
+		if ( !cache.push( sc, buff )){
+
+			sc.push( new ByteBuffer[]{ buff });
+		}
+	}
+
+	private ByteBuffer
+	allocate(
+		SizeClass		sc,
+		ThreadCache		cache )
+	{
+		if ( sc.size > SLICE_SIZES[SLICE_SIZES.length-1] ){
+
+			return( allocateNewBuffer( sc.size ));
+		}
+
+			// carve a chunk up, the rest of the slices go to this thread's magazine
+
+		ByteBuffer	chunk = allocateNewBuffer( SLICE_CHUNK_SIZE );
+
+		int	count = SLICE_CHUNK_SIZE / sc.size;
+
+		ByteBuffer	result = null;
+
+		List	overflow = null;
+
+		for (int i=0;i<count;i++){
+
+			chunk.limit(( i+1 ) * sc.size );
+			chunk.position( i * sc.size );
+
+			ByteBuffer	slice = chunk.slice();
+
+			if ( i == 0 ){
+
+				result = slice;
+
+			}else if ( !cache.push( sc, slice )){
+
+				if ( overflow == null ){
+
+					overflow = new ArrayList();
+				}
+
+				overflow.add( slice );
+			}
+		}
+
+		if ( overflow != null ){
+
+			int	batch_size = sc.getBatchSize();
+
+			for (int i=0;i<overflow.size();i+=batch_size){
+
+				List	sub = overflow.subList( i, Math.min( overflow.size(), i + batch_size ));
+
+				ByteBuffer[]	batch = new ByteBuffer[sub.size()];
+
+				sub.toArray( batch );
+
+				sc.push( batch );
+			}
+		}
+
+		return( result );
+	}
+
+	private ByteBuffer
+	allocateNewBuffer(
+		int		size )
+	{
+		try{
+			return( ByteBuffer.allocateDirect( size ));
+
+		}catch( OutOfMemoryError e ){
+
+			clearBufferPools();
+
+			runGarbageCollection();
+
+			try{
+				return( ByteBuffer.allocateDirect( size ));
+
+			}catch( OutOfMemoryError f ){
+
+				String msg = "Memory allocation failed: Out of direct memory space.\n"
+						+ "To fix: Use the -XX:MaxDirectMemorySize=512m command line option,\n"
+						+ "or upgrade your Java JRE to version 1.4.2_05 or 1.5 series or newer.";
+
+				Debug.out( msg );
+
+				Logger.log( new LogAlert( LogAlert.UNREPEATABLE, LogAlert.AT_ERROR, msg ));
+
+				throw( f );
+			}
+		}
+	}
+
+	private int
+	getClassIndex(
+		int		length )
+	{
+			// first class big enough
+
+		int	low 	= 0;
+		int	high	= classes.length;
+
+		while( low < high ){
+
+			int	mid = ( low + high ) >>> 1;
+
+			if ( classes[mid].size < length ){
+
+				low = mid + 1;
+
+			}else{
+
+				high = mid;
+			}
+		}
+
+		return( low );
+	}
+
+	private void
+	checkFlush(
+		ThreadCache		cache )
+	{
+		int	generation = flush_generation;
+
+		if ( cache.generation != generation ){
+
+			cache.generation = generation;
+
+			cache.flush();
+		}
+	}
+
+	private void
+	clearBufferPools()
+	{
+		flush_generation++;
+
+		for (int i=0;i<classes.length;i++){
+
+			classes[i].trim( 0 );
+		}
+	}
+
+	private void
+	runGarbageCollection()
+	{
+		if ( !disable_gc ){
+
+			System.runFinalization();
+
+			System.gc();
+		}
+	}
+
+	private void
+	compactBuffers()
+	{
+			// ask threads to hand back their magazines so that idle ones get trimmed next time round
+
+		flush_generation++;
+
+		long	free_size = getFreeBytes();
+
+		if ( free_size >= MIN_FREE_BYTES ){
+
+				// same pressure as the standard pool
+
+			float	remaining_factor;
+
+			if ( free_size > MAX_FREE_BYTES ){
+
+				remaining_factor = 0.5f * MAX_FREE_BYTES / (float)free_size;
+
+			}else{
+
+				remaining_factor = 1.0f - 0.5f * free_size / (float)MAX_FREE_BYTES;
+			}
+
+			for (int i=classes.length-1;i>=0;i--){
+
+				SizeClass	sc = classes[i];
+
+				sc.trim((int)( sc.getFreeCount() * remaining_factor ));
+			}
+
+			runGarbageCollection();
+		}
+	}
+
+		/**
+		 * bytes sitting in the depots, thread magazines aren't counted
+		 */
+
+	public long
+	getFreeBytes()
+	{
+		long	total = 0;
+
+		for (int i=0;i<classes.length;i++){
+
+			total += (long)classes[i].size * classes[i].getFreeCount();
+		}
+
+		return( total );
+	}
+
+	public long
+	getAllocationCount()
+	{
+		return( allocations.get());
+	}
+
+		/**
+		 * allocations satisfied from a magazine or the depot
+		 */
+
+	public long
+	getHitCount()
+	{
+		return( hits.get());
+	}
+
+		/**
+		 * allocations that had to create a new buffer
+		 */
+
+	public long
+	getMissCount()
+	{
+		return( misses.get());
+	}
+
+	public long
+	getReturnCount()
+	{
+		return( returns.get());
+	}
+
+	public int
+	getHandedOutCount()
+	{
+		synchronized( handed_out ){
+
+			return( handed_out.size());
+		}
+	}
+
+	public void
+	generate(
+		IndentWriter		writer )
+	{
+		writer.println( "DirectByteBufferPool" );
+
+		try{
+			writer.indent();
+
+			long	allocs = getAllocationCount();
+
+			writer.println(
+				"allocs=" + allocs + ",hits=" + getHitCount() + ",misses=" + getMissCount() +
+				",returns=" + getReturnCount() + ",free=" + getFreeBytes()/1024 + "K" );
+
+			String	str = "";
+
+			for (int i=0;i<classes.length;i++){
+
+				int	free = classes[i].getFreeCount();
+
+				if ( free > 0 ){
+
+					str += ( str.length()==0?"":"," ) + classes[i].size + "=" + free;
+				}
+			}
+
+			writer.println( "depot: " + str );
+
+			if ( track_handed_out ){
+
+				Map	alloc_map = new TreeMap();
+
+				synchronized( handed_out ){
+
+					Iterator	it = handed_out.values().iterator();
+
+					while( it.hasNext()){
+
+						DirectByteBuffer	dbb = (DirectByteBuffer)it.next();
+
+						Byte	alloc = new Byte( dbb.getAllocator());
+
+						Integer	count = (Integer)alloc_map.get( alloc );
+
+						alloc_map.put( alloc, new Integer( count==null?1:count.intValue()+1 ));
+					}
+				}
+
+				str = "";
+
+				Iterator	it = alloc_map.entrySet().iterator();
+
+				while( it.hasNext()){
+
+					Map.Entry	entry = (Map.Entry)it.next();
+
+					str += ( str.length()==0?"":"," ) + DirectByteBuffer.AL_DESCS[((Byte)entry.getKey()).intValue()] + "=" + entry.getValue();
+				}
+
+				writer.println( "handed out: " + str );
+			}
+		}finally{
+
+			writer.exdent();
+		}
+	}
+
+	private static class
+	SizeClass
+	{
+		private final int		index;
+		private final int		size;
+		private final int		magazine_size;
+
+		private final AtomicReference	depot 		= new AtomicReference();
+		private final AtomicInteger		free_count	= new AtomicInteger();
+
+		private
+		SizeClass(
+			int		_index,
+			int		_size )
+		{
+			index	= _index;
+			size	= _size;
+
+			magazine_size = Math.min( MAGAZINE_MAX, MAGAZINE_BYTES / size );
+		}
+
+		private int
+		getBatchSize()
+		{
+			return( Math.max( 1, magazine_size / 2 ));
+		}
+
+		private int
+		getFreeCount()
+		{
+			return( free_count.get());
+		}
+
+			// Treiber stack, nodes are never reused so there's no ABA to worry about
+
+		private void
+		push(
+			ByteBuffer[]	batch )
+		{
+			DepotNode	node = new DepotNode( batch );
+
+			while( true ){
+
+				DepotNode	head = (DepotNode)depot.get();
+
+				node.next = head;
+
+				if ( depot.compareAndSet( head, node )){
+
+					break;
+				}
+			}
+
+			free_count.addAndGet( batch.length );
+		}
+
+		private ByteBuffer[]
+		pop()
+		{
+			while( true ){
+
+				DepotNode	head = (DepotNode)depot.get();
+
+				if ( head == null ){
+
+					return( null );
+				}
+
+				if ( depot.compareAndSet( head, head.next )){
+
+					free_count.addAndGet( -head.buffers.length );
+
+					return( head.buffers );
+				}
+			}
+		}
+
+		private void
+		trim(
+			int		target )
+		{
+			while( free_count.get() > target ){
+
+				if ( pop() == null ){
+
+					break;
+				}
+			}
+		}
+	}
+
+	private static class
+	DepotNode
+	{
+		private final ByteBuffer[]	buffers;
+
+		private DepotNode	next;
+
+		private
+		DepotNode(
+			ByteBuffer[]	_buffers )
+		{
+			buffers	= _buffers;
+		}
+	}
+
+	private static class
+	ThreadCache
+	{
+		private final SizeClass[]		classes;
+		private final ByteBuffer[][]	magazines;
+		private final int[]				counts;
+
+		private int		generation;
+
+		private
+		ThreadCache(
+			SizeClass[]		_classes )
+		{
+			classes		= _classes;
+			magazines	= new ByteBuffer[classes.length][];
+			counts		= new int[classes.length];
+		}
+
+		private ByteBuffer
+		pop(
+			SizeClass	sc )
+		{
+			int	count = counts[sc.index];
+
+			if ( count == 0 ){
+
+				return( null );
+			}
+
+			ByteBuffer[]	magazine = magazines[sc.index];
+
+			ByteBuffer	result = magazine[--count];
+
+			magazine[count] = null;
+
+			counts[sc.index] = count;
+
+			return( result );
+		}
+
+			/**
+			 * @return false if this class doesn't use magazines
+			 */
+
+		private boolean
+		push(
+			SizeClass	sc,
+			ByteBuffer	buffer )
+		{
+			if ( sc.magazine_size == 0 ){
+
+				return( false );
+			}
+
+			ByteBuffer[]	magazine = magazines[sc.index];
+
+			if ( magazine == null ){
+
+				magazine = magazines[sc.index] = new ByteBuffer[sc.magazine_size];
+			}
+
+			int	count = counts[sc.index];
+
+			if ( count == magazine.length ){
+
+					// full, the older half goes to the depot in one go
+
+				int	batch_size = sc.getBatchSize();
+
+				ByteBuffer[]	batch = new ByteBuffer[batch_size];
+
+				System.arraycopy( magazine, 0, batch, 0, batch_size );
+
+				System.arraycopy( magazine, batch_size, magazine, 0, count - batch_size );
+
+				count -= batch_size;
+
+				Arrays.fill( magazine, count, magazine.length, null );
+
+				sc.push( batch );
+			}
+
+			magazine[count++] = buffer;
+
+			counts[sc.index] = count;
+
+			return( true );
+		}
+
+		private void
+		flush()
+		{
+			for (int i=0;i<classes.length;i++){
+
+				int	count = counts[i];
+
+				if ( count > 0 ){
+
+					ByteBuffer[]	batch = new ByteBuffer[count];
+
+					System.arraycopy( magazines[i], 0, batch, 0, count );
+
+					Arrays.fill( magazines[i], null );
+
+					counts[i] = 0;
+
+					classes[i].push( batch );
+				}
+			}
+		}
+	}
+
+		/**
+		 * counter striped over cache lines by thread so that hot paths don't all hit the same word
+		 */
+
+	private static class
+	StripedCounter
+	{
+		private static final int	STRIPES	= 16;
+		private static final int	PAD		= 8;		// longs per 64 byte line
+
+		private final AtomicLongArray	cells = new AtomicLongArray( STRIPES*PAD );
+
+		private void
+		increment()
+		{
+			cells.incrementAndGet(((int)Thread.currentThread().getId() & ( STRIPES-1 )) * PAD );
+		}
+
+		private long
+		get()
+		{
+			long	total = 0;
+
+			for (int i=0;i<STRIPES;i++){
+
+				total += cells.get( i*PAD );
+			}
+
+			return( total );
+		}
+	}
+
+		/**
+		 * Alloc/free churn against both pools.
+		 * <p>
+		 * usage: DirectByteBufferPoolMagazine [threads] [seconds per pool]
+		 * <p>
+		 * Each thread keeps a handful of buffers live in a mix of protocol sized, block
+		 * sized and larger read sizes, and a quarter of them are freed by another thread
+		 * as happens when a network read is written out by the disk manager.
+		 */
+
+	public static void
+	main(
+		String[]	args )
+	{
+		int		threads	= args.length > 0?Integer.parseInt( args[0] ):4;
+		int		seconds	= args.length > 1?Integer.parseInt( args[1] ):5;
+
+		COConfigurationManager.initialiseFromMap( new HashMap());
+
+		DirectByteBufferPool[]	pools = {
+			new DirectByteBufferPoolReal(),
+			new DirectByteBufferPoolMagazine(),
+		};
+
+		for (int i=0;i<pools.length;i++){
+
+			benchmark( pools[i], threads, seconds );
+		}
+
+		DirectByteBufferPoolMagazine magazine = (DirectByteBufferPoolMagazine)pools[1];
+
+		System.out.println(
+			"magazine pool: allocs=" + magazine.getAllocationCount() + ", hits=" + magazine.getHitCount() +
+			", misses=" + magazine.getMissCount() + ", depot=" + magazine.getFreeBytes()/1024 + "K" );
+
+		System.exit( 0 );
+	}
+
+	private static void
+	benchmark(
+		final DirectByteBufferPool		pool,
+		int								threads,
+		int								seconds )
+	{
+		final int[]	sizes = { 13, 68, 1024, 4096, DiskManager.BLOCK_SIZE + 13, 32*1024, 128*1024 };
+
+		final ConcurrentLinkedQueue	handoff = new ConcurrentLinkedQueue();
+
+		final long		end	= System.currentTimeMillis() + seconds*1000L;
+
+		final long[]	ops	= new long[threads];
+
+		Thread[]	workers = new Thread[threads];
+
+		for (int i=0;i<threads;i++){
+
+			final int	thread_index = i;
+
+			workers[i] =
+				new Thread( "DBBBench:" + i )
+				{
+					public void
+					run()
+					{
+						Random	random = new Random( thread_index );
+
+						DirectByteBuffer[]	live = new DirectByteBuffer[16];
+
+						long	count = 0;
+
+						while( ( count & 1023 ) != 0 || System.currentTimeMillis() < end ){
+
+							int	slot = random.nextInt( live.length );
+
+							if ( live[slot] != null ){
+
+								if ( random.nextInt( 4 ) == 0 ){
+
+									handoff.add( live[slot] );
+
+								}else{
+
+									live[slot].returnToPool();
+								}
+							}
+
+							DirectByteBuffer	other = (DirectByteBuffer)handoff.poll();
+
+							if ( other != null ){
+
+								other.returnToPool();
+							}
+
+							live[slot] = pool.getBufferSupport( DirectByteBuffer.AL_NET_CRYPT, sizes[random.nextInt( sizes.length )]);
+
+							count++;
+						}
+
+						for (int j=0;j<live.length;j++){
+
+							if ( live[j] != null ){
+
+								live[j].returnToPool();
+							}
+						}
+
+						ops[thread_index] = count;
+					}
+				};
+		}
+
+		long	start = System.currentTimeMillis();
+
+		for (int i=0;i<threads;i++){
+
+			workers[i].start();
+		}
+
+		long	total = 0;
+
+		for (int i=0;i<threads;i++){
+
+			try{
+				workers[i].join();
+
+			}catch( InterruptedException e ){
+			}
+
+			total += ops[i];
+		}
+
+		while( true ){
+
+			DirectByteBuffer	other = (DirectByteBuffer)handoff.poll();
+
+			if ( other == null ){
+
+				break;
+			}
+
+			other.returnToPool();
+		}
+
+		long	elapsed = System.currentTimeMillis() - start;
+
+		System.out.println(
+			pool.getClass().getName() + ": " + threads + " threads, " +
+			( total * 1000 / Math.max( 1, elapsed )) + " alloc/free per sec" );
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package org.gudy.azureus2.core3.util;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * SHA-1 over the JDK's MessageDigest, which the JIT knows about (and on newer VMs
+ * replaces with the CPU's SHA instructions). Falls back to the pure Java SHA1 if
+ * the provider is missing. Not thread safe, keep one per thread.
+ */
+
+public final class
+SHA1DigestHasher
+{
+	private final MessageDigest		digest;
+	private final SHA1Hasher		fallback;
+
+	public
+	SHA1DigestHasher()
+	{
+		MessageDigest	md = null;
+
+		try{
+			md = MessageDigest.getInstance( "SHA-1" );
+
+		}catch( Throwable e ){
+
+			Debug.out( "SHA-1 MessageDigest unavailable, using SHA1Hasher", e );
+		}
+
+		digest		= md;
+		fallback	= md==null?new SHA1Hasher():null;
+	}
+
+	public boolean
+	isNative()
+	{
+		return( digest != null );
+	}
+
+		/**
+		 * Hashes the remaining bytes of the buffer, leaving its position unchanged as
+		 * SHA1Hasher does
+		 */
+
+	public byte[]
+	calculateHash(
+		ByteBuffer	buffer )
+	{
+		if ( digest == null ){
+
+			return( fallback.calculateHash( buffer ));
+		}
+
+		int	position = buffer.position();
+
+		try{
+			digest.reset();
+
+			digest.update( buffer );
+
+			return( digest.digest());
+
+		}finally{
+
+			buffer.position( position );
+		}
+	}
+}
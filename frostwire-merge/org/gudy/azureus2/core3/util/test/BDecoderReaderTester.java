@@ -0,0 +1,277 @@
+/*
+ * Created on 17-Oct-2026
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package org.gudy.azureus2.core3.util.test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+import org.gudy.azureus2.core3.torrent.TOTorrent;
+import org.gudy.azureus2.core3.torrent.TOTorrentFactory;
+import org.gudy.azureus2.core3.util.BDecoder;
+import org.gudy.azureus2.core3.util.BDecoderReader;
+import org.gudy.azureus2.core3.util.BEncoder;
+
+/**
+ * Compares BDecoder.decodeByteBuffer with BDecoderReader on a large synthetic torrent and
+ * on an LTEP handshake sized dictionary, checking that both produce the same result, and
+ * times the torrent deserialisation as it was (BDecoder then construct from the map)
+ * against the current slice based path.
+ * <p>
+ * usage: BDecoderReaderTester [pieces] [files] [iterations]
+ * <p>
+ * Reports microseconds and bytes allocated per operation (allocation needs a HotSpot VM).
+ */
+
+public class
+BDecoderReaderTester
+{
+	public static void
+	main(
+		String[]	args )
+	{
+		int		num_pieces	= args.length > 0?Integer.parseInt( args[0] ):50000;
+		int		num_files	= args.length > 1?Integer.parseInt( args[1] ):500;
+		int		iterations	= args.length > 2?Integer.parseInt( args[2] ):200;
+
+		try{
+			COConfigurationManager.initialiseFromMap( new HashMap());
+
+			final byte[]	torrent 	= BEncoder.encode( createTorrent( num_pieces, num_files ));
+			final byte[]	handshake	= BEncoder.encode( createHandshake());
+
+			System.out.println( "torrent: " + torrent.length + " bytes, handshake: " + handshake.length + " bytes" );
+
+			check( "torrent", torrent );
+			check( "handshake", handshake );
+
+			TOTorrent	t1 = TOTorrentFactory.deserialiseFromMap( BDecoder.decode( torrent ));
+			TOTorrent	t2 = TOTorrentFactory.deserialiseFromBEncodedByteArray( torrent );
+
+			System.out.println( "torrent hash: " + ( Arrays.equals( t1.getHash(), t2.getHash())?"matches":"MISMATCH" ));
+
+			for (int round=0;round<2;round++){
+
+				boolean	report = round == 1;
+
+				run( report, "torrent   BDecoder      ", iterations,
+					new Op(){ public void run() throws Exception { new BDecoder().decodeByteBuffer( ByteBuffer.wrap( torrent ), true ); }});
+
+				run( report, "torrent   BDecoderReader", iterations,
+					new Op(){ public void run() throws Exception { new BDecoderReader( torrent ).readMap(); }});
+
+				run( report, "torrent   reader sliced ", iterations,
+					new Op(){ public void run() throws Exception { new BDecoderReader( torrent ).readMap( new String[]{ "info", "pieces" }); }});
+
+				run( report, "torrent   reader name   ", iterations,
+					new Op(){ public void run() throws Exception { readName( torrent ); }});
+
+				run( report, "TOTorrent via BDecoder  ", iterations,
+					new Op(){ public void run() throws Exception { TOTorrentFactory.deserialiseFromMap( BDecoder.decode( torrent )); }});
+
+				run( report, "TOTorrent via reader    ", iterations,
+					new Op(){ public void run() throws Exception { TOTorrentFactory.deserialiseFromBEncodedByteArray( torrent ); }});
+
+				run( report, "handshake BDecoder      ", iterations*1000,
+					new Op(){ public void run() throws Exception { new BDecoder().decodeByteBuffer( ByteBuffer.wrap( handshake ), true ); }});
+
+				run( report, "handshake BDecoderReader", iterations*1000,
+					new Op(){ public void run() throws Exception { new BDecoderReader( ByteBuffer.wrap( handshake )).readMap(); }});
+			}
+		}catch( Throwable e ){
+
+			e.printStackTrace();
+		}
+
+		System.exit( 0 );
+	}
+
+	private interface
+	Op
+	{
+		public void
+		run()
+
+			throws Exception;
+	}
+
+	private static void
+	run(
+		boolean		report,
+		String		name,
+		int			iterations,
+		Op			op )
+
+		throws Exception
+	{
+		long	start_alloc = getAllocatedBytes();
+		long	start		= System.nanoTime();
+
+		for (int i=0;i<iterations;i++){
+
+			op.run();
+		}
+
+		long	elapsed = System.nanoTime() - start;
+		long	alloc	= getAllocatedBytes() - start_alloc;
+
+		if ( report ){
+
+			System.out.println( name + ": " + ( elapsed/iterations/1000.0 ) + "us, " + ( start_alloc<0?"?":String.valueOf( alloc/iterations )) + " bytes/op" );
+		}
+	}
+
+	private static long
+	getAllocatedBytes()
+	{
+		try{
+			return(((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes( Thread.currentThread().getId()));
+
+		}catch( Throwable e ){
+
+			return( -1 );
+		}
+	}
+
+		// picks out info/name without materialising anything else
+
+	private static byte[]
+	readName(
+		byte[]		data )
+
+		throws Exception
+	{
+		BDecoderReader	reader = new BDecoderReader( data );
+
+		reader.enterDict();
+
+		while( reader.hasNext()){
+
+			if ( reader.readKey().equals( "info" )){
+
+				reader.enterDict();
+
+				while( reader.hasNext()){
+
+					if ( reader.readKey().equals( "name" )){
+
+						return( reader.readBytes());
+					}
+
+					reader.skipValue();
+				}
+
+				return( null );
+			}
+
+			reader.skipValue();
+		}
+
+		return( null );
+	}
+
+	private static void
+	check(
+		String		name,
+		byte[]		data )
+
+		throws Exception
+	{
+		Map	m1 = new BDecoder().decodeByteBuffer( ByteBuffer.wrap( data ), true );
+		Map	m2 = new BDecoderReader( data ).readMap();
+
+		boolean	same = Arrays.equals( BEncoder.encode( m1 ), BEncoder.encode( m2 )) && Arrays.equals( data, BEncoder.encode( m2 ));
+
+		System.out.println( name + ": " + ( same?"BDecoderReader matches BDecoder":"MISMATCH" ));
+	}
+
+	private static Map
+	createTorrent(
+		int		num_pieces,
+		int		num_files )
+	{
+		Random	random = new Random( 17 );
+
+		long	piece_length = 256*1024;
+
+		Map	info = new HashMap();
+
+		info.put( "name", "synthetic torrent" );
+		info.put( "piece length", new Long( piece_length ));
+
+		List	files = new ArrayList();
+
+		long	total 	= num_pieces*piece_length;
+		long	left	= total;
+
+		for (int i=0;i<num_files;i++){
+
+			Map	file = new HashMap();
+
+			long	len = i==num_files-1?left:Math.min( left, total/num_files );
+
+			left -= len;
+
+			file.put( "length", new Long( len ));
+			file.put( "path", Arrays.asList( new Object[]{ "dir " + ( i%10 ), "file " + i + ".dat" }));
+
+			files.add( file );
+		}
+
+		info.put( "files", files );
+
+		byte[]	pieces = new byte[num_pieces*20];
+
+		random.nextBytes( pieces );
+
+		info.put( "pieces", pieces );
+
+		Map	torrent = new HashMap();
+
+		torrent.put( "announce", "http://tracker.example.com:6969/announce" );
+		torrent.put( "comment", "generated" );
+		torrent.put( "creation date", new Long( 1700000000 ));
+		torrent.put( "info", info );
+
+		return( torrent );
+	}
+
+	private static Map
+	createHandshake()
+	{
+		Map	m = new HashMap();
+
+		m.put( "ut_pex", new Long( 1 ));
+		m.put( "ut_metadata", new Long( 2 ));
+		m.put( "upload_only", new Long( 3 ));
+		m.put( "lt_donthave", new Long( 7 ));
+
+		Map	hs = new HashMap();
+
+		hs.put( "m", m );
+		hs.put( "v", "Vuze 5.7.6.0" );
+		hs.put( "p", new Long( 6881 ));
+		hs.put( "reqq", new Long( 255 ));
+		hs.put( "metadata_size", new Long( 31235 ));
+		hs.put( "yourip", new byte[]{ 127, 0, 0, 1 });
+		hs.put( "e", new Long( 1 ));
+
+		return( hs );
+	}
+}
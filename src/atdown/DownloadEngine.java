@@ -1,5 +1,7 @@
 package atdown;
 
+import java.util.List;
+
 import smartnode.models.Entry;
 
 
@@ -11,5 +13,7 @@ public interface DownloadEngine {
 
 	void download(Entry entry, String string) throws Exception;
 
+	void download(List<Entry> entries, String string) throws Exception;
+
 
 }
@@ -17,12 +17,9 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
-import javax.xml.bind.DatatypeConverter;
-
 import org.apache.commons.io.CopyUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
-import org.bitlet.wetorrent.Metafile;
 import org.gudy.azureus2.core3.logging.Logger;
 
 import smartnode.models.Collection;
@@ -37,6 +34,12 @@ public class Main {
 	final public static String ATDIR = System.getProperty("user.home") + "/.atdown/";
 	
 	public static boolean keepsharing = false;
+	public static boolean jsonStatus = false;
+	public static int maxActive = -1;
+	public static int maxConnections = -1;
+	public static int maxDownloadKBs = -1;
+	public static int maxUploadKBs = -1;
+	private static TorrentStore torrentStore;
 	private static PrintStream stdout = System.out;
 	private static PrintStream stderr = System.err;
 	
@@ -73,6 +76,15 @@ public class Main {
 			keepsharing = true;
 		}
 		
+		if (argsl.remove("-j")){
+			jsonStatus = true;
+		}
+		
+		maxActive = removeIntOption(argsl, "-a", maxActive);
+		maxConnections = removeIntOption(argsl, "-c", maxConnections);
+		maxDownloadKBs = removeIntOption(argsl, "-d", maxDownloadKBs);
+		maxUploadKBs = removeIntOption(argsl, "-u", maxUploadKBs);
+		
 		
 		Main.println("Welcome to the Academic Torrents Download tool!");
 		
@@ -111,11 +123,7 @@ public class Main {
 		//args = new String[]{"journal-of-machine-learning-research","ls"};
 		
 		if (args.length < 1){
-			Main.println("Usage: atdown ls // list connections");
-			Main.println("Usage: atdown INFOHASH // download entry");
-			Main.println("Usage: atdown INFOHASH ls // list contents of entry");
-			Main.println("Usage: atdown ... -v // verbose");
-			Main.println("Usage: atdown ... -s // keep sharing");
+			printUsage();
 			System.exit(0);
 		}
 		
@@ -147,23 +155,12 @@ public class Main {
         if (new File(input).exists() && !(new File(input).isDirectory())){
         	
         	byte[] torrent = IOUtils.toByteArray(new FileInputStream(new File(input)));
-        	Metafile meta = new Metafile(new ByteArrayInputStream(torrent));
-        	String infohash = DatatypeConverter.printHexBinary(meta.getInfoSha1());
-        	Entry e = new Entry(infohash);
-        	e.setName(meta.getName());
-        	e.setBibtex(meta.getComment());
-        	e.setTorrentFile(torrent);
-        	toget.add(e);
+        	toget.add(newEntry(getTorrentStore().put(null, torrent)));
+        	
         }else if (input.startsWith("http") || input.startsWith("ftp")){
         	
         	byte[] torrent = IOUtils.toByteArray(new URL(input));
-        	Metafile meta = new Metafile(new ByteArrayInputStream(torrent));
-        	String infohash = DatatypeConverter.printHexBinary(meta.getInfoSha1());
-        	Entry e = new Entry(infohash);
-        	e.setName(meta.getName());
-        	e.setBibtex(meta.getComment());
-        	e.setTorrentFile(torrent);
-        	toget.add(e);
+        	toget.add(newEntry(getTorrentStore().put(null, torrent)));
         	
         }else{
         	
@@ -174,14 +171,7 @@ public class Main {
                 	if (input.length() != 40)
                 		throw new Exception("Cannot be hash, not a big deal");
         			
-            		byte[] torrent = getFromCacheOrDownload(input);
-            		Metafile meta = new Metafile(new ByteArrayInputStream(torrent));
-            		String infohash = DatatypeConverter.printHexBinary(meta.getInfoSha1());
-                	Entry e = new Entry(infohash);
-                	e.setName(meta.getName());
-                	e.setBibtex(meta.getComment());
-                	e.setTorrentFile(torrent);
-                	toget.add(e);
+                	toget.add(newEntry(getFromCacheOrDownload(input)));
 
                 	
         		}catch(Exception e){
@@ -196,35 +186,7 @@ public class Main {
         				System.exit(-1);
         			}
         			
-        			int count = 0;
-        			Main.print("Fetching collection " + count + "/" + collection.size());
-        			
-        			for (Entry entry : collection.values()){
-        				count++;
-        				try{
-        					//System.out.println(entry.getInfohash());
-        					byte[] torrent = getFromCacheOrDownload(entry.getInfohash());
-        					
-	        				Metafile meta = new Metafile(new ByteArrayInputStream(torrent));
-	        				String infohash = DatatypeConverter.printHexBinary(meta.getInfoSha1());
-	        				entry.setTorrentFile(torrent);
-	        				if (!entry.getInfohash().equalsIgnoreCase(infohash)){
-	        					Main.println(entry.getInfohash());
-	        					Main.println(infohash);
-	        					throw new Exception("Collection-Entry Consistancy Error");
-	        				}
-	        				
-	        				toget.add(entry);
-        				
-        				}catch(Exception ex){
-        					Main.println("Error with entry: " + entry.getInfohash());
-        				}
-        				
-        				
-        				Main.print("\rFetching collection " + count + "/" + collection.size());
-        				
-        			}
-        			Main.println("");
+        			toget.addAll(new TorrentPrefetcher().prefetch(collection.values()));
         		}
         }
         
@@ -249,30 +211,28 @@ public class Main {
         		
         		// just list files
         		for (Entry e : toget){
-        			new WeTorrentDownloadEngine().ls(e);
+        			ls(getTorrentStore().get(e.getInfohash()));
         		}
         	}else if ("info".equals(args[1])){
         		
-        		
+        		for (Entry e : toget){
+        			info(getTorrentStore().get(e.getInfohash()));
+        		}
         		
         	}else{
         		
-        		de = new VuzeATDownloadEngine();
+        		de = newVuzeEngine();
         		
         		// download specific files
         		// NOT WORKING YET
-        		for (Entry e : toget){
-        			de.download(e, args[1]);
-        		}
+        		de.download(toget, args[1]);
         	}
         }else{
         
         	// just resume or start download it
-        	de = new VuzeATDownloadEngine();
+        	de = newVuzeEngine();
         	
-    		for (Entry e : toget){
-    			de.download(e, null);
-    		}
+        	de.download(toget, null);
         }
         
         //de.shutdown();
@@ -282,6 +242,49 @@ public class Main {
 	
 	
 	
+	private static DownloadEngine newVuzeEngine() throws Exception{
+		
+		VuzeATDownloadEngine de = new VuzeATDownloadEngine();
+		de.setLimits(maxActive, maxConnections, maxDownloadKBs, maxUploadKBs);
+		return de;
+	}
+	
+	
+	private static void printUsage(){
+		
+		Main.println("Usage: atdown ls // list connections");
+		Main.println("Usage: atdown INFOHASH // download entry");
+		Main.println("Usage: atdown INFOHASH ls // list contents of entry");
+		Main.println("Usage: atdown ... -v // verbose");
+		Main.println("Usage: atdown ... -s // keep sharing");
+		Main.println("Usage: atdown ... -j // status as json lines");
+		Main.println("Usage: atdown ... -a N // max active downloads");
+		Main.println("Usage: atdown ... -c N // max peer connections");
+		Main.println("Usage: atdown ... -d KBs // max download rate, 0 unlimited");
+		Main.println("Usage: atdown ... -u KBs // max upload rate, 0 unlimited");
+	}
+	
+	private static int removeIntOption(List<String> argsl, String option, int def){
+		
+		int i = argsl.indexOf(option);
+		
+		if (i < 0 || i + 1 >= argsl.size())
+			return def;
+		
+		argsl.remove(i);
+		String value = argsl.remove(i);
+		
+		try{
+			return Integer.parseInt(value);
+		}catch(NumberFormatException e){
+			Main.println("Invalid value for " + option + ": " + value);
+			printUsage();
+			System.exit(1);
+			return def;
+		}
+	}
+	
+	
 	public static String humanReadableByteCount(long bytes, boolean si) {
 	    int unit = si ? 1000 : 1024;
 	    if (bytes < unit) return bytes + "B";
@@ -301,37 +304,116 @@ public class Main {
 	public static String clean(String s){
 		return s.replaceAll("[^\\x00-\\x7f]", "");
 	}
+
+
+	/**
+	 * Writes data next to file and renames it into place so concurrent readers
+	 * see either the old contents or the new ones, never a partial file.
+	 */
+	public static void writeAtomically(File file, byte[] data) throws IOException{
+
+		File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+
+		try{
+			FileOutputStream fw = new FileOutputStream(tmp);
+			try{
+				fw.write(data);
+				fw.getFD().sync();
+			}finally{
+				fw.close();
+			}
+
+			renameOver(tmp, file);
+
+		}finally{
+			tmp.delete();
+		}
+	}
+
+	public static void renameOver(File from, File to) throws IOException{
+
+		if (from.renameTo(to))
+			return;
+
+		// windows will not rename over an existing file
+		to.delete();
+
+		if (!from.renameTo(to))
+			throw new IOException("Could not rename " + from + " to " + to);
+	}
+	
+	
+	public static synchronized TorrentStore getTorrentStore() throws IOException{
+		
+		if (torrentStore == null)
+			torrentStore = new TorrentStore(new File(ATDIR + "torrents.store"));
+		
+		return torrentStore;
+	}
+	
+	
+	static TorrentStore.Record getFromCacheOrDownload(String infohash) throws MalformedURLException, IOException{
+		
+		TorrentStore.Record r = getTorrentStore().get(infohash);
+		
+		if (r != null)
+			return r;
+		
+		return getTorrentStore().put(infohash, fetchTorrent(infohash));
+	}
 	
 	
-	private static byte[] getFromCacheOrDownload(String infohash) throws MalformedURLException, IOException{
+	/**
+	 * Loads a torrent missing from the store, from the per-file cache of older
+	 * versions when it is there, otherwise from AT.
+	 */
+	static byte[] fetchTorrent(String infohash) throws MalformedURLException, IOException{
 		
 		infohash = infohash.toLowerCase();
 		
-		try{
-			
-			byte[] torrent = IOUtils.toByteArray(new FileInputStream(new File(Main.ATDIR + infohash + ".torrent")));
-			
-			// verify it works
-			Metafile meta = new Metafile(new ByteArrayInputStream(torrent));
-			
-			return torrent;
-			
-		}catch(Exception e){
-
-			byte[] torrent = IOUtils.toByteArray(new URL("http://academictorrents.com/download/" + infohash));
-
-			FileOutputStream fw = new FileOutputStream(Main.ATDIR + infohash + ".torrent");
-			IOUtils.copy(new ByteArrayInputStream(torrent), fw);
-			fw.flush();
-			fw.close();
-
-			
-			return torrent;
-			
+		File legacy = new File(Main.ATDIR + infohash + ".torrent");
+		
+		if (legacy.exists()){
+			return FileUtils.readFileToByteArray(legacy);
 		}
 		
+		return IOUtils.toByteArray(new URL("http://academictorrents.com/download/" + infohash));
+	}
+	
+	
+	static Entry newEntry(TorrentStore.Record r) throws IOException{
+		
+		Entry e = new Entry(r.getInfohash());
+		e.setName(r.getName());
+		e.setBibtex(r.getComment());
+		e.setTorrentFile(r.getTorrent());
+		return e;
 	}
 	
 	
+	static void ls(TorrentStore.Record r){
+		
+		if (r.isSingleFile()){
+			Main.println(r.getInfohash() + "/" + clean(r.getName()));
+		}else{
+			for (String path : r.getFilePaths()){
+				Main.println(r.getInfohash() + "/" + clean(r.getName() + "/" + path));
+			}
+		}
+	}
+	
+	
+	static void info(TorrentStore.Record r){
+		
+		Main.println("infohash: " + r.getInfohash());
+		Main.println("name: " + clean(r.getName()));
+		Main.println("size: " + humanReadableByteCount(r.getLength(), true));
+		Main.println("files: " + Math.max(1, r.getFilePaths().length));
+		Main.println("pieces: " + r.getPieceCount() + " x " + humanReadableByteCount(r.getPieceLength(), false));
+		if (r.getComment() != null)
+			Main.println("comment: " + clean(r.getComment()));
+		Main.println("");
+	}
+	
 
 }
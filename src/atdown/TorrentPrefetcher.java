@@ -0,0 +1,158 @@
+package atdown;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import smartnode.models.Entry;
+
+/**
+ * Fetches the .torrent files of a collection in two overlapping stages: a
+ * pool of download workers pulls them from AT, and each result is handed
+ * straight to a parse/verify pool that checks the infohash and adds it to
+ * the TorrentStore. Entries already in the store skip both stages.
+ */
+public class TorrentPrefetcher {
+
+	public static final int DOWNLOAD_THREADS = 16;
+
+	private int downloadThreads;
+	private int verifyThreads;
+
+	private final AtomicInteger cached = new AtomicInteger();
+	private final AtomicInteger downloaded = new AtomicInteger();
+	private final AtomicInteger verified = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+
+	private final List<String> errors = new ArrayList<String>();
+
+	public TorrentPrefetcher() {
+		this(DOWNLOAD_THREADS, Runtime.getRuntime().availableProcessors());
+	}
+
+	public TorrentPrefetcher(int downloadThreads, int verifyThreads) {
+		this.downloadThreads = Math.max(1, downloadThreads);
+		this.verifyThreads = Math.max(1, verifyThreads);
+	}
+
+	/**
+	 * Resolves every entry, printing progress while it runs.
+	 *
+	 * @return the entries whose torrent was fetched and verified, in input order
+	 */
+	public List<Entry> prefetch(Collection<Entry> entries) throws InterruptedException {
+
+		final Entry[] in = entries.toArray(new Entry[entries.size()]);
+		final Entry[] out = new Entry[in.length];
+		final CountDownLatch done = new CountDownLatch(in.length);
+
+		final ExecutorService downloadPool = Executors.newFixedThreadPool(Math.min(downloadThreads, Math.max(1, in.length)));
+		final ExecutorService verifyPool = Executors.newFixedThreadPool(verifyThreads);
+
+		try{
+			for (int i = 0; i < in.length; i++){
+				final int index = i;
+				final Entry entry = in[i];
+
+				downloadPool.execute(new Runnable() {
+					public void run() {
+						final byte[] torrent;
+						try{
+							TorrentStore.Record r = Main.getTorrentStore().get(entry.getInfohash());
+							if (r != null){
+								entry.setTorrentFile(r.getTorrent());
+								out[index] = entry;
+								cached.incrementAndGet();
+								verified.incrementAndGet();
+								done.countDown();
+								return;
+							}
+
+							torrent = Main.fetchTorrent(entry.getInfohash());
+							downloaded.incrementAndGet();
+						}catch(Throwable e){
+							fail(entry, e);
+							done.countDown();
+							return;
+						}
+
+						verifyPool.execute(new Runnable() {
+							public void run() {
+								try{
+									// parses once and rejects a collection-entry consistency error
+									Main.getTorrentStore().put(entry.getInfohash(), torrent);
+									entry.setTorrentFile(torrent);
+									out[index] = entry;
+									verified.incrementAndGet();
+								}catch(Throwable e){
+									fail(entry, e);
+								}finally{
+									done.countDown();
+								}
+							}
+						});
+					}
+				});
+			}
+
+			Main.print("Fetching collection 0/" + in.length);
+			while (!done.await(250, TimeUnit.MILLISECONDS)){
+				printProgress(in.length);
+			}
+			printProgress(in.length);
+			Main.println("");
+
+		}finally{
+			downloadPool.shutdownNow();
+			verifyPool.shutdownNow();
+		}
+
+		synchronized (errors) {
+			for (String error : errors){
+				Main.println(error);
+			}
+		}
+
+		List<Entry> result = new ArrayList<Entry>(in.length);
+		for (Entry e : out){
+			if (e != null)
+				result.add(e);
+		}
+		return result;
+	}
+
+	public int getCached() {
+		return cached.get();
+	}
+
+	public int getDownloaded() {
+		return downloaded.get();
+	}
+
+	public int getVerified() {
+		return verified.get();
+	}
+
+	public int getFailed() {
+		return failed.get();
+	}
+
+	private void fail(Entry entry, Throwable e) {
+		failed.incrementAndGet();
+		// printed with the rest once the progress line is done
+		synchronized (errors) {
+			errors.add("Error with entry: " + entry.getInfohash() + " (" + e + ")");
+		}
+	}
+
+	private void printProgress(int total) {
+		Main.print("\rFetching collection " + (verified.get() + failed.get()) + "/" + total
+				+ " (" + cached.get() + " cached, " + downloaded.get() + " downloaded, " + failed.get() + " failed)");
+	}
+
+}
@@ -0,0 +1,507 @@
+package atdown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.bitlet.wetorrent.Metafile;
+
+/**
+ * Append-only store of .torrent files, read through memory mapped segments.
+ *
+ * Each record carries the raw torrent next to its pre-extracted name, size,
+ * file list and piece count, so listing an entry never needs a bdecode. The
+ * infohash to offset index is rebuilt at open by walking the record headers,
+ * anything from the first bad header on is cut off. A record's crc is only
+ * checked when it is looked up; a corrupt one is dropped from the index so the
+ * torrent gets fetched and appended again, and the later copy wins next scan.
+ *
+ * Layout: records never straddle a SEGMENT_SIZE boundary; a record that does
+ * not fit starts at the next boundary and the gap reads back as zeros.
+ *
+ * <pre>
+ * int MAGIC, int body length, body, int crc32(body)
+ * body = infohash[20], int meta length, meta, int torrent length, torrent
+ * </pre>
+ */
+public class TorrentStore {
+
+	private static final int MAGIC = 0x41544d53; // "ATMS"
+	private static final int HEADER = 8;
+	private static final int TRAILER = 4;
+
+	static final long SEGMENT_SIZE = 128 * 1024 * 1024;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+
+	private final Map<String, Long> index = new HashMap<String, Long>();
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+	// end of the last valid record we know of
+	private long end;
+
+	/**
+	 * Pre-extracted view of one stored torrent.
+	 */
+	public class Record {
+
+		private final long offset;
+		private final String infohash;
+		private String name;
+		private long length;
+		private long pieceLength;
+		private int pieceCount;
+		private String comment;
+		private String[] filePaths;
+		private long[] fileLengths;
+
+		private Record(long offset, String infohash) {
+			this.offset = offset;
+			this.infohash = infohash;
+		}
+
+		public String getInfohash() {
+			return infohash;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		public long getPieceLength() {
+			return pieceLength;
+		}
+
+		public int getPieceCount() {
+			return pieceCount;
+		}
+
+		public String getComment() {
+			return comment;
+		}
+
+		/**
+		 * @return paths relative to the torrent name, empty for single file torrents
+		 */
+		public String[] getFilePaths() {
+			return filePaths;
+		}
+
+		public long[] getFileLengths() {
+			return fileLengths;
+		}
+
+		public boolean isSingleFile() {
+			return filePaths.length == 0;
+		}
+
+		/**
+		 * Copies the raw .torrent out of the store, checking its crc.
+		 */
+		public byte[] getTorrent() throws IOException {
+			return readTorrent(offset);
+		}
+	}
+
+	public TorrentStore(File file) throws IOException {
+
+		this.file = file;
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+
+		FileLock lock = channel.lock();
+		try{
+			scan();
+		}finally{
+			lock.release();
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return the stored record or null if the torrent is not in the store
+	 */
+	public synchronized Record get(String infohash) throws IOException {
+
+		infohash = infohash.toLowerCase();
+
+		Long offset = index.get(infohash);
+
+		if (offset == null && channel.size() > end){
+			// another process may have appended since we last looked, the lock keeps
+			// us from reading one of its records half written
+			FileLock lock = channel.lock();
+			try{
+				scan();
+			}finally{
+				lock.release();
+			}
+			offset = index.get(infohash);
+		}
+
+		if (offset == null)
+			return null;
+
+		if (!isIntact(offset)){
+			index.remove(infohash);
+			return null;
+		}
+
+		return readRecord(offset);
+	}
+
+	/**
+	 * Parses torrent once and appends it with its extracted metadata.
+	 *
+	 * @param expectedInfohash checked against the torrent when not null
+	 * @return the new record, or the existing one if already stored
+	 */
+	public Record put(String expectedInfohash, byte[] torrent) throws IOException {
+
+		Metafile meta;
+		try{
+			meta = new Metafile(new ByteArrayInputStream(torrent));
+		}catch(NoSuchAlgorithmException e){
+			throw new IOException("Invalid torrent", e);
+		}catch(RuntimeException e){
+			// missing or mistyped keys surface as cast / null errors
+			throw new IOException("Invalid torrent", e);
+		}
+
+		String infohash = DatatypeConverter.printHexBinary(meta.getInfoSha1()).toLowerCase();
+
+		if (expectedInfohash != null && !expectedInfohash.equalsIgnoreCase(infohash)){
+			throw new IOException("Infohash mismatch, expected " + expectedInfohash + " got " + infohash);
+		}
+
+		byte[] body = encodeBody(meta, torrent);
+
+		CRC32 crc = new CRC32();
+		crc.update(body);
+
+		ByteBuffer rec = ByteBuffer.allocate(HEADER + body.length + TRAILER);
+		rec.putInt(MAGIC);
+		rec.putInt(body.length);
+		rec.put(body);
+		rec.putInt((int) crc.getValue());
+		rec.flip();
+
+		if (rec.remaining() > SEGMENT_SIZE){
+			throw new IOException("Torrent too large for store: " + infohash);
+		}
+
+		synchronized (this) {
+
+			FileLock lock = channel.lock();
+			try{
+				scan();
+
+				Long existing = index.get(infohash);
+				if (existing != null && isIntact(existing)){
+					return readRecord(existing);
+				}
+
+				long pos = end;
+				long segmentRemaining = SEGMENT_SIZE - (pos % SEGMENT_SIZE);
+				if (rec.remaining() > segmentRemaining){
+					pos += segmentRemaining;
+				}
+
+				long at = pos;
+				while (rec.hasRemaining()){
+					at += channel.write(rec, at);
+				}
+				channel.force(false);
+
+				index.put(infohash, pos);
+				end = at;
+
+				return readRecord(pos);
+			}finally{
+				lock.release();
+			}
+		}
+	}
+
+	public synchronized void close() throws IOException {
+		unmapAll();
+		raf.close();
+	}
+
+	private static byte[] encodeBody(Metafile meta, byte[] torrent) throws IOException {
+
+		ByteArrayOutputStream metaBytes = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(metaBytes);
+
+		writeString(dos, meta.getName());
+		dos.writeLong(meta.getLength());
+		dos.writeLong(meta.getPieceLength());
+		dos.writeInt(meta.getPieces().size());
+		writeString(dos, meta.getComment());
+
+		List files = meta.getFiles();
+		dos.writeInt(files.size());
+		for (Object elem : files){
+			Map file = (Map) elem;
+			List path = (List) file.get(ByteBuffer.wrap("path".getBytes()));
+
+			StringBuilder pathName = new StringBuilder();
+			Iterator pathIterator = path.iterator();
+			while (pathIterator.hasNext()){
+				if (pathName.length() > 0)
+					pathName.append('/');
+				pathName.append(new String(((ByteBuffer) pathIterator.next()).array()));
+			}
+
+			writeString(dos, pathName.toString());
+			dos.writeLong((Long) file.get(ByteBuffer.wrap("length".getBytes())));
+		}
+		dos.flush();
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(body);
+		out.write(meta.getInfoSha1());
+		out.writeInt(metaBytes.size());
+		metaBytes.writeTo(out);
+		out.writeInt(torrent.length);
+		out.write(torrent);
+		out.flush();
+
+		return body.toByteArray();
+	}
+
+	private static void writeString(DataOutputStream dos, String s) throws IOException {
+		if (s == null){
+			dos.writeInt(-1);
+		}else{
+			byte[] b = s.getBytes("UTF-8");
+			dos.writeInt(b.length);
+			dos.write(b);
+		}
+	}
+
+	private static String readString(DataInputStream dis) throws IOException {
+		int len = dis.readInt();
+		if (len < 0)
+			return null;
+		byte[] b = new byte[len];
+		dis.readFully(b);
+		return new String(b, "UTF-8");
+	}
+
+	/**
+	 * Indexes every record header between end and the current file size and
+	 * truncates the file at the first one that doesn't hold together, a torn
+	 * tail left by a crash mid append. Only the headers are read, the crc is
+	 * left to isIntact. Must be called holding the file lock.
+	 */
+	private void scan() throws IOException {
+
+		long size = channel.size();
+		long pos = end;
+		ByteBuffer header = ByteBuffer.allocate(HEADER + 20);
+
+		while (pos + HEADER <= size){
+
+			long segmentRemaining = SEGMENT_SIZE - (pos % SEGMENT_SIZE);
+
+			header.clear();
+			if (segmentRemaining < header.capacity()){
+				pos += segmentRemaining;
+				continue;
+			}
+
+			channel.read(header, pos);
+			header.flip();
+			if (header.remaining() < HEADER)
+				break;
+
+			int magic = header.getInt();
+			if (magic == 0){
+				// gap up to the next segment
+				pos += segmentRemaining;
+				continue;
+			}
+
+			int len = header.getInt();
+			if (magic != MAGIC || len < 28 || HEADER + (long) len + TRAILER > segmentRemaining
+					|| pos + HEADER + len + TRAILER > size || header.remaining() < 20)
+				break;
+
+			byte[] hash = new byte[20];
+			header.get(hash);
+			index.put(DatatypeConverter.printHexBinary(hash).toLowerCase(), pos);
+
+			pos += HEADER + len + TRAILER;
+			end = pos;
+		}
+
+		if (size > end){
+			// windows won't truncate a mapped file, and on the others a mapping over
+			// the cut off part faults when touched
+			unmapAll();
+			try{
+				channel.truncate(end);
+			}catch(IOException e){
+				// another process still has it mapped, the next append overwrites the tail
+			}
+		}
+	}
+
+	private void unmapAll() {
+		for (MappedByteBuffer mapped : segments){
+			if (mapped != null)
+				unmap(mapped);
+		}
+		segments.clear();
+	}
+
+	/**
+	 * Releases a mapping now rather than when it is collected. Safe as no
+	 * slice of it outlives the synchronized read that made it.
+	 */
+	private static void unmap(MappedByteBuffer mapped) {
+		try{
+			Method cleaner = mapped.getClass().getMethod("cleaner");
+			cleaner.setAccessible(true);
+			Object c = cleaner.invoke(mapped);
+			if (c != null)
+				c.getClass().getMethod("clean").invoke(c);
+		}catch(Throwable e){
+			// no sun cleaner, it goes with the buffer
+		}
+	}
+
+	private ByteBuffer slice(long offset, int len) throws IOException {
+
+		int segment = (int) (offset / SEGMENT_SIZE);
+		int position = (int) (offset % SEGMENT_SIZE);
+
+		while (segments.size() <= segment){
+			segments.add(null);
+		}
+
+		MappedByteBuffer mapped = segments.get(segment);
+		if (mapped == null || mapped.capacity() < position + len){
+			long start = segment * SEGMENT_SIZE;
+			long mapLen = Math.min(SEGMENT_SIZE, channel.size() - start);
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, mapLen);
+			segments.set(segment, mapped);
+		}
+
+		ByteBuffer view = mapped.duplicate();
+		view.position(position);
+		view.limit(position + len);
+		return view.slice();
+	}
+
+	private synchronized boolean isIntact(long offset) throws IOException {
+		try{
+			readBody(offset);
+			return true;
+		}catch(IOException e){
+			return false;
+		}
+	}
+
+	private synchronized Record readRecord(long offset) throws IOException {
+		try{
+			return readRecordSupport(offset);
+		}catch(RuntimeException e){
+			// only a record that skipped isIntact can get here
+			throw new IOException("Corrupt record in " + file + " at " + offset, e);
+		}
+	}
+
+	private Record readRecordSupport(long offset) throws IOException {
+
+		ByteBuffer header = slice(offset, HEADER);
+		header.getInt();
+		int len = header.getInt();
+
+		ByteBuffer body = slice(offset + HEADER, len);
+		byte[] hash = new byte[20];
+		body.get(hash);
+		int metaLen = body.getInt();
+		byte[] metaBytes = new byte[metaLen];
+		body.get(metaBytes);
+
+		Record r = new Record(offset, DatatypeConverter.printHexBinary(hash).toLowerCase());
+
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(metaBytes));
+		r.name = readString(dis);
+		r.length = dis.readLong();
+		r.pieceLength = dis.readLong();
+		r.pieceCount = dis.readInt();
+		r.comment = readString(dis);
+		int files = dis.readInt();
+		r.filePaths = new String[files];
+		r.fileLengths = new long[files];
+		for (int i = 0; i < files; i++){
+			r.filePaths[i] = readString(dis);
+			r.fileLengths[i] = dis.readLong();
+		}
+
+		return r;
+	}
+
+	private synchronized byte[] readBody(long offset) throws IOException {
+
+		int len = slice(offset, HEADER).getInt(4);
+
+		ByteBuffer body = slice(offset + HEADER, len);
+		byte[] all = new byte[len];
+		body.get(all);
+
+		CRC32 crc = new CRC32();
+		crc.update(all);
+		if ((int) crc.getValue() != slice(offset + HEADER + len, TRAILER).getInt()){
+			throw new IOException("Corrupt record in " + file + " at " + offset);
+		}
+		return all;
+	}
+
+	private synchronized byte[] readTorrent(long offset) throws IOException {
+
+		byte[] all = readBody(offset);
+
+		// skip infohash and metadata
+		ByteBuffer b = ByteBuffer.wrap(all);
+		b.position(20 + 4 + b.getInt(20));
+		byte[] torrent = new byte[b.getInt()];
+		b.get(torrent);
+		return torrent;
+	}
+
+}
@@ -6,9 +6,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 import javax.naming.Context;
 import javax.naming.NamingException;
@@ -16,18 +20,22 @@ import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.InitialDirContext;
 
+import org.gudy.azureus2.core3.config.COConfigurationManager;
 import org.gudy.azureus2.core3.disk.DiskManagerFileInfo;
 import org.gudy.azureus2.core3.download.DownloadManager;
 import org.gudy.azureus2.core3.download.DownloadManagerListener;
 import org.gudy.azureus2.core3.global.GlobalManager;
 import org.gudy.azureus2.core3.global.GlobalManagerDownloadRemovalVetoException;
 import org.gudy.azureus2.core3.peer.PEPeer;
+import org.gudy.azureus2.core3.torrent.TOTorrentException;
+import org.gudy.azureus2.core3.util.ByteFormatter;
 
 import smartnode.models.Entry;
 
 import com.aelitis.azureus.core.AzureusCore;
 import com.aelitis.azureus.core.AzureusCoreException;
 import com.aelitis.azureus.core.AzureusCoreFactory;
+import com.aelitis.azureus.core.AzureusCoreLifecycleAdapter;
 
 
 public class VuzeATDownloadEngine implements DownloadEngine{
@@ -35,6 +43,16 @@ public class VuzeATDownloadEngine implements DownloadEngine{
 	AzureusCore core;
 	final static Thread progressChecker  = new Thread(new VuzeATDownloadEngineStatus());
 	
+	// limits applied to the whole batch, -1 leaves the core's configured value
+	private int maxActive = -1;
+	private int maxConnections = -1;
+	private int maxDownloadKBs = -1;
+	private int maxUploadKBs = -1;
+	
+	// config values the limits replaced, null when a key wasn't set. They go back before the
+	// core saves its config on the way down so one run's limits don't stick for the next
+	private final Map<String, Integer> overridden = new HashMap<String, Integer>();
+	
 	public VuzeATDownloadEngine() throws Exception {		
 		
 		System.setProperty("azureus.install.path",Main.ATDIR);
@@ -49,20 +67,16 @@ public class VuzeATDownloadEngine implements DownloadEngine{
 	    if (!core.isStarted())
 	    	core.start();
 	    
-	  //remove previous stuff
-	    try {
+	    core.addLifecycleListener(new AzureusCoreLifecycleAdapter(){
 	    	
-		    GlobalManager globalManager = core.getGlobalManager();
-		    for (DownloadManager d : globalManager.getDownloadManagers()){
-		    	System.out.println("Removed: " + d.getDisplayName());
-		    	
-					globalManager.removeDownloadManager(d);
-		    }
-		} catch (GlobalManagerDownloadRemovalVetoException e) {
-			e.printStackTrace();
-			throw new Exception("Error setting up engine");
-		}
-	    
+	    	public boolean syncInvokeRequired(){
+	    		return true;
+	    	}
+	    	
+	    	public void stopping(AzureusCore core){
+	    		restoreLimits();
+	    	}
+	    });
 	    
 	    //setup status checker
 		progressChecker.setDaemon(true);
@@ -89,55 +103,167 @@ public class VuzeATDownloadEngine implements DownloadEngine{
 	
 	
 	
-	public void download(Entry entry, String specificFile) throws InterruptedException, GlobalManagerDownloadRemovalVetoException, IOException {
+	/**
+	 * Limits for the whole batch, any value below 0 keeps the core's setting.
+	 * 
+	 * @param maxActive downloads running at once, the rest wait queued
+	 * @param maxConnections peer connections across all downloads
+	 * @param maxDownloadKBs shared download rate, 0 is unlimited
+	 * @param maxUploadKBs shared upload rate, 0 is unlimited
+	 */
+	public void setLimits(int maxActive, int maxConnections, int maxDownloadKBs, int maxUploadKBs){
 		
-		Main.println("Downloading: " + entry.getName());
-//	    new File(Main.ATDIR + "/az-config").delete();
-//	    System.setProperty("azureus.config.path", Main.ATDIR + "/az-config");
-
-	    
-	   // [Start/Stop Rules, Torrent Removal Rules, Share Hoster, Default Tracker Web, Core Update Checker, Core Patch Checker, Platform Checker, UPnP, DHT, DHT Tracker, Magnet URI Handler, External Seed, Local Tracker, Tracker Peer Auth, Network Status, Buddy, RSS]
-
-//	    PluginManager.getDefaults().setDefaultPluginEnabled(PluginManagerDefaults.PID_PLATFORM_CHECKER, false);
-//	    PluginManager.getDefaults().setDefaultPluginEnabled(PluginManagerDefaults.PID_CORE_PATCH_CHECKER, false);
-//	    PluginManager.getDefaults().setDefaultPluginEnabled(PluginManagerDefaults.PID_CORE_UPDATE_CHECKER, false);
-//	    PluginManager.getDefaults().setDefaultPluginEnabled(PluginManagerDefaults.PID_PLUGIN_UPDATE_CHECKER, false);
-//	    
-	    
-
+		this.maxActive = maxActive;
+		this.maxConnections = maxConnections;
+		this.maxDownloadKBs = maxDownloadKBs;
+		this.maxUploadKBs = maxUploadKBs;
+	}
+	
+	
+	public void download(Entry entry, String specificFile) throws Exception {
+		
+		List<Entry> entries = new ArrayList<Entry>();
+		entries.add(entry);
+		download(entries, specificFile);
+	}
+	
+	
+	/**
+	 * Adds every entry queued and lets the start/stop rules run them within
+	 * the configured limits. Blocks until all of them completed or failed.
+	 */
+	public void download(List<Entry> entries, String specificFile) throws Exception {
+		
+	    applyLimits();
 	    
 	    File downloadDirectory = new File("."); //Destination directory
-	    //if(downloadDirectory.exists() == false) downloadDirectory.mkdir();
-	    
-	    //File downloadedTorrentFile = new File(Main.ATDIR + "/" + entry.getInfohash() + ".torrent");
 	    
-	    //Start the download of the torrent 
 	    GlobalManager globalManager = core.getGlobalManager();
 	    
-	    //FileUtils.copyInputStreamToFile(new ByteArrayInputStream(entry.getTorrentFile()), downloadedTorrentFile);
+	    Set<String> wanted = new HashSet<String>();
+	    for (Entry entry : entries){
+	    	wanted.add(entry.getInfohash().toLowerCase());
+	    }
 	    
-	    DownloadManager manager = globalManager.addDownloadManager(Main.ATDIR + entry.getInfohash() + ".torrent",
-	                                                               downloadDirectory.getAbsolutePath());
+	    //remove previous stuff, keeping what this batch asks for so it resumes without a recheck
+	    try {
+		    for (DownloadManager d : globalManager.getDownloadManagers()){
+		    	if (!wanted.contains(hashOf(d))){
+			    	System.out.println("Removed: " + d.getDisplayName());
+					globalManager.removeDownloadManager(d);
+		    	}
+		    }
+		} catch (GlobalManagerDownloadRemovalVetoException e) {
+			e.printStackTrace();
+			throw new Exception("Error setting up engine");
+		}
 	    
-	    //manager.getDiskManager().
+	    // the same infohash twice in a batch gets the same manager back, wait on each once
+	    Set<DownloadManager> managers = new LinkedHashSet<DownloadManager>();
 	    
-//	    for (DiskManagerFileInfo i : manager.getDiskManager().getFiles()){
-//	    	
-////	    	i.
-//	    }
+	    for (Entry entry : entries){
+	    	
+	    	Main.println("Downloading: " + entry.getName());
+	    	
+		    // vuze loads torrents from a path, so materialise this one out of the TorrentStore
+		    File torrentFile = new File(Main.ATDIR + entry.getInfohash() + ".torrent");
+		    if (!torrentFile.exists())
+		    	Main.writeAtomically(torrentFile, entry.getTorrentFile());
+		    
+		    DownloadManager manager = globalManager.addDownloadManager(torrentFile.getAbsolutePath(), null,
+		    		downloadDirectory.getAbsolutePath(), DownloadManager.STATE_QUEUED, true);
+		    
+		    if (manager == null){
+		    	Main.println("Error adding: " + entry.getName());
+		    	continue;
+		    }
+		    
+		    managers.add(manager);
+	    }
 	    
+	    // anything left stopped from an earlier run joins the queue too. Done before listening
+	    // as adding a listener reports the current state, and stopped counts as finished
+	    globalManager.startAllDownloads();
 	    
+	    CountDownLatch remaining = new CountDownLatch(managers.size());
+	    DownloadManagerListener listener = new DownloadStateListener(remaining);
 	    
-	    //Main.println("Downloading");
-	    DownloadManagerListener listener = new DownloadStateListener();
-	    manager.addListener(listener);    
-//	    Main.println(manager.getErrorDetails());
-//	    new PojoExplorer(manager);
-//	    PojoExplorer.pausethread();
-	    globalManager.startAllDownloads();
+	    for (DownloadManager manager : managers){
+	    	manager.addListener(listener);
+	    }
 	    
-	    //core.requestStop();
-
+	    remaining.await();
+	    
+		Main.println("\nDownload Completed\n");
+		
+		if (Main.keepsharing){
+			Main.println("\n-s Will keep sharing\n");
+			return;
+		}
+		
+		shutdown();
+	}
+	
+	
+	private void applyLimits(){
+		
+		if (maxActive >= 0){
+			override("max active torrents", maxActive);
+			override("max downloads", maxActive);
+		}
+		
+		if (maxConnections >= 0){
+			override("Max.Peer.Connections.Total", maxConnections);
+			
+			// split the total across the downloads that can run together
+			int active = COConfigurationManager.getIntParameter("max active torrents");
+			if (maxConnections > 0 && active > 0)
+				override("Max.Peer.Connections.Per.Torrent", Math.max(1, maxConnections / active));
+		}
+		
+		if (maxDownloadKBs >= 0)
+			override("Max Download Speed KBs", maxDownloadKBs);
+		
+		if (maxUploadKBs >= 0)
+			override("Max Upload Speed KBs", maxUploadKBs);
+	}
+	
+	
+	private void override(String key, int value){
+		
+		synchronized (overridden){
+			if (!overridden.containsKey(key))
+				overridden.put(key, COConfigurationManager.hasParameter(key, true) ? COConfigurationManager.getIntParameter(key) : null);
+		}
+		
+		COConfigurationManager.setParameter(key, value);
+	}
+	
+	
+	private void restoreLimits(){
+		
+		synchronized (overridden){
+			for (Map.Entry<String, Integer> e : overridden.entrySet()){
+				if (e.getValue() == null)
+					COConfigurationManager.removeParameter(e.getKey());
+				else
+					COConfigurationManager.setParameter(e.getKey(), e.getValue().intValue());
+			}
+			overridden.clear();
+		}
+	}
+	
+	
+	private static String hashOf(DownloadManager d){
+		
+		try{
+			return ByteFormatter.encodeString(d.getTorrent().getHash()).toLowerCase();
+		}catch(TOTorrentException e){
+			return "";
+		}catch(NullPointerException e){
+			// torrent failed to load
+			return "";
+		}
 	}
 
 	@Override
@@ -150,6 +276,20 @@ public class VuzeATDownloadEngine implements DownloadEngine{
 
 class DownloadStateListener implements DownloadManagerListener {
 
+	// counted down once per download when it completes, fails or stops
+	private final CountDownLatch remaining;
+	private final Set<DownloadManager> finished = new HashSet<DownloadManager>();
+	
+	DownloadStateListener(CountDownLatch remaining) {
+		this.remaining = remaining;
+	}
+	
+	private void finished(DownloadManager manager){
+		synchronized (finished) {
+			if (finished.add(manager))
+				remaining.countDown();
+		}
+	}
 	
 	public void stateChanged(DownloadManager manager, int state) {
 		switch (state) {
@@ -158,17 +298,26 @@ class DownloadStateListener implements DownloadManagerListener {
 			// Start a new daemon thread periodically check
 			// the progress of the upload and print it out
 			// to the command line
-			if (!VuzeATDownloadEngine.progressChecker.isAlive())
-				VuzeATDownloadEngine.progressChecker.start();
+			synchronized (VuzeATDownloadEngine.progressChecker) {
+				if (!VuzeATDownloadEngine.progressChecker.isAlive())
+					VuzeATDownloadEngine.progressChecker.start();
+			}
+			break;
+		case DownloadManager.STATE_SEEDING:
+			// already complete when added, downloadComplete never fires
+			finished(manager);
 			break;
 		case DownloadManager.STATE_CHECKING:
 			Main.println("Checking Existing Data.." + manager.getDisplayName());
 			break;
 		case DownloadManager.STATE_ERROR:
 			System.out.println("Error : ( Check Log " + manager.getErrorDetails());
+			finished(manager);
 			break;
 		case DownloadManager.STATE_STOPPED:
-			//Main.println("\nStopped.." + manager.getDisplayName());
+			// stopped from outside or by the queue rules, it isn't coming back on its own
+			Main.println("\nStopped: " + manager.getDisplayName());
+			finished(manager);
 			break;
 		case DownloadManager.STATE_ALLOCATING:
 			Main.println("Allocating File Space.." + manager.getDisplayName());
@@ -186,41 +335,9 @@ class DownloadStateListener implements DownloadManagerListener {
 	}
 
 	
-	
-	
-	
-	
 	public void downloadComplete(DownloadManager manager) {
-		Main.println("\nDownload Completed\n");
-		
-		if (Main.keepsharing){
-			Main.println("\n-s Will keep sharing\n");
-			return;
-		}
-		
-		
-		AzureusCore core = AzureusCoreFactory.getSingleton();
-		
-		try {
-			core.getGlobalManager().removeDownloadManager(manager,false, false);
-		} catch (AzureusCoreException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (GlobalManagerDownloadRemovalVetoException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		
-		// if done
-		if (core.getGlobalManager().isSeedingOnly()){
-			
-			try {
-				core.requestStop();
-			} catch (AzureusCoreException aze) {
-				Main.println("Could not end session gracefully - forcing exit.....");
-				core.stop();
-			}
-		}
+		Main.println("\nCompleted: " + manager.getDisplayName());
+		finished(manager);
 	}
 
 	@Override
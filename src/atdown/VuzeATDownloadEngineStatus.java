@@ -1,12 +1,13 @@
 package atdown;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.naming.Context;
 import javax.naming.NamingException;
@@ -16,95 +17,91 @@ import javax.naming.directory.InitialDirContext;
 
 import org.gudy.azureus2.core3.download.DownloadManager;
 import org.gudy.azureus2.core3.peer.PEPeer;
+import org.gudy.azureus2.core3.peer.PEPeerManager;
+import org.gudy.azureus2.core3.util.ByteFormatter;
 
 import com.aelitis.azureus.core.AzureusCore;
 import com.aelitis.azureus.core.AzureusCoreException;
 import com.aelitis.azureus.core.AzureusCoreFactory;
 
+	/**
+	 * Once a second folds the core's download and peer stats into counters
+	 * that live across ticks, then renders them either as a single terminal
+	 * line or, with -j, as one JSON object per line for monitoring.
+	 *
+	 * Reverse DNS for the mirror names happens on a background thread; the
+	 * tick only reads names that are already resolved.
+	 */
 	public class VuzeATDownloadEngineStatus implements Runnable{
 
+		private static final int TOP_HOSTS = 3;
+
+		// hosts unseen for this many ticks are dropped
+		private static final int HOST_EXPIRY_TICKS = 60;
+
+		// asking jline for the width runs stty, so only do it now and then
+		private static final int WIDTH_REFRESH_TICKS = 10;
+
+		static class DownloadCounters {
+			String infohash;
+			String name;
+			int state;
+			long rate;
+			long size;
+			long remaining;
+			int peers;
+			int seen;
+		}
+
+		static class HostCounters {
+			String ip;
+			String protocol;
+			long rate;
+			int seen;
+		}
+
+		private final Map<DownloadManager, DownloadCounters> downloads = new IdentityHashMap<DownloadManager, DownloadCounters>();
+		private final Map<String, HostCounters> hosts = new HashMap<String, HostCounters>();
+		private final HostCounters[] top = new HostCounters[TOP_HOSTS];
+		private final HostNameResolver resolver = new HostNameResolver();
+		private final StringBuilder line = new StringBuilder(512);
+
+		private int tick;
+		private long totalRate;
+		private long totalSize;
+		private long totalRemaining;
+		private int activeHosts;
+
+		private int terminalWidth = 80;
+		private int previousLength;
+
 		public void run() {
 			try {
 				//Main.println("Thread Running");
-				boolean downloadCompleted = false;
-				while (!downloadCompleted) {
+				while (true) {
 					AzureusCore core = AzureusCoreFactory.getSingleton();
 					List<DownloadManager> managers = core.getGlobalManager().getDownloadManagers();
 
 					if (managers.size() < 1){
 						Main.println("Download Halted!");
-						downloadCompleted = true;
-						
+
 						try {
 							core.requestStop();
 						} catch (AzureusCoreException aze) {
 							Main.println("Could not end session gracefully - forcing exit.....");
 							core.stop();
 						}
-						
-						
-						break;								
-					}
-					
-					// maybe in the future we allways try ourself?
-//					core.getGlobalManager().getDownloadManagers().get(0).getPeerManager()
-//					.addPeer("127.0.0.1", 6801, 6801, false, null);
-					
-					String peers = getPeerString(core);
-					
-					long totalReceivedRate = 0;
-					long totalSize = 0;
-					long totalRemaining = 0;
-					
-					
-					for (DownloadManager man : managers){
-						
-						try{
-							//totalRemaining += man.getDiskManager().getRemainingExcludingDND();
-							
-							totalRemaining += man.getDiskManager().getRemaining();
-							
-							totalReceivedRate += man.getStats().getDataReceiveRate();
-							
-							totalSize += man.getSize();
-								
-						}catch(Exception e){
-							System.out.println("Error with stats list " + man.getDisplayName());
-						}
+
+						break;
 					}
-					
-					int terminalWidth = jline.TerminalFactory.get().getWidth();
-					
-					for (int i = 0; i < terminalWidth; i++)
-						Main.print("\b");
-					
-					for (int i = 0; i < terminalWidth; i++)
-						Main.print(" ");
-					
-					Main.print("\r");
-
-					
-					// There is only one in the queue.
-					Main.print(String.format("%." + (terminalWidth-1) + "s",Main.humanReadableByteCount(totalReceivedRate, true) + "/s " + 
-							Main.humanReadableByteCountRatio(totalSize - totalRemaining, totalSize, true) + "/" + 
-							+ ((int)((totalSize - totalRemaining)/(totalSize*1.0)*100)) + "%, " 
-							+ peers));
-					
-					
-					
-					
-					
-					
-					
-					
-					// There is only one in the queue.
-//					DownloadManager man = managers.get(0);
-//					Main.print(Main.humanReadableByteCount(man.getStats().getDataReceiveRate(), true) + "/s " + 
-//							Main.humanReadableByteCountRatio(man.getSize() - man.getDiskManager().getRemainingExcludingDND(), man.getSize(),true) + "/" + 
-//							+ (man.getStats().getCompleted() / 10.0) + "%, " 
-//							+ man.getNbSeeds() + " Mirrors " + peers.toString());
-//					downloadCompleted = man.isDownloadComplete(true);
-//					Main.print("\r");
+
+					update(managers);
+
+					if (Main.jsonStatus)
+						renderJSON();
+					else
+						renderTTY();
+
 					// Check every 1 seconds on the progress
 					Thread.sleep(1000);
 				}
@@ -113,129 +110,304 @@ import com.aelitis.azureus.core.AzureusCoreFactory;
 			}
 
 		}
-		
-		
-		
-		
-		public static String getPeerString(AzureusCore core) throws NamingException {
-
-
-			List<String> peers = new ArrayList<String>();
-			List<DownloadManager> managers = core.getGlobalManager().getDownloadManagers();
-			
-			
-			final Map<String, Long> rawPeers = new HashMap<String, Long>();
-			final Map<String, String> peerType = new HashMap<String, String>();
-			
-			for (DownloadManager m  : managers){
+
+
+		void update(List<DownloadManager> managers) {
+
+			tick++;
+			totalRate = 0;
+			totalSize = 0;
+			totalRemaining = 0;
+			activeHosts = 0;
+
+			for (DownloadManager man : managers){
+
+				DownloadCounters d = downloads.get(man);
+				if (d == null){
+					d = new DownloadCounters();
+					d.name = man.getDisplayName();
+					try{
+						d.infohash = ByteFormatter.encodeString(man.getTorrent().getHash()).toLowerCase();
+					}catch(Exception e){
+						d.infohash = "";
+					}
+					downloads.put(man, d);
+				}
+				d.seen = tick;
+				d.state = man.getState();
+				d.peers = 0;
+
 				try{
-					for (PEPeer p : m.getPeerManager().getPeers()){
-						
-						Long speed = rawPeers.get(p.getIPHostName());
-						
-						Long speedLocal = p.getStats().getDataReceiveRate();
-						
-						if (speed != null)
-							speed = speed + speedLocal;
-						else
-							speed = speedLocal;
-						
-						String iphostname = p.getIPHostName();
-						rawPeers.put(iphostname, speed);
-						
-						String prot = p.getProtocol();
-//						if (prot.contains("HTTP")){
-//							prot = "http";
-//						}else if (prot.contains("FTP")){
-//							prot = "ftp";
-//						}else{
-//							prot = "";
-//						}
-						
-						if (prot.contains("TCP")){
-							prot = "";
+					d.remaining = man.getDiskManager().getRemaining();
+					d.rate = man.getStats().getDataReceiveRate();
+					d.size = man.getSize();
+				}catch(Exception e){
+					// no disk manager while stopped or queued
+					d.rate = 0;
+				}
+
+				totalRemaining += d.remaining;
+				totalRate += d.rate;
+				totalSize += d.size;
+
+				PEPeerManager pm = man.getPeerManager();
+				if (pm == null)
+					continue;
+
+				try{
+					for (PEPeer p : pm.getPeers()){
+
+						d.peers++;
+
+						String ip = p.getIp();
+						HostCounters h = hosts.get(ip);
+						if (h == null){
+							h = new HostCounters();
+							h.ip = ip;
+							hosts.put(ip, h);
+						}
+
+						if (h.seen != tick){
+							h.seen = tick;
+							h.rate = 0;
+							activeHosts++;
 						}
-						
-						
-						peerType.put(iphostname, prot);
+
+						h.rate += p.getStats().getDataReceiveRate();
+
+						String prot = p.getProtocol();
+						h.protocol = prot.contains("TCP") ? "" : prot;
 					}
 				}catch(Exception e){
-					System.out.println("Error with peer list " + m.getDisplayName());
+					System.out.println("Error with peer list " + man.getDisplayName());
+				}
+			}
+
+			for (Iterator<DownloadCounters> it = downloads.values().iterator(); it.hasNext();){
+				if (it.next().seen != tick)
+					it.remove();
+			}
+
+			for (int i = 0; i < TOP_HOSTS; i++)
+				top[i] = null;
+
+			for (Iterator<HostCounters> it = hosts.values().iterator(); it.hasNext();){
+				HostCounters h = it.next();
+
+				if (h.seen != tick){
+					if (tick - h.seen > HOST_EXPIRY_TICKS)
+						it.remove();
+					continue;
+				}
+
+				// insertion into the small top list, fastest first
+				for (int i = 0; i < TOP_HOSTS; i++){
+					if (top[i] == null || h.rate > top[i].rate){
+						System.arraycopy(top, i, top, i + 1, TOP_HOSTS - i - 1);
+						top[i] = h;
+						break;
+					}
+				}
+			}
+		}
+
+
+		void renderTTY() {
+
+			if (tick % WIDTH_REFRESH_TICKS == 1)
+				terminalWidth = jline.TerminalFactory.get().getWidth();
+
+			line.setLength(0);
+			line.append(Main.humanReadableByteCount(totalRate, true)).append("/s ")
+				.append(Main.humanReadableByteCountRatio(totalSize - totalRemaining, totalSize, true)).append('/')
+				.append(totalSize == 0 ? 0 : (int)((totalSize - totalRemaining)/(totalSize*1.0)*100)).append("%, ")
+				.append(activeHosts).append(" Mirrors [");
+
+			boolean first = true;
+			for (int i = 0; i < TOP_HOSTS && top[i] != null; i++){
+				first = appendHost(top[i], first);
+			}
+
+			// show all edu
+			for (HostCounters h : hosts.values()){
+				if (h.seen == tick && !isTop(h) && resolver.nameOf(h.ip).contains(".edu"))
+					first = appendHost(h, first);
+			}
+			line.append(']');
+
+			if (line.length() > terminalWidth - 1)
+				line.setLength(terminalWidth - 1);
+
+			int length = line.length();
+
+			// blank out whatever the previous line had beyond this one
+			for (int i = length; i < previousLength; i++)
+				line.append(' ');
+			previousLength = length;
+
+			Main.print("\r" + line);
+		}
+
+
+		void renderJSON() {
+
+			line.setLength(0);
+			line.append("{\"time\":").append(System.currentTimeMillis())
+				.append(",\"rate\":").append(totalRate)
+				.append(",\"completed\":").append(totalSize - totalRemaining)
+				.append(",\"size\":").append(totalSize)
+				.append(",\"mirrors\":").append(activeHosts)
+				.append(",\"downloads\":[");
+
+			boolean first = true;
+			for (DownloadCounters d : downloads.values()){
+				if (!first)
+					line.append(',');
+				first = false;
+
+				line.append("{\"infohash\":\"").append(d.infohash).append("\",\"name\":");
+				appendJSONString(d.name);
+				line.append(",\"state\":").append(d.state)
+					.append(",\"rate\":").append(d.rate)
+					.append(",\"completed\":").append(d.size - d.remaining)
+					.append(",\"size\":").append(d.size)
+					.append(",\"peers\":").append(d.peers)
+					.append('}');
+			}
+
+			line.append("],\"hosts\":[");
+
+			first = true;
+			for (HostCounters h : hosts.values()){
+				if (h.seen != tick)
+					continue;
+				if (!first)
+					line.append(',');
+				first = false;
+
+				line.append("{\"ip\":");
+				appendJSONString(h.ip);
+				line.append(",\"name\":");
+				appendJSONString(resolver.nameOf(h.ip));
+				line.append(",\"protocol\":");
+				appendJSONString(h.protocol);
+				line.append(",\"rate\":").append(h.rate).append('}');
+			}
+
+			line.append("]}");
+
+			Main.println(line.toString());
+		}
+
+
+		private boolean isTop(HostCounters h) {
+			for (int i = 0; i < TOP_HOSTS; i++){
+				if (top[i] == h)
+					return true;
+			}
+			return false;
+		}
+
+
+		private boolean appendHost(HostCounters h, boolean first) {
+
+			if (!first)
+				line.append(", ");
+
+			line.append(resolver.nameOf(h.ip)).append(' ')
+				.append(Main.humanReadableByteCount(h.rate, true)).append("/s");
+
+			// add space
+			if (h.protocol.length() > 0)
+				line.append(' ').append(h.protocol);
+
+			return false;
+		}
+
+
+		private void appendJSONString(String s) {
+
+			line.append('"');
+			for (int i = 0; i < s.length(); i++){
+				char c = s.charAt(i);
+				if (c == '"' || c == '\\'){
+					line.append('\\').append(c);
+				}else if (c < 0x20){
+					line.append(String.format("\\u%04x", (int) c));
+				}else{
+					line.append(c);
 				}
 			}
-			
-			List<String> tosort = new ArrayList<String>(rawPeers.keySet());
-			Collections.sort(tosort, new Comparator<String>() {
-
-				@Override
-				public int compare(String o1, String o2) {
-					
-					long o1r = rawPeers.get(o1);
-					long o2r = rawPeers.get(o2);
-					
-					if (o2r > o1r)
-						return 1;
-					else if (o2r == o1r)
-						return 0;
-					else 
-						return -1;
+			line.append('"');
+		}
+
+
+		/**
+		 * Resolves addresses off the status thread and remembers the answers.
+		 */
+		static class HostNameResolver implements Runnable {
+
+			private static final int MAX_NAMES = 10000;
+
+			private final Map<String, String> names = new ConcurrentHashMap<String, String>();
+			private final LinkedBlockingQueue<String> pending = new LinkedBlockingQueue<String>();
+			private Thread thread;
+
+			/**
+			 * @return the short dns name if known, otherwise the address itself
+			 */
+			String nameOf(String ip) {
+
+				String name = names.get(ip);
+				if (name != null)
+					return name;
+
+				if (names.size() >= MAX_NAMES)
+					names.clear();
+
+				// placeholder so each address is queued once
+				names.put(ip, ip);
+				pending.offer(ip);
+
+				synchronized (this) {
+					if (thread == null){
+						thread = new Thread(this, "ATDown:HostNameResolver");
+						thread.setDaemon(true);
+						thread.start();
+					}
 				}
-			});
-			
-			
-			int count = 0;
-			for (String opstring : tosort){
-				
-				long dlrate = rawPeers.get(opstring);
-				
-				//if (dlrate != 0){
-					count++;
-					
-					String pstring = tryForDNSName(opstring);
-					
-					// only show some peers but show all edu
-					if (!(count > 3) || pstring.contains(".edu")){
-						
-						String type = peerType.get(opstring);
-						
-						
-						// add space
-						if (type != "")
-							type = " " + type;
-						
-						pstring = pstring + " " + Main.humanReadableByteCount(dlrate, true) + "/s" + type;
-					
-					
-						peers.add(pstring);
-							
+
+				return ip;
+			}
+
+			public void run() {
+				while (true){
+					try{
+						String ip = pending.take();
+						names.put(ip, tryForDNSName(ip));
+					}catch(InterruptedException e){
+						return;
+					}catch(Exception e){
+						// keep the address as its own name
 					}
-					
+				}
 			}
-			
-//			for (int i = 0; i < peers.size() ; i++){
-//				
-//				peers.set(i, peers.get(i) + " " + peerType.get);
-//			}
-			
-			
-			return tosort.size() + " Mirrors " + peers.toString();
-			
 		}
-		
-		
+
+
 		public static String tryForDNSName(String pstring) throws NamingException{
-			
+
 			if (!hasAlpha(pstring)){
 				pstring = getRevName(pstring);
-				
+
 			}
-			
+
 			//check if dns resolved
 			if (hasAlpha(pstring)){
 				// get rid of last .
 				if (pstring.length() == pstring.lastIndexOf('.')+1)
 					pstring = pstring.substring(0, pstring.length()-1);
-				
+
 				// get end of dns
 				if (pstring.contains(".com."))
 					pstring = pstring.substring(pstring.lastIndexOf('.',pstring.lastIndexOf(".com.")-1)+1);
@@ -246,48 +418,48 @@ import com.aelitis.azureus.core.AzureusCoreFactory;
 				else
 					pstring = pstring.substring(pstring.lastIndexOf('.',pstring.lastIndexOf('.')-1)+1);
 			}
-			
+
 			return pstring;
 		}
-		
-		
-		
+
+
+
 		public static String getRevName(String oipAddr) throws NamingException {
-			
+
 			String ipAddr = oipAddr;
 			try{
 				Properties env = new Properties();
 				env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.dns.DnsContextFactory");
 				InitialDirContext idc = new InitialDirContext(env);
-				
+
 				  String revName = null;
 				  String[] quads = ipAddr.split("\\.");
-				 
+
 				  //StringBuilder would be better, I know.
 				  ipAddr = "";
-				 
+
 				  for (int i = quads.length - 1; i >= 0; i--) {
 				    ipAddr += quads[i] + ".";
 				  }
-				 
+
 				  ipAddr += "in-addr.arpa.";
 				  Attributes attrs = idc.getAttributes(ipAddr, new String[] {"PTR"});
 				  Attribute attr = attrs.get("PTR");
-				 
+
 				  if (attr != null) {
 				    revName = (String) attr.get(0);
 				  }
-				  
+
 				  return revName;
 			}catch (Exception e){
-				
+
 				 return oipAddr;
 			}
-			 
-			 
+
+
 		}
-		
-		
+
+
 		public static boolean hasAlpha(String name) {
 		    char[] chars = name.toCharArray();
 
@@ -298,7 +470,7 @@ import com.aelitis.azureus.core.AzureusCoreFactory;
 		    }
 
 		    return false;
-		}	
-		
-		
-}
\ No newline at end of file
+		}
+
+
+}
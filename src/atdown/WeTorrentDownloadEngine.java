@@ -16,7 +16,7 @@ import java.util.Map;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.bitlet.wetorrent.Metafile;
 import org.bitlet.wetorrent.Torrent;
-import org.bitlet.wetorrent.disk.PlainFileSystemTorrentDisk;
+import org.bitlet.wetorrent.disk.FileChannelTorrentDisk;
 import org.bitlet.wetorrent.disk.ResumeListener;
 import org.bitlet.wetorrent.disk.TorrentDisk;
 import org.bitlet.wetorrent.peer.IncomingPeerListener;
@@ -40,6 +40,16 @@ public class WeTorrentDownloadEngine  implements DownloadEngine{
 	}
 	
 	
+	@Override
+	public void download(List<Entry> entries, String specficFile) throws Exception {
+		
+		// one torrent per engine, so a batch just runs them in turn
+		for (Entry entry : entries){
+			download(entry, specficFile);
+		}
+	}
+	
+	
 	@Override
 	public void download(Entry entry, String specficFile) throws Exception {
 		System.out.println("Using WeTorrent Engine");
@@ -54,7 +64,7 @@ public class WeTorrentDownloadEngine  implements DownloadEngine{
 //        
         
         // Create the torrent disk, this is the destination where the torrent file/s will be saved
-        TorrentDisk tdisk = new PlainFileSystemTorrentDisk(metafile, new File("."));
+        final TorrentDisk tdisk = new FileChannelTorrentDisk(metafile, new File("."));
 
         
         if (tdisk.init()){
@@ -86,6 +96,13 @@ public class WeTorrentDownloadEngine  implements DownloadEngine{
 			});
         }
         
+        // closing the disk writes the resume file, so the next start can skip hashing
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+        	public void run() {
+        		tdisk.close();
+        	}
+        });
+        
         IncomingPeerListener peerListener = new IncomingPeerListener(PORT);
         peerListener.start();
 
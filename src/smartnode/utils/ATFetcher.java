@@ -6,28 +6,55 @@ import smartnode.models.Dataset;
 import smartnode.models.Entry;
 import smartnode.models.Paper;
 
+import atdown.Main;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by nogueira on 7/2/14.
  */
 public class ATFetcher {
 
+    public static final String AT_URL = "http://www.academictorrents.com";
+
+    // upper bound on concurrent collection csv downloads
+    private static final int FETCH_THREADS = 8;
+
     private ATLogger logger;
+    private String base_url;
+    private CSVCache cache;
 
     /**
      *
      * @param logger
      */
     public ATFetcher(ATLogger logger) {
+        this(logger, AT_URL, new CSVCache(new File(Main.ATDIR + "collections")));
+    }
+
+    /**
+     *
+     * @param logger
+     * @param base_url
+     * @param cache
+     */
+    public ATFetcher(ATLogger logger, String base_url, CSVCache cache) {
         this.logger = logger;
+        this.base_url = base_url;
+        this.cache = cache;
     }
 
     public ArrayList<Collection> getCollections(){
@@ -39,22 +66,41 @@ public class ATFetcher {
             logger.log("local string BAD!!", ATLogger.LogLevel.Debug);
             logger.log("Opening connection to AT Getting collections", ATLogger.LogLevel.Info);
 
-            String uri = "http://www.academictorrents.com/collections.php?format=.csv";
+            String uri = base_url + "/collections.php?format=.csv";
             logger.log("uri: " + uri, ATLogger.LogLevel.Debug);
             URI collections_uri = new URI(uri);
-            URLConnection collections_con = collections_uri.toURL().openConnection();
 
-            // reader content from connection and create collection
-            CSVReader reader = new CSVReader(new InputStreamReader(collections_con.getInputStream()));
+            // reader content from cache or connection and create collection
+            CSVReader reader = new CSVReader(new InputStreamReader(new ByteArrayInputStream(cache.get(collections_uri.toString()))));
             //skip csv header
             String [] line = reader.readNext();
             while((line = reader.readNext()) != null){
                 Collection collection = new Collection(line[0], line[1], Integer.parseInt(line[2]), Long.parseLong(line[3]));
-                collection.setTorrents(getCollectionEntries(line[1]));
                 collections.add(collection);
                 logger.log("Added collection to collections", ATLogger.LogLevel.Debug);
             }
 
+            // resolve entries of every collection with bounded parallelism
+            if (collections.size() > 0){
+                ExecutorService pool = Executors.newFixedThreadPool(Math.min(FETCH_THREADS, collections.size()));
+                try{
+                    List<Future<HashMap<String, Entry>>> futures = new ArrayList<Future<HashMap<String, Entry>>>();
+                    for (final Collection collection : collections){
+                        futures.add(pool.submit(new Callable<HashMap<String, Entry>>() {
+                            public HashMap<String, Entry> call() {
+                                return getCollectionEntries(collection.getUrlname());
+                            }
+                        }));
+                    }
+                    for (int i = 0; i < collections.size(); i++){
+                        collections.get(i).setTorrents(futures.get(i).get());
+                    }
+                }
+                finally{
+                    pool.shutdown();
+                }
+            }
+
         }
         catch (URISyntaxException e){
             logger.log(e.getMessage() + e.getInput() + e.getReason() + e.getIndex(), ATLogger.LogLevel.Error );
@@ -84,13 +130,12 @@ public class ATFetcher {
             logger.log("local string BAD!!", ATLogger.LogLevel.Debug);
             logger.log("Opening connection to AT Getting collection entries", ATLogger.LogLevel.Info);
 
-            String uri = "http://www.academictorrents.com/collection/" + urlname + ".csv" ;
+            String uri = base_url + "/collection/" + urlname + ".csv" ;
             logger.log("uri: " + uri, ATLogger.LogLevel.Debug);
             URI collections_uri = new URI(uri);
-            URLConnection collections_con = collections_uri.toURL().openConnection();
 
-            // reader content from connection and create collection
-            CSVReader reader = new CSVReader(new InputStreamReader(collections_con.getInputStream()));
+            // reader content from cache or connection and create collection
+            CSVReader reader = new CSVReader(new InputStreamReader(new ByteArrayInputStream(cache.get(collections_uri.toString()))));
             //skip csv header
             String [] line = reader.readNext();
             while((line = reader.readNext()) != null){
@@ -63,7 +63,7 @@ public class ATLogger {
      * @param log_message
      * @param level
      */
-    public void log(String log_message, LogLevel level){
+    public synchronized void log(String log_message, LogLevel level){
 
         try{
             switch (level){
@@ -128,7 +128,7 @@ public class ATLogger {
         log_file_writer.flush();
     }
     
-    public void printLastLines(){
+    public synchronized void printLastLines(){
     	
     	Main.println("###################################");
     	Main.println("# Printing recent lines of log");
@@ -0,0 +1,223 @@
+package smartnode.utils;
+
+import atdown.Main;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache of the CSV listings served by AT, keyed by URL.
+ *
+ * Entries younger than max_age are served without touching the network, older
+ * ones are revalidated with If-None-Match / If-Modified-Since so an unchanged
+ * listing only costs a 304.
+ */
+public class CSVCache {
+
+    public static final long DEFAULT_MAX_AGE = 60 * 60 * 1000L;
+
+    private static final String PROP_URL = "url";
+    private static final String PROP_ETAG = "etag";
+    private static final String PROP_LAST_MODIFIED = "last-modified";
+    private static final String PROP_FETCHED = "fetched";
+
+    private File cache_dir;
+    private long max_age;
+
+    private AtomicInteger hits = new AtomicInteger();
+    private AtomicInteger revalidations = new AtomicInteger();
+    private AtomicInteger misses = new AtomicInteger();
+
+    /**
+     *
+     * @param cache_dir
+     * @param max_age milliseconds a cached copy is trusted without revalidation
+     */
+    public CSVCache(File cache_dir, long max_age) {
+        this.cache_dir = cache_dir;
+        this.max_age = max_age;
+        cache_dir.mkdirs();
+    }
+
+    /**
+     *
+     * @param cache_dir
+     */
+    public CSVCache(File cache_dir) {
+        this(cache_dir, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * Returns the body of url, from the cache when it is fresh or unchanged.
+     *
+     * @param url
+     * @return
+     * @throws IOException if the server cannot be reached and nothing is cached
+     */
+    public byte[] get(String url) throws IOException {
+
+        String key = keyFor(url);
+        File data_file = new File(cache_dir, key + ".csv");
+        File meta_file = new File(cache_dir, key + ".properties");
+
+        Properties meta = null;
+        if (data_file.exists() && meta_file.exists()){
+            meta = loadMeta(meta_file);
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (meta != null && now - Long.parseLong(meta.getProperty(PROP_FETCHED, "0")) < max_age){
+            hits.incrementAndGet();
+            return FileUtils.readFileToByteArray(data_file);
+        }
+
+        HttpURLConnection con;
+        int code;
+
+        try{
+            con = (HttpURLConnection) new URL(url).openConnection();
+            con.setConnectTimeout(Main.TIMEOUT);
+            con.setReadTimeout(Main.TIMEOUT * 10);
+
+            if (meta != null){
+                String etag = meta.getProperty(PROP_ETAG);
+                String last_modified = meta.getProperty(PROP_LAST_MODIFIED);
+                if (etag != null){
+                    con.setRequestProperty("If-None-Match", etag);
+                }
+                if (last_modified != null){
+                    con.setRequestProperty("If-Modified-Since", last_modified);
+                }
+            }
+
+            code = con.getResponseCode();
+        }
+        catch (IOException e){
+            // stale copy is better than nothing when AT is unreachable
+            if (meta != null){
+                hits.incrementAndGet();
+                return FileUtils.readFileToByteArray(data_file);
+            }
+            throw e;
+        }
+
+        if (code == HttpURLConnection.HTTP_NOT_MODIFIED && meta != null){
+            con.disconnect();
+            revalidations.incrementAndGet();
+            meta.setProperty(PROP_FETCHED, Long.toString(now));
+            storeMeta(meta_file, meta);
+            return FileUtils.readFileToByteArray(data_file);
+        }
+
+        if (code != HttpURLConnection.HTTP_OK){
+            con.disconnect();
+            throw new IOException("HTTP " + code + " fetching " + url);
+        }
+
+        InputStream is = con.getInputStream();
+        byte[] body;
+        try{
+            body = IOUtils.toByteArray(is);
+        }
+        finally{
+            is.close();
+        }
+        misses.incrementAndGet();
+
+        meta = new Properties();
+        meta.setProperty(PROP_URL, url);
+        meta.setProperty(PROP_FETCHED, Long.toString(now));
+        if (con.getHeaderField("ETag") != null){
+            meta.setProperty(PROP_ETAG, con.getHeaderField("ETag"));
+        }
+        if (con.getHeaderField("Last-Modified") != null){
+            meta.setProperty(PROP_LAST_MODIFIED, con.getHeaderField("Last-Modified"));
+        }
+
+        Main.writeAtomically(data_file, body);
+        storeMeta(meta_file, meta);
+
+        return body;
+    }
+
+    /**
+     *
+     * @return number of requests answered from disk without a server round trip
+     */
+    public int getHits() { return hits.get(); }
+
+    /**
+     *
+     * @return number of requests answered from disk after a 304
+     */
+    public int getRevalidations() { return revalidations.get(); }
+
+    /**
+     *
+     * @return number of requests that downloaded a full body
+     */
+    public int getMisses() { return misses.get(); }
+
+    private Properties loadMeta(File meta_file){
+
+        Properties meta = new Properties();
+        try{
+            InputStream is = new FileInputStream(meta_file);
+            try{
+                meta.load(is);
+            }
+            finally{
+                is.close();
+            }
+            return meta;
+        }
+        catch (IOException e){
+            return null;
+        }
+    }
+
+    private void storeMeta(File meta_file, Properties meta) throws IOException {
+
+        File tmp = File.createTempFile(meta_file.getName(), ".tmp", cache_dir);
+        OutputStream os = new FileOutputStream(tmp);
+        try{
+            meta.store(os, null);
+        }
+        finally{
+            os.close();
+        }
+        Main.renameOver(tmp, meta_file);
+    }
+
+    private static String keyFor(String url){
+
+        try{
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest){
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e){
+            throw new RuntimeException(e);
+        }
+        catch (IOException e){
+            throw new RuntimeException(e);
+        }
+    }
+}
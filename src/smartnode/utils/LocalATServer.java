@@ -0,0 +1,195 @@
+package smartnode.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+
+import smartnode.models.Collection;
+
+/**
+ * Minimal stand-in for the AT csv endpoints, bound to localhost, so the
+ * fetcher and its cache can be exercised without network access.
+ *
+ * Serves ETag and Last-Modified headers and answers conditional requests
+ * with 304 the same way the real site does.
+ */
+public class LocalATServer implements HttpHandler {
+
+    private HttpServer server;
+    private Map<String, Resource> resources = new ConcurrentHashMap<String, Resource>();
+
+    private AtomicInteger full_responses = new AtomicInteger();
+    private AtomicInteger not_modified_responses = new AtomicInteger();
+
+    private static class Resource {
+        byte[] body;
+        String etag;
+        String last_modified;
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    public LocalATServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this);
+        server.start();
+    }
+
+    /**
+     *
+     * @return base url to hand to ATFetcher
+     */
+    public String getBaseURL() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Publishes body under path, replacing any previous version.
+     *
+     * @param path e.g. "/collection/foo.csv"
+     * @param body
+     */
+    public void put(String path, String body) {
+        Resource r = new Resource();
+        r.body = body.getBytes();
+        r.etag = "\"" + Integer.toHexString(body.hashCode()) + "-" + body.length() + "\"";
+        r.last_modified = httpDate(new Date());
+        resources.put(path, r);
+    }
+
+    public int getFullResponses() { return full_responses.get(); }
+
+    public int getNotModifiedResponses() { return not_modified_responses.get(); }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public void handle(HttpExchange exchange) throws IOException {
+
+        String path = exchange.getRequestURI().getPath();
+        if (exchange.getRequestURI().getQuery() != null){
+            path += "?" + exchange.getRequestURI().getQuery();
+        }
+
+        Resource r = resources.get(path);
+
+        try{
+            if (r == null){
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            String if_none_match = exchange.getRequestHeaders().getFirst("If-None-Match");
+            String if_modified_since = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+
+            exchange.getResponseHeaders().set("ETag", r.etag);
+            exchange.getResponseHeaders().set("Last-Modified", r.last_modified);
+
+            if (r.etag.equals(if_none_match) || (if_none_match == null && r.last_modified.equals(if_modified_since))){
+                not_modified_responses.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            full_responses.incrementAndGet();
+            exchange.getResponseHeaders().set("Content-Type", "text/csv");
+            exchange.sendResponseHeaders(200, r.body.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(r.body);
+            os.close();
+        }
+        finally{
+            exchange.close();
+        }
+    }
+
+    private static String httpDate(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(date);
+    }
+
+    /**
+     * Walks the miss, hit and revalidation paths of CSVCache against a local
+     * server and exits non-zero if any of them misbehaves.
+     */
+    public static void main(String[] args) throws Exception {
+
+        LocalATServer server = new LocalATServer();
+        File cache_dir = new File(System.getProperty("java.io.tmpdir"), "atdown-csvcache-" + System.nanoTime());
+        File log_file = new File(cache_dir.getParentFile(), cache_dir.getName() + ".log");
+
+        try{
+            server.put("/collections.php?format=.csv",
+                    "name,urlname,torrent_count,total_size_bytes\n" +
+                    "Alpha,alpha,1,100\n" +
+                    "Beta,beta,1,200\n");
+            server.put("/collection/alpha.csv",
+                    "type,name,infohash,size,mirrors,downloaders,completed,added,modified\n" +
+                    "Dataset,a,0000000000000000000000000000000000000001,100,1,0,0,0,0\n");
+            server.put("/collection/beta.csv",
+                    "type,name,infohash,size,mirrors,downloaders,completed,added,modified\n" +
+                    "Dataset,b,0000000000000000000000000000000000000002,200,1,0,0,0,0\n");
+
+            ATLogger logger = new ATLogger(log_file.getPath(), ATLogger.LogLevel.Debug);
+
+            // cold cache, everything comes from the server
+            CSVCache cache = new CSVCache(cache_dir);
+            ArrayList<Collection> collections = new ATFetcher(logger, server.getBaseURL(), cache).getCollections();
+            check(collections.size() == 2 && collections.get(1).getTorrents().size() == 1, "listing parsed");
+            check(cache.getMisses() == 3 && server.getFullResponses() == 3, "cold listing downloads every csv");
+
+            // warm cache, no network at all
+            cache = new CSVCache(cache_dir);
+            new ATFetcher(logger, server.getBaseURL(), cache).getCollections();
+            check(cache.getHits() == 3 && server.getFullResponses() == 3 && server.getNotModifiedResponses() == 0, "warm listing served from disk");
+
+            // expired cache, server says unchanged
+            cache = new CSVCache(cache_dir, 0);
+            new ATFetcher(logger, server.getBaseURL(), cache).getCollections();
+            check(cache.getRevalidations() == 3 && server.getNotModifiedResponses() == 3, "expired listing revalidated with 304");
+
+            // expired cache, one collection changed upstream
+            server.put("/collection/beta.csv",
+                    "type,name,infohash,size,mirrors,downloaders,completed,added,modified\n" +
+                    "Dataset,b,0000000000000000000000000000000000000002,200,1,0,0,0,0\n" +
+                    "Dataset,c,0000000000000000000000000000000000000003,300,1,0,0,0,0\n");
+            cache = new CSVCache(cache_dir, 0);
+            collections = new ATFetcher(logger, server.getBaseURL(), cache).getCollections();
+            check(cache.getMisses() == 1 && cache.getRevalidations() == 2, "changed csv downloaded again");
+            check(collections.get(1).getTorrents().size() == 2, "changed csv parsed");
+
+            System.out.println("CSVCache OK");
+        }
+        finally{
+            server.stop();
+            FileUtils.deleteQuietly(cache_dir);
+            FileUtils.deleteQuietly(log_file);
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok){
+            System.out.println("CSVCache FAILED: " + what);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,651 @@
+/*
+ *              bitlet - Simple bittorrent library
+ *  Copyright (C) 2008 Alessandro Bahgat Shehata, Daniele Castagna
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.bitlet.wetorrent.disk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.bitlet.wetorrent.Metafile;
+import org.bitlet.wetorrent.util.Utils;
+
+/**
+ * TorrentDisk doing positional FileChannel reads and writes, so peers working
+ * on different pieces never wait on each other. Each piece is locked on its
+ * own, the completed byte count is kept up to date as blocks come in.
+ *
+ * With memory mapping on (-Dwetorrent.disk.mmap=true) reads of completed
+ * pieces are served from read only mappings of the files, which saves a
+ * system call per block when seeding.
+ *
+ * The completed pieces are saved to a resume file, along with the size and
+ * modification time of every file, when the disk is closed or saveResume() is
+ * called. If nothing changed since, resume() takes the pieces from there
+ * instead of hashing the data again, otherwise it hashes all the pieces using
+ * a thread per core.
+ */
+public class FileChannelTorrentDisk implements TorrentDisk {
+
+    /* size of the windows files are mapped in */
+    private static final long MAP_CHUNK = 1 << 28;
+    private static final int RESUME_VERSION = 1;
+
+    private Metafile metafile;
+    private File saveDirectory;
+    private boolean memoryMapped;
+    private File resumeFile;
+    /* pieces found in a valid resume file, null if they have to be hashed */
+    private byte[] resumeBitfield;
+
+    private PieceState[] pieces;
+    private long pieceLength;
+
+    private File[] persistentFiles;
+    private RandomAccessFile[] files;
+    private FileChannel[] channels;
+    /* offset of each file in the torrent */
+    private long[] fileOffsets;
+    private long[] fileLengths;
+
+    private AtomicReferenceArray<MappedByteBuffer> maps;
+    /* index of the first map window of each file */
+    private int[] mapBase;
+
+    private final AtomicLong completed = new AtomicLong();
+    private byte[] bitfield;
+    private boolean closed;
+
+    private static class PieceState {
+
+        private final byte[] sha1;
+        private final int length;
+        /* downloaded ranges, begin -> end, never overlapping nor adjacent */
+        private final TreeMap<Integer, Integer> blocks = new TreeMap<Integer, Integer>();
+        private int downloaded;
+        private volatile boolean completed;
+
+        PieceState(byte[] sha1, int length) {
+            this.sha1 = sha1;
+            this.length = length;
+        }
+
+        /* returns the number of bytes that weren't already there */
+        int add(int begin, int end) {
+            int removed = 0;
+
+            Map.Entry<Integer, Integer> block = blocks.floorEntry(begin);
+            if (block != null && block.getValue() >= begin) {
+                begin = block.getKey();
+                end = Math.max(end, block.getValue());
+                removed += block.getValue() - block.getKey();
+                blocks.remove(block.getKey());
+            }
+
+            while ((block = blocks.ceilingEntry(begin)) != null && block.getKey() <= end) {
+                end = Math.max(end, block.getValue());
+                removed += block.getValue() - block.getKey();
+                blocks.remove(block.getKey());
+            }
+
+            blocks.put(begin, end);
+            int added = (end - begin) - removed;
+            downloaded += added;
+            return added;
+        }
+
+        int available(int begin) {
+            Map.Entry<Integer, Integer> block = blocks.floorEntry(begin);
+            if (block != null && block.getValue() > begin) {
+                return block.getValue() - begin;
+            }
+            return 0;
+        }
+
+        int getFirstMissingByte() {
+            return available(0);
+        }
+
+        /* returns the number of bytes dropped */
+        int clear() {
+            int dropped = downloaded;
+            blocks.clear();
+            downloaded = 0;
+            completed = false;
+            return dropped;
+        }
+    }
+
+    public FileChannelTorrentDisk(Metafile metafile, File saveDirectory) {
+        this(metafile, saveDirectory, Boolean.getBoolean("wetorrent.disk.mmap"));
+    }
+
+    public FileChannelTorrentDisk(Metafile metafile, File saveDirectory, boolean memoryMapped) {
+        this.metafile = metafile;
+        this.saveDirectory = saveDirectory;
+        this.memoryMapped = memoryMapped;
+    }
+
+    public void resume() throws IOException {
+        resume(null);
+    }
+
+    public void resume(ResumeListener rl) throws IOException {
+
+        if (resumeBitfield != null) {
+            long resumed = 0;
+            for (int i = 0; i < pieces.length; i++) {
+                if ((resumeBitfield[i >> 3] & (0x80 >> (i & 0x7))) != 0) {
+                    PieceState piece = pieces[i];
+                    synchronized (piece) {
+                        completed.addAndGet(piece.add(0, piece.length));
+                        setCompleted(i);
+                    }
+                    resumed += piece.length;
+                }
+            }
+            resumeBitfield = null;
+            if (rl != null) {
+                rl.percent(metafile.getLength(), resumed);
+            }
+            return;
+        }
+
+        rehash(rl);
+        saveResume();
+    }
+
+    /* checks every piece, one thread per core each taking the next piece to hash */
+    private void rehash(ResumeListener rl) throws IOException {
+
+        final AtomicInteger nextPiece = new AtomicInteger();
+        final AtomicLong scanned = new AtomicLong();
+        final AtomicLong resumed = new AtomicLong();
+        final IOException[] error = {null};
+
+        Thread[] workers = new Thread[Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), pieces.length))];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread("wetorrent-rehash-" + i) {
+
+                public void run() {
+                    try {
+                        int index;
+                        while ((index = nextPiece.getAndIncrement()) < pieces.length) {
+                            PieceState piece = pieces[index];
+                            synchronized (piece) {
+                                if (checkSha1(index)) {
+                                    completed.addAndGet(piece.add(0, piece.length));
+                                    setCompleted(index);
+                                    resumed.addAndGet(piece.length);
+                                }
+                            }
+                            scanned.addAndGet(piece.length);
+                        }
+                    } catch (IOException ex) {
+                        error[0] = ex;
+                        nextPiece.set(pieces.length);
+                    }
+                }
+            };
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+
+        /* the listener only ever hears from this thread */
+        try {
+            for (Thread worker : workers) {
+                while (worker.isAlive()) {
+                    if (rl != null) {
+                        rl.percent(scanned.get(), resumed.get());
+                    }
+                    worker.join(100);
+                }
+            }
+        } catch (InterruptedException ex) {
+            nextPiece.set(pieces.length);
+            throw new InterruptedIOException("Interrupted while hashing");
+        }
+
+        if (error[0] != null) {
+            throw error[0];
+        }
+        if (rl != null) {
+            rl.percent(scanned.get(), resumed.get());
+        }
+    }
+
+    public boolean init() throws IOException {
+
+        boolean resume = false;
+
+        if (resumeFile == null) {
+            resumeFile = new File(saveDirectory, "." + metafile.getName() + ".resume");
+        }
+
+        /* create pieces */
+        List pieceHashes = metafile.getPieces();
+        pieceLength = metafile.getPieceLength();
+        pieces = new PieceState[pieceHashes.size()];
+        for (int i = 0; i < pieces.length; i++) {
+            long length = i < pieces.length - 1 ? pieceLength : metafile.getLength() - (pieces.length - 1) * pieceLength;
+            pieces[i] = new PieceState((byte[]) pieceHashes.get(i), (int) length);
+        }
+        bitfield = new byte[(pieces.length >> 3) + ((pieces.length & 0x7) != 0 ? 1 : 0)];
+
+        saveDirectory.mkdirs();
+        /*create files*/
+        List<File> fileList = new ArrayList<File>();
+        List<Long> lengths = new ArrayList<Long>();
+        if (metafile.isSingleFile()) {
+            fileList.add(new File(saveDirectory, metafile.getName()));
+            lengths.add(metafile.getLength());
+        } else {
+            if (!saveDirectory.getName().equals(metafile.getName())) {
+                saveDirectory = new File(saveDirectory, metafile.getName());
+                saveDirectory.mkdir();
+            }
+
+            for (Object elem : metafile.getFiles()) {
+                Map file = (Map) elem;
+                List path = (List) file.get(ByteBuffer.wrap("path".getBytes()));
+                String pathName = "";
+
+                Iterator pathIterator = path.iterator();
+                while (pathIterator.hasNext()) {
+                    byte[] pathElem = ((ByteBuffer) pathIterator.next()).array();
+                    pathName += "/" + new String(pathElem);
+                    if (pathIterator.hasNext()) {
+                        new File(saveDirectory, pathName).mkdir();
+                    }
+                }
+
+                fileList.add(new File(saveDirectory.getAbsolutePath() + pathName));
+                lengths.add((Long) file.get(ByteBuffer.wrap("length".getBytes())));
+            }
+        }
+
+        persistentFiles = fileList.toArray(new File[fileList.size()]);
+        /* before the files are touched, setLength would bump their modification time */
+        resumeBitfield = loadResume(lengths);
+
+        int fileCount = fileList.size();
+        files = new RandomAccessFile[fileCount];
+        channels = new FileChannel[fileCount];
+        fileOffsets = new long[fileCount];
+        fileLengths = new long[fileCount];
+        mapBase = new int[fileCount];
+
+        long offset = 0;
+        int mapCount = 0;
+        for (int i = 0; i < fileCount; i++) {
+            File persistentFile = fileList.get(i);
+            if (persistentFile.exists()) {
+                resume = true;
+            }
+            files[i] = new RandomAccessFile(persistentFile, "rw");
+            if (files[i].length() != lengths.get(i)) {
+                files[i].setLength(lengths.get(i));
+            }
+            channels[i] = files[i].getChannel();
+            fileOffsets[i] = offset;
+            fileLengths[i] = lengths.get(i);
+            offset += fileLengths[i];
+
+            mapBase[i] = mapCount;
+            mapCount += (int) ((fileLengths[i] + MAP_CHUNK - 1) / MAP_CHUNK);
+        }
+        maps = new AtomicReferenceArray<MappedByteBuffer>(mapCount);
+
+        return resume;
+    }
+
+    public byte[] getBitfieldCopy() {
+        synchronized (bitfield) {
+            return bitfield.clone();
+        }
+    }
+
+    public void write(int index, int begin, byte[] block) throws IOException {
+        PieceState piece = pieces[index];
+        if (piece.completed) {
+            return;
+        }
+        if (begin < 0 || begin + block.length > piece.length) {
+            throw new IOException("Block out of piece " + index + " begin: " + begin + " length: " + block.length);
+        }
+
+        /* held across the write so a late duplicate block can't land on a verified
+           piece or while it is being hashed, other pieces carry on meanwhile */
+        synchronized (piece) {
+            if (piece.completed) {
+                return;
+            }
+            transfer(offset(index, begin), ByteBuffer.wrap(block), true);
+            completed.addAndGet(piece.add(begin, begin + block.length));
+            if (piece.downloaded == piece.length) {
+                if (checkSha1(index)) {
+                    setCompleted(index);
+                } else {
+                    completed.addAndGet(-piece.clear());
+                    throw new IOException("sha check failed");
+                }
+            }
+        }
+    }
+
+    public byte[] read(int index, int begin, int length) throws IOException {
+        PieceState piece = pieces[index];
+        if (begin < 0 || length < 0 || begin + length > piece.length) {
+            throw new EOFException("Data not available " + "begin: " + begin + " length: " + length);
+        }
+        if (!piece.completed) {
+            synchronized (piece) {
+                if (piece.available(begin) < length) {
+                    throw new EOFException("Data not available " + "begin: " + begin + " length: " + length);
+                }
+            }
+        }
+
+        byte[] block = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        long offset = offset(index, begin);
+        if (!(memoryMapped && piece.completed && readMapped(offset, buffer))) {
+            transfer(offset, buffer, false);
+        }
+        return block;
+    }
+
+    public Long getCompleted() {
+        return completed.get();
+    }
+
+    public boolean isCompleted(int index) {
+        return pieces[index].completed;
+    }
+
+    public int getDownloaded(int index) {
+        PieceState piece = pieces[index];
+        synchronized (piece) {
+            return piece.downloaded;
+        }
+    }
+
+    public boolean isAvailable(int index, int begin, int length) {
+        PieceState piece = pieces[index];
+        synchronized (piece) {
+            return piece.available(begin) >= length;
+        }
+    }
+
+    public int getLength(int index) {
+        return pieces[index].length;
+    }
+
+    public int getFirstMissingByte(int index) {
+        PieceState piece = pieces[index];
+        synchronized (piece) {
+            return piece.getFirstMissingByte();
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        for (RandomAccessFile file : files) {
+            try {
+                file.getChannel().force(false);
+                file.close();
+            } catch (IOException ex) {
+            }
+        }
+        /* mappings go away when they are collected */
+        maps = new AtomicReferenceArray<MappedByteBuffer>(0);
+
+        try {
+            saveResume();
+        } catch (IOException ex) {
+        }
+    }
+
+    public File getResumeFile() {
+        return resumeFile;
+    }
+
+    /* to be called before init(), by default the resume file sits next to the data */
+    public void setResumeFile(File resumeFile) {
+        this.resumeFile = resumeFile;
+    }
+
+    /**
+     * Writes the completed pieces to the resume file. Safe to call while
+     * downloading: the pieces are taken before the file times, so a piece
+     * completing in between is left out rather than recorded against data
+     * that could still change.
+     */
+    public synchronized void saveResume() throws IOException {
+        byte[] pieceBitfield = getBitfieldCopy();
+
+        if (!closed) {
+            for (FileChannel channel : channels) {
+                channel.force(false);
+            }
+        }
+
+        File tmp = new File(resumeFile.getPath() + ".tmp");
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            dos.writeInt(RESUME_VERSION);
+            dos.write(metafile.getInfoSha1());
+            dos.writeInt(pieces.length);
+            dos.writeInt(persistentFiles.length);
+            for (int i = 0; i < persistentFiles.length; i++) {
+                dos.writeLong(persistentFiles[i].length());
+                dos.writeLong(persistentFiles[i].lastModified());
+            }
+            dos.write(pieceBitfield);
+        } finally {
+            dos.close();
+        }
+
+        resumeFile.delete();
+        if (!tmp.renameTo(resumeFile)) {
+            throw new IOException("Cannot write " + resumeFile);
+        }
+    }
+
+    /* returns the saved pieces if the resume file matches the files on disk */
+    private byte[] loadResume(List<Long> lengths) {
+        if (!resumeFile.exists()) {
+            return null;
+        }
+
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(resumeFile)));
+            try {
+                if (dis.readInt() != RESUME_VERSION) {
+                    return null;
+                }
+                byte[] infoSha1 = new byte[20];
+                dis.readFully(infoSha1);
+                if (!Utils.bytesCompare(infoSha1, metafile.getInfoSha1()) || dis.readInt() != pieces.length || dis.readInt() != persistentFiles.length) {
+                    return null;
+                }
+                for (int i = 0; i < persistentFiles.length; i++) {
+                    long length = dis.readLong();
+                    long lastModified = dis.readLong();
+                    if (!persistentFiles[i].exists() || length != lengths.get(i) ||
+                            persistentFiles[i].length() != length || persistentFiles[i].lastModified() != lastModified) {
+                        return null;
+                    }
+                }
+                byte[] pieceBitfield = new byte[bitfield.length];
+                dis.readFully(pieceBitfield);
+                return pieceBitfield;
+            } finally {
+                dis.close();
+            }
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    public long available(int index, int begin) {
+        return available(index, begin, Long.MAX_VALUE);
+    }
+
+    public long available(int index, int begin, long maxLength) {
+
+        long available = 0;
+        while (index < pieces.length && available < maxLength) {
+            PieceState piece = pieces[index];
+            int pieceAvailable;
+            synchronized (piece) {
+                pieceAvailable = piece.available(begin);
+            }
+            available += pieceAvailable;
+            if (begin + pieceAvailable < piece.length) {
+                break;
+            }
+            index++;
+            begin = 0;
+        }
+
+        return available;
+    }
+
+    private long offset(int index, int begin) {
+        return index * pieceLength + begin;
+    }
+
+    private void setCompleted(int index) {
+        pieces[index].completed = true;
+        synchronized (bitfield) {
+            bitfield[index >> 3] |= 0x80 >> (index & 0x7);
+        }
+    }
+
+    private boolean checkSha1(int index) throws IOException {
+
+        MessageDigest md = null;
+        try {
+            md = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex.toString());
+        }
+
+        PieceState piece = pieces[index];
+        ByteBuffer pieceBuffer = ByteBuffer.allocate(piece.length);
+        transfer(offset(index, 0), pieceBuffer, false);
+        pieceBuffer.flip();
+        md.update(pieceBuffer);
+        return Utils.bytesCompare(piece.sha1, md.digest());
+    }
+
+    /* index of the file holding the given torrent offset */
+    private int findFile(long offset) {
+        int i = Arrays.binarySearch(fileOffsets, offset);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /* reads or writes the remaining bytes of buffer starting at the given torrent offset */
+    private void transfer(long offset, ByteBuffer buffer, boolean write) throws IOException {
+        int file = findFile(offset);
+        while (buffer.hasRemaining()) {
+            if (file >= channels.length) {
+                throw new EOFException("Offset " + offset + " past the end of the torrent");
+            }
+            long position = offset - fileOffsets[file];
+            long availableInFile = fileLengths[file] - position;
+            if (availableInFile <= 0) {
+                /* empty files share their offset with the next one */
+                file++;
+                continue;
+            }
+
+            int limit = buffer.limit();
+            if (buffer.remaining() > availableInFile) {
+                buffer.limit(buffer.position() + (int) availableInFile);
+            }
+            int transferred = write ? channels[file].write(buffer, position) : channels[file].read(buffer, position);
+            buffer.limit(limit);
+            if (transferred < 0) {
+                throw new EOFException("Unexpected end of file at " + position);
+            }
+            offset += transferred;
+        }
+    }
+
+    /* returns false if the range isn't inside a single map window */
+    private boolean readMapped(long offset, ByteBuffer buffer) throws IOException {
+        int file = findFile(offset);
+        while (file < fileLengths.length && fileLengths[file] == 0) {
+            file++;
+        }
+        if (file >= fileLengths.length) {
+            return false;
+        }
+
+        long position = offset - fileOffsets[file];
+        long chunkStart = position - position % MAP_CHUNK;
+        long chunkLength = Math.min(MAP_CHUNK, fileLengths[file] - chunkStart);
+        if (position + buffer.remaining() > chunkStart + chunkLength) {
+            return false;
+        }
+
+        int chunk = mapBase[file] + (int) (position / MAP_CHUNK);
+        if (chunk >= maps.length()) {
+            /* closed */
+            return false;
+        }
+        MappedByteBuffer map = maps.get(chunk);
+        if (map == null) {
+            maps.compareAndSet(chunk, null, channels[file].map(FileChannel.MapMode.READ_ONLY, chunkStart, chunkLength));
+            map = maps.get(chunk);
+        }
+
+        ByteBuffer source = map.duplicate();
+        source.position((int) (position - chunkStart));
+        source.limit(source.position() + buffer.remaining());
+        buffer.put(source);
+        return true;
+    }
+}
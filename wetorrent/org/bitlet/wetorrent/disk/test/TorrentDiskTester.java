@@ -0,0 +1,354 @@
+/*
+ *              bitlet - Simple bittorrent library
+ *  Copyright (C) 2008 Alessandro Bahgat Shehata, Daniele Castagna
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.bitlet.wetorrent.disk.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import org.bitlet.wetorrent.Metafile;
+import org.bitlet.wetorrent.disk.FileChannelTorrentDisk;
+import org.bitlet.wetorrent.disk.PlainFileSystemTorrentDisk;
+import org.bitlet.wetorrent.disk.TorrentDisk;
+
+/**
+ * Compares the torrent disks with a number of threads working at once, the way
+ * peers do. For each disk a fresh copy is written block by block in random
+ * order (hash checks included), then the seeded data is read back in random
+ * blocks for a few seconds. The data is spread over several files of odd sizes.
+ * The FileChannelTorrentDisk copy is then reopened to time resuming from its
+ * resume file, and again after touching a file, which forces a rehash.
+ * Finally pieces are written again while a second thread throws garbage at the
+ * first block just as each piece is completing, like a late duplicate from a
+ * bad peer. A piece that ends up completed has to hold the right data.
+ *
+ * usage: TorrentDiskTester [threads] [size MB] [seconds]
+ */
+public class TorrentDiskTester {
+
+    private static final int PIECE_LENGTH = 256 * 1024;
+    private static final int BLOCK_LENGTH = 16 * 1024;
+    private static final int FILES = 5;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int sizeMB = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        File dir = File.createTempFile("wetorrent", "");
+        dir.delete();
+        dir.mkdirs();
+
+        try {
+            File seedDir = new File(dir, "seed");
+            /* not a multiple of the piece length */
+            Metafile metafile = createData(seedDir, sizeMB * 1024L * 1024L + 12345);
+
+            String[] modes = {"plain", "channel", "mmap"};
+            for (int i = 0; i < modes.length; i++) {
+                File writeDir = new File(dir, modes[i]);
+                writeDir.mkdirs();
+                run(modes[i], metafile, seedDir.getParentFile(), writeDir, threads, seconds);
+            }
+        } finally {
+            delete(dir);
+        }
+
+        System.exit(0);
+    }
+
+    private static TorrentDisk createDisk(String mode, Metafile metafile, File dir) {
+        if (mode.equals("plain")) {
+            return new PlainFileSystemTorrentDisk(metafile, dir);
+        }
+        return new FileChannelTorrentDisk(metafile, dir, mode.equals("mmap"));
+    }
+
+    private static void run(String mode, Metafile metafile, File seedParent, File writeDir, int threads, int seconds) throws Exception {
+
+        /* write */
+        final TorrentDisk disk = createDisk(mode, metafile, writeDir);
+        disk.init();
+        final TorrentDisk seed = createDisk(mode, metafile, seedParent);
+        seed.init();
+        seed.resume();
+
+        final int pieces = metafile.getPieces().size();
+        final int[] blocks = shuffledBlocks(seed, pieces);
+        final int[] next = {0};
+        final Throwable[] error = {null};
+
+        long start = System.currentTimeMillis();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread("TorrentDiskTester:write") {
+
+                public void run() {
+                    try {
+                        while (true) {
+                            int block;
+                            synchronized (next) {
+                                if (next[0] == blocks.length) {
+                                    return;
+                                }
+                                block = blocks[next[0]++];
+                            }
+                            int index = block / (PIECE_LENGTH / BLOCK_LENGTH);
+                            int begin = (block % (PIECE_LENGTH / BLOCK_LENGTH)) * BLOCK_LENGTH;
+                            int length = Math.min(BLOCK_LENGTH, seed.getLength(index) - begin);
+                            disk.write(index, begin, seed.read(index, begin, length));
+                        }
+                    } catch (Throwable t) {
+                        error[0] = t;
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long writeElapsed = System.currentTimeMillis() - start;
+
+        int completedPieces = 0;
+        for (int i = 0; i < pieces; i++) {
+            if (disk.isCompleted(i)) {
+                completedPieces++;
+            }
+        }
+        boolean written = error[0] == null && completedPieces == pieces && disk.getCompleted() == metafile.getLength();
+        disk.close();
+
+        String resume = "";
+        if (disk instanceof FileChannelTorrentDisk) {
+            resume = ", resume " + resume(metafile, writeDir);
+            new File(new File(writeDir, "seed"), "file0.bin").setLastModified(System.currentTimeMillis() - 60000);
+            resume += ", rehash " + resume(metafile, writeDir);
+        }
+
+        /* read */
+        final long end = System.currentTimeMillis() + seconds * 1000L;
+        final long[] reads = {0};
+        for (int i = 0; i < threads; i++) {
+            final Random random = new Random(i);
+            workers[i] = new Thread("TorrentDiskTester:read") {
+
+                public void run() {
+                    try {
+                        long count = 0;
+                        while (System.currentTimeMillis() < end) {
+                            int index = random.nextInt(pieces);
+                            int begin = random.nextInt((seed.getLength(index) + BLOCK_LENGTH - 1) / BLOCK_LENGTH) * BLOCK_LENGTH;
+                            seed.read(index, begin, Math.min(BLOCK_LENGTH, seed.getLength(index) - begin));
+                            count++;
+                        }
+                        synchronized (reads) {
+                            reads[0] += count;
+                        }
+                    } catch (Throwable t) {
+                        error[0] = t;
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        File duplicatesDir = new File(writeDir, "duplicates");
+        duplicatesDir.mkdirs();
+        int corrupted = lateDuplicates(mode, metafile, seed, duplicatesDir, Math.min(pieces, 64));
+        seed.close();
+
+        System.out.println(mode + ": " + threads + " threads, wrote " + (metafile.getLength() / 1024) + " KB in " + writeElapsed + "ms (" +
+                (written ? "all pieces verified" : "FAILED, " + completedPieces + " of " + pieces + " pieces") + "), " +
+                (reads[0] / seconds) + " block reads/sec" + resume +
+                (corrupted == 0 ? ", late duplicates ok" : ", late duplicates CORRUPTED " + corrupted + " pieces") + (error[0] == null ? "" : ", error: " + error[0]));
+    }
+
+    /* returns the number of pieces completed with data that doesn't match the seed */
+    private static int lateDuplicates(String mode, Metafile metafile, final TorrentDisk seed, File dir, int pieces) throws Exception {
+        final TorrentDisk disk = createDisk(mode, metafile, dir);
+        disk.init();
+
+        int corrupted = 0;
+        for (int i = 0; i < pieces; i++) {
+            final int index = i;
+            final int length = seed.getLength(index);
+            final boolean[] done = {false};
+
+            Thread writer = new Thread("TorrentDiskTester:complete") {
+
+                public void run() {
+                    try {
+                        while (!disk.isCompleted(index)) {
+                            try {
+                                for (int begin = 0; begin < length; begin += BLOCK_LENGTH) {
+                                    disk.write(index, begin, seed.read(index, begin, Math.min(BLOCK_LENGTH, length - begin)));
+                                }
+                            } catch (IOException ex) {
+                                /* garbage got in before the hash check, start over */
+                            }
+                        }
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                    }
+                    synchronized (done) {
+                        done[0] = true;
+                    }
+                }
+            };
+
+            Thread duplicator = new Thread("TorrentDiskTester:duplicate") {
+
+                public void run() {
+                    byte[] garbage = new byte[Math.min(BLOCK_LENGTH, length)];
+                    Arrays.fill(garbage, (byte) 0x55);
+                    int budget = 20;
+                    try {
+                        while (budget > 0) {
+                            synchronized (done) {
+                                if (done[0]) {
+                                    return;
+                                }
+                            }
+                            /* everything but the last block is in, the piece is about to complete */
+                            if (disk.getDownloaded(index) >= length - BLOCK_LENGTH) {
+                                disk.write(index, 0, garbage);
+                                budget--;
+                            }
+                        }
+                    } catch (IOException ex) {
+                    }
+                }
+            };
+
+            writer.start();
+            duplicator.start();
+            writer.join();
+            duplicator.join();
+
+            if (!Arrays.equals(disk.read(index, 0, length), seed.read(index, 0, length))) {
+                corrupted++;
+            }
+        }
+
+        disk.close();
+        return corrupted;
+    }
+
+    private static String resume(Metafile metafile, File dir) throws Exception {
+        TorrentDisk disk = new FileChannelTorrentDisk(metafile, dir);
+        long start = System.currentTimeMillis();
+        disk.init();
+        disk.resume();
+        long elapsed = System.currentTimeMillis() - start;
+        boolean complete = disk.getCompleted() == metafile.getLength();
+        disk.close();
+        return elapsed + "ms" + (complete ? "" : " (INCOMPLETE)");
+    }
+
+    private static int[] shuffledBlocks(TorrentDisk disk, int pieces) {
+        int blocksPerPiece = PIECE_LENGTH / BLOCK_LENGTH;
+        int count = 0;
+        for (int i = 0; i < pieces; i++) {
+            count += (disk.getLength(i) + BLOCK_LENGTH - 1) / BLOCK_LENGTH;
+        }
+        int[] blocks = new int[count];
+        int n = 0;
+        for (int i = 0; i < pieces; i++) {
+            int pieceBlocks = (disk.getLength(i) + BLOCK_LENGTH - 1) / BLOCK_LENGTH;
+            for (int j = 0; j < pieceBlocks; j++) {
+                blocks[n++] = i * blocksPerPiece + j;
+            }
+        }
+        Random random = new Random(17);
+        for (int i = blocks.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = blocks[i];
+            blocks[i] = blocks[j];
+            blocks[j] = t;
+        }
+        return blocks;
+    }
+
+    /* multi file torrent named after dir, file sizes don't line up with pieces */
+    private static Metafile createData(File dir, long length) throws Exception {
+        dir.mkdirs();
+        Random random = new Random(17);
+        MessageDigest md = MessageDigest.getInstance("SHA1");
+        ByteArrayOutputStream pieces = new ByteArrayOutputStream();
+        StringBuilder files = new StringBuilder();
+
+        long fileLength = length / FILES + 7777;
+        long remaining = length;
+        int inPiece = 0;
+        byte[] buffer = new byte[BLOCK_LENGTH];
+        for (int i = 0; remaining > 0; i++) {
+            long thisFile = i == FILES - 1 ? remaining : Math.min(fileLength, remaining);
+            String name = "file" + i + ".bin";
+            files.append("d6:lengthi").append(thisFile).append("e4:pathl").append(name.length()).append(":").append(name).append("ee");
+
+            OutputStream os = new FileOutputStream(new File(dir, name));
+            long left = thisFile;
+            while (left > 0) {
+                int len = (int) Math.min(Math.min(buffer.length, left), PIECE_LENGTH - inPiece);
+                random.nextBytes(buffer);
+                os.write(buffer, 0, len);
+                md.update(buffer, 0, len);
+                inPiece += len;
+                if (inPiece == PIECE_LENGTH) {
+                    pieces.write(md.digest());
+                    inPiece = 0;
+                }
+                left -= len;
+            }
+            os.close();
+            remaining -= thisFile;
+        }
+        if (inPiece > 0) {
+            pieces.write(md.digest());
+        }
+
+        ByteArrayOutputStream bencoded = new ByteArrayOutputStream();
+        String announce = "http://127.0.0.1:1/announce";
+        bencoded.write(("d8:announce" + announce.length() + ":" + announce + "4:info" +
+                "d5:filesl" + files + "e4:name" + dir.getName().length() + ":" + dir.getName() +
+                "12:piece lengthi" + PIECE_LENGTH + "e6:pieces" + pieces.size() + ":").getBytes("ISO-8859-1"));
+        bencoded.write(pieces.toByteArray());
+        bencoded.write("ee".getBytes("ISO-8859-1"));
+
+        return new Metafile(new ByteArrayInputStream(bencoded.toByteArray()));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
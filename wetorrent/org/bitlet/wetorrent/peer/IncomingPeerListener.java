@@ -17,10 +17,12 @@
 
 package org.bitlet.wetorrent.peer;
 
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -33,7 +35,7 @@ public class IncomingPeerListener extends InterruptableTasksThread {
 
     ServerSocket serverSocket;
     private Map<ByteBuffer, Torrent> torrents = new HashMap<ByteBuffer, Torrent>();
-    private Set<TorrentPeer> dispatchingPeers = new HashSet<TorrentPeer>();
+    private Set<Peer> dispatchingPeers = new HashSet<Peer>();
     private int port;
     private int receivedConnection = 0;
 
@@ -44,7 +46,19 @@ public class IncomingPeerListener extends InterruptableTasksThread {
         }
         while (port < 65535 && serverSocket == null) {
             try {
-                serverSocket = new ServerSocket(port);
+                if (PeersManager.selectorEngine) {
+                    /* accepted sockets come with a channel for the selector threads */
+                    ServerSocketChannel serverChannel = ServerSocketChannel.open();
+                    try {
+                        serverChannel.socket().bind(new InetSocketAddress(port));
+                    } catch (Exception e) {
+                        serverChannel.close();
+                        throw e;
+                    }
+                    serverSocket = serverChannel.socket();
+                } else {
+                    serverSocket = new ServerSocket(port);
+                }
             } catch (Exception e) {
 
                 if (Torrent.verbose) {
@@ -71,9 +85,15 @@ public class IncomingPeerListener extends InterruptableTasksThread {
                     Socket socket = serverSocket.accept();
 
                     receivedConnection++;
-                    TorrentPeer peer = new TorrentPeer(socket, incomingPeerListener);
-                    dispatchingPeers.add(peer);
-                    peer.start();
+                    if (socket.getChannel() != null) {
+                        NioTorrentPeer peer = new NioTorrentPeer(socket.getChannel(), incomingPeerListener);
+                        peer(peer);
+                        peer.start();
+                    } else {
+                        TorrentPeer peer = new TorrentPeer(socket, incomingPeerListener);
+                        peer(peer);
+                        peer.start();
+                    }
                 } catch (SocketException e) {
                     return false;
                 }
@@ -112,7 +132,7 @@ public class IncomingPeerListener extends InterruptableTasksThread {
         torrents.remove(ByteBuffer.wrap(torrent.getMetafile().getInfoSha1()));
     }
 
-    public synchronized void peer(TorrentPeer dispatchingPeer) {
+    public synchronized void peer(Peer dispatchingPeer) {
         dispatchingPeers.add(dispatchingPeer);
     }
 
@@ -128,15 +148,30 @@ public class IncomingPeerListener extends InterruptableTasksThread {
         }
     }
 
+    public synchronized boolean dispatchPeer(NioTorrentPeer dispatchingPeer, byte[] infoSha1) {
+        dispatchingPeers.remove(dispatchingPeer);
+        Torrent torrent = torrents.get(ByteBuffer.wrap(infoSha1));
+        if (torrent != null) {
+            torrent.getPeersManager().offer(dispatchingPeer);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
     public void interrupt() {
         super.interrupt();
 
-        for (TorrentPeer p : dispatchingPeers) {
+        Peer[] peers;
+        synchronized (this) {
+            peers = dispatchingPeers.toArray(new Peer[dispatchingPeers.size()]);
+        }
+        for (Peer p : peers) {
             p.interrupt();
         }
     }
 
-    public synchronized void removePeer(TorrentPeer peer) {
+    public synchronized void removePeer(Peer peer) {
         dispatchingPeers.remove(peer);
     }
 }
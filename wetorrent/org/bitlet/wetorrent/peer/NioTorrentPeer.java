@@ -0,0 +1,867 @@
+/*
+ *              bitlet - Simple bittorrent library
+ *  Copyright (C) 2008 Alessandro Bahgat Shehata, Daniele Castagna
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.bitlet.wetorrent.peer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.logging.Level;
+import org.bitlet.wetorrent.Event;
+import org.bitlet.wetorrent.Torrent;
+import org.bitlet.wetorrent.peer.message.Cancel;
+import org.bitlet.wetorrent.peer.message.Message;
+import org.bitlet.wetorrent.peer.message.Piece;
+import org.bitlet.wetorrent.peer.message.Request;
+import org.bitlet.wetorrent.util.Utils;
+import org.bitlet.wetorrent.util.nio.ChannelHandler;
+import org.bitlet.wetorrent.util.nio.SelectorPool;
+import org.bitlet.wetorrent.util.nio.SelectorThread;
+import org.bitlet.wetorrent.util.stream.BandwidthLimiter;
+import org.bitlet.wetorrent.util.thread.WorkerPool;
+
+/**
+ * Non blocking counterpart of TorrentPeer. The connection is driven by one of the
+ * threads of the default SelectorPool instead of two threads of its own: the
+ * handshake, bitfield and message framing are done over ByteBuffers and the
+ * received messages are dispatched to the torrent on the selector thread.
+ * Anything touching the disk (reading a requested block, writing and hashing a
+ * received one) goes to the default WorkerPool so a slow disk doesn't stall the
+ * other peers sharing the selector.
+ */
+public class NioTorrentPeer implements Peer, ChannelHandler {
+
+    private static final int CONNECTING = 0;
+    private static final int HANDSHAKE = 1;
+    private static final int ACTIVE = 2;
+    private static final int HANDSHAKE_LENGTH = 68;
+    /* pstrlen, pstr, reserved and info hash */
+    private static final int INFO_HASH_END = 48;
+    private static final int HANDSHAKE_TIMEOUT = 60000;
+    private static final int READ_BUFFER_SIZE = 32 * 1024;
+    private static final int MAX_MESSAGE_LENGTH = 1 << 20;
+    private byte[] peerId;
+    private String peerIdEncoded;
+    private int port;
+    private InetAddress ip;
+    private byte[] bitfield;
+    private SocketChannel channel;
+    private SelectorThread selectorThread;
+    private SelectionKey key;
+    private IncomingPeerListener incomingPeerListener;
+    private volatile int state;
+    private volatile boolean closed = false;
+    boolean isChoked = true;
+    boolean isInterested = false;
+    boolean amChoked = true;
+    boolean amInterested = false;
+    private PeersManager peersManager;
+    private volatile long downloaded;
+    private volatile long uploaded;
+    private volatile long lastReceivedMessageMillis;
+    private volatile long lastSentMessageMillis;
+    private List<Request> unfulfilledRequests = new LinkedList<Request>();
+    private Queue<Message> messagesToBeSent = new LinkedList<Message>();
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private ByteBuffer writeBuffer;
+    private boolean writeScheduled = false;
+    private boolean writeSuspended = false;
+
+    public NioTorrentPeer(byte[] peerId, InetAddress ip, int port, PeersManager peersManager) {
+        this.peersManager = peersManager;
+        this.peerId = peerId;
+        peerIdEncoded = Utils.byteArrayToURLString(peerId);
+        this.port = port;
+        this.ip = ip;
+
+        bitfield = new byte[peersManager.getTorrent().getTorrentDisk().getBitfieldCopy().length];
+        state = CONNECTING;
+        selectorThread = SelectorPool.getDefault().next();
+    }
+
+    public NioTorrentPeer(SocketChannel channel, IncomingPeerListener incomingPeerListener) {
+        this.channel = channel;
+        this.incomingPeerListener = incomingPeerListener;
+        port = channel.socket().getPort();
+        ip = channel.socket().getInetAddress();
+
+        state = HANDSHAKE;
+        selectorThread = SelectorPool.getDefault().next();
+    }
+
+    public void start() {
+        selectorThread.invokeLater(new Runnable() {
+
+            public void run() {
+                try {
+                    startConnection();
+                } catch (Exception e) {
+                    exceptionCought(e);
+                }
+            }
+        });
+
+        selectorThread.invokeLater(new Runnable() {
+
+            public void run() {
+                if (state != ACTIVE && !closed) {
+                    exceptionCought(new ConnectException("Handshake timed out: " + ip));
+                }
+            }
+        }, HANDSHAKE_TIMEOUT);
+    }
+
+    private void startConnection() throws Exception {
+        if (closed) {
+            return;
+        }
+
+        if (channel == null) {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+
+            if (closed) {
+                channel.close();
+                return;
+            }
+
+            if (channel.connect(new InetSocketAddress(ip, port))) {
+                key = selectorThread.register(channel, SelectionKey.OP_READ, this);
+                connected();
+            } else {
+                key = selectorThread.register(channel, SelectionKey.OP_CONNECT, this);
+            }
+        } else {
+            channel.configureBlocking(false);
+            key = selectorThread.register(channel, SelectionKey.OP_READ, this);
+        }
+    }
+
+    public void connectable() throws Exception {
+        if (channel.finishConnect()) {
+            key.interestOps(SelectionKey.OP_READ);
+            connected();
+        }
+    }
+
+    private void connected() throws Exception {
+        if (Torrent.verbose) {
+            peersManager.getTorrent().addEvent(new Event(this, "Connected to " + ip, Level.FINE));
+        }
+        state = HANDSHAKE;
+        sendProtocolHeader();
+    }
+
+    private void sendProtocolHeader() throws Exception {
+        ByteBuffer header = ByteBuffer.allocate(HANDSHAKE_LENGTH);
+        header.put((byte) 19);
+        header.put("BitTorrent protocol".getBytes());
+        header.put(new byte[8]);
+        header.put(peersManager.getTorrent().getMetafile().getInfoSha1());
+        header.put(peersManager.getTorrent().getPeerId());
+        header.flip();
+
+        /* nothing else can have been queued before the handshake */
+        writeBuffer = header;
+        writable();
+    }
+
+    public void readable() throws Exception {
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            throw new EOFException("Connection closed by " + ip);
+        }
+
+        readBuffer.flip();
+        try {
+            if (state == HANDSHAKE) {
+                handshake();
+            }
+            while (state == ACTIVE && !closed && readBuffer.remaining() >= 4) {
+                int prefixLength = readBuffer.getInt(readBuffer.position());
+                if (prefixLength < 0 || prefixLength > MAX_MESSAGE_LENGTH) {
+                    throw new ProtocolException("Bad prefix length " + prefixLength);
+                }
+
+                if (readBuffer.remaining() < 4 + prefixLength) {
+                    if (readBuffer.capacity() < 4 + prefixLength) {
+                        ByteBuffer larger = ByteBuffer.allocate(4 + prefixLength);
+                        larger.put(readBuffer);
+                        larger.flip();
+                        readBuffer = larger;
+                    }
+                    break;
+                }
+
+                readBuffer.getInt();
+                int end = readBuffer.position() + prefixLength;
+                receiveMessage(prefixLength);
+                readBuffer.position(end);
+                lastReceivedMessageMillis = System.currentTimeMillis();
+            }
+
+            /* drop a buffer grown for a big message once it has been handled */
+            if (readBuffer.capacity() > READ_BUFFER_SIZE && readBuffer.remaining() == 0) {
+                readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+                readBuffer.flip();
+            }
+        } finally {
+            readBuffer.compact();
+        }
+    }
+
+    private void handshake() throws Exception {
+        int start = readBuffer.position();
+
+        if (peersManager == null && incomingPeerListener != null) {
+            /* incoming connection, we need the info hash to find the torrent */
+            if (readBuffer.remaining() < INFO_HASH_END) {
+                return;
+            }
+            checkProtocol(start);
+
+            byte[] infoHash = new byte[20];
+            readBuffer.position(start + 28);
+            readBuffer.get(infoHash);
+            readBuffer.position(start);
+
+            if (!incomingPeerListener.dispatchPeer(this, infoHash)) {
+                throw new Exception("Wrong info hash");
+            }
+            if (closed) {
+                return;
+            }
+            sendProtocolHeader();
+        }
+
+        if (readBuffer.remaining() < HANDSHAKE_LENGTH) {
+            return;
+        }
+        checkProtocol(start);
+
+        byte[] infoHash = new byte[20];
+        readBuffer.position(start + 28);
+        readBuffer.get(infoHash);
+        if (!Utils.bytesCompare(infoHash, peersManager.getTorrent().getMetafile().getInfoSha1())) {
+            throw new Exception("Wrong info hash");
+        }
+
+        byte[] remotePeerId = new byte[20];
+        readBuffer.get(remotePeerId);
+
+        if (Torrent.verbose) {
+            peersManager.getTorrent().addEvent(new Event(this, "new peerId: " + Utils.byteArrayToURLString(remotePeerId), Level.INFO));
+        }
+        if (Utils.bytesCompare(remotePeerId, peersManager.getTorrent().getPeerId())) {
+            throw new Exception("Avoid self connections");
+        }
+
+        if (peerId != null) {
+            if (!Utils.bytesCompare(peerId, remotePeerId)) {
+                throw new Exception("Wrong peer id");
+            }
+        } else {
+            setPeerId(remotePeerId);
+        }
+
+        state = ACTIVE;
+        lastReceivedMessageMillis = System.currentTimeMillis();
+        peersManager.connected(this);
+        if (closed) {
+            return;
+        }
+
+        Message bitfieldMessage = new Message(Message.BITFIELD, null);
+        bitfieldMessage.setPayload(peersManager.getTorrent().getTorrentDisk().getBitfieldCopy());
+        sendMessage(bitfieldMessage);
+    }
+
+    private void checkProtocol(int start) throws Exception {
+        if (readBuffer.get(start) != 19) {
+            throw new Exception("Error, wrong protocol identifier length " + readBuffer.get(start));
+        }
+        byte[] protocolByteString = new byte[19];
+        readBuffer.position(start + 1);
+        readBuffer.get(protocolByteString);
+        readBuffer.position(start);
+        if (!Utils.bytesCompare("BitTorrent protocol".getBytes(), protocolByteString)) {
+            throw new Exception("Error, wrong protocol identifier");
+        }
+    }
+
+    private void receiveMessage(int prefixLength) throws Exception {
+
+        if (prefixLength == 0) { // keep alive message
+
+            keepAlive();
+            return;
+        }
+
+        byte messageId = readBuffer.get();
+        switch (messageId) {
+            case Message.CHOKE: // choke: <len=0001><id=0>
+
+                if (prefixLength != 1) {
+                    throw new ProtocolException("pl " + prefixLength);
+                }
+                choke();
+                break;
+            case Message.UNCHOKE: // unchoke: <len=0001><id=1>
+
+                if (prefixLength != 1) {
+                    throw new ProtocolException();
+                }
+                unchoke();
+                break;
+            case Message.INTERESTED: // interested
+
+                if (prefixLength != 1) {
+                    throw new ProtocolException();
+                }
+                interested();
+                break;
+            case Message.NOT_INTERESTED: // not interested
+
+                if (prefixLength != 1) {
+                    throw new ProtocolException();
+                }
+                notInterested();
+                break;
+            case Message.HAVE: // have: <len=0005><id=4><piece index>
+
+                if (prefixLength != 5) {
+                    throw new ProtocolException();
+                }
+                have(readBuffer.getInt());
+                break;
+            case Message.BITFIELD: // bitfield: <len=0001+X><id=5><bitfield>
+
+                if (prefixLength != 1 + bitfield.length) {
+                    throw new ProtocolException();
+                }
+                byte[] bitField = new byte[prefixLength - 1];
+                readBuffer.get(bitField);
+                bitfield(bitField);
+                break;
+            case Message.REQUEST: // request: <len=0013><id=6><index><begin><length>
+
+                if (prefixLength != 13) {
+                    throw new ProtocolException();
+                }
+                request(readBuffer.getInt(), readBuffer.getInt(), readBuffer.getInt());
+                break;
+            case Message.PIECE: // piece: <len=0009+X><id=7><index><begin><block>
+
+                if (prefixLength < 10) {
+                    throw new ProtocolException();
+                }
+                int index = readBuffer.getInt();
+                int begin = readBuffer.getInt();
+                byte[] block = new byte[prefixLength - 9];
+                readBuffer.get(block);
+                piece(index, begin, block);
+                break;
+            case Message.CANCEL: // cancel: <len=0013><id<=8><index><begin><length>
+
+                if (prefixLength != 13) {
+                    throw new ProtocolException();
+                }
+                cancel(readBuffer.getInt(), readBuffer.getInt(), readBuffer.getInt());
+                break;
+            default:
+                // discarded by the caller
+                if (Torrent.verbose) {
+                    peersManager.getTorrent().addEvent(new Event(this, "message discarded " + messageId, Level.FINE));
+                }
+                break;
+        }
+    }
+
+    public void writable() throws Exception {
+        if (closed) {
+            return;
+        }
+
+        while (true) {
+            if (writeBuffer == null || !writeBuffer.hasRemaining()) {
+                writeBuffer = state == ACTIVE ? nextFrame() : null;
+                if (writeBuffer == null) {
+                    setWriteInterest(false);
+                    return;
+                }
+            }
+
+            int written = channel.write(writeBuffer);
+
+            if (!writeBuffer.hasRemaining()) {
+                lastSentMessageMillis = System.currentTimeMillis();
+            }
+
+            BandwidthLimiter limiter = peersManager.getTorrent().getUploadBandwidthLimiter();
+            if (limiter != null && written > 0) {
+                long wait = limiter.nextBytesSent(written);
+                if (wait > 0) {
+                    suspendWrites(wait);
+                    return;
+                }
+            }
+
+            if (writeBuffer.hasRemaining()) {
+                /* socket buffer full */
+                setWriteInterest(true);
+                return;
+            }
+        }
+    }
+
+    private ByteBuffer nextFrame() {
+        while (true) {
+            Message message;
+            synchronized (this) {
+                message = messagesToBeSent.peek();
+                if (message == null) {
+                    return null;
+                }
+                if (message.getType() == Message.PIECE && !((Piece) message).isLoaded()) {
+                    /* a worker is still reading the block, it flushes once done */
+                    return null;
+                }
+                messagesToBeSent.poll();
+            }
+
+            ByteBuffer frame;
+            if (message.getType() == Message.KEEP_ALIVE) {
+                frame = ByteBuffer.allocate(4);
+                frame.putInt(0);
+            } else {
+                byte[] payload = message.getPayload();
+                if (payload == null) {
+                    if (message.getType() == Message.PIECE) {
+                        /* the block couldn't be read */
+                        continue;
+                    }
+                    frame = ByteBuffer.allocate(5);
+                    frame.putInt(1);
+                    frame.put(message.getType());
+                } else {
+                    frame = ByteBuffer.allocate(5 + payload.length);
+                    frame.putInt(payload.length + 1);
+                    frame.put(message.getType());
+                    frame.put(payload);
+
+                    if (message.getType() == Message.PIECE) {
+                        uploaded += payload.length - 8;
+                    }
+                }
+            }
+            frame.flip();
+
+            if (Torrent.verbose) {
+                peersManager.getTorrent().addEvent(new Event(this, "Message sent " + message.getType(), Level.FINEST));
+            }
+            return frame;
+        }
+    }
+
+    private void setWriteInterest(boolean write) {
+        if (key == null || !key.isValid() || state == CONNECTING) {
+            return;
+        }
+        int ops = key.interestOps();
+        int newOps = write && !writeSuspended ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE;
+        if (newOps != ops) {
+            key.interestOps(newOps);
+        }
+    }
+
+    private void suspendWrites(long millis) {
+        writeSuspended = true;
+        setWriteInterest(false);
+        selectorThread.invokeLater(new Runnable() {
+
+            public void run() {
+                writeSuspended = false;
+                flush();
+            }
+        }, millis);
+    }
+
+    /**
+     * Writes what's queued, called on the selector thread
+     */
+    private void flush() {
+        if (writeSuspended || state == CONNECTING) {
+            return;
+        }
+        try {
+            writable();
+        } catch (Exception e) {
+            exceptionCought(e);
+        }
+    }
+
+    private void scheduleFlush() {
+        if (selectorThread.isSelectorThread()) {
+            flush();
+            return;
+        }
+
+        synchronized (this) {
+            if (writeScheduled) {
+                return;
+            }
+            writeScheduled = true;
+        }
+
+        selectorThread.invokeLater(new Runnable() {
+
+            public void run() {
+                synchronized (NioTorrentPeer.this) {
+                    writeScheduled = false;
+                }
+                flush();
+            }
+        });
+    }
+
+    public void exceptionCought(Exception e) {
+        if (Torrent.verbose && peersManager != null) {
+            peersManager.getTorrent().addEvent(new Event(e, "UUoops exception cought.", Level.WARNING));
+        }
+        interrupt();
+    }
+
+    public String getPeerIdEncoded() {
+        return peerIdEncoded;
+    }
+
+    public byte[] getPeerId() {
+        return peerId;
+    }
+
+    public void setPeerId(byte[] peerId) {
+        this.peerId = peerId;
+        peerIdEncoded = Utils.byteArrayToURLString(peerId);
+    }
+
+    public PeersManager getPeersManager() {
+        return peersManager;
+    }
+
+    public InetAddress getIp() {
+        return ip;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public synchronized void setBitfield(byte[] bitfield) {
+        this.bitfield = bitfield;
+    }
+
+    /*messages sent by remote peer*/
+    public void bitfield(byte[] bitfield) {
+
+        if (Torrent.verbose) {
+            peersManager.getTorrent().addEvent(new Event(this, "Bitfield received ", Level.FINEST));
+        }
+        setBitfield(bitfield);
+        peersManager.getTorrent().bitfield(bitfield, this);
+    }
+
+    public void choke() {
+
+        if (Torrent.verbose) {
+            peersManager.getTorrent().addEvent(new Event(this, "Choke received ", Level.FINEST));
+        }
+        amChoked = true;
+        peersManager.getTorrent().choke(this);
+    }
+
+    public void unchoke() {
+        if (Torrent.verbose) {
+            peersManager.getTorrent().addEvent(new Event(this, "Unchoke received ", Level.FINEST));
+        }
+        amChoked = false;
+        /* if there are pending request not satisfied */
+        cancelAll();
+        peersManager.getTorrent().unchoke(this);
+    }
+
+    public void interested() {
+        if (Torrent.verbose) {
+            peersManager.getTorrent().addEvent(new Event(this, "Interested received ", Level.FINEST));
+        }
+        isInterested = true;
+        peersManager.getTorrent().interested(this);
+    }
+
+    public void notInterested() {
+        if (Torrent.verbose) {
+            peersManager.getTorrent().addEvent(new Event(this, "Not interested received ", Level.FINEST));
+        }
+        isInterested = false;
+        peersManager.getTorrent().notInterested(this);
+    }
+
+    public void have(int i) {
+
+        if (Torrent.verbose) {
+            peersManager.getTorrent().addEvent(new Event(this, "Have received ", Level.FINEST));
+        }
+        setPiece(i);
+        peersManager.getTorrent().have(i, this);
+    }
+
+    public void request(int index, int begin, int length) {
+        if (Torrent.verbose) {
+            peersManager.getTorrent().addEvent(new Event(this, "Request received ", Level.FINEST));
+        /* TODO: Check block avaiabilty */
+        }
+        if (!isChoked) {
+            sendMessage(new Piece(index, begin, length, peersManager.getTorrent().getTorrentDisk()));
+        }
+    }
+
+    public void piece(int index, int begin, byte[] block) {
+        if (Torrent.verbose) {
+            peersManager.getTorrent().addEvent(new Event(this, "Piece received " + index + " " + begin + " " + block.length, Level.FINEST));
+        }
+        downloaded += block.length;
+        if (requestFulfilled(index, begin, block)) {
+            /* the write, and the hash check once the piece is complete, happen on a worker */
+            final int pieceIndex = index;
+            final int pieceBegin = begin;
+            final byte[] pieceBlock = block;
+            WorkerPool.getDefault().execute(new Runnable() {
+
+                public void run() {
+                    try {
+                        peersManager.getTorrent().piece(pieceIndex, pieceBegin, pieceBlock, NioTorrentPeer.this);
+                    } catch (Exception e) {
+                        exceptionCought(e);
+                    }
+                }
+            });
+        }
+    }
+
+    public synchronized void cancel(int index, int begin, int length) {
+        if (Torrent.verbose) {
+            peersManager.getTorrent().addEvent(new Event(this, "Cancel received ", Level.FINEST));
+        }
+        Iterator<Message> messages = messagesToBeSent.iterator();
+        while (messages.hasNext()) {
+            Message elem = messages.next();
+            if (elem.getType() == Message.PIECE) {
+                Piece block = (Piece) elem;
+                if (block.getIndex() == index && block.getBegin() == begin && block.getLength() == length) {
+                    messages.remove();
+                }
+            }
+        }
+    }
+
+    private synchronized void cancelAll() {
+        Iterator<Message> messages = messagesToBeSent.iterator();
+        while (messages.hasNext()) {
+            if (messages.next().getType() == Message.PIECE) {
+                messages.remove();
+            }
+        }
+    }
+
+    public void sendMessage(Message message) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            messagesToBeSent.add(message);
+            switch (message.getType()) {
+                case Message.PIECE:
+                    load((Piece) message);
+                    break;
+                case Message.REQUEST:
+                    unfulfilledRequests.add((Request) message);
+                    break;
+                case Message.CANCEL:
+                    Cancel cancel = (Cancel) message;
+                    requestCanceled(cancel.getIndex(), cancel.getBegin());
+                    break;
+            }
+        }
+        scheduleFlush();
+    }
+
+    private void load(final Piece piece) {
+        WorkerPool.getDefault().execute(new Runnable() {
+
+            public void run() {
+                /* cancelled or closed meanwhile, nextFrame won't look at it */
+                synchronized (NioTorrentPeer.this) {
+                    if (!messagesToBeSent.contains(piece)) {
+                        return;
+                    }
+                }
+                piece.load();
+                scheduleFlush();
+            }
+        });
+    }
+
+    public void interrupt() {
+        boolean wasClosed;
+        synchronized (this) {
+            wasClosed = closed;
+            closed = true;
+            messagesToBeSent.clear();
+        }
+
+        if (!wasClosed) {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+            }
+            if (incomingPeerListener != null) {
+                incomingPeerListener.removePeer(this);
+            }
+        }
+
+        /* always, the peer may have been added to the active ones as it closed */
+        if (peersManager != null) {
+            peersManager.interrupted(this);
+        }
+    }
+
+    public synchronized byte[] getBitfieldCopy() {
+        return bitfield.clone();
+    }
+
+    public synchronized boolean hasPiece(int index) {
+        return (bitfield[index >> 3] & (0x80 >> (index & 0x7))) > 0;
+    }
+
+    public synchronized void setPiece(int index) {
+        bitfield[index >> 3] |= (0x80 >> (index & 0x7));
+    }
+
+    public void keepAlive() {
+        long now = System.currentTimeMillis();
+
+        if (now - lastSentMessageMillis < 2000) {
+            sendMessage(new Message(Message.KEEP_ALIVE, null));
+        }
+    }
+
+    public long getUploaded() {
+        return uploaded;
+    }
+
+    public long getDownloaded() {
+        return downloaded;
+    }
+
+    public synchronized void setAmInterested(boolean amInterested) {
+        if (!this.amInterested && amInterested) {
+            sendMessage(new Message(Message.INTERESTED, null));
+        } else if (this.amInterested && !amInterested) {
+            sendMessage(new Message(Message.NOT_INTERESTED, null));
+        }
+        this.amInterested = amInterested;
+    }
+
+    public synchronized void setIsChoked(boolean isChoked) {
+        if (!this.isChoked && isChoked) {
+            sendMessage(new Message(Message.CHOKE, null));
+        } else if (this.isChoked && !isChoked) {
+            sendMessage(new Message(Message.UNCHOKE, null));
+        }
+        this.isChoked = isChoked;
+    }
+
+    public boolean isIsChoked() {
+        return isChoked;
+    }
+
+    public boolean isAmChoked() {
+        return amChoked;
+    }
+
+    public synchronized boolean isSeeder() {
+        for (int i = 0; i < getPeersManager().getTorrent().getMetafile().getPieces().size(); i++) {
+            if (!hasPiece(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized int getUnfulfilledRequestNumber() {
+        return unfulfilledRequests.size();
+    }
+
+    private synchronized boolean requestFulfilled(int index, int begin, byte[] block) {
+        for (Request r : unfulfilledRequests) {
+            if (r.getIndex() == index && r.getBegin() == begin && r.getLength() == block.length) {
+                unfulfilledRequests.remove(r);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private synchronized boolean requestCanceled(int index, int begin) {
+        for (Request r : unfulfilledRequests) {
+            if (r.getIndex() == index && r.getBegin() == begin) {
+                unfulfilledRequests.remove(r);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public synchronized Request getLastUnfulfilledRequest() {
+        if (unfulfilledRequests.size() == 0) {
+            return null;
+        }
+        return unfulfilledRequests.get(unfulfilledRequests.size() - 1);
+    }
+
+    public long getLastReceivedMessageMillis() {
+        return lastReceivedMessageMillis;
+    }
+
+    void setPeersManager(PeersManager peersManager) {
+        this.peersManager = peersManager;
+        bitfield = new byte[peersManager.getTorrent().getTorrentDisk().getBitfieldCopy().length];
+    }
+}
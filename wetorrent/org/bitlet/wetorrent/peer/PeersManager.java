@@ -20,6 +20,7 @@ package org.bitlet.wetorrent.peer;
 import java.net.InetAddress;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 
 import org.bitlet.wetorrent.Event;
@@ -30,8 +31,14 @@ import org.bitlet.wetorrent.util.Utils;
 
 public class PeersManager {
 
-    private List<Peer> connectingPeers = new LinkedList<Peer>();
-    private List<Peer> activePeers = new LinkedList<Peer>();
+    /**
+     * Peers are driven by a few shared selector threads (NioTorrentPeer) unless
+     * wetorrent.blockingio is set, then each gets its own threads (TorrentPeer)
+     */
+    public static final boolean selectorEngine = !Boolean.getBoolean("wetorrent.blockingio");
+    /* copy on write: the peers are iterated from many threads, changed rarely */
+    private List<Peer> connectingPeers = new CopyOnWriteArrayList<Peer>();
+    private List<Peer> activePeers = new CopyOnWriteArrayList<Peer>();
     /**
      * Creates a new instance of PeersManager
      */
@@ -48,7 +55,7 @@ public class PeersManager {
     /*
      * This is called when we would like to start a connection to
      */
-    public synchronized TorrentPeer offer(byte[] peerId, InetAddress ip, int port) {
+    public synchronized Peer offer(byte[] peerId, InetAddress ip, int port) {
 
         // TODO: this could be optimized with a proper indexing
         for (Peer peer : connectingPeers) {
@@ -63,14 +70,20 @@ public class PeersManager {
         }
 
         if (activePeers.size() < connectionCreationTreshold) {
-            TorrentPeer peer = new TorrentPeer(peerId, ip, port, this);
-
             if (Torrent.verbose) {
                 torrent.addEvent(new Event(this, "Starting connection to new peer: " + ip, Level.FINE));
             }
-            peer.start();
-            connectingPeers.add(peer);
-            return peer;
+            if (selectorEngine) {
+                NioTorrentPeer peer = new NioTorrentPeer(peerId, ip, port, this);
+                connectingPeers.add(peer);
+                peer.start();
+                return peer;
+            } else {
+                TorrentPeer peer = new TorrentPeer(peerId, ip, port, this);
+                peer.start();
+                connectingPeers.add(peer);
+                return peer;
+            }
         }
 
         if (Torrent.verbose) {
@@ -80,27 +93,36 @@ public class PeersManager {
     }
 
     public synchronized TorrentPeer offer(TorrentPeer peer) {
+        peer.setPeersManager(this);
+        return accept(peer) ? peer : null;
+    }
+
+    public synchronized NioTorrentPeer offer(NioTorrentPeer peer) {
+        peer.setPeersManager(this);
+        return accept(peer) ? peer : null;
+    }
+
+    private boolean accept(Peer peer) {
         if (activePeers.size() > maxConnection) {
             if (Torrent.verbose) {
                 torrent.addEvent(new Event(this, "Refusing incoming connection: too many connection", Level.FINER));
             }
             peer.interrupt();
-            return null;
+            return false;
         }
 
         if (Torrent.verbose) {
             torrent.addEvent(new Event(this, "Accpeting incoming peer connection ", Level.FINER));
         }
-        peer.setPeersManager(this);
         connectingPeers.add(peer);
-        return peer;
+        return true;
     }
 
     public Torrent getTorrent() {
         return torrent;
     }
 
-    public synchronized long getUploaded() {
+    public long getUploaded() {
         long uploaded = disconnectedClientUploaded;
         for (Peer p : activePeers) {
             uploaded += p.getUploaded();
@@ -121,7 +143,7 @@ public class PeersManager {
         }
     }
 
-    public synchronized int[] getPiecesFrequencies() {
+    public int[] getPiecesFrequencies() {
         int[] frequencies = new int[torrent.getMetafile().getPieces().size()];
 
         for (int i = 0; i < frequencies.length; i++) {
@@ -135,7 +157,7 @@ public class PeersManager {
         return frequencies;
     }
 
-    public synchronized long getDownloaded() {
+    public long getDownloaded() {
         long downloaded = disconnectedClientDownloaded;
         for (Peer p : activePeers) {
             downloaded += p.getDownloaded();
@@ -144,7 +166,7 @@ public class PeersManager {
 
     }
 
-    public synchronized void tick() {
+    public void tick() {
         long now = System.currentTimeMillis();
 
         List<Peer> peersTimedOut = new LinkedList<Peer>();
@@ -172,7 +194,7 @@ public class PeersManager {
         }
     }
 
-    public synchronized void sendHave(Have have) {
+    public void sendHave(Have have) {
         for (Peer p : activePeers) {
             if (!p.hasPiece(have.getIndex())) {
                 p.sendMessage(have);
@@ -180,11 +202,11 @@ public class PeersManager {
         }
     }
 
-    public synchronized int getActivePeersNumber() {
+    public int getActivePeersNumber() {
         return activePeers.size();
     }
 
-    public synchronized int getSeedersNumber() {
+    public int getSeedersNumber() {
         int acc = 0;
         for (Peer peer : activePeers)
             acc += peer.isSeeder() ? 1 : 0;
@@ -27,6 +27,7 @@ public class Piece extends Message {
     private int length;
     private int begin;
     private TorrentDisk torrentDisk;
+    private volatile boolean loaded = false;
 
     /** Creates a new instance of Piece */
     public Piece(int index, int begin, int length, TorrentDisk torrentDisk) {
@@ -50,21 +51,39 @@ public class Piece extends Message {
         return begin;
     }
 
-    public byte[] getPayload() {
-        if (super.getPayload() == null) {
-            try {
+    /**
+     * Whether the block has been read, a failed read counts as loaded with
+     * a null payload
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Reads the block from disk, getPayload does it if nobody did before
+     */
+    public void load() {
+        if (loaded) {
+            return;
+        }
+        try {
 
-                byte[] block = torrentDisk.read(index, begin, length);
-                byte[] payload = new byte[block.length + 8];
+            byte[] block = torrentDisk.read(index, begin, length);
+            byte[] payload = new byte[block.length + 8];
 
-                System.arraycopy(block, 0, payload, 8, block.length);
-                System.arraycopy(Utils.intToByteArray(index), 0, payload, 0, 4);
-                System.arraycopy(Utils.intToByteArray(begin), 0, payload, 4, 4);
+            System.arraycopy(block, 0, payload, 8, block.length);
+            System.arraycopy(Utils.intToByteArray(index), 0, payload, 0, 4);
+            System.arraycopy(Utils.intToByteArray(begin), 0, payload, 4, 4);
 
-                setPayload(payload);
-            } catch (IOException ex) {
-            }
+            setPayload(payload);
+        } catch (IOException ex) {
+        } finally {
+            loaded = true;
         }
+    }
+
+    public byte[] getPayload() {
+        load();
         return super.getPayload();
 
     }
@@ -0,0 +1,177 @@
+/*
+ *              bitlet - Simple bittorrent library
+ *  Copyright (C) 2008 Alessandro Bahgat Shehata, Daniele Castagna
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.bitlet.wetorrent.peer.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.security.MessageDigest;
+import java.util.Random;
+import org.bitlet.wetorrent.Metafile;
+import org.bitlet.wetorrent.Torrent;
+import org.bitlet.wetorrent.disk.FileChannelTorrentDisk;
+import org.bitlet.wetorrent.disk.TorrentDisk;
+import org.bitlet.wetorrent.peer.IncomingPeerListener;
+import org.bitlet.wetorrent.peer.PeersManager;
+
+/**
+ * Loopback swarm: one seed and a number of leechers that all connect to the seed
+ * and to each other, no tracker involved. Reports the time until every leecher
+ * has the data and the peak thread count. Run it once as is for the selector
+ * engine and once with -Dwetorrent.blockingio=true for the thread per peer one.
+ *
+ * usage: PeerEngineTester [leechers] [size MB]
+ */
+public class PeerEngineTester {
+
+    private static final int PIECE_LENGTH = 256 * 1024;
+    private static final int BASE_PORT = 47000;
+
+    public static void main(String[] args) throws Exception {
+        int leechers = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int sizeMB = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+        /* not a multiple of the piece length */
+        long length = sizeMB * 1024L * 1024L + 12345;
+
+        File dir = File.createTempFile("wetorrent", "");
+        dir.delete();
+        dir.mkdirs();
+
+        try {
+            File seedDir = new File(dir, "seed");
+            seedDir.mkdirs();
+
+            Metafile metafile = createData(new File(seedDir, "data.bin"), length);
+
+            int port = BASE_PORT;
+
+            TorrentDisk seedDisk = new FileChannelTorrentDisk(metafile, seedDir);
+            seedDisk.init();
+            seedDisk.resume();
+
+            IncomingPeerListener seedListener = new IncomingPeerListener(port);
+            seedListener.start();
+            port = seedListener.getPort() + 1;
+
+            new Torrent(metafile, seedDisk, seedListener);
+
+            Torrent[] torrents = new Torrent[leechers];
+            IncomingPeerListener[] listeners = new IncomingPeerListener[leechers];
+
+            long start = System.currentTimeMillis();
+
+            for (int i = 0; i < leechers; i++) {
+                File leechDir = new File(dir, "leech" + i);
+                TorrentDisk disk = new FileChannelTorrentDisk(metafile, leechDir);
+                disk.init();
+
+                listeners[i] = new IncomingPeerListener(port);
+                listeners[i].start();
+                port = listeners[i].getPort() + 1;
+
+                torrents[i] = new Torrent(metafile, disk, listeners[i]);
+
+                InetAddress localhost = InetAddress.getByName("127.0.0.1");
+                torrents[i].getPeersManager().offer(null, localhost, seedListener.getPort());
+                for (int j = 0; j < i; j++) {
+                    torrents[i].getPeersManager().offer(null, localhost, listeners[j].getPort());
+                }
+            }
+
+            int peakPeers = 0;
+            while (true) {
+                Thread.sleep(250);
+
+                int completed = 0;
+                int peers = 0;
+                for (Torrent t : torrents) {
+                    t.getPeersManager().tick();
+                    peers += t.getPeersManager().getActivePeersNumber();
+                    if (t.isCompleted()) {
+                        completed++;
+                    }
+                }
+                peakPeers = Math.max(peakPeers, peers);
+
+                if (completed == leechers) {
+                    break;
+                }
+                if (System.currentTimeMillis() - start > 10 * 60 * 1000) {
+                    System.out.println("timed out, " + completed + " of " + leechers + " complete");
+                    break;
+                }
+            }
+
+            long elapsed = System.currentTimeMillis() - start;
+
+            System.out.println((PeersManager.selectorEngine ? "selector engine" : "blocking engine") + ": " +
+                    leechers + " leechers x " + (length / 1024) + " KB in " + elapsed + "ms (" +
+                    (length * leechers / 1024 * 1000 / Math.max(1, elapsed)) + " KB/s total), " +
+                    peakPeers + " peer connections, peak threads " +
+                    ManagementFactory.getThreadMXBean().getPeakThreadCount());
+        } finally {
+            delete(dir);
+        }
+
+        System.exit(0);
+    }
+
+    private static Metafile createData(File file, long length) throws Exception {
+        Random random = new Random(17);
+        MessageDigest md = MessageDigest.getInstance("SHA1");
+        ByteArrayOutputStream pieces = new ByteArrayOutputStream();
+
+        OutputStream os = new FileOutputStream(file);
+        byte[] buffer = new byte[PIECE_LENGTH];
+        long remaining = length;
+        while (remaining > 0) {
+            int len = (int) Math.min(PIECE_LENGTH, remaining);
+            random.nextBytes(buffer);
+            os.write(buffer, 0, len);
+            md.update(buffer, 0, len);
+            pieces.write(md.digest());
+            remaining -= len;
+        }
+        os.close();
+
+        ByteArrayOutputStream bencoded = new ByteArrayOutputStream();
+        String announce = "http://127.0.0.1:1/announce";
+        bencoded.write(("d8:announce" + announce.length() + ":" + announce + "4:info" +
+                "d6:lengthi" + length + "e4:name" + file.getName().length() + ":" + file.getName() +
+                "12:piece lengthi" + PIECE_LENGTH + "e6:pieces" + pieces.size() + ":").getBytes("ISO-8859-1"));
+        bencoded.write(pieces.toByteArray());
+        bencoded.write("ee".getBytes("ISO-8859-1"));
+
+        return new Metafile(new ByteArrayInputStream(bencoded.toByteArray()));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ *              bitlet - Simple bittorrent library
+ *  Copyright (C) 2008 Alessandro Bahgat Shehata, Daniele Castagna
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.bitlet.wetorrent.util.nio;
+
+/**
+ * Callbacks for a channel registered with a SelectorThread, always made on that
+ * thread. An exception thrown from one of them is passed to exceptionCought.
+ */
+public interface ChannelHandler {
+
+    public void connectable() throws Exception;
+
+    public void readable() throws Exception;
+
+    public void writable() throws Exception;
+
+    public void exceptionCought(Exception e);
+}
@@ -0,0 +1,64 @@
+/*
+ *              bitlet - Simple bittorrent library
+ *  Copyright (C) 2008 Alessandro Bahgat Shehata, Daniele Castagna
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.bitlet.wetorrent.util.nio;
+
+import java.io.IOException;
+
+/**
+ * A fixed set of selector threads that peer connections are spread over round
+ * robin. The default pool has one thread per core up to 4, set
+ * wetorrent.selector.threads to change it.
+ */
+public class SelectorPool {
+
+    private static SelectorPool defaultPool;
+    private SelectorThread[] threads;
+    private int next = 0;
+
+    public static synchronized SelectorPool getDefault() {
+        if (defaultPool == null) {
+            int size = Integer.getInteger("wetorrent.selector.threads", Math.min(4, Runtime.getRuntime().availableProcessors()));
+            try {
+                defaultPool = new SelectorPool(size);
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot open selector", e);
+            }
+        }
+        return defaultPool;
+    }
+
+    public SelectorPool(int size) throws IOException {
+        threads = new SelectorThread[Math.max(1, size)];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new SelectorThread("WeTorrent selector " + i);
+            threads[i].start();
+        }
+    }
+
+    public synchronized SelectorThread next() {
+        SelectorThread thread = threads[next];
+        next = (next + 1) % threads.length;
+        return thread;
+    }
+
+    public void interrupt() {
+        for (SelectorThread thread : threads) {
+            thread.interrupt();
+        }
+    }
+}
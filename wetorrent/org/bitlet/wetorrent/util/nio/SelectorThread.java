@@ -0,0 +1,177 @@
+/*
+ *              bitlet - Simple bittorrent library
+ *  Copyright (C) 2008 Alessandro Bahgat Shehata, Daniele Castagna
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.bitlet.wetorrent.util.nio;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Runs a Selector and the handlers of the channels registered with it. Work for
+ * the channels from other threads is passed in with invokeLater, delayed tasks
+ * are run by the same loop.
+ */
+public class SelectorThread extends Thread {
+
+    private Selector selector;
+    private Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<Runnable>();
+    /* only touched by this thread */
+    private List<DelayedTask> delayedTasks = new LinkedList<DelayedTask>();
+    private volatile boolean closing = false;
+
+    public SelectorThread(String name) throws IOException {
+        super(name);
+        setDaemon(true);
+        selector = Selector.open();
+    }
+
+    /**
+     * Must be called on this thread
+     */
+    public SelectionKey register(SelectableChannel channel, int ops, ChannelHandler handler) throws ClosedChannelException {
+        return channel.register(selector, ops, handler);
+    }
+
+    public boolean isSelectorThread() {
+        return Thread.currentThread() == this;
+    }
+
+    public void invokeLater(Runnable task) {
+        pendingTasks.add(task);
+        if (!isSelectorThread()) {
+            selector.wakeup();
+        }
+    }
+
+    public void invokeLater(final Runnable task, final long delayMillis) {
+        final long due = System.currentTimeMillis() + delayMillis;
+        invokeLater(new Runnable() {
+
+            public void run() {
+                DelayedTask delayed = new DelayedTask(due, task);
+                int i = 0;
+                for (DelayedTask d : delayedTasks) {
+                    if (d.due > due) {
+                        break;
+                    }
+                    i++;
+                }
+                delayedTasks.add(i, delayed);
+            }
+        });
+    }
+
+    public void run() {
+        while (!closing) {
+            try {
+                long timeout = runDelayedTasks();
+
+                /* tasks queued from this thread don't wake the selector */
+                if (pendingTasks.isEmpty()) {
+                    selector.select(timeout);
+                } else {
+                    selector.selectNow();
+                }
+
+                Runnable task;
+                while ((task = pendingTasks.poll()) != null) {
+                    runTask(task);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    ChannelHandler handler = (ChannelHandler) key.attachment();
+                    try {
+                        if (key.isValid() && key.isConnectable()) {
+                            handler.connectable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            handler.readable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            handler.writable();
+                        }
+                    } catch (CancelledKeyException e) {
+                        /* closed by another thread */
+                    } catch (Exception e) {
+                        handler.exceptionCought(e);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Runs the tasks that are due and returns the select timeout until the next
+     * one, 0 (no timeout) if there are none
+     */
+    private long runDelayedTasks() {
+        long now = System.currentTimeMillis();
+        while (delayedTasks.size() > 0) {
+            DelayedTask first = delayedTasks.get(0);
+            if (first.due > now) {
+                return first.due - now;
+            }
+            delayedTasks.remove(0);
+            runTask(first.task);
+        }
+        return 0;
+    }
+
+    private void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void interrupt() {
+        closing = true;
+        selector.wakeup();
+    }
+
+    private static class DelayedTask {
+
+        private long due;
+        private Runnable task;
+
+        private DelayedTask(long due, Runnable task) {
+            this.due = due;
+            this.task = task;
+        }
+    }
+}
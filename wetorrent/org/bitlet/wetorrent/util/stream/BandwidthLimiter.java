@@ -55,4 +55,24 @@ public class BandwidthLimiter {
         }
 
     }
+
+    /**
+     * Non blocking counterpart of limitNextBytes for selector driven senders:
+     * accounts for len bytes already sent and returns the millis to wait
+     * before sending more.
+     */
+    public synchronized long nextBytesSent(int len) {
+
+        bytesToChunk += len;
+
+        long now = System.nanoTime();
+        while (bytesToChunk > CHUNK_SIZE) {
+            long missingNanos = nanosToWait - (now - lastChunkSent);
+            bytesToChunk -= CHUNK_SIZE;
+            lastChunkSent = now + (missingNanos > 0 ? missingNanos : 0);
+        }
+
+        long waitNanos = lastChunkSent - now;
+        return waitNanos > 0 ? (waitNanos + 999999) / 1000000 : 0;
+    }
 }
@@ -0,0 +1,63 @@
+/*
+ *              bitlet - Simple bittorrent library
+ *  Copyright (C) 2008 Alessandro Bahgat Shehata, Daniele Castagna
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.bitlet.wetorrent.util.thread;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of daemon threads for the blocking work (disk reads, writes and
+ * piece hashing) that mustn't run on a selector thread. The default pool has
+ * one thread per core up to 4, set wetorrent.worker.threads to change it.
+ */
+public class WorkerPool {
+
+    private static WorkerPool defaultPool;
+    private ExecutorService executor;
+
+    public static synchronized WorkerPool getDefault() {
+        if (defaultPool == null) {
+            int size = Integer.getInteger("wetorrent.worker.threads", Math.min(4, Runtime.getRuntime().availableProcessors()));
+            defaultPool = new WorkerPool("WeTorrent worker", size);
+        }
+        return defaultPool;
+    }
+
+    public WorkerPool(final String name, int size) {
+        executor = Executors.newFixedThreadPool(Math.max(1, size), new ThreadFactory() {
+
+            private AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + " " + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    public void interrupt() {
+        executor.shutdownNow();
+    }
+}